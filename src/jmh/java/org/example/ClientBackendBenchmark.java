@@ -0,0 +1,98 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Imgur album lifecycle (create, get, delete) against the loopback stand-in
+ * through RestAssured and through {@link HttpClientTransport}, from 32 blocking callers and
+ * from one caller keeping 32 calls in flight with the async API. The peak thread count of
+ * each trial is printed at its end; run with {@code -prof gc} for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class ClientBackendBenchmark {
+    private static final int IN_FLIGHT = 32;
+    private static final JsonFields CREATED = JsonFields.compile("data.id");
+
+    @Param({"restassured", "jdk"})
+    public String backend;
+
+    private ImgurStubServer stub;
+    private ConnectionPool pool;
+    private ImgurClient imgur;
+
+    @Setup
+    public void setUp() throws IOException {
+        stub = ImgurStubServer.start(0, "benchmark");
+        pool = new ConnectionPool(64, 64, Duration.ofSeconds(30), Duration.ofSeconds(5), Duration.ofSeconds(30));
+        Map<String, String> headers = Collections.singletonMap("Authorization", "Bearer benchmark");
+        imgur = new ImgurClient("jdk".equals(backend)
+                ? new HttpClientTransport(HttpClientTransport.client(new Properties()), stub.baseUrl(), headers, Duration.ofSeconds(30))
+                : new RestAssuredTransport(pool, stub.baseUrl(), headers));
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    }
+
+    @TearDown
+    public void tearDown() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.printf("%n%s: peak %d threads, %d live%n", backend, threads.getPeakThreadCount(), threads.getThreadCount());
+        pool.close();
+        stub.close();
+    }
+
+    @Benchmark
+    @Threads(IN_FLIGHT)
+    public int blockingLifecycle() {
+        String id = imgur.createAlbum("benchmark", "lifecycle", null).fields(CREATED).getString("data.id");
+        imgur.getAlbum(id);
+        return imgur.deleteAlbum(id).statusCode();
+    }
+
+    /**
+     * {@value #IN_FLIGHT} lifecycles per op, chained without blocking.
+     */
+    @Benchmark
+    public int pipelinedLifecycles() {
+        List<CompletableFuture<ApiResponse>> lifecycles = new ArrayList<>(IN_FLIGHT);
+        for (int i = 0; i < IN_FLIGHT; i++) {
+            lifecycles.add(imgur.createAlbumAsync("benchmark", "lifecycle", null)
+                    .thenCompose(created -> {
+                        String id = created.fields(CREATED).getString("data.id");
+                        return imgur.getAlbumAsync(id).thenCompose(album -> imgur.deleteAlbumAsync(id));
+                    }));
+        }
+        int ok = 0;
+        for (CompletableFuture<ApiResponse> lifecycle : lifecycles) {
+            ok += lifecycle.join().statusCode() == 200 ? 1 : 0;
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,248 @@
+package org.example;
+
+import io.qameta.allure.Allure;
+import io.qameta.allure.AllureLifecycle;
+import io.qameta.allure.FileSystemResultsWriter;
+import io.qameta.allure.model.TestResult;
+import io.qameta.allure.restassured.AllureRestAssured;
+import io.restassured.builder.RequestSpecBuilder;
+import io.restassured.path.json.JsonPath;
+import io.restassured.specification.RequestSpecification;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static io.restassured.RestAssured.given;
+
+/**
+ * Per-request client overhead against the loopback Imgur stand-in, layer by layer:
+ * building the RestAssured specification, sending it without, with the stock and with the
+ * asynchronous Allure filter, parsing typical payloads with JsonPath, the full test-style
+ * call, and a lean {@link HttpURLConnection} baseline. Run with {@code -prof gc} for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientOverheadBenchmark {
+    private static final String TOKEN = "benchmark";
+    private static final JsonFields ALBUM_IMAGES = JsonFields.compile("success", "data[0].id", "data.length");
+    private static final JsonFields FAVORITES = JsonFields.compile("success", "data[0].id");
+
+    /**
+     * Number of images in the album and favorites of the account.
+     */
+    @Param({"20"})
+    public int items;
+
+    private ImgurStubServer server;
+    private ConnectionPool pool;
+    private Path allureResults;
+    private String testCase;
+    private RequestSpecification base;
+    private RequestSpecification baseWithAllure;
+    private RequestSpecification baseWithAsyncAllure;
+    private AllureAttachmentFilter asyncAllure;
+    private ImgurClient client;
+    private String albumHash;
+    private String albumImagesUrl;
+    private String albumImagesPayload;
+    private String favoritesPayload;
+    private ByteBuffer albumImagesBytes;
+    private ByteBuffer favoritesBytes;
+    private final ByteArrayOutputStream leanBuffer = new ByteArrayOutputStream(64 * 1024);
+    private final byte[] leanChunk = new byte[16 * 1024];
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = ImgurStubServer.start(0, "bench");
+        pool = new ConnectionPool(8, 8, Duration.ofSeconds(30), Duration.ofSeconds(5), Duration.ofSeconds(30));
+        Map<String, String> headers = Collections.singletonMap("Authorization", "Bearer " + TOKEN);
+        client = new ImgurClient(new RestAssuredTransport(pool, server.baseUrl(), headers));
+
+        albumHash = client.createAlbum("bench", "benchmark album", "public").jsonPath().getString("data.id");
+        for (int i = 0; i < items; i++) {
+            String imageId = client.uploadImage("https://example.org/" + i + ".png", "image" + i + ".png", "image " + i)
+                    .jsonPath().getString("data.id");
+            client.addImagesToAlbum(albumHash, imageId);
+            client.favoriteImage(imageId);
+        }
+        albumImagesUrl = server.baseUrl() + "/album/" + albumHash + "/images";
+        albumImagesPayload = client.getAlbumImages(albumHash).asString();
+        favoritesPayload = client.getFavorites("bench", 0, "newest").asString();
+        albumImagesBytes = ByteBuffer.wrap(albumImagesPayload.getBytes(StandardCharsets.UTF_8));
+        favoritesBytes = ByteBuffer.wrap(favoritesPayload.getBytes(StandardCharsets.UTF_8));
+
+        base = new RequestSpecBuilder()
+                .setBaseUri(server.baseUrl())
+                .addHeaders(headers)
+                .setConfig(pool.restAssuredConfig())
+                .build();
+        baseWithAllure = new RequestSpecBuilder()
+                .addRequestSpecification(base)
+                .addFilter(new AllureRestAssured())
+                .build();
+
+        allureResults = Files.createTempDirectory("jmh-allure-results");
+        Allure.setLifecycle(new AllureLifecycle(new FileSystemResultsWriter(allureResults)));
+        asyncAllure = new AllureAttachmentFilter(1024, 16 * 1024, 1);
+        baseWithAsyncAllure = new RequestSpecBuilder()
+                .addRequestSpecification(base)
+                .addFilter(asyncAllure)
+                .build();
+    }
+
+    /**
+     * Attachments are collected on the running test case, a fresh one per iteration keeps
+     * the list from growing across the whole trial.
+     */
+    @Setup(Level.Iteration)
+    public void startTestCase() {
+        testCase = UUID.randomUUID().toString();
+        Allure.getLifecycle().scheduleTestCase(new TestResult().setUuid(testCase).setName("benchmark"));
+        Allure.getLifecycle().startTestCase(testCase);
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopTestCase() {
+        Allure.getLifecycle().stopTestCase(testCase);
+        Allure.getLifecycle().writeTestCase(testCase);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        asyncAllure.close();
+        System.out.println(asyncAllure);
+        pool.close();
+        server.close();
+        try (Stream<Path> files = Files.walk(allureResults)) {
+            files.sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public RequestSpecification specBuild() {
+        return given().spec(base).pathParam("albumHash", albumHash);
+    }
+
+    @Benchmark
+    public byte[] restAssuredCall() {
+        return given().spec(base).pathParam("albumHash", albumHash)
+                .get("/album/{albumHash}/images").asByteArray();
+    }
+
+    @Benchmark
+    public byte[] restAssuredCallWithAllure() {
+        return given().spec(baseWithAllure).pathParam("albumHash", albumHash)
+                .get("/album/{albumHash}/images").asByteArray();
+    }
+
+    /**
+     * Every call attached, with the writer behind a bounded queue; calls that find the
+     * queue full are counted as dropped and printed at the end of the trial.
+     */
+    @Benchmark
+    public byte[] restAssuredCallWithAsyncAllure() {
+        return given().spec(baseWithAsyncAllure).pathParam("albumHash", albumHash)
+                .get("/album/{albumHash}/images").asByteArray();
+    }
+
+    @Benchmark
+    public void jsonPathAlbumImages(Blackhole blackhole) {
+        JsonPath json = new JsonPath(albumImagesPayload);
+        blackhole.consume(json.getString("success"));
+        blackhole.consume(json.getString("data[0].id"));
+        blackhole.consume(json.getList("data").size());
+    }
+
+    @Benchmark
+    public void jsonPathFavorites(Blackhole blackhole) {
+        JsonPath json = new JsonPath(favoritesPayload);
+        blackhole.consume(json.getString("success"));
+        blackhole.consume(json.getString("data[0].id"));
+    }
+
+    @Benchmark
+    public void jsonFieldsAlbumImages(Blackhole blackhole) {
+        JsonFields.Values values = ALBUM_IMAGES.extract(albumImagesBytes);
+        blackhole.consume(values.getString("success"));
+        blackhole.consume(values.getString("data[0].id"));
+        blackhole.consume(values.getInt("data.length"));
+    }
+
+    @Benchmark
+    public void jsonFieldsFavorites(Blackhole blackhole) {
+        JsonFields.Values values = FAVORITES.extract(favoritesBytes);
+        blackhole.consume(values.getString("success"));
+        blackhole.consume(values.getString("data[0].id"));
+    }
+
+    /**
+     * What a test step did before compiled fields: client call through the Allure filter, then JsonPath.
+     */
+    @Benchmark
+    public void testStyleCall(Blackhole blackhole) {
+        JsonPath json = given().spec(baseWithAllure).pathParam("albumHash", albumHash)
+                .get("/album/{albumHash}/images").then().statusCode(200).contentType("application/json")
+                .extract().response().jsonPath();
+        blackhole.consume(json.getString("success"));
+        blackhole.consume(json.getList("data").size());
+    }
+
+    @Benchmark
+    public void clientCall(Blackhole blackhole) {
+        JsonFields.Values values = client.getAlbumImages(albumHash).fields(ALBUM_IMAGES);
+        blackhole.consume(values.getString("success"));
+        blackhole.consume(values.getInt("data.length"));
+    }
+
+    /**
+     * Lean baseline: keep-alive {@link HttpURLConnection}, body read into a reused buffer,
+     * the first id located with a plain byte search.
+     */
+    @Benchmark
+    public int leanBaseline() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(albumImagesUrl).openConnection();
+        connection.setRequestProperty("Authorization", "Bearer " + TOKEN);
+        leanBuffer.reset();
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while ((read = in.read(leanChunk)) >= 0) {
+                leanBuffer.write(leanChunk, 0, read);
+            }
+        }
+        if (connection.getResponseCode() != 200) {
+            throw new IllegalStateException("HTTP " + connection.getResponseCode());
+        }
+        return leanBuffer.toString(StandardCharsets.UTF_8).indexOf("\"id\":\"");
+    }
+}
@@ -0,0 +1,95 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a {@link FaultProxy} without faults costs: an Imgur album read from 32 callers
+ * against the stand-in directly and through the proxy, the proxy also holding
+ * {@code idleConnections} keep-alive connections that each made one call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class FaultProxyBenchmark {
+    private static final JsonFields CREATED = JsonFields.compile("data.id");
+
+    @Param({"direct", "proxy"})
+    public String route;
+
+    @Param({"0", "5000"})
+    public int idleConnections;
+
+    private ImgurStubServer stub;
+    private FaultProxy proxy;
+    private ConnectionPool pool;
+    private ImgurClient imgur;
+    private String albumId;
+    private final List<Socket> idle = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        stub = ImgurStubServer.start(0, "benchmark");
+        proxy = FaultProxy.start(0, stub.baseUrl(), Collections.singletonList(FaultProxy.Rule.matching("*", ".*")), 2, 0);
+        pool = new ConnectionPool(64, 64, Duration.ofSeconds(30), Duration.ofSeconds(5), Duration.ofSeconds(30));
+        imgur = new ImgurClient(new RestAssuredTransport(pool, "proxy".equals(route) ? proxy.baseUrl() : stub.baseUrl(),
+                Collections.singletonMap("Authorization", "Bearer benchmark")));
+        albumId = imgur.createAlbum("benchmark", "proxy", null).fields(CREATED).getString("data.id");
+        byte[] call = ("GET /3/album/" + albumId + " HTTP/1.1\r\nHost: 127.0.0.1\r\nAuthorization: Bearer benchmark\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        byte[] response = new byte[8192];
+        for (int i = 0; i < idleConnections; i++) {
+            Socket socket = new Socket("127.0.0.1", "proxy".equals(route) ? proxy.port() : stub.port());
+            OutputStream out = socket.getOutputStream();
+            out.write(call);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            if (in.read(response) <= 0) {
+                throw new IOException("No response on idle connection " + i);
+            }
+            idle.add(socket);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.out.printf("%n%s%n", proxy);
+        for (Socket socket : idle) {
+            socket.close();
+        }
+        pool.close();
+        proxy.close();
+        stub.close();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public int getAlbum() {
+        return imgur.getAlbum(albumId).statusCode();
+    }
+}
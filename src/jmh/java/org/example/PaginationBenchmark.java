@@ -0,0 +1,74 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to walk a whole favorites listing and a whole album through {@link Paginator}
+ * against the loopback stand-ins, seeded with {@code items} entries, for several prefetch
+ * depths. A depth of 0 is the plain page-by-page loop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class PaginationBenchmark {
+    private static final String USER = "benchmark";
+
+    @Param({"2000"})
+    public int items;
+
+    @Param({"0", "1", "4"})
+    public int prefetch;
+
+    private ImgurStubServer imgurStub;
+    private VkStubServer vkStub;
+    private ConnectionPool pool;
+    private ImgurClient imgur;
+    private VkClient vk;
+    private String albumId;
+
+    @Setup
+    public void setUp() throws IOException {
+        imgurStub = ImgurStubServer.start(0, USER);
+        imgurStub.seedFavorites(USER, items);
+        vkStub = VkStubServer.start(0, 1L);
+        albumId = String.valueOf(vkStub.seedAlbum("benchmark", items));
+        pool = new ConnectionPool(16, 16, Duration.ofSeconds(30), Duration.ofSeconds(5), Duration.ofSeconds(30));
+        imgur = ImgurClient.create(imgurStub.baseUrl(), USER, pool);
+        vk = VkClient.create(vkStub.baseUrl(), USER, "5.131", pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+        imgurStub.close();
+        vkStub.close();
+    }
+
+    @Benchmark
+    public long imgurFavorites() {
+        return imgur.favorites(USER, "newest", prefetch, "id").stream().count();
+    }
+
+    @Benchmark
+    public long vkPhotos() {
+        return vk.photos("1", albumId, 100, prefetch, "id").stream().count();
+    }
+}
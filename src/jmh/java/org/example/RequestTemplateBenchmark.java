@@ -0,0 +1,124 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Url and form body of a call, built three ways: string concatenation with
+ * {@link URLEncoder} as the tests used to, the template expansion the transports did on
+ * every call before {@link RequestTemplate}, and the compiled template. {@code imgur}
+ * updates an album (three path segments and a form), {@code vk} reads photos (six query
+ * parameters). Run with {@code -prof gc} for allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestTemplateBenchmark {
+    private static final String IMGUR = "https://api.imgur.com/3";
+    private static final String VK = "https://api.vk.com/method";
+
+    @Param({"imgur", "vk"})
+    public String call;
+
+    private String baseUrl;
+    private byte[] base;
+    private ApiRequest request;
+
+    private final String albumHash = "Xb7Kq2Lm";
+    private final String title = "Альбом 17 & копия";
+    private final String description = "loaded by benchmark";
+    private final String ownerId = "-219876543";
+    private final String albumId = "284471023";
+
+    @Setup
+    public void setUp() {
+        if ("imgur".equals(call)) {
+            baseUrl = IMGUR;
+            request = ApiRequest.to(ImgurClient.UPDATE_ALBUM).path("albumHash", albumHash)
+                    .form("title", title).form("description", description);
+        } else {
+            baseUrl = VK;
+            request = ApiRequest.to(VkClient.PHOTOS_GET).query("v", "5.131").query("owner_id", ownerId)
+                    .query("album_id", albumId).query("extended", 1).query("offset", 200).query("count", 100);
+        }
+        base = RequestTemplate.buffer().url(baseUrl).toByteArray();
+    }
+
+    @Benchmark
+    public void concat(Blackhole blackhole) {
+        if ("imgur".equals(call)) {
+            blackhole.consume(baseUrl + "/album/" + URLEncoder.encode(albumHash, StandardCharsets.UTF_8).replace("+", "%20"));
+            blackhole.consume(("title=" + URLEncoder.encode(title, StandardCharsets.UTF_8)
+                    + "&description=" + URLEncoder.encode(description, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+        } else {
+            blackhole.consume(baseUrl + "/photos.get?v=" + URLEncoder.encode("5.131", StandardCharsets.UTF_8)
+                    + "&owner_id=" + URLEncoder.encode(ownerId, StandardCharsets.UTF_8)
+                    + "&album_id=" + URLEncoder.encode(albumId, StandardCharsets.UTF_8)
+                    + "&extended=" + 1 + "&offset=" + 200 + "&count=" + 100);
+        }
+    }
+
+    @Benchmark
+    public void expand(Blackhole blackhole) {
+        StringBuilder url = new StringBuilder(128).append(baseUrl);
+        expand(url, request.endpoint().template(), request.pathParams);
+        if (!request.queryParams.isEmpty()) {
+            url.append(url.indexOf("?") < 0 ? '?' : '&');
+            encode(url, request.queryParams);
+        }
+        blackhole.consume(url.toString());
+        if (!request.formParams.isEmpty()) {
+            blackhole.consume(encode(new StringBuilder(), request.formParams).toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public void template(Blackhole blackhole) {
+        blackhole.consume(RequestTemplate.target(base, request).toString());
+        if (!request.formParams.isEmpty()) {
+            RequestTemplate.Buffer form = RequestTemplate.buffer();
+            RequestTemplate.form(form, request.formParams);
+            blackhole.consume(form.toByteArray());
+        }
+    }
+
+    private static void expand(StringBuilder url, String template, Map<String, String> pathParams) {
+        int from = 0;
+        for (int open; (open = template.indexOf('{', from)) >= 0; ) {
+            int close = template.indexOf('}', open);
+            String value = pathParams.get(template.substring(open + 1, close));
+            url.append(template, from, open).append(URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20"));
+            from = close + 1;
+        }
+        url.append(template, from, template.length());
+    }
+
+    private static StringBuilder encode(StringBuilder out, List<ApiRequest.Param> params) {
+        for (int i = 0; i < params.size(); i++) {
+            ApiRequest.Param param = params.get(i);
+            out.append(i == 0 ? "" : "&")
+                    .append(URLEncoder.encode(param.name, StandardCharsets.UTF_8)).append('=')
+                    .append(URLEncoder.encode(param.value, StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+}
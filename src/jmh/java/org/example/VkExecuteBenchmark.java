@@ -0,0 +1,89 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for {@code calls} {@code photos.get} calls over albums of the loopback VK stand-in,
+ * one after another, in parallel on as many threads, and coalesced by a {@link VkClient#batch()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class VkExecuteBenchmark {
+    private static final JsonFields COUNT = JsonFields.compile("response.count");
+
+    @Param({"5", "25", "100"})
+    public int calls;
+
+    private VkStubServer stub;
+    private ConnectionPool pool;
+    private VkClient vk;
+    private final List<String> albums = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        stub = VkStubServer.start(0, 1L);
+        for (int i = 0; i < calls; i++) {
+            albums.add(String.valueOf(stub.seedAlbum("benchmark " + i, 10)));
+        }
+        pool = new ConnectionPool(100, 100, Duration.ofSeconds(30), Duration.ofSeconds(5), Duration.ofSeconds(30));
+        vk = VkClient.create(stub.baseUrl(), "benchmark", "5.131", pool);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public long sequential() {
+        long photos = 0;
+        for (String album : albums) {
+            photos += vk.photosGet("1", album, false).fields(COUNT).getLong("response.count");
+        }
+        return photos;
+    }
+
+    @Benchmark
+    public long parallel() {
+        List<CompletableFuture<Long>> counts = new ArrayList<>();
+        for (String album : albums) {
+            counts.add(CompletableFuture.supplyAsync(
+                    () -> vk.photosGet("1", album, false).fields(COUNT).getLong("response.count")));
+        }
+        return counts.stream().mapToLong(CompletableFuture::join).sum();
+    }
+
+    @Benchmark
+    public long batched() {
+        List<CompletableFuture<Long>> counts = new ArrayList<>();
+        try (VkClient.Batch batch = vk.batch()) {
+            for (String album : albums) {
+                counts.add(batch.submit(client -> client.photosGet("1", album, false).fields(COUNT).getLong("response.count")));
+            }
+        }
+        return counts.stream().mapToLong(CompletableFuture::join).sum();
+    }
+}
@@ -0,0 +1,415 @@
+package org.example;
+
+import io.qameta.allure.Allure;
+import io.qameta.allure.AllureLifecycle;
+import io.qameta.allure.attachment.AttachmentData;
+import io.qameta.allure.attachment.DefaultAttachmentContent;
+import io.qameta.allure.attachment.FreemarkerAttachmentRenderer;
+import io.qameta.allure.attachment.http.HttpRequestAttachment;
+import io.qameta.allure.attachment.http.HttpResponseAttachment;
+import io.restassured.filter.FilterContext;
+import io.restassured.filter.OrderedFilter;
+import io.restassured.http.Header;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+import io.restassured.specification.MultiPartSpecification;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replacement for {@code AllureRestAssured} that keeps attachment work off the request
+ * thread. The request thread only registers the two attachments with the running test and
+ * hands the captured request and response, with bodies cut to {@code maxBodyBytes}, to a
+ * single background writer through a bounded queue; rendering and disk writes happen there.
+ * The queue thus holds at most its capacity times the body limit.
+ * <p>
+ * Successful calls are attached at {@code successSampleRate}; failures (HTTP 4xx/5xx or a
+ * VK error envelope) are always attached. When the queue is full a success is dropped and
+ * counted, a failure is written on the calling thread instead.
+ */
+public final class AllureAttachmentFilter implements OrderedFilter, AutoCloseable {
+    private static final FreemarkerAttachmentRenderer REQUEST = new FreemarkerAttachmentRenderer("http-request.ftl");
+    private static final FreemarkerAttachmentRenderer RESPONSE = new FreemarkerAttachmentRenderer("http-response.ftl");
+    private static final byte[] VK_ERROR = "{\"error\"".getBytes(StandardCharsets.US_ASCII);
+    private static volatile AllureAttachmentFilter shared;
+
+    private final AllureLifecycle lifecycle;
+    private final int maxBodyBytes;
+    private final double successSampleRate;
+    private final int capacity;
+    private final BlockingQueue<Capture> queue;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder noTest = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public AllureAttachmentFilter(int queueCapacity, int maxBodyBytes, double successSampleRate) {
+        this(Allure.getLifecycle(), queueCapacity, maxBodyBytes, successSampleRate);
+    }
+
+    AllureAttachmentFilter(AllureLifecycle lifecycle, int queueCapacity, int maxBodyBytes, double successSampleRate) {
+        this.lifecycle = lifecycle;
+        this.maxBodyBytes = maxBodyBytes;
+        this.successSampleRate = successSampleRate;
+        this.capacity = queueCapacity;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = new DaemonThreadFactory("allure-writer").newThread(this::drain);
+        writer.start();
+    }
+
+    /**
+     * Settings from {@code allure.queueCapacity}, {@code allure.maxBodyBytes} and
+     * {@code allure.successSampleRate} (0..1).
+     */
+    public static AllureAttachmentFilter fromProperties(Properties properties) {
+        return new AllureAttachmentFilter(
+                Integer.parseInt(properties.getProperty("allure.queueCapacity", "1024")),
+                Integer.parseInt(properties.getProperty("allure.maxBodyBytes", "16384")),
+                Double.parseDouble(properties.getProperty("allure.successSampleRate", "1")));
+    }
+
+    /**
+     * Process-wide filter configured from system properties, created on first use. Pending
+     * attachments are flushed when the JVM exits.
+     */
+    public static AllureAttachmentFilter shared() {
+        AllureAttachmentFilter filter = shared;
+        if (filter == null) {
+            synchronized (AllureAttachmentFilter.class) {
+                filter = shared;
+                if (filter == null) {
+                    filter = fromProperties(System.getProperties());
+                    AllureAttachmentFilter flushed = filter;
+                    Runtime.getRuntime().addShutdownHook(new Thread(() -> flushed.flush(Duration.ofSeconds(10))));
+                    shared = filter;
+                }
+            }
+        }
+        return filter;
+    }
+
+    @Override
+    public Response filter(FilterableRequestSpecification request, FilterableResponseSpecification responseSpec,
+                           FilterContext context) {
+        Response response = context.next(request, responseSpec);
+        calls.increment();
+        boolean failure = isFailure(response);
+        if (!failure && successSampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= successSampleRate) {
+            sampledOut.increment();
+            return response;
+        }
+        if (closed || lifecycle.getCurrentTestCaseOrStep().isEmpty()) {
+            noTest.increment();
+            return response;
+        }
+        boolean reserved = reserve();
+        if (reserved && closed) {
+            // close() may have flushed the queue between the check above and the reservation
+            pending.decrementAndGet();
+            noTest.increment();
+            return response;
+        }
+        if (!reserved && !failure) {
+            dropped.increment();
+            return response;
+        }
+        Capture capture = capture(request, response);
+        if (reserved) {
+            queue.add(capture);
+        } else {
+            write(capture);
+        }
+        return response;
+    }
+
+    /**
+     * Takes one of the queue's slots before anything is registered with the test, so an
+     * attachment that is registered is always written.
+     */
+    private boolean reserve() {
+        int current;
+        do {
+            current = pending.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!pending.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private Capture capture(FilterableRequestSpecification request, Response response) {
+        Capture capture = new Capture();
+        capture.method = request.getMethod();
+        capture.url = request.getURI();
+        capture.requestHeaders = headers(request.getHeaders());
+        capture.requestBody = truncate(requestBody(request));
+        capture.status = response.getStatusCode();
+        capture.responseHeaders = headers(response.getHeaders());
+        byte[] body = response.asByteArray();
+        capture.responseBody = head(body, maxBodyBytes);
+        capture.responseLength = body.length;
+        capture.requestSource = lifecycle.prepareAttachment("Request", "text/html", ".html");
+        capture.responseSource = lifecycle.prepareAttachment("Response " + capture.status, "text/html", ".html");
+        return capture;
+    }
+
+    private static Map<String, String> headers(Iterable<Header> headers) {
+        Map<String, String> copy = new LinkedHashMap<>();
+        for (Header header : headers) {
+            String value = header.getValue();
+            if ("Authorization".equalsIgnoreCase(header.getName()) && value.indexOf(' ') > 0) {
+                value = value.substring(0, value.indexOf(' ')) + " ***";
+            }
+            copy.put(header.getName(), value);
+        }
+        return copy;
+    }
+
+    /**
+     * The body as sent for plain requests; form fields and part summaries for the rest, so
+     * that uploaded files are never copied.
+     */
+    private static Object requestBody(FilterableRequestSpecification request) {
+        if (!request.getMultiPartParams().isEmpty()) {
+            StringBuilder parts = new StringBuilder();
+            for (MultiPartSpecification part : request.getMultiPartParams()) {
+                Object content = part.getContent();
+                parts.append(part.getControlName()).append(": ");
+                if (content instanceof File) {
+                    parts.append(part.getFileName()).append(" (").append(((File) content).length()).append(" bytes)");
+                } else if (content instanceof byte[]) {
+                    parts.append(part.getFileName()).append(" (").append(((byte[]) content).length).append(" bytes)");
+                } else {
+                    parts.append(content);
+                }
+                parts.append('\n');
+            }
+            return parts.toString();
+        }
+        if (!request.getFormParams().isEmpty()) {
+            return new LinkedHashMap<>(request.getFormParams()).toString();
+        }
+        return request.getBody();
+    }
+
+    private static boolean isFailure(Response response) {
+        if (response.getStatusCode() >= 400) {
+            return true;
+        }
+        byte[] body = response.asByteArray();
+        int i = 0;
+        while (i < body.length && Character.isWhitespace(body[i])) {
+            i++;
+        }
+        if (body.length - i < VK_ERROR.length) {
+            return false;
+        }
+        for (int j = 0; j < VK_ERROR.length; j++) {
+            if (body[i + j] != VK_ERROR[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void drain() {
+        while (true) {
+            Capture capture;
+            try {
+                capture = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                write(capture);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    private void write(Capture capture) {
+        try {
+            HttpRequestAttachment.Builder request = HttpRequestAttachment.Builder.create("Request", capture.url)
+                    .setMethod(capture.method)
+                    .setHeaders(capture.requestHeaders);
+            if (capture.requestBody != null) {
+                request.setBody(capture.requestBody);
+            }
+            HttpResponseAttachment response = HttpResponseAttachment.Builder.create("Response " + capture.status)
+                    .setResponseCode(capture.status)
+                    .setUrl(capture.url)
+                    .setHeaders(capture.responseHeaders)
+                    .setBody(text(capture.responseBody, capture.responseLength))
+                    .build();
+            store(capture.requestSource, REQUEST, request.build());
+            store(capture.responseSource, RESPONSE, response);
+            written.increment();
+        } catch (RuntimeException e) {
+            failed.increment();
+        }
+    }
+
+    private void store(String source, FreemarkerAttachmentRenderer renderer, AttachmentData data) {
+        DefaultAttachmentContent content = renderer.render(data);
+        lifecycle.writeAttachment(source, new ByteArrayInputStream(content.getContent().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String text(byte[] head, int length) {
+        String text = new String(head, StandardCharsets.UTF_8);
+        return head.length == length ? text : text + "\n... truncated, " + length + " bytes total";
+    }
+
+    /**
+     * The first {@code max} bytes of {@code body} or fewer, so that no UTF-8 character is cut.
+     */
+    byte[] head(byte[] body, int max) {
+        if (body.length <= max) {
+            return body;
+        }
+        truncated.increment();
+        int cut = max;
+        while (cut > 0 && (body[cut] & 0xC0) == 0x80) {
+            cut--;
+        }
+        return Arrays.copyOf(body, cut);
+    }
+
+    private String truncate(Object body) {
+        if (body == null) {
+            return null;
+        }
+        if (body instanceof byte[]) {
+            byte[] bytes = (byte[]) body;
+            return text(head(bytes, maxBodyBytes), bytes.length);
+        }
+        String text = String.valueOf(body);
+        if (text.length() <= maxBodyBytes) {
+            return text;
+        }
+        truncated.increment();
+        int cut = Character.isLowSurrogate(text.charAt(maxBodyBytes)) ? maxBodyBytes - 1 : maxBodyBytes;
+        return text.substring(0, cut) + "\n... truncated, " + text.length() + " chars total";
+    }
+
+    /**
+     * Waits until the queued attachments are written or the timeout passes.
+     *
+     * @return whether the queue was drained
+     */
+    public boolean flush(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (pending.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return successful calls left out by sampling
+     */
+    public long sampledOut() {
+        return sampledOut.sum();
+    }
+
+    /**
+     * @return successful calls not attached because the queue was full
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return calls made outside a running Allure test or step
+     */
+    public long noTest() {
+        return noTest.sum();
+    }
+
+    public long truncated() {
+        return truncated.sum();
+    }
+
+    public long written() {
+        return written.sum();
+    }
+
+    /**
+     * @return attachments that could not be rendered or written
+     */
+    public long failed() {
+        return failed.sum();
+    }
+
+    public int queued() {
+        return pending.get();
+    }
+
+    @Override
+    public int getOrder() {
+        return OrderedFilter.HIGHEST_PRECEDENCE;
+    }
+
+    /**
+     * Stops accepting attachments, writes what is queued and stops the writer.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flush(Duration.ofSeconds(10));
+        writer.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("allure attachments: %d calls, %d written, %d sampled out, %d dropped, %d outside tests, "
+                        + "%d truncated, %d failed",
+                calls(), written(), sampledOut(), dropped(), noTest(), truncated(), failed());
+    }
+
+    private static final class Capture {
+        String method;
+        String url;
+        Map<String, String> requestHeaders;
+        String requestBody;
+        int status;
+        Map<String, String> responseHeaders;
+        byte[] responseBody;
+        int responseLength;
+        String requestSource;
+        String responseSource;
+    }
+}
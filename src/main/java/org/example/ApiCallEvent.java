@@ -0,0 +1,40 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of one API call sent by a {@link SoakTransport}; its duration is the
+ * latency of the call. Enabled in the recordings a {@link SoakMonitor} starts, and with
+ * {@code jfr configure org.example.ApiCall#enabled=true} in others.
+ */
+@Name("org.example.ApiCall")
+@Label("API Call")
+@Category({"Backend_on_Java", "API"})
+@Description("A call to the Imgur or VK API, from send to the response body")
+@StackTrace(false)
+final class ApiCallEvent extends Event {
+    @Label("Endpoint")
+    @Description("Method and path template")
+    String endpoint;
+
+    @Label("Status")
+    @Description("HTTP status, 0 when the call failed without a response")
+    int status;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    long bytesReceived;
+
+    @Label("Connection Reused")
+    boolean reused;
+}
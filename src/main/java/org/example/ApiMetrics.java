@@ -0,0 +1,381 @@
+package org.example;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Per-endpoint call metrics fed by {@link MetricsTransport}: latency {@link Histogram},
+ * status codes, transport errors, repeated sends, bytes and connection reuse.
+ * <p>
+ * Every endpoint is registered as an MXBean named
+ * {@code org.example:type=ApiMetrics,name=<name>,endpoint="<method> <path template>"} and,
+ * when a file is given, all endpoints are written to it in the Prometheus text format at a
+ * fixed interval (into a temporary file that is then moved over the old one) and once more
+ * on {@link #close()}. Recording does not allocate once an endpoint has its first call.
+ */
+public final class ApiMetrics implements AutoCloseable {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.95, 0.99, 0.999};
+
+    private final String name;
+    private final String basePath;
+    private final ConcurrentMap<Endpoint, Stats> stats = new ConcurrentHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private final boolean jmx;
+    private final Path prometheusFile;
+    private final ScheduledExecutorService writer;
+
+    /**
+     * @param basePath path prefix of the endpoints, e.g. {@code /3} or {@code /method}, shown in labels
+     * @param prometheusFile file to keep up to date, {@code null} for none
+     */
+    public ApiMetrics(String name, String basePath, boolean jmx, Path prometheusFile, Duration interval) {
+        this.name = name;
+        this.basePath = basePath;
+        this.jmx = jmx;
+        this.prometheusFile = prometheusFile;
+        if (prometheusFile == null) {
+            writer = null;
+        } else {
+            writer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("metrics-" + name));
+            long millis = interval.toMillis();
+            writer.scheduleWithFixedDelay(this::writePrometheusQuietly, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Metrics as configured by {@code metrics.jmx} (false), {@code metrics.prometheusFile} and
+     * {@code metrics.intervalSeconds} (10); {@code null} when neither export is switched on.
+     */
+    public static ApiMetrics fromProperties(String name, String basePath, Properties properties) {
+        boolean jmx = Boolean.parseBoolean(properties.getProperty("metrics.jmx", "false"));
+        String file = properties.getProperty("metrics.prometheusFile");
+        if (!jmx && file == null) {
+            return null;
+        }
+        return new ApiMetrics(name, basePath, jmx, file == null ? null : Paths.get(file),
+                Duration.ofSeconds(Long.parseLong(properties.getProperty("metrics.intervalSeconds", "10"))));
+    }
+
+    /**
+     * The endpoint's counters, created and registered on its first call.
+     */
+    public Stats of(Endpoint endpoint) {
+        Stats existing = stats.get(endpoint);
+        return existing != null ? existing : stats.computeIfAbsent(endpoint, this::register);
+    }
+
+    public Map<String, Stats> endpoints() {
+        Map<String, Stats> endpoints = new TreeMap<>();
+        stats.values().forEach(s -> endpoints.put(s.label, s));
+        return endpoints;
+    }
+
+    private Stats register(Endpoint endpoint) {
+        // templates such as {upload_url} stand for absolute urls and get no prefix
+        String path = endpoint.template().startsWith("/") ? basePath + endpoint.template() : endpoint.template();
+        Stats created = new Stats(endpoint.method() + " " + path);
+        if (jmx) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName("org.example:type=ApiMetrics,name=" + ObjectName.quote(name)
+                        + ",endpoint=" + ObjectName.quote(created.label));
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+                server.registerMBean(new StandardMBean(created, EndpointMXBean.class, true), objectName);
+                synchronized (registered) {
+                    registered.add(objectName);
+                }
+            } catch (JMException e) {
+                throw new IllegalStateException("Cannot register metrics of " + created.label, e);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Writes all endpoints in the Prometheus text exposition format.
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        Map<String, Stats> endpoints = endpoints();
+        String series = "{client=\"" + escape(name) + "\",endpoint=\"";
+
+        out.write("# HELP api_request_duration_seconds Latency of completed API calls.\n");
+        out.write("# TYPE api_request_duration_seconds summary\n");
+        for (Stats s : endpoints.values()) {
+            String labels = series + escape(s.label) + "\"";
+            for (double quantile : QUANTILES) {
+                out.write("api_request_duration_seconds" + labels + ",quantile=\"" + quantile + "\"} "
+                        + seconds(s.latency.percentile(quantile * 100)) + "\n");
+            }
+            out.write("api_request_duration_seconds_sum" + labels + "} " + seconds(s.latency.mean() * s.latency.count()) + "\n");
+            out.write("api_request_duration_seconds_count" + labels + "} " + s.latency.count() + "\n");
+        }
+        out.write("# HELP api_responses_total Completed API calls by status code.\n");
+        out.write("# TYPE api_responses_total counter\n");
+        for (Stats s : endpoints.values()) {
+            for (Map.Entry<Integer, Long> status : s.getStatusCounts().entrySet()) {
+                out.write("api_responses_total" + series + escape(s.label) + "\",status=\"" + status.getKey() + "\"} "
+                        + status.getValue() + "\n");
+            }
+        }
+        counter(out, endpoints, series, "api_errors_total", "API calls that failed without a response.", Stats::getErrors);
+        counter(out, endpoints, series, "api_repeated_sends_total", "Retries, throttled resends and hedged copies.", Stats::getRepeatedSends);
+        counter(out, endpoints, series, "api_request_bytes_total", "Request bytes written to the connection.", Stats::getBytesSent);
+        counter(out, endpoints, series, "api_response_body_bytes_total", "Response body bytes received.", Stats::getBytesReceived);
+        out.write("# HELP api_connections_total Connections API calls were sent over, by reuse.\n");
+        out.write("# TYPE api_connections_total counter\n");
+        for (Stats s : endpoints.values()) {
+            String labels = series + escape(s.label) + "\",reused=\"";
+            out.write("api_connections_total" + labels + "true\"} " + s.getReusedConnections() + "\n");
+            out.write("api_connections_total" + labels + "false\"} " + s.getNewConnections() + "\n");
+        }
+    }
+
+    private static void counter(Writer out, Map<String, Stats> endpoints, String series, String metric, String help,
+                                ToLongFunction<Stats> value) throws IOException {
+        out.write("# HELP " + metric + " " + help + "\n");
+        out.write("# TYPE " + metric + " counter\n");
+        for (Stats s : endpoints.values()) {
+            out.write(metric + series + escape(s.label) + "\"} " + value.applyAsLong(s) + "\n");
+        }
+    }
+
+    /**
+     * Rewrites the Prometheus file now, atomically for readers that scrape it.
+     */
+    public void writePrometheus() {
+        if (prometheusFile == null) {
+            return;
+        }
+        try {
+            Path parent = prometheusFile.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, prometheusFile.getFileName().toString(), ".tmp");
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writePrometheus(out);
+            }
+            Files.move(temp, prometheusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write metrics to " + prometheusFile, e);
+        }
+    }
+
+    private void writePrometheusQuietly() {
+        try {
+            writePrometheus();
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String seconds(double nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            writer.shutdownNow();
+            writePrometheus();
+        }
+        synchronized (registered) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName objectName : registered) {
+                try {
+                    server.unregisterMBean(objectName);
+                } catch (JMException ignored) {
+                    // already gone
+                }
+            }
+            registered.clear();
+        }
+    }
+
+    /**
+     * Management view of one endpoint, see {@link Stats}.
+     */
+    public interface EndpointMXBean {
+        String getEndpoint();
+
+        long getCalls();
+
+        long getErrors();
+
+        long getRepeatedSends();
+
+        long getReusedConnections();
+
+        long getNewConnections();
+
+        long getBytesSent();
+
+        long getBytesReceived();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+
+        Map<Integer, Long> getStatusCounts();
+    }
+
+    /**
+     * Counters of one endpoint. Updates are lock-free and do not allocate.
+     */
+    public static final class Stats implements EndpointMXBean {
+        private static final int STATUSES = 600;
+
+        private final String label;
+        final Histogram latency = new Histogram();
+        private final AtomicLongArray statuses = new AtomicLongArray(STATUSES);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder repeatedSends = new LongAdder();
+        private final LongAdder reused = new LongAdder();
+        private final LongAdder created = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+
+        Stats(String label) {
+            this.label = label;
+        }
+
+        void response(int status, long nanos, long sent, long received) {
+            latency.record(nanos);
+            statuses.incrementAndGet(status >= 0 && status < STATUSES ? status : 0);
+            bytesSent.add(sent);
+            bytesReceived.add(received);
+        }
+
+        void error() {
+            errors.increment();
+        }
+
+        void repeated() {
+            repeatedSends.increment();
+        }
+
+        void connection(boolean wasReused) {
+            (wasReused ? reused : created).increment();
+        }
+
+        @Override
+        public String getEndpoint() {
+            return label;
+        }
+
+        public Histogram latency() {
+            return latency;
+        }
+
+        @Override
+        public long getCalls() {
+            return latency.count() + errors.sum();
+        }
+
+        @Override
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * @return sends of a request that had been sent before: retries, throttled resends and hedged copies
+         */
+        @Override
+        public long getRepeatedSends() {
+            return repeatedSends.sum();
+        }
+
+        @Override
+        public long getReusedConnections() {
+            return reused.sum();
+        }
+
+        @Override
+        public long getNewConnections() {
+            return created.sum();
+        }
+
+        @Override
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return latency.mean() / 1e6;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return latency.percentile(50) / 1e6;
+        }
+
+        @Override
+        public double getP99Millis() {
+            return latency.percentile(99) / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return latency.max() / 1e6;
+        }
+
+        @Override
+        public Map<Integer, Long> getStatusCounts() {
+            Map<Integer, Long> counts = new TreeMap<>();
+            for (int i = 0; i < STATUSES; i++) {
+                long count = statuses.get(i);
+                if (count != 0) {
+                    counts.put(i, count);
+                }
+            }
+            return counts;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-45s %7d calls %5d errors %5d repeated  p50 %8.2f ms  p99 %8.2f ms  %d/%d reused  %d B out  %d B in",
+                    label, getCalls(), getErrors(), getRepeatedSends(), getP50Millis(), getP99Millis(),
+                    getReusedConnections(), getReusedConnections() + getNewConnections(), getBytesSent(), getBytesReceived());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.example;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A call to an {@link Endpoint} with its path, query, form and multipart parameters.
+ */
+public final class ApiRequest {
+    final Endpoint endpoint;
+    final Map<String, String> pathParams = new LinkedHashMap<>();
+    final List<Param> queryParams = new ArrayList<>();
+    final List<Param> formParams = new ArrayList<>();
+    final List<FilePart> files = new ArrayList<>();
+    final Map<String, String> headers = new LinkedHashMap<>();
+    String absoluteUrl;
+    /**
+     * Times the request was handed to the wire, counted by {@link MetricsTransport}; shared
+     * with its {@linkplain #copy() copies}.
+     */
+    final AtomicInteger sends;
+
+    private ApiRequest(Endpoint endpoint, AtomicInteger sends) {
+        this.endpoint = endpoint;
+        this.sends = sends;
+    }
+
+    public static ApiRequest to(Endpoint endpoint) {
+        return new ApiRequest(endpoint, new AtomicInteger());
+    }
+
+    /**
+     * A copy for sending on another thread: decorators add headers to the request they
+     * send, so two copies in flight at once must not share one.
+     */
+    ApiRequest copy() {
+        ApiRequest copy = new ApiRequest(endpoint, sends);
+        copy.pathParams.putAll(pathParams);
+        copy.queryParams.addAll(queryParams);
+        copy.formParams.addAll(formParams);
+        copy.files.addAll(files);
+        copy.headers.putAll(headers);
+        copy.absoluteUrl = absoluteUrl;
+        return copy;
+    }
+
+    public Endpoint endpoint() {
+        return endpoint;
+    }
+
+    public ApiRequest path(String name, Object value) {
+        pathParams.put(name, String.valueOf(value));
+        return this;
+    }
+
+    public ApiRequest query(String name, Object value) {
+        if (value != null) {
+            queryParams.add(new Param(name, String.valueOf(value)));
+        }
+        return this;
+    }
+
+    public ApiRequest form(String name, Object value) {
+        if (value != null) {
+            formParams.add(new Param(name, String.valueOf(value)));
+        }
+        return this;
+    }
+
+    public ApiRequest file(String name, File file) {
+        files.add(new FilePart(name, file));
+        return this;
+    }
+
+    public ApiRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Sends the request to a full url handed out by the API (e.g. a VK upload server)
+     * instead of the endpoint template under the client's base url.
+     */
+    public ApiRequest url(String url) {
+        absoluteUrl = url;
+        return this;
+    }
+
+    static final class Param {
+        final String name;
+        final String value;
+
+        Param(String name, String value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    static final class FilePart {
+        final String name;
+        final File file;
+
+        FilePart(String name, File file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.example;
+
+import io.restassured.path.json.JsonPath;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Status, headers and body of a completed call. The body is kept as a read-only buffer
+ * and only decoded on demand.
+ */
+public final class ApiResponse {
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private final ByteBuffer body;
+
+    public ApiResponse(int statusCode, Map<String, List<String>> headers, ByteBuffer body) {
+        this.statusCode = statusCode;
+        TreeMap<String, List<String>> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        sorted.putAll(headers);
+        this.headers = Collections.unmodifiableMap(sorted);
+        this.body = body.asReadOnlyBuffer();
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    public String header(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    public Map<String, List<String>> headers() {
+        return headers;
+    }
+
+    public String contentType() {
+        return header("Content-Type");
+    }
+
+    public ByteBuffer body() {
+        return body.duplicate();
+    }
+
+    public int bodyLength() {
+        return body.remaining();
+    }
+
+    public byte[] asBytes() {
+        byte[] bytes = new byte[body.remaining()];
+        body.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public String asString() {
+        return StandardCharsets.UTF_8.decode(body.duplicate()).toString();
+    }
+
+    public JsonPath jsonPath() {
+        return new JsonPath(asString());
+    }
+
+    /**
+     * Extracts the compiled paths straight from the body bytes, see {@link JsonFields}.
+     */
+    public JsonFields.Values fields(JsonFields fields) {
+        return fields.extract(body);
+    }
+
+    @Override
+    public String toString() {
+        return statusCode + " " + asString();
+    }
+}
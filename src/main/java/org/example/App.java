@@ -1,13 +1,639 @@
 package org.example;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
 /**
- * Hello world!
+ * Load runner for the Imgur and VK scenarios.
  *
+ * <pre>
+ * App [--scenario imgur|vk] [--users 50] [--ramp-up 10s] [--duration 60s]
+ *     [--target local|remote] [--config file] [--token token] [--image file]
+ *     [--max-connections N] [--rate-limit N] [--stub-limit N] [--hedge P] [--attempts N] [--cache N]
+ *     [--metrics file] [--upload-cache file] [--vk-batch 5ms] [--http restassured|jdk]
+ *     [--tokens file] [--accounts N] [--faults file] [--soak 4h] [--soak-window 1m] [--jfr file] [--sweep]
+ *     [--base-url url] [--workers N [--listen port] [--worker-jvm "-Xmx1g"] [--worker-logs dir] [--report-interval 1s]]
+ * App --worker host:port
+ * App --scenario vk-upload [--files 100] [--file-size 50m] [--parallel 4] [--image file]
+ * </pre>
+ * With {@code --target local} (the default) the in-process stand-ins are started and
+ * the scenario runs against them; {@code remote} uses {@code baseUrl} from the config
+ * and the token from {@code --token} or the IMGUR_TOKEN / VK_TOKEN environment variable.
+ * <p>
+ * {@code --rate-limit} (or {@code rateLimit.perSecond} in the config) sends all calls of the
+ * token through an adaptive {@link RateLimiter} capped at N calls per second;
+ * {@code --stub-limit} makes the stand-ins throttle each token above N calls per second.
+ * {@code --hedge} sends a second copy of idempotent calls that take longer than the P-th
+ * percentile of their endpoint's recent latency, {@code --attempts} retries them on errors
+ * (see {@link HedgingTransport}). {@code --cache} keeps up to N responses of idempotent calls
+ * in a {@link CachingTransport}. {@code --metrics} records every call per endpoint in
+ * {@link ApiMetrics}, registers them with JMX and keeps the Prometheus text in the file.
+ * <p>
+ * Albums and images the scenario creates are registered with a {@link ResourceReaper}: a
+ * failed iteration deletes its leftovers at its end, the rest goes when the run ends or the
+ * JVM is stopped, {@code reaper.parallelism} (8) deletions at a time. {@code --sweep} instead
+ * lists the account and deletes the albums and images with the titles from the config that
+ * earlier runs left behind.
+ * <p>
+ * {@code --upload-cache} keeps an {@link UploadCache} index in the file, so the Imgur scenario
+ * uploads the image it does not change once, across runs too, and reuses it while it exists.
+ * <p>
+ * {@code --vk-batch} holds VK method calls for up to the given window and sends the calls of
+ * all users that arrived meanwhile as one {@code execute} request (see {@link VkExecuteTransport}).
+ * <p>
+ * {@code --http jdk} sends the calls through an {@link HttpClientTransport} instead of
+ * RestAssured, HTTP/2 where the server speaks it ({@code http.version} in the config). The run
+ * ends with the peak thread count and heap use, to compare the two.
+ * <p>
+ * {@code --tokens} spreads the users over the accounts of a credentials file kept outside the
+ * repository (see {@link TokenPool#load}), {@code tokens.selection} picking them round-robin or
+ * least-loaded; against the stand-ins {@code --accounts N} makes up N accounts instead. Imgur
+ * tokens are refreshed with {@code oauth.clientId} / {@code oauth.clientSecret} (or
+ * IMGUR_CLIENT_ID / IMGUR_CLIENT_SECRET).
+ * <p>
+ * {@code --faults} sends the calls through a {@link FaultProxy} in front of the base url that
+ * delays, throttles and fails them by the rules of the file. It forwards plain HTTP, so it
+ * works with the stand-ins; their upload urls point at the proxy as well.
+ * <p>
+ * {@code --soak} runs the scenario for the given time instead of {@code --duration} under a
+ * {@link SoakMonitor}: every {@code --soak-window} it prints calls, latency, allocation rate,
+ * heap after GC, threads and the sizes of the reaper queue, connection pool and caches, and
+ * at the end flags the series that grew steadily. {@code --jfr} writes a Flight Recorder
+ * recording with an {@link ApiCallEvent} per call.
+ * <p>
+ * {@code --workers} spreads the run over N worker processes on this box under a
+ * {@link LoadCoordinator}, each running every N-th user in a JVM of its own (with the
+ * {@code --worker-jvm} options, output in {@code --worker-logs}); the coordinator prints
+ * the merged calls and latency of every {@code --report-interval} and the merged report at
+ * the end. Against the stand-ins the coordinator runs the stand-in, the fault proxy and
+ * the made-up accounts, and the workers call it. With {@code --listen} it starts no
+ * processes and waits on the port for N workers started with {@code --worker host:port}.
+ * {@code --base-url} replaces {@code baseUrl} of the config.
+ * <p>
+ * {@code vk-upload} sends {@code --files} copies of the image (a generated file of
+ * {@code --file-size} bytes unless {@code --image} is given) through {@link PhotoUploader}
+ * into a fresh album and prints the throughput and peak heap use.
  */
-public class App 
+public class App
 {
-    public static void main( String[] args )
+    private static final JsonFields UPLOAD_ALBUM = JsonFields.compile("response.id");
+    private static final JsonFields UPLOAD_SERVER = JsonFields.compile("response.upload_url");
+
+    public static void main( String[] args ) throws Exception
     {
-        System.out.println( "Hello World!" );
+        Map<String, String> arguments = parseOptions(args);
+        LoadWorker worker = arguments.containsKey("worker") ? LoadWorker.connect(arguments.get("worker")) : null;
+        Map<String, String> options = worker != null ? worker.options() : arguments;
+        if (options.containsKey("help")) {
+            System.out.println("usage: App [--scenario imgur|vk] [--users N] [--ramp-up 10s] [--duration 60s]"
+                    + " [--target local|remote] [--config file] [--token token] [--image file] [--max-connections N]"
+                    + " [--rate-limit N] [--stub-limit N] [--hedge P] [--attempts N] [--cache N] [--metrics file] [--upload-cache file]"
+                    + " [--vk-batch 5ms] [--http restassured|jdk] [--tokens file] [--accounts N] [--faults file]"
+                    + " [--soak 4h] [--soak-window 1m] [--jfr file] [--sweep] [--base-url url]"
+                    + " [--workers N [--listen port] [--worker-jvm \"-Xmx1g\"] [--worker-logs dir] [--report-interval 1s]]");
+            System.out.println("       App --worker host:port");
+            System.out.println("       App --scenario vk-upload [--files N] [--file-size 50m] [--parallel N] [--image file]");
+            return;
+        }
+        String scenario = options.getOrDefault("scenario", "imgur");
+        int users = Integer.parseInt(options.getOrDefault("users", "50"));
+        Duration rampUp = parseDuration(options.getOrDefault("ramp-up", "10s"));
+        Duration duration = parseDuration(options.getOrDefault("soak", options.getOrDefault("duration", "60s")));
+        boolean local = "local".equals(options.getOrDefault("target", "local"));
+        String api = scenario.startsWith("vk") ? "vk" : scenario;
+        Fixture config = Fixture.load(options.getOrDefault("config", "src/test/resources/" + api + ".properties"));
+        String token = options.getOrDefault("token", System.getenv(api.toUpperCase() + "_TOKEN"));
+        if (token == null) {
+            if (!local && !options.containsKey("tokens")) {
+                throw new IllegalArgumentException("--token or --tokens is required for remote runs");
+            }
+            token = "local";
+        }
+
+        int maxConnections = Integer.parseInt(options.getOrDefault("max-connections", String.valueOf(users)));
+        Fixture fixture = config.withDefault("pool.maxPerRoute", String.valueOf(maxConnections))
+                .withDefault("pool.maxTotal", String.valueOf(maxConnections * 2));
+
+        Properties settings = fixture.toProperties();
+        if (options.containsKey("rate-limit")) {
+            settings.setProperty("rateLimit.perSecond", options.get("rate-limit"));
+        }
+        if (options.containsKey("hedge")) {
+            settings.setProperty("hedge.percentile", options.get("hedge"));
+        }
+        if (options.containsKey("attempts")) {
+            settings.setProperty("retry.maxAttempts", options.get("attempts"));
+        }
+        if (options.containsKey("cache")) {
+            settings.setProperty("cache.maxEntries", options.get("cache"));
+        }
+        if (options.containsKey("upload-cache")) {
+            settings.setProperty("upload.cacheFile", options.get("upload-cache"));
+        }
+        if (options.containsKey("http")) {
+            settings.setProperty("http.client", options.get("http"));
+        }
+        if (options.containsKey("tokens")) {
+            settings.setProperty("tokens.file", options.get("tokens"));
+        }
+        int localAccounts = Integer.parseInt(options.getOrDefault("accounts", "0"));
+        if (options.containsKey("faults")) {
+            settings.setProperty("proxy.rules", options.get("faults"));
+        }
+        if (options.containsKey("vk-batch")) {
+            settings.setProperty("execute.windowMillis", String.valueOf(parseDuration(options.get("vk-batch")).toMillis()));
+        }
+        if (options.containsKey("metrics")) {
+            settings.setProperty("metrics.prometheusFile", options.get("metrics"));
+            settings.setProperty("metrics.jmx", "true");
+        }
+        RateLimiter limiter = RateLimiter.fromProperties(settings);
+        int stubLimit = Integer.parseInt(options.getOrDefault("stub-limit", "0"));
+        if (options.containsKey("workers")) {
+            coordinate(options, scenario, users, duration, local, fixture, settings, stubLimit, localAccounts);
+            return;
+        }
+
+        boolean sweep = options.containsKey("sweep");
+        SoakMonitor soak = options.containsKey("soak")
+                ? new SoakMonitor(parseDuration(options.getOrDefault("soak-window", "1m")), 1,
+                        options.containsKey("jfr") ? Paths.get(options.get("jfr")) : null, System.out)
+                : null;
+
+        StubServer stub = null;
+        FaultProxy proxy = null;
+        UploadCache uploads = null;
+        ApiMetrics metrics = null;
+        List<Transport> transports = new ArrayList<>();
+        List<CachingTransport> caches = new ArrayList<>();
+        HttpClient http = "jdk".equals(settings.getProperty("http.client", "restassured")) ? HttpClientTransport.client(settings) : null;
+        try (ConnectionPool pool = ConnectionPool.fromProperties(fixture.toProperties());
+             ResourceReaper reaper = new ResourceReaper(api,
+                     Integer.parseInt(settings.getProperty("reaper.parallelism", "8"))).onShutdown()) {
+            Supplier<Scenario> scenarios;
+            TokenPool tokens;
+            String baseUrl = options.getOrDefault("base-url", fixture.get("baseUrl"));
+            String userToken = token;
+            if ("imgur".equals(scenario)) {
+                if (local) {
+                    ImgurStubServer imgur = ImgurStubServer.start(0, fixture.get("username", "load"));
+                    imgur.limitCalls(stubLimit);
+                    stub = imgur;
+                    baseUrl = imgur.baseUrl();
+                }
+                proxy = faultProxy(baseUrl, stub, settings);
+                baseUrl = proxy != null ? proxy.baseUrl() : baseUrl;
+                tokens = tokenPool(settings, localAccounts, stub, ImgurClient.refresher(
+                        new RestAssuredTransport(pool, baseUrl, Collections.emptyMap()), baseUrl,
+                        settings.getProperty("oauth.clientId", System.getenv("IMGUR_CLIENT_ID")),
+                        settings.getProperty("oauth.clientSecret", System.getenv("IMGUR_CLIENT_SECRET"))));
+                metrics = ApiMetrics.fromProperties("imgur", URI.create(baseUrl).getPath(), settings);
+                uploads = UploadCache.fromProperties(settings);
+                if (uploads != null && tokens != null) {
+                    throw new IllegalArgumentException("--upload-cache works with a single token");
+                }
+                Map<TokenPool.Account, ImgurClient> clients = new LinkedHashMap<>();
+                for (TokenPool.Account account : accounts(tokens, userToken, fixture)) {
+                    Transport accountTransport = transport(baseUrl, account, pool, http, metrics, soak, limiter, settings);
+                    CachingTransport cache = CachingTransport.fromProperties(accountTransport, settings);
+                    transports.add(accountTransport);
+                    caches.add(cache);
+                    ImgurClient imgur = new ImgurClient(cache != null ? ImgurClient.invalidations(cache) : accountTransport);
+                    clients.put(account, uploads != null ? imgur.withUploadCache(uploads) : imgur);
+                }
+                if (sweep) {
+                    for (ImgurClient imgur : clients.values()) {
+                        sweepImgur(imgur, fixture, reaper);
+                    }
+                    return;
+                }
+                TokenPool pooled = tokens;
+                ImgurClient single = clients.values().iterator().next();
+                scenarios = pooled != null
+                        ? () -> pooled.session(account -> new ImgurScenario(clients.get(account), fixture, reaper))
+                        : () -> new ImgurScenario(single, fixture, reaper);
+            } else if ("vk".equals(scenario)) {
+                if (local) {
+                    VkStubServer vk = VkStubServer.start(0);
+                    vk.limitCalls(stubLimit);
+                    stub = vk;
+                    baseUrl = vk.baseUrl();
+                }
+                proxy = faultProxy(baseUrl, stub, settings);
+                baseUrl = proxy != null ? proxy.baseUrl() : baseUrl;
+                // VK tokens of the implicit flow do not expire and cannot be refreshed
+                tokens = tokenPool(settings, localAccounts, stub, null);
+                metrics = ApiMetrics.fromProperties("vk", URI.create(baseUrl).getPath(), settings);
+                Map<TokenPool.Account, VkClient> clients = new LinkedHashMap<>();
+                for (TokenPool.Account account : accounts(tokens, userToken, fixture)) {
+                    Transport accountTransport = VkExecuteTransport.fromProperties(
+                            transport(baseUrl, account, pool, http, metrics, soak, limiter, settings), settings);
+                    CachingTransport cache = CachingTransport.fromProperties(accountTransport, settings);
+                    transports.add(accountTransport);
+                    caches.add(cache);
+                    clients.put(account, new VkClient(cache != null ? VkClient.invalidations(cache) : accountTransport, fixture.get("v")));
+                }
+                if (sweep) {
+                    for (VkClient vk : clients.values()) {
+                        sweepVk(vk, fixture, reaper);
+                    }
+                    return;
+                }
+                File image = new File(options.getOrDefault("image", "src/test/resources/image.jpg"));
+                TokenPool pooled = tokens;
+                VkClient single = clients.values().iterator().next();
+                scenarios = pooled != null
+                        ? () -> pooled.session(account -> new VkScenario(clients.get(account), fixture, image, reaper))
+                        : () -> new VkScenario(single, fixture, image, reaper);
+            } else if ("vk-upload".equals(scenario)) {
+                if (local) {
+                    VkStubServer vk = VkStubServer.start(0);
+                    vk.keepUploads(false);
+                    stub = vk;
+                    baseUrl = vk.baseUrl();
+                }
+                proxy = faultProxy(baseUrl, stub, settings);
+                baseUrl = proxy != null ? proxy.baseUrl() : baseUrl;
+                uploadPhotos(VkClient.create(baseUrl, userToken, fixture.get("v"), pool), fixture, options);
+                return;
+            } else {
+                throw new IllegalArgumentException("Unknown scenario " + scenario);
+            }
+
+            System.out.printf("running %s with %d users (%s threads), ramp-up %s, duration %s against %s%n",
+                    scenario, users, VirtualThreads.available() ? "virtual" : "platform", rampUp, duration, baseUrl);
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("heap-sampler"));
+            sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                    0, 100, TimeUnit.MILLISECONDS);
+            if (soak != null) {
+                soak.gauge("reaper", reaper::pending).gauge("leased", pool::leased)
+                        .gauge("cached", () -> caches.stream().mapToLong(cache -> cache != null ? cache.size() : 0).sum())
+                        .start();
+            }
+            LoadReport report;
+            try {
+                LoadRunner runner = new LoadRunner(scenarios, users, rampUp, duration);
+                report = worker != null ? worker.run(runner) : runner.run();
+            } finally {
+                sampler.shutdownNow();
+                if (soak != null) {
+                    soak.close();
+                }
+            }
+            report.print(System.out);
+            if (soak != null) {
+                System.out.println(soak.summary());
+            }
+            System.out.printf("%s client: peak %d threads, heap used peak %.1f MB%n",
+                    settings.getProperty("http.client", "restassured"), threads.getPeakThreadCount(), peakHeap.get() / 1e6);
+            System.out.println("cleanup: " + reaper.reap());
+            if (limiter != null) {
+                System.out.println(limiter);
+            }
+            if (tokens != null) {
+                System.out.println(tokens);
+            }
+            if (proxy != null) {
+                System.out.println(proxy);
+            }
+            for (Transport transport : transports) {
+                if (transport instanceof HedgingTransport || transport instanceof VkExecuteTransport) {
+                    System.out.println(transport);
+                }
+            }
+            for (CachingTransport cache : caches) {
+                if (cache != null) {
+                    System.out.println(cache);
+                }
+            }
+            if (uploads != null) {
+                System.out.println(uploads);
+            }
+            if (metrics != null) {
+                metrics.endpoints().values().forEach(System.out::println);
+            }
+        } finally {
+            // the sweep returns early; the index and the metrics are written either way
+            for (int i = 0; i < transports.size(); i++) {
+                // a cache closes the transport it wraps
+                (caches.get(i) != null ? caches.get(i) : transports.get(i)).close();
+            }
+            if (http != null) {
+                HttpClientTransport.shutdown(http);
+            }
+            if (uploads != null) {
+                uploads.close();
+            }
+            if (metrics != null) {
+                metrics.close();
+            }
+            if (proxy != null) {
+                proxy.close();
+            }
+            if (stub != null) {
+                stub.close();
+            }
+            if (worker != null) {
+                worker.close();
+            }
+        }
+    }
+
+    /**
+     * Runs the scenario on {@code --workers} processes and prints the merged report. The
+     * options that concern this process only are not passed on; against the stand-ins the
+     * workers get the url of the stand-in (or of the fault proxy) started here instead.
+     */
+    static void coordinate(Map<String, String> options, String scenario, int users, Duration duration, boolean local,
+                           Fixture fixture, Properties settings, int stubLimit, int localAccounts) throws Exception {
+        for (String option : new String[]{"sweep", "soak", "jfr", "metrics", "upload-cache"}) {
+            if (options.containsKey(option)) {
+                throw new IllegalArgumentException("--" + option + " does not work with --workers");
+            }
+        }
+        if (!"imgur".equals(scenario) && !"vk".equals(scenario)) {
+            throw new IllegalArgumentException("--workers runs the imgur and vk scenarios, not " + scenario);
+        }
+        Map<String, String> workerOptions = new HashMap<>(options);
+        for (String option : new String[]{"workers", "listen", "worker-jvm", "worker-logs", "report-interval", "faults", "stub-limit"}) {
+            workerOptions.remove(option);
+        }
+        String baseUrl = options.getOrDefault("base-url", fixture.get("baseUrl"));
+        StubServer stub = null;
+        FaultProxy proxy = null;
+        try {
+            if (local) {
+                stub = "imgur".equals(scenario) ? ImgurStubServer.start(0, fixture.get("username", "load")) : VkStubServer.start(0);
+                stub.limitCalls(stubLimit);
+                baseUrl = "imgur".equals(scenario) ? ((ImgurStubServer) stub).baseUrl() : ((VkStubServer) stub).baseUrl();
+                // the workers make up the same accounts and sign in with them here
+                tokenPool(settings, localAccounts, stub, null);
+                workerOptions.put("target", "remote");
+                workerOptions.putIfAbsent("token", "local");
+            }
+            proxy = faultProxy(baseUrl, stub, settings);
+            workerOptions.put("base-url", proxy != null ? proxy.baseUrl() : baseUrl);
+
+            int workers = Integer.parseInt(options.get("workers"));
+            Duration interval = parseDuration(options.getOrDefault("report-interval", "1s"));
+            try (LoadCoordinator coordinator = new LoadCoordinator(
+                    Integer.parseInt(options.getOrDefault("listen", "0")), workers, interval)) {
+                if (options.containsKey("listen")) {
+                    System.out.printf("waiting for %d workers: App --worker 127.0.0.1:%d%n", workers, coordinator.port());
+                } else {
+                    Path logs = Paths.get(options.getOrDefault("worker-logs", "target/workers"));
+                    String jvm = options.getOrDefault("worker-jvm", "").trim();
+                    coordinator.spawn(logs, jvm.isEmpty() ? Collections.emptyList() : Arrays.asList(jvm.split("\\s+")));
+                    System.out.printf("started %d workers, output in %s%n", workers, logs);
+                }
+                System.out.printf("running %s with %d users on %d workers, duration %s against %s%n",
+                        scenario, users, workers, duration, workerOptions.get("base-url"));
+                LoadReport report = coordinator.run(scenario, users, duration, workerOptions, System.out);
+                report.print(System.out);
+                System.out.println(coordinator);
+            }
+            if (proxy != null) {
+                System.out.println(proxy);
+            }
+        } finally {
+            if (proxy != null) {
+                proxy.close();
+            }
+            if (stub != null) {
+                stub.close();
+            }
+        }
+    }
+
+    /**
+     * The {@link FaultProxy} of {@code proxy.rules} in front of {@code baseUrl}, if any; the
+     * stand-in then hands out urls through it too.
+     */
+    static FaultProxy faultProxy(String baseUrl, StubServer stub, Properties settings) throws IOException {
+        FaultProxy proxy = FaultProxy.fromProperties(baseUrl, settings);
+        if (proxy != null && stub != null) {
+            stub.advertise(proxy.url(""));
+        }
+        return proxy;
+    }
+
+    /**
+     * RestAssured transport for the account, or an {@link HttpClientTransport} on the run's
+     * client {@code http} when {@code http.client} is {@code jdk}, sending the account's
+     * current token, recorded by the soak monitor of a soak run, measured when there are
+     * metrics, behind the rate limiter when there is one and with hedging and retries as
+     * configured. The limiter knows the
+     * account by its name so that reports never show the token; every hedged copy and retry
+     * takes its own permit and is measured as a send of its own.
+     */
+    static Transport transport(String baseUrl, TokenPool.Account account, ConnectionPool pool, HttpClient http,
+                               ApiMetrics metrics, SoakMonitor soak, RateLimiter limiter, Properties settings) {
+        Transport transport = http != null
+                ? new HttpClientTransport(http, baseUrl, Collections.emptyMap(), HttpClientTransport.timeout(settings))
+                : new RestAssuredTransport(pool, baseUrl, Collections.emptyMap());
+        transport = new TokenTransport(transport, account);
+        if (soak != null) {
+            transport = new SoakTransport(transport, soak);
+        }
+        if (metrics != null) {
+            transport = new MetricsTransport(transport, metrics);
+        }
+        if (limiter != null) {
+            transport = new RateLimitedTransport(transport, limiter, account.name());
+        }
+        return HedgingTransport.fromProperties(transport, settings);
+    }
+
+    /**
+     * The accounts of {@code tokens.file} or {@code --accounts} made-up ones for the
+     * stand-ins; {@code null} when the run uses the single token. The stand-in, when it runs
+     * in this process, is told about the tokens so that every account sees its own albums
+     * and rate limit.
+     */
+    static TokenPool tokenPool(Properties settings, int localAccounts, StubServer stub, TokenPool.Refresher refresher) {
+        TokenPool tokens = TokenPool.fromProperties(settings, refresher);
+        if (tokens == null && localAccounts > 0) {
+            List<TokenPool.Account> accounts = new ArrayList<>(localAccounts);
+            for (int i = 1; i <= localAccounts; i++) {
+                accounts.add(new TokenPool.Account("account-" + i, "load" + i, null, "refresh-" + i, null));
+            }
+            tokens = new TokenPool(accounts, "least-loaded".equals(settings.getProperty("tokens.selection")),
+                    Duration.ofMillis(Long.parseLong(settings.getProperty("tokens.cooldownMillis", "5000"))),
+                    refresher != null ? refresher : account -> new TokenPool.Token("token-" + account.name(), null, null));
+        }
+        if (tokens != null && stub != null) {
+            long userId = 1000;
+            for (TokenPool.Account account : tokens.accounts()) {
+                if (stub instanceof ImgurStubServer) {
+                    if (account.refreshToken() != null) {
+                        ((ImgurStubServer) stub).registerRefreshToken(account.refreshToken(), account.userName());
+                    }
+                    ((ImgurStubServer) stub).registerAccount(account.token(), account.userName());
+                } else if (stub instanceof VkStubServer) {
+                    ((VkStubServer) stub).registerUser(account.token(), ++userId);
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * The pool's accounts, or one for the single token.
+     */
+    private static List<TokenPool.Account> accounts(TokenPool tokens, String token, Fixture fixture) {
+        return tokens != null ? tokens.accounts() : Collections.singletonList(new TokenPool.Account(
+                "token-" + Integer.toHexString(token.hashCode()), fixture.get("username", "me"), token, null, null));
+    }
+
+    /**
+     * Deletes the albums and images of the account that carry one of the titles the
+     * scenario gives them.
+     */
+    static void sweepImgur(ImgurClient imgur, Fixture fixture, ResourceReaper reaper) {
+        Set<String> albumTitles = titles(fixture, "albumTitle", "editAlbumTitle");
+        Set<String> imageTitles = titles(fixture, "imageTitle", "imageTitle2", "imageNewTitle");
+        System.out.println("albums: " + reaper.sweep("imgur album", imgur.albums("me", 2, "id", "title"),
+                album -> album.has("title") && albumTitles.contains(album.getString("title")),
+                album -> () -> ImgurClient.gone(imgur.deleteAlbum(album.getString("id")))));
+        System.out.println("images: " + reaper.sweep("imgur image", imgur.images("me", 2, "id", "title"),
+                image -> image.has("title") && imageTitles.contains(image.getString("title")),
+                image -> () -> ImgurClient.gone(imgur.deleteImage(image.getString("id")))));
+    }
+
+    static void sweepVk(VkClient vk, Fixture fixture, ResourceReaper reaper) {
+        Set<String> albumTitles = titles(fixture, "albumTitle", "newTitle");
+        System.out.println("albums: " + reaper.sweep("vk album", vk.albums(100, 2, "id", "title"),
+                album -> albumTitles.contains(album.getString("title")),
+                album -> () -> VkClient.deleted(vk.photosDeleteAlbum(album.getString("id")))));
+    }
+
+    private static Set<String> titles(Fixture fixture, String... keys) {
+        Set<String> titles = new HashSet<>();
+        for (String key : keys) {
+            String title = fixture.get(key);
+            if (title != null) {
+                titles.add(title);
+            }
+        }
+        return titles;
+    }
+
+    static void uploadPhotos(VkClient vk, Fixture fixture, Map<String, String> options) throws IOException {
+        int files = Integer.parseInt(options.getOrDefault("files", "100"));
+        int parallel = Integer.parseInt(options.getOrDefault("parallel", "4"));
+        Path image;
+        if (options.containsKey("image")) {
+            image = Paths.get(options.get("image"));
+        } else {
+            image = Files.createTempFile("upload", ".jpg");
+            image.toFile().deleteOnExit();
+            byte[] block = new byte[1 << 20];
+            ThreadLocalRandom.current().nextBytes(block);
+            try (OutputStream out = Files.newOutputStream(image)) {
+                for (long left = parseSize(options.getOrDefault("file-size", "50m")); left > 0; left -= block.length) {
+                    out.write(block, 0, (int) Math.min(left, block.length));
+                }
+            }
+        }
+
+        JsonFields.Values album = vk.photosCreateAlbum(fixture.get("albumTitle")).fields(UPLOAD_ALBUM);
+        String albumId = album.getString("response.id");
+        String uploadUrl = vk.photosGetUploadServer(albumId).fields(UPLOAD_SERVER).getString("response.upload_url");
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("heap-sampler"));
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 100, TimeUnit.MILLISECONDS);
+        System.out.printf("uploading %d x %.1f MB in requests of %d files, %d in parallel%n",
+                files, Files.size(image) / 1e6, PhotoUploader.MAX_FILES_PER_REQUEST, parallel);
+        try (PhotoUploader uploader = new PhotoUploader(parallel, Duration.ofSeconds(10), Duration.ofMinutes(5))) {
+            PhotoUploader.Summary summary = uploader.uploadAll(uploadUrl, Collections.nCopies(files, image));
+            System.out.println(summary);
+            System.out.printf("heap used peak %.1f MB of %.1f MB max%n",
+                    peakHeap.get() / 1e6, memory.getHeapMemoryUsage().getMax() / 1e6);
+        } finally {
+            sampler.shutdownNow();
+            vk.photosDeleteAlbum(albumId);
+        }
+    }
+
+    /**
+     * Parses sizes like {@code 512k}, {@code 50m} or {@code 1g}.
+     */
+    static long parseSize(String value) {
+        String v = value.trim().toLowerCase();
+        int shift = v.endsWith("k") ? 10 : v.endsWith("m") ? 20 : v.endsWith("g") ? 30 : 0;
+        return Long.parseLong(shift == 0 ? v : v.substring(0, v.length() - 1)) << shift;
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Parses durations like {@code 500ms}, {@code 30s}, {@code 5m} or {@code 2h}.
+     */
+    static Duration parseDuration(String value) {
+        String v = value.trim().toLowerCase();
+        if (v.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(v.substring(0, v.length() - 2)));
+        }
+        char unit = v.charAt(v.length() - 1);
+        if (Character.isDigit(unit)) {
+            return Duration.ofSeconds(Long.parseLong(v));
+        }
+        long amount = Long.parseLong(v.substring(0, v.length() - 1));
+        switch (unit) {
+            case 's':
+                return Duration.ofSeconds(amount);
+            case 'm':
+                return Duration.ofMinutes(amount);
+            case 'h':
+                return Duration.ofHours(amount);
+            default:
+                throw new IllegalArgumentException("Unknown duration unit in " + value);
+        }
     }
 }
@@ -0,0 +1,323 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Transport} decorator that keeps successful responses of idempotent calls in a
+ * bounded LRU cache, limited by entry count and body bytes.
+ * <p>
+ * A cached response younger than {@code maxAge} is returned without a round-trip. An older
+ * one is revalidated with {@code If-None-Match} when it has an ETag, and a 304 keeps it.
+ * Mutating calls evict the reads registered for them with {@link #invalidates}. A cached read
+ * is evicted when every parameter it shares by name with the mutation (path or query) has
+ * the same value. For example, {@code POST /album/{albumHash}/add} evicts
+ * {@code GET /album/{albumHash}/images} for the same album only. Reads that were in flight
+ * while one of their invalidations ran are not stored.
+ */
+public final class CachingTransport implements Transport {
+    private final Transport delegate;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long maxAgeNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ConcurrentMap<Endpoint, Rule> rules = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Endpoint, AtomicLong> generations = new ConcurrentHashMap<>();
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+
+    public CachingTransport(Transport delegate, int maxEntries, long maxBytes, Duration maxAge) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxAgeNanos = maxAge.toNanos();
+    }
+
+    /**
+     * Cache settings from {@code cache.maxEntries}, {@code cache.maxBytes} and
+     * {@code cache.maxAgeMillis}; {@code null} when {@code cache.maxEntries} is not set.
+     */
+    public static CachingTransport fromProperties(Transport delegate, Properties properties) {
+        String maxEntries = properties.getProperty("cache.maxEntries");
+        if (maxEntries == null) {
+            return null;
+        }
+        return new CachingTransport(delegate, Integer.parseInt(maxEntries),
+                Long.parseLong(properties.getProperty("cache.maxBytes", String.valueOf(16L << 20))),
+                Duration.ofMillis(Long.parseLong(properties.getProperty("cache.maxAgeMillis", "60000"))));
+    }
+
+    /**
+     * Evicts cached responses of {@code reads} with matching parameters after each
+     * {@code mutation} call.
+     */
+    public CachingTransport invalidates(Endpoint mutation, Endpoint... reads) {
+        rules.computeIfAbsent(mutation, m -> new Rule()).add(false, reads);
+        return this;
+    }
+
+    /**
+     * Evicts every cached response of {@code reads} after each {@code mutation} call, for
+     * mutations whose parameters do not name the resource the reads use, such as a delete
+     * by deletehash.
+     */
+    public CachingTransport invalidatesAll(Endpoint mutation, Endpoint... reads) {
+        rules.computeIfAbsent(mutation, m -> new Rule()).add(true, reads);
+        return this;
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        Endpoint endpoint = request.endpoint();
+        if (!endpoint.idempotent()) {
+            try {
+                return delegate.execute(request);
+            } finally {
+                invalidate(request);
+            }
+        }
+        String key = key(request);
+        long generation = generation(endpoint).get();
+        Entry cached = cached(key);
+        long now = System.nanoTime();
+        if (fresh(cached, now)) {
+            return cached.response;
+        }
+        if (cached != null && cached.etag != null) {
+            request.header("If-None-Match", cached.etag);
+        }
+        ApiResponse response;
+        try {
+            response = delegate.execute(request);
+        } finally {
+            request.headers.remove("If-None-Match");
+        }
+        return received(request, key, generation, cached, now, response);
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        Endpoint endpoint = request.endpoint();
+        if (!endpoint.idempotent()) {
+            return delegate.executeAsync(request).whenComplete((response, error) -> invalidate(request));
+        }
+        String key = key(request);
+        long generation = generation(endpoint).get();
+        Entry cached = cached(key);
+        long now = System.nanoTime();
+        if (fresh(cached, now)) {
+            return CompletableFuture.completedFuture(cached.response);
+        }
+        if (cached != null && cached.etag != null) {
+            request.header("If-None-Match", cached.etag);
+        }
+        return delegate.executeAsync(request)
+                .whenComplete((response, error) -> request.headers.remove("If-None-Match"))
+                .thenApply(response -> received(request, key, generation, cached, now, response));
+    }
+
+    private synchronized Entry cached(String key) {
+        return entries.get(key);
+    }
+
+    private boolean fresh(Entry cached, long now) {
+        if (cached != null && now - cached.storedAt < maxAgeNanos) {
+            hits.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private ApiResponse received(ApiRequest request, String key, long generation, Entry cached, long now, ApiResponse response) {
+        if (response.statusCode() == 304 && cached != null) {
+            revalidated.increment();
+            cached.storedAt = now;
+            return cached.response;
+        }
+        misses.increment();
+        String cacheControl = response.header("Cache-Control");
+        if (response.statusCode() == 200 && (cacheControl == null || !cacheControl.contains("no-store"))) {
+            store(key, new Entry(request.endpoint(), params(request), response, response.header("ETag"), now), generation);
+        }
+        return response;
+    }
+
+    private synchronized void store(String key, Entry entry, long generation) {
+        if (generation(entry.endpoint).get() != generation) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += entry.size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private void invalidate(ApiRequest request) {
+        Rule rule = rules.get(request.endpoint());
+        if (rule == null) {
+            return;
+        }
+        Map<String, String> params = params(request);
+        for (Endpoint read : rule.reads) {
+            generation(read).incrementAndGet();
+        }
+        synchronized (this) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (rule.matches(entry, params)) {
+                    bytes -= entry.size;
+                    it.remove();
+                    invalidated.increment();
+                }
+            }
+        }
+    }
+
+    private AtomicLong generation(Endpoint endpoint) {
+        return generations.computeIfAbsent(endpoint, e -> new AtomicLong());
+    }
+
+    private static String key(ApiRequest request) {
+        StringBuilder key = new StringBuilder(64).append(request.endpoint());
+        if (request.absoluteUrl != null) {
+            key.append(' ').append(request.absoluteUrl);
+        }
+        request.pathParams.forEach((name, value) -> key.append('|').append(name).append('=').append(value));
+        for (ApiRequest.Param param : request.queryParams) {
+            key.append('?').append(param.name).append('=').append(param.value);
+        }
+        return key.toString();
+    }
+
+    private static Map<String, String> params(ApiRequest request) {
+        Map<String, String> params = new LinkedHashMap<>(request.pathParams);
+        for (ApiRequest.Param param : request.queryParams) {
+            params.putIfAbsent(param.name, param.value);
+        }
+        for (ApiRequest.Param param : request.formParams) {
+            params.putIfAbsent(param.name, param.value);
+        }
+        return params;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return reads answered from the cache without a round-trip
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return reads answered from the cache after a 304 to a conditional GET
+     */
+    public long revalidated() {
+        return revalidated.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return entries dropped to stay within the size limits
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return entries dropped by mutating calls
+     */
+    public long invalidated() {
+        return invalidated.sum();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("response cache: %d hits, %d revalidated, %d misses, %d evicted, %d invalidated, %d entries, %.1f KB",
+                hits(), revalidated(), misses(), evictions(), invalidated(), size(), bytes() / 1024.0);
+    }
+
+    private static final class Rule {
+        final List<Endpoint> reads = new ArrayList<>();
+        final List<Endpoint> allOf = new ArrayList<>();
+
+        synchronized void add(boolean all, Endpoint... endpoints) {
+            reads.addAll(Arrays.asList(endpoints));
+            if (all) {
+                allOf.addAll(Arrays.asList(endpoints));
+            }
+        }
+
+        boolean matches(Entry entry, Map<String, String> params) {
+            if (!reads.contains(entry.endpoint)) {
+                return false;
+            }
+            if (allOf.contains(entry.endpoint)) {
+                return true;
+            }
+            for (Map.Entry<String, String> param : entry.params.entrySet()) {
+                String value = params.get(param.getKey());
+                if (value != null && !value.equals(param.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Entry {
+        final Endpoint endpoint;
+        final Map<String, String> params;
+        final ApiResponse response;
+        final String etag;
+        final long size;
+        volatile long storedAt;
+
+        Entry(Endpoint endpoint, Map<String, String> params, ApiResponse response, String etag, long storedAt) {
+            this.endpoint = endpoint;
+            this.params = params;
+            this.response = response;
+            this.etag = etag;
+            this.storedAt = storedAt;
+            this.size = response.bodyLength();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recorded interactions in a single binary file, read through a read-only memory mapping.
+ * <p>
+ * Layout, big-endian: magic and version; the interactions one after another; an index of
+ * (request hash, interaction offset) pairs sorted by hash and then by recording order; and a
+ * 16-byte footer with the index offset, the entry count and the magic again. An interaction
+ * is its length, request hash, status, the scrubbed request line and headers, the response
+ * headers and the body. Opening a cassette only checks the footer, lookups binary-search the
+ * mapped index, and response bodies are slices of the mapping, so nothing is parsed or copied
+ * up front. Instances are immutable and can be shared by any number of threads.
+ */
+public final class Cassette {
+    static final int MAGIC = 0x43415353;
+    static final int VERSION = 1;
+    private static final int FOOTER = 16;
+    private static final int INDEX_ENTRY = 16;
+
+    private final Path path;
+    private final MappedByteBuffer data;
+    private final int indexOffset;
+    private final int size;
+
+    private Cassette(Path path, MappedByteBuffer data, int indexOffset, int size) {
+        this.path = path;
+        this.data = data;
+        this.indexOffset = indexOffset;
+        this.size = size;
+    }
+
+    public static Cassette open(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Cassette " + path + " is larger than 2 GB, record it in parts");
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (length < 8 + FOOTER || data.getInt(0) != MAGIC || data.getInt((int) length - 4) != MAGIC) {
+                throw new IllegalStateException("Not a complete cassette: " + path);
+            }
+            if (data.getInt(4) != VERSION) {
+                throw new IllegalStateException("Unsupported cassette version " + data.getInt(4) + " in " + path);
+            }
+            int footer = (int) length - FOOTER;
+            return new Cassette(path, data, (int) data.getLong(footer), data.getInt(footer + 8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open cassette " + path, e);
+        }
+    }
+
+    public static Writer create(Path path) {
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            return new Writer(path, FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create cassette " + path, e);
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * @return number of recorded interactions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return how many interactions were recorded for the request hash
+     */
+    public int count(long hash) {
+        int first = first(hash);
+        int n = 0;
+        while (first + n < size && hashAt(first + n) == hash) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * The {@code occurrence}-th recorded response to the request hash, or {@code null} when
+     * there are not that many.
+     */
+    public ApiResponse response(long hash, int occurrence) {
+        int entry = first(hash) + occurrence;
+        if (entry >= size || hashAt(entry) != hash) {
+            return null;
+        }
+        ByteBuffer record = data.duplicate();
+        record.position((int) data.getLong(indexOffset + 4 + entry * INDEX_ENTRY + 8) + 4 + 8);
+        int status = record.getInt();
+        skipString(record);
+        for (int n = record.getShort(); n > 0; n--) {
+            skipString(record);
+            skipString(record);
+        }
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int n = record.getShort(); n > 0; n--) {
+            String name = getString(record);
+            headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(getString(record));
+        }
+        int bodyLength = record.getInt();
+        ByteBuffer body = record.slice();
+        body.limit(bodyLength);
+        return new ApiResponse(status, headers, body);
+    }
+
+    /**
+     * @return the scrubbed request line the interaction was recorded for, for error messages
+     */
+    public String request(long hash, int occurrence) {
+        int entry = first(hash) + occurrence;
+        if (entry >= size || hashAt(entry) != hash) {
+            return null;
+        }
+        ByteBuffer record = data.duplicate();
+        record.position((int) data.getLong(indexOffset + 4 + entry * INDEX_ENTRY + 8) + 4 + 8 + 4);
+        return getString(record);
+    }
+
+    private int first(long hash) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (hashAt(mid) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long hashAt(int entry) {
+        return data.getLong(indexOffset + 4 + entry * INDEX_ENTRY);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + length);
+    }
+
+    @Override
+    public String toString() {
+        return "cassette " + path + " with " + size + " interactions";
+    }
+
+    /**
+     * Appends interactions to a new cassette; the index and footer are written on
+     * {@link #close()}, a cassette that was never closed does not open. Thread-safe.
+     */
+    public static final class Writer implements AutoCloseable {
+        private final Path path;
+        private final FileChannel channel;
+        private final List<long[]> index = new ArrayList<>();
+        private long position;
+        private boolean closed;
+
+        private Writer(Path path, FileChannel channel) throws IOException {
+            this.path = path;
+            this.channel = channel;
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(header);
+        }
+
+        /**
+         * @param request scrubbed request line, for error messages and inspection
+         * @param requestHeaders scrubbed request headers
+         */
+        public synchronized void append(long hash, String request, Map<String, String> requestHeaders, ApiResponse response) {
+            if (closed) {
+                throw new IllegalStateException("Cassette " + path + " is closed");
+            }
+            byte[] line = bytes(request);
+            List<byte[]> sent = new ArrayList<>();
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                sent.add(bytes(header.getKey()));
+                sent.add(bytes(header.getValue()));
+            }
+            List<byte[]> received = new ArrayList<>();
+            for (Map.Entry<String, List<String>> header : response.headers().entrySet()) {
+                for (String value : header.getValue()) {
+                    received.add(bytes(header.getKey()));
+                    received.add(bytes(value));
+                }
+            }
+            int headLength = 8 + 4 + 2 + line.length + 2 + length(sent) + 2 + length(received) + 4;
+            ByteBuffer body = response.body();
+            ByteBuffer head = ByteBuffer.allocate(4 + headLength);
+            head.putInt(headLength + body.remaining()).putLong(hash).putInt(response.statusCode());
+            head.putShort((short) line.length).put(line);
+            putStrings(head, sent);
+            putStrings(head, received);
+            head.putInt(body.remaining());
+            head.flip();
+            long start = position;
+            try {
+                writeFully(head, body);
+            } catch (IOException e) {
+                // cut off the partial record so the next one starts where the index expects it
+                try {
+                    channel.truncate(start);
+                    channel.position(start);
+                } catch (IOException truncate) {
+                    e.addSuppressed(truncate);
+                }
+                throw new UncheckedIOException("Cannot write cassette " + path, e);
+            }
+            index.add(new long[] {hash, start});
+        }
+
+        public synchronized int size() {
+            return index.size();
+        }
+
+        private static int length(List<byte[]> strings) {
+            int length = 0;
+            for (byte[] string : strings) {
+                length += 2 + string.length;
+            }
+            return length;
+        }
+
+        private static void putStrings(ByteBuffer head, List<byte[]> pairs) {
+            head.putShort((short) (pairs.size() / 2));
+            for (byte[] string : pairs) {
+                head.putShort((short) string.length).put(string);
+            }
+        }
+
+        private void writeFully(ByteBuffer... buffers) throws IOException {
+            long total = 0;
+            for (ByteBuffer buffer : buffers) {
+                total += buffer.remaining();
+            }
+            for (long written = 0; written < total; ) {
+                written += channel.write(buffers);
+            }
+            position += total;
+            if (position > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Cassette " + path + " grew over 2 GB");
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // the sort is stable, so the entries of one hash stay in recording order
+            Collections.sort(index, (a, b) -> Long.compare(a[0], b[0]));
+            ByteBuffer tail = ByteBuffer.allocate(4 + index.size() * INDEX_ENTRY + FOOTER);
+            tail.putInt(index.size());
+            for (long[] entry : index) {
+                tail.putLong(entry[0]).putLong(entry[1]);
+            }
+            tail.putLong(position).putInt(index.size()).putInt(MAGIC);
+            tail.flip();
+            try (FileChannel file = channel) {
+                writeFully(tail);
+                file.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot finish cassette " + path, e);
+            }
+        }
+
+        private static byte[] bytes(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("Header or request line over 64 KB: " + value.substring(0, 64) + "...");
+            }
+            return bytes;
+        }
+    }
+}
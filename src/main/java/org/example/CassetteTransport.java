@@ -0,0 +1,272 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the calls made through a transport into a {@link Cassette}, or answers them from
+ * one without touching the network.
+ * <p>
+ * Requests are matched by a hash of the method, the endpoint path with its path parameters,
+ * the sorted query and form parameters and a SHA-256 digest of uploaded files. Upload urls
+ * handed out by the server match by path and query only, so a recording made against one
+ * stand-in port replays under any other. Repeated identical requests get their recorded
+ * responses in recording order, and the last one again once they run out. Each replaying
+ * transport keeps its own position, so any number of them can share one cassette.
+ * <p>
+ * Credentials never reach the file: the values of {@code Authorization}, {@code Cookie}
+ * and similar headers keep only their scheme, {@code access_token}, {@code refresh_token} and
+ * similar parameters are left out of the hash and masked in the request line, and {@code Set-Cookie} response headers are dropped.
+ */
+public final class CassetteTransport implements Transport {
+    private static final Set<String> SECRET_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private static final Set<String> SECRET_PARAMS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        Collections.addAll(SECRET_HEADERS, "Authorization", "Proxy-Authorization", "Cookie", "X-Api-Key");
+        Collections.addAll(SECRET_PARAMS, "access_token", "refresh_token", "client_secret", "password");
+    }
+
+    private final Transport delegate;
+    private final Cassette.Writer writer;
+    private final Map<String, String> defaultHeaders;
+    private final Cassette cassette;
+    private final ConcurrentMap<Long, AtomicInteger> played = new ConcurrentHashMap<>();
+
+    private CassetteTransport(Transport delegate, Cassette.Writer writer, Map<String, String> defaultHeaders, Cassette cassette) {
+        this.delegate = delegate;
+        this.writer = writer;
+        this.defaultHeaders = defaultHeaders;
+        this.cassette = cassette;
+    }
+
+    /**
+     * Sends every call through {@code delegate} and appends it to a new cassette at
+     * {@code path}; the cassette is finished when the transport is closed.
+     *
+     * @param defaultHeaders headers the delegate adds to every call, recorded scrubbed
+     */
+    public static CassetteTransport record(Transport delegate, Map<String, String> defaultHeaders, Path path) {
+        return new CassetteTransport(delegate, Cassette.create(path), scrub(defaultHeaders), null);
+    }
+
+    public static CassetteTransport replay(Cassette cassette) {
+        return new CassetteTransport(null, null, Collections.emptyMap(), cassette);
+    }
+
+    /**
+     * Wraps {@code delegate} as set by {@code cassette.mode} ({@code record} or
+     * {@code replay}) for the cassette {@code name}.bin under {@code cassette.dir}
+     * ({@code target/cassettes}); returns it unchanged when no mode is set.
+     */
+    public static Transport fromProperties(Transport delegate, Map<String, String> defaultHeaders,
+                                           Properties properties, String name) {
+        String mode = properties.getProperty("cassette.mode", "");
+        Path path = Paths.get(properties.getProperty("cassette.dir", "target/cassettes"), name + ".bin");
+        switch (mode) {
+            case "":
+                return delegate;
+            case "record":
+                return record(delegate, defaultHeaders, path);
+            case "replay":
+                return replay(Cassette.open(path));
+            default:
+                throw new IllegalArgumentException("Unknown cassette.mode " + mode + ", expected record or replay");
+        }
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        long hash = hash(request);
+        if (cassette == null) {
+            return recorded(hash, request, delegate.execute(request));
+        }
+        return replayed(hash, request);
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        long hash = hash(request);
+        if (cassette == null) {
+            return delegate.executeAsync(request).thenApply(response -> recorded(hash, request, response));
+        }
+        try {
+            return CompletableFuture.completedFuture(replayed(hash, request));
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private ApiResponse recorded(long hash, ApiRequest request, ApiResponse response) {
+        writer.append(hash, requestLine(request), headers(request), recordable(response));
+        return response;
+    }
+
+    private ApiResponse replayed(long hash, ApiRequest request) {
+        int occurrence = played.computeIfAbsent(hash, h -> new AtomicInteger()).getAndIncrement();
+        ApiResponse response = cassette.response(hash, occurrence);
+        if (response == null && occurrence > 0) {
+            response = cassette.response(hash, cassette.count(hash) - 1);
+        }
+        if (response == null) {
+            throw new IllegalStateException("No recorded interaction for " + requestLine(request) + " in " + cassette);
+        }
+        return response;
+    }
+
+    /**
+     * @return the interactions recorded so far, or the size of the replayed cassette
+     */
+    public int size() {
+        return cassette != null ? cassette.size() : writer.size();
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                delegate.close();
+            }
+        }
+    }
+
+    static long hash(ApiRequest request) {
+        MessageDigest digest = sha256();
+        update(digest, request.endpoint.method());
+        update(digest, target(request));
+        Set<String> params = new TreeSet<>();
+        for (ApiRequest.Param param : request.queryParams) {
+            if (!SECRET_PARAMS.contains(param.name)) {
+                params.add("q:" + param.name + "=" + param.value);
+            }
+        }
+        for (ApiRequest.Param param : request.formParams) {
+            if (!SECRET_PARAMS.contains(param.name)) {
+                params.add("f:" + param.name + "=" + param.value);
+            }
+        }
+        params.forEach(param -> update(digest, param));
+        for (ApiRequest.FilePart part : request.files) {
+            update(digest, part.name);
+            digestFile(digest, part.file.toPath());
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * The endpoint path with its parameters filled in; for absolute urls only the path and
+     * query, so that host and port do not matter.
+     */
+    private static String target(ApiRequest request) {
+        if (request.absoluteUrl != null) {
+            URI uri = URI.create(request.absoluteUrl);
+            return uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery();
+        }
+        String target = request.endpoint.template();
+        for (Map.Entry<String, String> param : request.pathParams.entrySet()) {
+            target = target.replace("{" + param.getKey() + "}", param.getValue());
+        }
+        return target;
+    }
+
+    private static String requestLine(ApiRequest request) {
+        StringBuilder line = new StringBuilder(request.endpoint.method()).append(' ').append(target(request));
+        char separator = request.absoluteUrl != null && request.absoluteUrl.indexOf('?') > 0 ? '&' : '?';
+        for (ApiRequest.Param param : request.queryParams) {
+            line.append(separator).append(param.name).append('=')
+                    .append(SECRET_PARAMS.contains(param.name) ? "***" : param.value);
+            separator = '&';
+        }
+        for (ApiRequest.Param param : request.formParams) {
+            line.append(" ").append(param.name).append('=')
+                    .append(SECRET_PARAMS.contains(param.name) ? "***" : param.value);
+        }
+        for (ApiRequest.FilePart part : request.files) {
+            line.append(' ').append(part.name).append("=@").append(part.file.getName());
+        }
+        return line.toString();
+    }
+
+    private Map<String, String> headers(ApiRequest request) {
+        if (request.headers.isEmpty()) {
+            return defaultHeaders;
+        }
+        Map<String, String> headers = new LinkedHashMap<>(defaultHeaders);
+        headers.putAll(scrub(request.headers));
+        return headers;
+    }
+
+    static Map<String, String> scrub(Map<String, String> headers) {
+        Map<String, String> scrubbed = new LinkedHashMap<>();
+        headers.forEach((name, value) -> scrubbed.put(name, SECRET_HEADERS.contains(name) ? mask(value) : value));
+        return scrubbed;
+    }
+
+    private static String mask(String value) {
+        int space = value.indexOf(' ');
+        return space > 0 ? value.substring(0, space) + " ***" : "***";
+    }
+
+    private static ApiResponse recordable(ApiResponse response) {
+        if (response.header("Set-Cookie") == null) {
+            return response;
+        }
+        Map<String, List<String>> headers = new LinkedHashMap<>(response.headers());
+        // HTTP/2 and the JDK client name headers in lower case
+        headers.keySet().removeIf("Set-Cookie"::equalsIgnoreCase);
+        return new ApiResponse(response.statusCode(), headers, response.body());
+    }
+
+    private static void digestFile(MessageDigest digest, Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read upload " + file, e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (cassette != null ? "replaying " : "recording ") + size() + " interactions";
+    }
+}
@@ -0,0 +1,166 @@
+package org.example;
+
+import io.restassured.config.HttpClientConfig;
+import io.restassured.config.RestAssuredConfig;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared pool of keep-alive connections for the API clients. RestAssured 4 drives an
+ * Apache {@code AbstractHttpClient}, so the pool is a {@code PoolingClientConnectionManager}
+ * behind a single client instance that every request specification reuses.
+ */
+@SuppressWarnings("deprecation")
+public final class ConnectionPool implements AutoCloseable {
+    private static volatile ConnectionPool shared;
+    private static final ThreadLocal<Exchange> EXCHANGE = ThreadLocal.withInitial(Exchange::new);
+
+    private final PoolingClientConnectionManager manager;
+    private final DefaultHttpClient client;
+    private final RestAssuredConfig config;
+
+    public ConnectionPool(int maxTotal, int maxPerRoute, Duration keepAlive, Duration connectTimeout, Duration readTimeout) {
+        manager = new PoolingClientConnectionManager();
+        manager.setMaxTotal(maxTotal);
+        manager.setDefaultMaxPerRoute(maxPerRoute);
+        HttpParams params = new BasicHttpParams();
+        params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, (int) connectTimeout.toMillis());
+        params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, (int) readTimeout.toMillis());
+        params.setBooleanParameter(CoreConnectionPNames.TCP_NODELAY, true);
+        params.setBooleanParameter(CoreConnectionPNames.STALE_CONNECTION_CHECK, false);
+        client = new DefaultHttpClient(manager, params);
+        long keepAliveMillis = keepAlive.toMillis();
+        client.setKeepAliveStrategy((response, context) -> keepAliveMillis);
+        client.addRequestInterceptor((request, context) -> {
+            HttpConnectionMetrics metrics = ((HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION)).getMetrics();
+            Exchange exchange = EXCHANGE.get();
+            exchange.connected = true;
+            exchange.reused = metrics.getRequestCount() > 0;
+            exchange.sentBefore = metrics.getSentBytesCount();
+        });
+        client.addResponseInterceptor((response, context) -> {
+            HttpConnectionMetrics metrics = ((HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION)).getMetrics();
+            Exchange exchange = EXCHANGE.get();
+            exchange.sentBytes = metrics.getSentBytesCount() - exchange.sentBefore;
+        });
+        config = RestAssuredConfig.config().httpClient(HttpClientConfig.httpClientConfig()
+                .reuseHttpClientInstance()
+                .httpClientFactory(() -> client));
+    }
+
+    /**
+     * Pool settings from {@code pool.maxTotal}, {@code pool.maxPerRoute}, {@code pool.keepAliveSeconds},
+     * {@code pool.connectTimeoutMillis} and {@code pool.readTimeoutMillis}.
+     */
+    public static ConnectionPool fromProperties(Properties properties) {
+        return new ConnectionPool(
+                Integer.parseInt(properties.getProperty("pool.maxTotal", "200")),
+                Integer.parseInt(properties.getProperty("pool.maxPerRoute", "50")),
+                Duration.ofSeconds(Long.parseLong(properties.getProperty("pool.keepAliveSeconds", "30"))),
+                Duration.ofMillis(Long.parseLong(properties.getProperty("pool.connectTimeoutMillis", "10000"))),
+                Duration.ofMillis(Long.parseLong(properties.getProperty("pool.readTimeoutMillis", "60000"))));
+    }
+
+    /**
+     * Process-wide pool with default settings, created on first use.
+     */
+    public static ConnectionPool shared() {
+        ConnectionPool pool = shared;
+        if (pool == null) {
+            synchronized (ConnectionPool.class) {
+                pool = shared;
+                if (pool == null) {
+                    pool = fromProperties(new Properties());
+                    shared = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    RestAssuredConfig restAssuredConfig() {
+        return config;
+    }
+
+    /**
+     * What the pool saw of the calling thread's most recent request; {@link Exchange#reset()}
+     * it before a call to tell whether the call got as far as a connection.
+     */
+    static Exchange exchange() {
+        return EXCHANGE.get();
+    }
+
+    ClientConnectionManager manager() {
+        return manager;
+    }
+
+    public int leased() {
+        return manager.getTotalStats().getLeased();
+    }
+
+    public int available() {
+        return manager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Drops connections that have been idle for longer than {@code idle}.
+     */
+    public void evictIdle(Duration idle) {
+        manager.closeExpiredConnections();
+        manager.closeIdleConnections(idle.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        manager.shutdown();
+    }
+
+    /**
+     * Connection facts of one request, filled in by the client's interceptors on the thread
+     * that sends it. Mutable and reused per thread so that reading it does not allocate.
+     */
+    static final class Exchange {
+        private boolean connected;
+        private boolean reused;
+        private long sentBefore;
+        private long sentBytes;
+
+        void reset() {
+            connected = false;
+            reused = false;
+            sentBytes = 0;
+        }
+
+        /**
+         * @return whether the request was sent over a pooled connection
+         */
+        boolean connected() {
+            return connected;
+        }
+
+        /**
+         * @return whether the connection had served an earlier request
+         */
+        boolean reused() {
+            return reused;
+        }
+
+        /**
+         * @return request line, headers and body as written to the connection
+         */
+        long sentBytes() {
+            return sentBytes;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.example;
+
+/**
+ * An API operation: HTTP method plus a path template relative to the client's base url,
+ * e.g. {@code POST /album/{albumHash}/add}. Endpoints are created once as constants of
+ * the clients and identify the operation in reports; the template is compiled into a
+ * {@link RequestTemplate} once, when the endpoint is created.
+ */
+public final class Endpoint {
+    private final String method;
+    private final String template;
+    private final String family;
+    private final String name;
+    private final boolean idempotent;
+    private final RequestTemplate compiled;
+
+    private Endpoint(String method, String template, String family) {
+        this(method, template, family, "GET".equals(method));
+    }
+
+    private Endpoint(String method, String template, String family, boolean idempotent) {
+        this.method = method;
+        this.template = template;
+        this.family = family;
+        this.name = method + " " + template;
+        this.idempotent = idempotent;
+        this.compiled = RequestTemplate.compile(template);
+    }
+
+    public static Endpoint get(String template, String family) {
+        return new Endpoint("GET", template, family);
+    }
+
+    public static Endpoint post(String template, String family) {
+        return new Endpoint("POST", template, family);
+    }
+
+    public static Endpoint put(String template, String family) {
+        return new Endpoint("PUT", template, family);
+    }
+
+    public static Endpoint delete(String template, String family) {
+        return new Endpoint("DELETE", template, family);
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public String template() {
+        return template;
+    }
+
+    RequestTemplate compiled() {
+        return compiled;
+    }
+
+    /**
+     * Group of related endpoints, e.g. {@code album} or {@code photos}.
+     */
+    public String family() {
+        return family;
+    }
+
+    /**
+     * Safe to repeat: the call does not change server state. True for GETs unless the
+     * endpoint was marked {@link #mutating()}.
+     */
+    public boolean idempotent() {
+        return idempotent;
+    }
+
+    /**
+     * The same endpoint marked as changing server state, for APIs such as VK where
+     * methods like {@code photos.createAlbum} are called with GET.
+     */
+    public Endpoint mutating() {
+        return new Endpoint(method, template, family, false);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
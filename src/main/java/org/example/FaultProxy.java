@@ -0,0 +1,1149 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Loopback HTTP/1.1 proxy to put between a client and its upstream, a stand-in or any
+ * plain-HTTP server, that makes the upstream slow and unreliable in a reproducible way. Each
+ * request is matched against the {@link Rule rules} by method and path; the first rule that
+ * matches decides the latency added before the request is forwarded, the bandwidth of the
+ * connection, and how often the connection is reset or answered by the proxy itself with an
+ * error status or a VK {@code error} envelope instead of being forwarded.
+ * <p>
+ * The proxy runs on a few selector threads and keeps connections to the client and the
+ * upstream open as long as both sides do, one upstream connection per client connection.
+ * Buffers are only held while a request is in flight, so idle keep-alive connections cost a
+ * socket each and tens of thousands of them are fine. Delays are timers on the selector
+ * thread, rounded up to the millisecond.
+ */
+public final class FaultProxy implements AutoCloseable {
+    /** Per direction of a request in flight; also the longest head the proxy reads. */
+    private static final int BUFFER = 16 * 1024;
+
+    private final InetSocketAddress upstream;
+    private final URI upstreamUrl;
+    private final List<Rule> rules;
+    private final ServerSocketChannel server;
+    private final int port;
+    private final Loop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger peakOpen = new AtomicInteger();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder statuses = new LongAdder();
+    private final LongAdder vkErrors = new LongAdder();
+    private final LongAdder upstreamFailures = new LongAdder();
+    private volatile boolean running = true;
+
+    private FaultProxy(int port, URI upstreamUrl, List<Rule> rules, int loops, long seed) throws IOException {
+        if (!"http".equals(upstreamUrl.getScheme())) {
+            throw new IllegalArgumentException("The fault proxy forwards plain HTTP, not " + upstreamUrl);
+        }
+        this.upstreamUrl = upstreamUrl;
+        this.upstream = new InetSocketAddress(upstreamUrl.getHost(), upstreamUrl.getPort() < 0 ? 80 : upstreamUrl.getPort());
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        server.configureBlocking(false);
+        this.port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+        this.loops = new Loop[Math.max(1, loops)];
+        for (int i = 0; i < this.loops.length; i++) {
+            this.loops[i] = new Loop(i, new SplittableRandom(seed + i));
+        }
+        this.loops[0].execute(() -> server.register(this.loops[0].selector, SelectionKey.OP_ACCEPT));
+        for (Loop loop : this.loops) {
+            loop.start();
+        }
+    }
+
+    /**
+     * Starts a proxy on {@code port} (0 for any free one) in front of the upstream of
+     * {@code upstreamUrl}.
+     *
+     * @param loops selector threads
+     * @param seed  seed of the random choices; with one loop and sequential calls a run repeats exactly
+     */
+    public static FaultProxy start(int port, String upstreamUrl, List<Rule> rules, int loops, long seed) throws IOException {
+        return new FaultProxy(port, URI.create(upstreamUrl), rules, loops, seed);
+    }
+
+    /**
+     * A proxy in front of {@code upstreamUrl} with the rules of the {@code proxy.rules} file
+     * (see {@link Rule#parse}), {@code proxy.loops} selector threads (half the processors),
+     * {@code proxy.seed} and {@code proxy.port}; {@code null} when no rules file is set.
+     */
+    public static FaultProxy fromProperties(String upstreamUrl, Properties properties) throws IOException {
+        String file = properties.getProperty("proxy.rules");
+        if (file == null) {
+            return null;
+        }
+        List<Rule> rules = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                rules.add(Rule.parse(trimmed));
+            }
+        }
+        return start(Integer.parseInt(properties.getProperty("proxy.port", "0")), upstreamUrl, rules,
+                Integer.parseInt(properties.getProperty("proxy.loops",
+                        String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)))),
+                Long.parseLong(properties.getProperty("proxy.seed", "0")));
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + port() + path;
+    }
+
+    /**
+     * The upstream url the proxy was started for, pointing at the proxy.
+     */
+    public String baseUrl() {
+        String path = upstreamUrl.getRawPath();
+        return url(path == null ? "" : path);
+    }
+
+    public List<Rule> rules() {
+        return rules;
+    }
+
+    /**
+     * Connections the proxy has open to clients now.
+     */
+    public int openConnections() {
+        return open.get();
+    }
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (Loop loop : loops) {
+            try {
+                loop.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        try {
+            server.close();
+        } catch (IOException ignored) {
+            // nothing to do on shutdown
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "fault proxy :%d -> %s: %d connections (peak %d open), %d requests,"
+                        + " %d delayed, %d resets, %d error statuses, %d vk errors, %d upstream failures",
+                port(), upstream, connections.sum(), peakOpen.get(), requests.sum(), delayed.sum(), resets.sum(),
+                statuses.sum(), vkErrors.sum(), upstreamFailures.sum());
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client;
+        while ((client = server.accept()) != null) {
+            client.configureBlocking(false);
+            client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connections.increment();
+            peakOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+            Loop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            SocketChannel accepted = client;
+            loop.execute(() -> {
+                Exchange exchange = new Exchange(loop, accepted);
+                exchange.clientKey = accepted.register(loop.selector, SelectionKey.OP_READ, exchange);
+            });
+        }
+    }
+
+    private Rule match(String method, String path) {
+        for (Rule rule : rules) {
+            if (rule.matches(method, path)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Latency added to a request, sampled per request.
+     */
+    @FunctionalInterface
+    public interface Latency {
+        long sampleNanos(SplittableRandom random);
+
+        static Latency fixed(Duration latency) {
+            long nanos = latency.toNanos();
+            return random -> nanos;
+        }
+
+        /**
+         * Lognormally distributed around {@code median}; {@code sigma} 0.5 puts the 99th
+         * percentile at about 3.2 times the median.
+         */
+        static Latency lognormal(Duration median, double sigma) {
+            long nanos = median.toNanos();
+            return random -> (long) (nanos * Math.exp(sigma * random.nextGaussian()));
+        }
+
+        /**
+         * Pareto distributed from {@code scale} up, capped at {@code max}: the smaller
+         * {@code alpha}, the longer the tail (at 1.5 one request in a hundred takes over 21
+         * times the scale).
+         */
+        static Latency longTail(Duration scale, double alpha, Duration max) {
+            long nanos = scale.toNanos();
+            long cap = max.toNanos();
+            return random -> (long) Math.min(cap, nanos / Math.pow(1 - random.nextDouble(), 1 / alpha));
+        }
+
+        /**
+         * Parses {@code fixed:50ms}, {@code lognormal:40ms:0.5} or {@code longtail:20ms:1.5:5s}.
+         */
+        static Latency parse(String spec) {
+            String[] parts = spec.split(":");
+            switch (parts[0]) {
+                case "fixed":
+                    return fixed(App.parseDuration(parts[1]));
+                case "lognormal":
+                    return lognormal(App.parseDuration(parts[1]), Double.parseDouble(parts[2]));
+                case "longtail":
+                    return longTail(App.parseDuration(parts[1]), Double.parseDouble(parts[2]),
+                            parts.length > 3 ? App.parseDuration(parts[3]) : Duration.ofSeconds(30));
+                default:
+                    throw new IllegalArgumentException("Unknown latency " + spec);
+            }
+        }
+    }
+
+    /**
+     * Faults for the requests with a method and a path. The probabilities of the faults of
+     * one rule add up to at most 1; a request gets at most one of them.
+     */
+    public static final class Rule {
+        private final String method;
+        private final Pattern path;
+        private final String source;
+        private Latency latency;
+        private long bytesPerSecond;
+        private double reset;
+        private final List<Injection> statuses = new ArrayList<>();
+        private final List<Injection> vkErrors = new ArrayList<>();
+
+        private Rule(String method, String path, String source) {
+            this.method = "*".equals(method) ? null : method.toUpperCase(Locale.ROOT);
+            this.path = Pattern.compile(path);
+            this.source = source;
+        }
+
+        /**
+         * Requests with {@code method} ({@code *} for any) whose path, without the query,
+         * matches the {@code path} regex as a whole.
+         */
+        public static Rule matching(String method, String path) {
+            return new Rule(method, path, method + " " + path);
+        }
+
+        /**
+         * Parses a rule line: method, path regex, then faults in any order.
+         * <pre>
+         * POST /3/album        latency=lognormal:40ms:0.5 status=503@0.02 status=429@0.05
+         * *    /method/photos\..* vk-error=6@0.1 reset=0.01
+         * *    /upload          bandwidth=256k latency=longtail:20ms:1.5:5s
+         * </pre>
+         * Bandwidth is in bytes per second per direction and connection.
+         */
+        public static Rule parse(String line) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens.length < 2) {
+                throw new IllegalArgumentException("Expected a method and a path in rule " + line);
+            }
+            Rule rule = new Rule(tokens[0], tokens[1], line.trim());
+            for (int i = 2; i < tokens.length; i++) {
+                int eq = tokens[i].indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException("Expected name=value, not " + tokens[i] + " in rule " + line);
+                }
+                String name = tokens[i].substring(0, eq);
+                String value = tokens[i].substring(eq + 1);
+                int at = value.indexOf('@');
+                switch (name) {
+                    case "latency":
+                        rule.latency(Latency.parse(value));
+                        break;
+                    case "bandwidth":
+                        rule.bandwidth(App.parseSize(value));
+                        break;
+                    case "reset":
+                        rule.reset(Double.parseDouble(value));
+                        break;
+                    case "status":
+                        rule.status(Integer.parseInt(value.substring(0, at)), Double.parseDouble(value.substring(at + 1)));
+                        break;
+                    case "vk-error":
+                        rule.vkError(Integer.parseInt(value.substring(0, at)), Double.parseDouble(value.substring(at + 1)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown fault " + name + " in rule " + line);
+                }
+            }
+            return rule;
+        }
+
+        public Rule latency(Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        public Rule bandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Resets the connection instead of forwarding with {@code probability}.
+         */
+        public Rule reset(double probability) {
+            this.reset = probability;
+            return this;
+        }
+
+        /**
+         * Answers with {@code status} instead of forwarding with {@code probability}; a 429
+         * comes with {@code Retry-After: 1}.
+         */
+        public Rule status(int status, double probability) {
+            statuses.add(new Injection(status, probability));
+            return this;
+        }
+
+        /**
+         * Answers with a VK error envelope of {@code errorCode} instead of forwarding with
+         * {@code probability}.
+         */
+        public Rule vkError(int errorCode, double probability) {
+            vkErrors.add(new Injection(errorCode, probability));
+            return this;
+        }
+
+        boolean matches(String requestMethod, String requestPath) {
+            return (method == null || method.equals(requestMethod)) && path.matcher(requestPath).matches();
+        }
+
+        @Override
+        public String toString() {
+            return source;
+        }
+    }
+
+    private static final class Injection {
+        final int code;
+        final double probability;
+
+        Injection(int code, double probability) {
+            this.code = code;
+            this.probability = probability;
+        }
+    }
+
+    /**
+     * Bytes per second of one direction of a connection, in bursts of up to a tenth of a second.
+     */
+    private static final class Bandwidth {
+        private final long bytesPerSecond;
+        private final double burst;
+        private double available;
+        private long last = System.nanoTime();
+
+        Bandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.burst = Math.max(bytesPerSecond / 10.0, 1024);
+            this.available = burst;
+        }
+
+        int take(int wanted) {
+            long now = System.nanoTime();
+            available = Math.min(burst, available + (now - last) * bytesPerSecond / 1e9);
+            last = now;
+            int granted = (int) Math.min(wanted, available);
+            available -= granted;
+            return granted;
+        }
+
+        long waitNanos(int wanted) {
+            return (long) ((Math.min(wanted, burst) - available) * 1e9 / bytesPerSecond) + 1;
+        }
+    }
+
+    /**
+     * Where a message ends: counts the bytes of a body as they arrive.
+     */
+    private static final class Body {
+        private static final int SIZE = 0;
+        private static final int EXTENSION = 1;
+        private static final int DATA = 2;
+        private static final int DATA_END = 3;
+        private static final int TRAILER = 4;
+
+        private final boolean chunked;
+        private final boolean untilClose;
+        private long left;
+        private int state = SIZE;
+        private boolean lineEmpty = true;
+        private boolean done;
+
+        private Body(boolean chunked, boolean untilClose, long length) {
+            this.chunked = chunked;
+            this.untilClose = untilClose;
+            this.left = length;
+            this.done = !chunked && !untilClose && length == 0;
+        }
+
+        static Body length(long length) {
+            return new Body(false, false, length);
+        }
+
+        static Body chunked() {
+            return new Body(true, false, 0);
+        }
+
+        static Body untilClose() {
+            return new Body(false, true, 0);
+        }
+
+        /**
+         * @return how many of the bytes from {@code from} to {@code to} still belong to the message
+         */
+        int consume(byte[] bytes, int from, int to) {
+            if (done) {
+                return 0;
+            }
+            if (untilClose) {
+                return to - from;
+            }
+            if (!chunked) {
+                int taken = (int) Math.min(left, to - from);
+                left -= taken;
+                done = left == 0;
+                return taken;
+            }
+            int i = from;
+            while (i < to && !done) {
+                byte b = bytes[i];
+                switch (state) {
+                    case SIZE:
+                        int digit = Character.digit(b, 16);
+                        if (digit >= 0) {
+                            left = left * 16 + digit;
+                        } else if (b == '\n') {
+                            state = left == 0 ? TRAILER : DATA;
+                            lineEmpty = true;
+                        } else if (b != '\r') {
+                            state = EXTENSION;
+                        }
+                        i++;
+                        break;
+                    case EXTENSION:
+                        if (b == '\n') {
+                            state = left == 0 ? TRAILER : DATA;
+                            lineEmpty = true;
+                        }
+                        i++;
+                        break;
+                    case DATA:
+                        int taken = (int) Math.min(left, to - i);
+                        left -= taken;
+                        i += taken;
+                        if (left == 0) {
+                            state = DATA_END;
+                        }
+                        break;
+                    case DATA_END:
+                        if (b == '\n') {
+                            state = SIZE;
+                        }
+                        i++;
+                        break;
+                    default:
+                        // trailer lines up to an empty one
+                        if (b == '\n') {
+                            done = lineEmpty;
+                            lineEmpty = true;
+                        } else if (b != '\r') {
+                            lineEmpty = false;
+                        }
+                        i++;
+                        break;
+                }
+            }
+            return i - from;
+        }
+    }
+
+    /**
+     * Request or response head: start line and the headers the proxy needs for framing.
+     */
+    private static final class Head {
+        final String[] startLine;
+        long contentLength = -1;
+        boolean chunked;
+        boolean close;
+
+        Head(byte[] bytes, int length) {
+            String[] lines = new String(bytes, 0, length, StandardCharsets.ISO_8859_1).split("\r\n");
+            startLine = lines[0].split(" ", 3);
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim().toLowerCase(Locale.ROOT);
+                if ("content-length".equals(name)) {
+                    contentLength = Long.parseLong(value);
+                } else if ("transfer-encoding".equals(name)) {
+                    chunked = value.endsWith("chunked");
+                } else if ("connection".equals(name)) {
+                    close = value.contains("close");
+                }
+            }
+        }
+
+        /**
+         * @return the length of the head including the blank line, or -1 if it is not complete
+         */
+        static int end(byte[] bytes, int from, int to) {
+            for (int i = Math.max(3, from); i < to; i++) {
+                if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final class Loop extends Thread {
+        final Selector selector;
+        final SplittableRandom random;
+        final ByteBuffer scratch = ByteBuffer.allocate(256);
+        private final ConcurrentLinkedQueue<IoTask> tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+        Loop(int index, SplittableRandom random) throws IOException {
+            super("fault-proxy-" + index);
+            setDaemon(true);
+            this.selector = Selector.open();
+            this.random = random;
+        }
+
+        void execute(IoTask task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void schedule(long delayNanos, Exchange exchange) {
+            timers.add(new Timer(System.nanoTime() + delayNanos, exchange));
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    long timeout = 0;
+                    Timer first = timers.peek();
+                    if (first != null) {
+                        timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(first.at - System.nanoTime() + 999_999));
+                    }
+                    selector.select(this::ready, timeout);
+                    IoTask task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (IOException e) {
+                            // the client went away before it was registered
+                        }
+                    }
+                    long now = System.nanoTime();
+                    while (!timers.isEmpty() && timers.peek().at - now <= 0) {
+                        Exchange exchange = timers.poll().exchange;
+                        exchange.waiting = false;
+                        exchange.pump();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Exchange) {
+                        ((Exchange) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // nothing to do on shutdown
+                }
+            }
+        }
+
+        private void ready(SelectionKey key) {
+            if (key.isValid() && key.isAcceptable()) {
+                try {
+                    accept();
+                } catch (IOException e) {
+                    // too many open files and the like; the client sees a refused connection
+                }
+                return;
+            }
+            Exchange exchange = (Exchange) key.attachment();
+            if (key == exchange.upstreamKey && key.isValid()) {
+                if (key.isConnectable()) {
+                    exchange.connected();
+                } else if (!exchange.active) {
+                    exchange.upstreamIdle();
+                }
+            }
+            exchange.pump();
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final long at;
+        final Exchange exchange;
+
+        Timer(long at, Exchange exchange) {
+            this.at = at;
+            this.exchange = exchange;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(at - other.at, 0);
+        }
+    }
+
+    /**
+     * A client connection, its upstream connection, and the request in flight on them.
+     */
+    private final class Exchange {
+        private final Loop loop;
+        private final SocketChannel client;
+        SelectionKey clientKey;
+        private SocketChannel upstreamChannel;
+        SelectionKey upstreamKey;
+        private boolean connecting;
+        /** Client bytes not yet forwarded; the first {@code requestPending} belong to the request in flight. */
+        private ByteBuffer in;
+        /** Bytes for the client; the first {@code responsePending} belong to the response in flight. */
+        private ByteBuffer out;
+        boolean active;
+        private boolean forwarding;
+        private boolean held;
+        boolean waiting;
+        private boolean closeAfter;
+        private boolean headRequest;
+        private Body request;
+        private int requestPending;
+        private Body response;
+        private int responsePending;
+        private boolean responseStarted;
+        /** The request in flight, to send again if a reused upstream connection turns out closed. */
+        private byte[] replay;
+        private Bandwidth upBandwidth;
+        private Bandwidth downBandwidth;
+        private boolean closed;
+
+        Exchange(Loop loop, SocketChannel client) {
+            this.loop = loop;
+            this.client = client;
+        }
+
+        void connected() {
+            try {
+                upstreamChannel.finishConnect();
+                connecting = false;
+            } catch (IOException e) {
+                upstreamFailed();
+            }
+        }
+
+        void pump() {
+            if (closed) {
+                return;
+            }
+            try {
+                boolean progress = true;
+                while (progress && !closed) {
+                    progress = active ? pumpExchange() : readHead();
+                }
+                if (!closed) {
+                    interest();
+                }
+            } catch (IOException | RuntimeException e) {
+                // a broken peer or a head the proxy cannot parse costs this connection only
+                close();
+            }
+        }
+
+        /**
+         * Between requests the upstream only speaks to close the connection.
+         */
+        void upstreamIdle() {
+            try {
+                loop.scratch.clear();
+                if (upstreamChannel.read(loop.scratch) < 0) {
+                    closeUpstream();
+                }
+            } catch (IOException e) {
+                closeUpstream();
+            }
+        }
+
+        private boolean readHead() throws IOException {
+            if (in == null) {
+                in = ByteBuffer.allocate(BUFFER);
+            }
+            int headLength = Head.end(in.array(), 0, in.position());
+            if (headLength < 0) {
+                int read = client.read(in);
+                if (read < 0) {
+                    close();
+                    return false;
+                }
+                headLength = Head.end(in.array(), in.position() - read - 3, in.position());
+                if (headLength < 0) {
+                    if (!in.hasRemaining()) {
+                        close();
+                    }
+                    if (in.position() == 0) {
+                        in = null;
+                    }
+                    return false;
+                }
+            }
+            begin(new Head(in.array(), headLength), headLength);
+            return true;
+        }
+
+        private void begin(Head head, int headLength) throws IOException {
+            requests.increment();
+            active = true;
+            String method = head.startLine[0];
+            String target = head.startLine.length > 1 ? head.startLine[1] : "/";
+            int query = target.indexOf('?');
+            String path = query < 0 ? target : target.substring(0, query);
+            headRequest = "HEAD".equals(method);
+            closeAfter = head.close;
+            request = head.chunked ? Body.chunked() : Body.length(Math.max(0, head.contentLength));
+            requestPending = headLength + request.consume(in.array(), headLength, in.position());
+            response = null;
+            responsePending = 0;
+            responseStarted = false;
+            if (out == null) {
+                out = ByteBuffer.allocate(BUFFER);
+            }
+
+            Rule rule = match(method, path);
+            upBandwidth = rule != null && rule.bytesPerSecond > 0 ? new Bandwidth(rule.bytesPerSecond) : null;
+            downBandwidth = rule != null && rule.bytesPerSecond > 0 ? new Bandwidth(rule.bytesPerSecond) : null;
+            long delay = rule != null && rule.latency != null ? rule.latency.sampleNanos(loop.random) : 0;
+            forwarding = true;
+            if (rule != null) {
+                double roll = loop.random.nextDouble() - rule.reset;
+                if (roll < 0) {
+                    resets.increment();
+                    client.setOption(StandardSocketOptions.SO_LINGER, 0);
+                    close();
+                    return;
+                }
+                Injection status = null;
+                for (int i = 0; i < rule.statuses.size() && status == null; i++) {
+                    roll -= rule.statuses.get(i).probability;
+                    status = roll < 0 ? rule.statuses.get(i) : null;
+                }
+                Injection error = null;
+                for (int i = 0; i < rule.vkErrors.size() && status == null && error == null; i++) {
+                    roll -= rule.vkErrors.get(i).probability;
+                    error = roll < 0 ? rule.vkErrors.get(i) : null;
+                }
+                if (status != null) {
+                    statuses.increment();
+                    reply(status.code, status.code == 429 ? "Retry-After: 1\r\n" : "", "{\"data\":{\"error\":\""
+                            + reason(status.code) + "\",\"method\":\"" + method + "\"},\"success\":false,\"status\":"
+                            + status.code + "}");
+                } else if (error != null) {
+                    vkErrors.increment();
+                    reply(200, "", "{\"error\":{\"error_code\":" + error.code + ",\"error_msg\":\""
+                            + vkMessage(error.code) + "\",\"request_params\":[]}}");
+                }
+            }
+            if (delay > 0) {
+                delayed.increment();
+                held = true;
+                waiting = true;
+                loop.schedule(delay, this);
+            }
+            replay = forwarding && upstreamChannel != null && request.done ? Arrays.copyOf(in.array(), requestPending) : null;
+            if (forwarding && upstreamChannel == null) {
+                try {
+                    connect();
+                } catch (IOException e) {
+                    upstreamFailed();
+                }
+            }
+        }
+
+        /**
+         * Answers the request in flight from the proxy, sent once the request was read and
+         * any latency has passed.
+         */
+        private void reply(int status, String headers, String json) {
+            forwarding = false;
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            byte[] head = ("HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+                    + "Content-Type: application/json; charset=utf-8\r\n" + headers
+                    + "Content-Length: " + body.length + "\r\n"
+                    + (closeAfter ? "Connection: close\r\n" : "")
+                    + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            out.clear();
+            out.put(head).put(body);
+            response = Body.length(0);
+            responsePending = out.position();
+            responseStarted = true;
+        }
+
+        private void connect() throws IOException {
+            upstreamChannel = SocketChannel.open();
+            upstreamChannel.configureBlocking(false);
+            upstreamChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connecting = !upstreamChannel.connect(upstream);
+            upstreamKey = upstreamChannel.register(loop.selector, connecting ? SelectionKey.OP_CONNECT : 0, this);
+        }
+
+        private boolean pumpExchange() throws IOException {
+            if (held) {
+                if (waiting) {
+                    return false;
+                }
+                held = false;
+            }
+            boolean progress = pumpRequest();
+            progress |= pumpResponse();
+            if (request.done && requestPending == 0 && response != null && response.done && responsePending == 0) {
+                finish();
+                return true;
+            }
+            return progress;
+        }
+
+        private boolean pumpRequest() throws IOException {
+            boolean progress = false;
+            if (requestPending > 0) {
+                int sent;
+                if (!forwarding) {
+                    sent = requestPending;
+                } else if (connecting || upstreamChannel == null) {
+                    sent = 0;
+                } else {
+                    try {
+                        sent = write(upstreamChannel, in, requestPending, upBandwidth);
+                    } catch (IOException e) {
+                        upstreamLost();
+                        return true;
+                    }
+                }
+                if (!forwarding) {
+                    in.flip().position(sent);
+                    in.compact();
+                }
+                requestPending -= sent;
+                progress = sent > 0;
+            }
+            if (!request.done && in.hasRemaining()) {
+                int read = client.read(in);
+                if (read < 0) {
+                    close();
+                    return false;
+                }
+                requestPending += request.consume(in.array(), in.position() - read, in.position());
+                progress |= read > 0;
+            }
+            return progress;
+        }
+
+        private boolean pumpResponse() throws IOException {
+            boolean progress = false;
+            // a full buffer only stops the upstream read; what it holds still goes to the client
+            if ((forwarding && response == null || response != null && !response.done)
+                    && !connecting && upstreamChannel != null && out.hasRemaining()) {
+                int read;
+                try {
+                    read = upstreamChannel.read(out);
+                } catch (IOException e) {
+                    read = -1;
+                }
+                if (read < 0) {
+                    if (response != null && response.untilClose) {
+                        response.done = true;
+                        closeAfter = true;
+                        closeUpstream();
+                        return true;
+                    }
+                    upstreamLost();
+                    return true;
+                }
+                if (read > 0) {
+                    progress = true;
+                    responseStarted = true;
+                    if (response == null) {
+                        int headLength = Head.end(out.array(), 0, out.position());
+                        if (headLength < 0) {
+                            if (!out.hasRemaining()) {
+                                upstreamFailed();
+                            }
+                            return true;
+                        }
+                        Head head = new Head(out.array(), headLength);
+                        int status = Integer.parseInt(head.startLine[1]);
+                        closeAfter |= head.close;
+                        if (headRequest || status / 100 == 1 || status == 204 || status == 304) {
+                            response = Body.length(0);
+                        } else if (head.chunked) {
+                            response = Body.chunked();
+                        } else if (head.contentLength >= 0) {
+                            response = Body.length(head.contentLength);
+                        } else {
+                            response = Body.untilClose();
+                        }
+                        responsePending = headLength + response.consume(out.array(), headLength, out.position());
+                    } else {
+                        responsePending += response.consume(out.array(), out.position() - read, out.position());
+                    }
+                }
+            }
+            if (responsePending > 0) {
+                int sent = write(client, out, responsePending, downBandwidth);
+                responsePending -= sent;
+                progress |= sent > 0;
+            }
+            return progress;
+        }
+
+        /**
+         * Writes up to {@code pending} bytes from the start of {@code buffer} as far as the
+         * bandwidth allows, and drops what was written from the buffer.
+         */
+        private int write(SocketChannel channel, ByteBuffer buffer, int pending, Bandwidth bandwidth) throws IOException {
+            int allowed = pending;
+            if (bandwidth != null) {
+                if (waiting) {
+                    return 0;
+                }
+                allowed = bandwidth.take(pending);
+                if (allowed == 0) {
+                    waiting = true;
+                    loop.schedule(bandwidth.waitNanos(pending), this);
+                    return 0;
+                }
+            }
+            int end = buffer.position();
+            buffer.flip().limit(allowed);
+            int written = channel.write(buffer);
+            buffer.limit(end);
+            buffer.compact();
+            if (bandwidth != null && written < allowed) {
+                bandwidth.available += allowed - written;
+            }
+            return written;
+        }
+
+        private void finish() {
+            active = false;
+            request = null;
+            response = null;
+            upBandwidth = null;
+            downBandwidth = null;
+            if (closeAfter) {
+                close();
+                return;
+            }
+            if (in != null && in.position() == 0) {
+                in = null;
+            }
+            out = null;
+        }
+
+        /**
+         * The upstream closed the connection before it answered: the server may have dropped
+         * it as idle just as the request went out, so a request kept for replay is sent again
+         * on a fresh connection, the way HTTP clients retry on a stale pooled connection.
+         */
+        private void upstreamLost() {
+            int pipelined = in.position() - requestPending;
+            if (replay == null || responseStarted || replay.length + pipelined > in.capacity()) {
+                upstreamFailed();
+                return;
+            }
+            byte[] next = Arrays.copyOfRange(in.array(), requestPending, in.position());
+            in.clear();
+            in.put(replay).put(next);
+            requestPending = replay.length;
+            replay = null;
+            out.clear();
+            closeUpstream();
+            try {
+                connect();
+            } catch (IOException e) {
+                upstreamFailed();
+            }
+        }
+
+        private void upstreamFailed() {
+            upstreamFailures.increment();
+            closeUpstream();
+            if (responseStarted) {
+                close();
+                return;
+            }
+            closeAfter = true;
+            reply(502, "", "{\"error\":\"The fault proxy cannot reach " + upstream + "\"}");
+            request.done = true;
+        }
+
+        private void closeUpstream() {
+            if (upstreamChannel != null) {
+                try {
+                    upstreamChannel.close();
+                } catch (IOException ignored) {
+                    // already gone
+                }
+                upstreamChannel = null;
+                upstreamKey = null;
+                connecting = false;
+            }
+        }
+
+        private void interest() {
+            if (clientKey == null || !clientKey.isValid()) {
+                return;
+            }
+            boolean paused = waiting;
+            int clientOps = 0;
+            if (!active || !held && !request.done && in.hasRemaining() && !paused) {
+                clientOps |= SelectionKey.OP_READ;
+            }
+            if (active && responsePending > 0 && !paused) {
+                clientOps |= SelectionKey.OP_WRITE;
+            }
+            clientKey.interestOps(clientOps);
+            if (upstreamKey != null && upstreamKey.isValid()) {
+                int upstreamOps;
+                if (connecting) {
+                    upstreamOps = SelectionKey.OP_CONNECT;
+                } else if (!active) {
+                    upstreamOps = SelectionKey.OP_READ;
+                } else {
+                    upstreamOps = 0;
+                    if (forwarding && !held && requestPending > 0 && !paused) {
+                        upstreamOps |= SelectionKey.OP_WRITE;
+                    }
+                    if (forwarding && !held && (response == null || !response.done) && out.hasRemaining()) {
+                        upstreamOps |= SelectionKey.OP_READ;
+                    }
+                }
+                upstreamKey.interestOps(upstreamOps);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            open.decrementAndGet();
+            closeUpstream();
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // already gone
+            }
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 429:
+                return "Too Many Requests";
+            case 500:
+                return "Internal Server Error";
+            case 502:
+                return "Bad Gateway";
+            case 503:
+                return "Service Unavailable";
+            case 504:
+                return "Gateway Timeout";
+            default:
+                return "Injected";
+        }
+    }
+
+    private static String vkMessage(int errorCode) {
+        switch (errorCode) {
+            case 6:
+                return "Too many requests per second";
+            case 9:
+                return "Flood control";
+            case 10:
+                return "Internal server error";
+            default:
+                return "Injected error";
+        }
+    }
+}
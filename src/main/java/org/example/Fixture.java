@@ -0,0 +1,85 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable test configuration (album titles, image urls, API version, pool settings).
+ * Each file is read once per JVM and the instance is shared by every scenario and test
+ * class; state produced while running belongs in a {@link ScenarioContext} instead.
+ */
+public final class Fixture {
+    private static final ConcurrentMap<Path, Fixture> LOADED = new ConcurrentHashMap<>();
+
+    private final Map<String, String> values;
+
+    private Fixture(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Returns the fixture of the given properties file, reading it on first use.
+     */
+    public static Fixture load(String path) {
+        return LOADED.computeIfAbsent(Paths.get(path).toAbsolutePath().normalize(), Fixture::read);
+    }
+
+    public static Fixture of(Properties properties) {
+        Map<String, String> values = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            values.put(name, properties.getProperty(name));
+        }
+        return new Fixture(values);
+    }
+
+    private static Fixture read(Path path) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read fixture " + path, e);
+        }
+        return of(properties);
+    }
+
+    public String get(String name) {
+        return values.get(name);
+    }
+
+    public String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * @return a copy with {@code name} set to {@code value} unless it is already present
+     */
+    public Fixture withDefault(String name, String value) {
+        if (values.containsKey(name)) {
+            return this;
+        }
+        Map<String, String> copy = new HashMap<>(values);
+        copy.put(name, value);
+        return new Fixture(copy);
+    }
+
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.putAll(values);
+        return properties;
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
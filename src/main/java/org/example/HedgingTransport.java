@@ -0,0 +1,304 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * {@link Transport} decorator that cuts the latency tail of {@link Endpoint#idempotent()
+ * idempotent} calls; everything else is passed through once, untouched.
+ * <p>
+ * Hedging: when a call has not completed after the given percentile of the endpoint's
+ * recent latencies, a second copy is sent, the first response wins and the other copy is
+ * cancelled. The copies in flight are separate {@linkplain ApiRequest#copy() requests}, as the
+ * decorators below add headers to what they send. The blocking RestAssured client does not
+ * notice the interrupt, so a cancelled copy finishes in the background and its response is
+ * dropped.
+ * <p>
+ * Retries: calls that fail with an exception or a 500/502/503/504 are repeated up to
+ * {@code maxAttempts} times in total, after a random delay between zero and an
+ * exponentially growing bound (full jitter).
+ * <p>
+ * Asynchronous calls do the same on timers: the copy and the retries are sent from the
+ * timer thread when their delay is over, and no thread waits for them meanwhile.
+ */
+public final class HedgingTransport implements Transport {
+    private static final int WINDOW = 128;
+    private static final int RECOMPUTE_EVERY = 16;
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final ExecutorService CALLS = VirtualThreads.newThreadPerTaskExecutor("hedged-call");
+
+    private final Transport delegate;
+    private final double percentile;
+    private final int minSamples;
+    private final int maxAttempts;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final ConcurrentMap<Endpoint, Latency> latencies = new ConcurrentHashMap<>();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * @param percentile latency percentile after which a copy is sent, 0 for no hedging
+     * @param minSamples calls an endpoint needs before it is hedged
+     * @param maxAttempts attempts per call including the first one, 1 for no retries
+     */
+    public HedgingTransport(Transport delegate, double percentile, int minSamples, int maxAttempts,
+                            Duration baseBackoff, Duration maxBackoff) {
+        if (percentile < 0 || percentile >= 100 || maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid hedge percentile " + percentile + " or attempts " + maxAttempts);
+        }
+        this.delegate = delegate;
+        this.percentile = percentile;
+        this.minSamples = Math.max(1, minSamples);
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffNanos = baseBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+    }
+
+    /**
+     * Wraps {@code delegate} as configured by {@code hedge.percentile}, {@code hedge.minSamples},
+     * {@code retry.maxAttempts}, {@code retry.baseDelayMillis} and {@code retry.maxDelayMillis};
+     * returns it unchanged when neither hedging nor retries are switched on.
+     */
+    public static Transport fromProperties(Transport delegate, Properties properties) {
+        double percentile = Double.parseDouble(properties.getProperty("hedge.percentile", "0"));
+        int maxAttempts = Integer.parseInt(properties.getProperty("retry.maxAttempts", "1"));
+        if (percentile == 0 && maxAttempts == 1) {
+            return delegate;
+        }
+        return new HedgingTransport(delegate, percentile,
+                Integer.parseInt(properties.getProperty("hedge.minSamples", "20")),
+                maxAttempts,
+                Duration.ofMillis(Long.parseLong(properties.getProperty("retry.baseDelayMillis", "50"))),
+                Duration.ofMillis(Long.parseLong(properties.getProperty("retry.maxDelayMillis", "1000"))));
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        if (!request.endpoint().idempotent()) {
+            return delegate.execute(request);
+        }
+        Latency latency = latencies.computeIfAbsent(request.endpoint(), endpoint -> new Latency());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ApiResponse response = attempt(request, latency);
+                if (!retryable(response.statusCode()) || attempt == maxAttempts) {
+                    return response;
+                }
+            } catch (RuntimeException e) {
+                if (attempt == maxAttempts) {
+                    throw e;
+                }
+            }
+            retries.increment();
+            backoff(attempt);
+        }
+    }
+
+    private ApiResponse attempt(ApiRequest request, Latency latency) {
+        long delay = percentile > 0 ? latency.hedgeDelay : -1;
+        if (delay < 0) {
+            long start = System.nanoTime();
+            ApiResponse response = delegate.execute(request);
+            latency.record(System.nanoTime() - start);
+            return response;
+        }
+        CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        Future<?> primary = CALLS.submit(() -> call(request, latency, result, running, false));
+        Future<?> hedge = null;
+        try {
+            try {
+                return result.get(delay, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                hedges.increment();
+                running.incrementAndGet();
+                hedge = CALLS.submit(() -> call(request, latency, result, running, true));
+                return result.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + request.endpoint(), e);
+        } finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        if (!request.endpoint().idempotent()) {
+            return delegate.executeAsync(request);
+        }
+        return executeAsync(request, latencies.computeIfAbsent(request.endpoint(), endpoint -> new Latency()), 1);
+    }
+
+    private CompletableFuture<ApiResponse> executeAsync(ApiRequest request, Latency latency, int attempt) {
+        return attemptAsync(request, latency).handle((response, error) -> {
+            if (error == null && (!retryable(response.statusCode()) || attempt == maxAttempts)) {
+                return CompletableFuture.completedFuture(response);
+            }
+            if (error != null && attempt == maxAttempts) {
+                return CompletableFuture.<ApiResponse>failedFuture(error);
+            }
+            retries.increment();
+            return CompletableFuture.supplyAsync(() -> executeAsync(request, latency, attempt + 1),
+                    CompletableFuture.delayedExecutor(backoffNanos(attempt), TimeUnit.NANOSECONDS, Runnable::run))
+                    .thenCompose(Function.identity());
+        }).thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<ApiResponse> attemptAsync(ApiRequest request, Latency latency) {
+        long delay = percentile > 0 ? latency.hedgeDelay : -1;
+        CompletableFuture<ApiResponse> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        send(request, latency, result, running, false);
+        if (delay >= 0) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, Runnable::run).execute(() -> {
+                if (!result.isDone()) {
+                    hedges.increment();
+                    running.incrementAndGet();
+                    send(request, latency, result, running, true);
+                }
+            });
+        }
+        return result;
+    }
+
+    private void send(ApiRequest request, Latency latency, CompletableFuture<ApiResponse> result,
+                      AtomicInteger running, boolean hedge) {
+        long start = System.nanoTime();
+        CompletableFuture<ApiResponse> call = delegate.executeAsync(request.copy());
+        call.whenComplete((response, error) -> {
+            if (error == null) {
+                latency.record(System.nanoTime() - start);
+                if (result.complete(response) && hedge) {
+                    hedgeWins.increment();
+                }
+            } else if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            }
+        });
+        result.whenComplete((response, error) -> call.cancel(true));
+    }
+
+    private void call(ApiRequest request, Latency latency, CompletableFuture<ApiResponse> result,
+                      AtomicInteger running, boolean hedge) {
+        try {
+            long start = System.nanoTime();
+            ApiResponse response = delegate.execute(request.copy());
+            latency.record(System.nanoTime() - start);
+            if (result.complete(response) && hedge) {
+                hedgeWins.increment();
+            }
+        } catch (RuntimeException e) {
+            // the call fails only when no copy succeeds
+            if (running.decrementAndGet() == 0) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static boolean retryable(int status) {
+        return status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    private void backoff(int attempt) {
+        long deadline = System.nanoTime() + backoffNanos(attempt);
+        for (long left; (left = deadline - System.nanoTime()) > 0; ) {
+            LockSupport.parkNanos(left);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("Interrupted during retry backoff");
+            }
+        }
+    }
+
+    private long backoffNanos(int attempt) {
+        long bound = Math.min(maxBackoffNanos, baseBackoffNanos << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * @return current hedge delay of each endpoint in nanoseconds, -1 while it has too few samples
+     */
+    public Map<Endpoint, Long> hedgeDelays() {
+        Map<Endpoint, Long> delays = new ConcurrentHashMap<>();
+        latencies.forEach((endpoint, latency) -> delays.put(endpoint, latency.hedgeDelay));
+        return delays;
+    }
+
+    public long hedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return hedged calls that were answered by the second copy
+     */
+    public long hedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public long retries() {
+        return retries.sum();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hedging at p%.0f: %d hedged, %d won by the copy, %d retries", percentile, hedges(), hedgeWins(), retries());
+    }
+
+    /**
+     * Ring of the endpoint's most recent latencies. The hedge delay is recomputed from a
+     * sorted copy every few samples, so the call path only reads a volatile.
+     */
+    private final class Latency {
+        private final AtomicLongArray samples = new AtomicLongArray(WINDOW);
+        private final AtomicLong count = new AtomicLong();
+        private volatile long hedgeDelay = -1;
+
+        void record(long nanos) {
+            long n = count.getAndIncrement();
+            samples.set((int) (n % WINDOW), nanos);
+            if ((n + 1) % RECOMPUTE_EVERY == 0 && n + 1 >= minSamples) {
+                int size = (int) Math.min(n + 1, WINDOW);
+                long[] sorted = new long[size];
+                for (int i = 0; i < size; i++) {
+                    sorted[i] = samples.get(i);
+                }
+                Arrays.sort(sorted);
+                int index = Math.max(0, (int) Math.ceil(percentile / 100 * size) - 1);
+                hedgeDelay = Math.max(MIN_HEDGE_DELAY_NANOS, sorted[index]);
+            }
+        }
+    }
+}
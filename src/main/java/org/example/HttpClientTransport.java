@@ -0,0 +1,172 @@
+package org.example;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Transport} on top of {@link java.net.http.HttpClient}. Over TLS the client
+ * negotiates HTTP/2 and multiplexes concurrent calls over one connection per host; plain
+ * http servers that do not take the h2c upgrade, such as the stand-ins, are spoken to in
+ * HTTP/1.1 over a connection per call in flight. {@link #executeAsync} does not hold a
+ * thread while the call is in flight, so one caller can pipeline many calls.
+ * <p>
+ * The client is shared by all transports of a run, see {@link #client(Properties)}.
+ */
+public final class HttpClientTransport implements Transport {
+    private final HttpClient client;
+    private final byte[] baseUrl;
+    private final String[] headers;
+    private final Duration timeout;
+
+    private final LongAdder http2 = new LongAdder();
+    private final LongAdder http11 = new LongAdder();
+
+    /**
+     * @param timeout how long to wait for the response of a call
+     */
+    public HttpClientTransport(HttpClient client, String baseUrl, Map<String, String> headers, Duration timeout) {
+        this.client = client;
+        this.baseUrl = RequestTemplate.buffer()
+                .url(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl).toByteArray();
+        this.headers = new String[headers.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            this.headers[i++] = header.getKey();
+            this.headers[i++] = header.getValue();
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * A client for {@code http.version} ({@code 2}, the default, or {@code 1.1}) with the
+     * connect timeout of {@code pool.connectTimeoutMillis}; its callbacks run on daemon threads.
+     */
+    public static HttpClient client(Properties properties) {
+        return HttpClient.newBuilder()
+                .version("1.1".equals(properties.getProperty("http.version", "2"))
+                        ? HttpClient.Version.HTTP_1_1 : HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(Long.parseLong(properties.getProperty("pool.connectTimeoutMillis", "10000"))))
+                .executor(VirtualThreads.newThreadPerTaskExecutor("http-client"))
+                .build();
+    }
+
+    /**
+     * Stops the callback threads of a client made by {@link #client(Properties)}, once the
+     * transports sharing it are done.
+     */
+    public static void shutdown(HttpClient client) {
+        client.executor().ifPresent(executor -> {
+            if (executor instanceof ExecutorService) {
+                ((ExecutorService) executor).shutdown();
+            }
+        });
+    }
+
+    /**
+     * The response timeout of the transports, {@code pool.readTimeoutMillis}.
+     */
+    public static Duration timeout(Properties properties) {
+        return Duration.ofMillis(Long.parseLong(properties.getProperty("pool.readTimeoutMillis", "60000")));
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        try {
+            return response(client.send(build(request), HttpResponse.BodyHandlers.ofByteArray()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(request.endpoint() + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sending " + request.endpoint(), e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        return client.sendAsync(build(request), HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        throw cause instanceof IOException
+                                ? new UncheckedIOException(request.endpoint() + " failed", (IOException) cause)
+                                : new CompletionException(cause);
+                    }
+                    return response(response);
+                });
+    }
+
+    private HttpRequest build(ApiRequest request) {
+        URI url = URI.create(RequestTemplate.target(baseUrl, request).toString());
+        HttpRequest.Builder builder = HttpRequest.newBuilder(url).timeout(timeout);
+        if (headers.length > 0) {
+            builder.headers(headers);
+        }
+        request.headers.forEach(builder::setHeader);
+
+        HttpRequest.BodyPublisher body;
+        if (!request.files.isEmpty()) {
+            String boundary = UUID.randomUUID().toString();
+            builder.setHeader("Content-Type", "multipart/form-data; boundary=" + boundary);
+            body = multipart(boundary, request);
+        } else if (!request.formParams.isEmpty()) {
+            builder.setHeader("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+            RequestTemplate.Buffer form = RequestTemplate.buffer();
+            RequestTemplate.form(form, request.formParams);
+            body = HttpRequest.BodyPublishers.ofByteArray(form.toByteArray());
+        } else {
+            body = HttpRequest.BodyPublishers.noBody();
+        }
+        return builder.method(request.endpoint().method(), body).build();
+    }
+
+    /**
+     * Form fields and files as {@code multipart/form-data}; the files are streamed from disk.
+     */
+    private static HttpRequest.BodyPublisher multipart(String boundary, ApiRequest request) {
+        List<HttpRequest.BodyPublisher> parts = new ArrayList<>();
+        for (ApiRequest.Param param : request.formParams) {
+            parts.add(HttpRequest.BodyPublishers.ofString("--" + boundary + "\r\nContent-Disposition: form-data; name=\""
+                    + param.name + "\"\r\n\r\n" + param.value + "\r\n", StandardCharsets.UTF_8));
+        }
+        for (ApiRequest.FilePart part : request.files) {
+            parts.add(HttpRequest.BodyPublishers.ofString("--" + boundary + "\r\nContent-Disposition: form-data; name=\""
+                    + part.name + "\"; filename=\"" + part.file.getName()
+                    + "\"\r\nContent-Type: application/octet-stream\r\n\r\n", StandardCharsets.UTF_8));
+            try {
+                parts.add(HttpRequest.BodyPublishers.ofFile(part.file.toPath()));
+            } catch (FileNotFoundException e) {
+                throw new UncheckedIOException("Cannot upload " + part.file, e);
+            }
+            parts.add(HttpRequest.BodyPublishers.ofString("\r\n"));
+        }
+        parts.add(HttpRequest.BodyPublishers.ofString("--" + boundary + "--\r\n"));
+        return HttpRequest.BodyPublishers.concat(parts.toArray(new HttpRequest.BodyPublisher[0]));
+    }
+
+    private ApiResponse response(HttpResponse<byte[]> response) {
+        (response.version() == HttpClient.Version.HTTP_2 ? http2 : http11).increment();
+        return new ApiResponse(response.statusCode(), response.headers().map(), ByteBuffer.wrap(response.body()));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("http client: %d HTTP/2 and %d HTTP/1.1 responses", http2.sum(), http11.sum());
+    }
+}
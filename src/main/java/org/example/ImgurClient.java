@@ -0,0 +1,397 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Typed client for the Imgur API v3 endpoints used by the suites and the load scenarios.
+ * A client {@linkplain #withReaper with a reaper} registers every album and image it
+ * creates there and releases them again when it deletes them. A client
+ * {@linkplain #withUploadCache with an upload cache} uploads each image content once and
+ * hands out the same image afterwards; those images are kept, not reaped.
+ * <p>
+ * The {@code ...Async} album and image calls return at once; over an
+ * {@link HttpClientTransport} many of them share a few connections without a thread each.
+ */
+public class ImgurClient {
+    static final Endpoint CREATE_ALBUM = Endpoint.post("/album", "album");
+    static final Endpoint ALBUM = Endpoint.get("/album/{albumHash}", "album");
+    static final Endpoint UPDATE_ALBUM = Endpoint.put("/album/{albumHash}", "album");
+    static final Endpoint DELETE_ALBUM = Endpoint.delete("/album/{albumHash}", "album");
+    static final Endpoint FAVORITE_ALBUM = Endpoint.post("/album/{albumHash}/favorite", "album");
+    static final Endpoint ALBUM_IMAGES = Endpoint.get("/album/{albumHash}/images", "album");
+    static final Endpoint ADD_IMAGES = Endpoint.post("/album/{albumHash}/add", "album");
+    static final Endpoint REMOVE_IMAGES = Endpoint.post("/album/{albumHash}/remove_images", "album");
+    static final Endpoint UPLOAD = Endpoint.post("/upload", "upload");
+    static final Endpoint IMAGE = Endpoint.get("/image/{imageId}", "image");
+    static final Endpoint UPDATE_IMAGE = Endpoint.post("/image/{imageId}", "image");
+    static final Endpoint DELETE_IMAGE = Endpoint.delete("/image/{imageId}", "image");
+    static final Endpoint FAVORITE_IMAGE = Endpoint.post("/image/{imageId}/favorite", "image");
+    static final Endpoint ACCOUNT = Endpoint.get("/account/{userName}", "account");
+    static final Endpoint ACCOUNT_SETTINGS = Endpoint.get("/account/me/settings", "account");
+    static final Endpoint FAVORITES = Endpoint.get("/account/{userName}/favorites/{page}/{favoritesSort}", "account");
+    static final Endpoint ACCOUNT_ALBUMS = Endpoint.get("/account/{userName}/albums/{page}", "account");
+    static final Endpoint ACCOUNT_IMAGES = Endpoint.get("/account/{userName}/images/{page}", "account");
+    static final Endpoint OAUTH_TOKEN = Endpoint.post("{oauth_url}", "oauth");
+
+    private static final JsonFields TOKEN = JsonFields.compile("access_token", "expires_in", "refresh_token");
+    private static final JsonFields CREATED = JsonFields.compile("success", "data.id", "data.deletehash");
+    private static final JsonFields UPLOADED = JsonFields.compile("success", "data.id", "data.deletehash", "data.size");
+
+    private final Transport transport;
+    private final ResourceReaper reaper;
+    private final UploadCache uploads;
+
+    public ImgurClient(Transport transport) {
+        this(transport, null, null);
+    }
+
+    private ImgurClient(Transport transport, ResourceReaper reaper, UploadCache uploads) {
+        this.transport = transport;
+        this.reaper = reaper;
+        this.uploads = uploads;
+    }
+
+    /**
+     * The same client, registering what it creates with {@code reaper}.
+     */
+    public ImgurClient withReaper(ResourceReaper reaper) {
+        return new ImgurClient(transport, reaper, uploads);
+    }
+
+    /**
+     * The same client, answering repeated uploads of an image from {@code uploads}.
+     */
+    public ImgurClient withUploadCache(UploadCache uploads) {
+        return new ImgurClient(transport, reaper, uploads);
+    }
+
+    /**
+     * The same client, uploading every image anew, for images the caller is going to change.
+     */
+    public ImgurClient withoutUploadCache() {
+        return new ImgurClient(transport, reaper, null);
+    }
+
+    public static ImgurClient create(String baseUrl, String token, ConnectionPool pool) {
+        return new ImgurClient(new RestAssuredTransport(pool, baseUrl,
+                Collections.singletonMap("Authorization", "Bearer " + token)));
+    }
+
+    /**
+     * Refreshes the tokens of a {@link TokenPool} at the {@code /oauth2/token} endpoint of the
+     * host of {@code baseUrl}, with the application's client id and secret.
+     *
+     * @param transport a transport that adds no {@code Authorization} header
+     */
+    public static TokenPool.Refresher refresher(Transport transport, String baseUrl, String clientId, String clientSecret) {
+        String url = URI.create(baseUrl).resolve("/oauth2/token").toString();
+        return account -> {
+            ApiResponse response = transport.execute(ApiRequest.to(OAUTH_TOKEN).url(url)
+                    .form("refresh_token", account.refreshToken())
+                    .form("client_id", clientId)
+                    .form("client_secret", clientSecret)
+                    .form("grant_type", "refresh_token"));
+            JsonFields.Values token = response.fields(TOKEN);
+            if (response.statusCode() != 200 || !token.has("access_token")) {
+                throw new IllegalStateException("Token refresh of " + account.name() + " failed: HTTP "
+                        + response.statusCode() + " " + response.asString());
+            }
+            return new TokenPool.Token(token.getString("access_token"),
+                    token.has("expires_in") ? Instant.now().plusSeconds(token.getLong("expires_in")) : null,
+                    token.has("refresh_token") ? token.getString("refresh_token") : null);
+        };
+    }
+
+    /**
+     * Registers which cached reads each Imgur mutation makes stale. Deletes address the
+     * resource by deletehash for anonymous uploads, so they drop every cached copy.
+     */
+    static CachingTransport invalidations(CachingTransport cache) {
+        return cache.invalidatesAll(CREATE_ALBUM, ACCOUNT_ALBUMS)
+                .invalidates(ADD_IMAGES, ALBUM_IMAGES, ALBUM)
+                .invalidates(REMOVE_IMAGES, ALBUM_IMAGES, ALBUM)
+                .invalidates(UPDATE_ALBUM, ALBUM, ALBUM_IMAGES)
+                .invalidatesAll(DELETE_ALBUM, ALBUM, ALBUM_IMAGES, ACCOUNT_ALBUMS)
+                .invalidates(FAVORITE_ALBUM, ALBUM, FAVORITES)
+                .invalidates(UPDATE_IMAGE, IMAGE)
+                .invalidatesAll(UPLOAD, ACCOUNT_IMAGES)
+                .invalidatesAll(DELETE_IMAGE, IMAGE, ALBUM_IMAGES, FAVORITES, ACCOUNT_IMAGES)
+                .invalidates(FAVORITE_IMAGE, IMAGE, FAVORITES);
+    }
+
+    public ApiResponse createAlbum(String title, String description, String privacy) {
+        return created("imgur album", this::deleteAlbum, send(ApiRequest.to(CREATE_ALBUM)
+                .form("title", title)
+                .form("description", description)
+                .form("privacy", privacy)));
+    }
+
+    public CompletableFuture<ApiResponse> createAlbumAsync(String title, String description, String privacy) {
+        return sendAsync(ApiRequest.to(CREATE_ALBUM)
+                .form("title", title)
+                .form("description", description)
+                .form("privacy", privacy))
+                .thenApply(response -> created("imgur album", this::deleteAlbum, response));
+    }
+
+    public ApiResponse updateAlbum(String albumHash, String title, String description) {
+        return send(ApiRequest.to(UPDATE_ALBUM)
+                .path("albumHash", albumHash)
+                .form("title", title)
+                .form("description", description));
+    }
+
+    public ApiResponse getAlbum(String albumHash) {
+        return send(ApiRequest.to(ALBUM).path("albumHash", albumHash));
+    }
+
+    public CompletableFuture<ApiResponse> getAlbumAsync(String albumHash) {
+        return sendAsync(ApiRequest.to(ALBUM).path("albumHash", albumHash));
+    }
+
+    /**
+     * @param albumHashOrDeleteHash the album id for the owner, the deletehash for anonymous albums
+     */
+    public ApiResponse deleteAlbum(String albumHashOrDeleteHash) {
+        return deleted(albumHashOrDeleteHash, send(ApiRequest.to(DELETE_ALBUM).path("albumHash", albumHashOrDeleteHash)));
+    }
+
+    public CompletableFuture<ApiResponse> deleteAlbumAsync(String albumHashOrDeleteHash) {
+        return sendAsync(ApiRequest.to(DELETE_ALBUM).path("albumHash", albumHashOrDeleteHash))
+                .thenApply(response -> deleted(albumHashOrDeleteHash, response));
+    }
+
+    /**
+     * Toggles the favorite flag of the album.
+     */
+    public ApiResponse favoriteAlbum(String albumHash) {
+        return send(ApiRequest.to(FAVORITE_ALBUM).path("albumHash", albumHash));
+    }
+
+    public ApiResponse getAlbumImages(String albumHash) {
+        return send(ApiRequest.to(ALBUM_IMAGES).path("albumHash", albumHash));
+    }
+
+    public ApiResponse addImagesToAlbum(String albumHash, String... imageIds) {
+        ApiRequest request = ApiRequest.to(ADD_IMAGES).path("albumHash", albumHash);
+        for (String imageId : imageIds) {
+            request.form("ids[]", imageId);
+        }
+        return send(request);
+    }
+
+    public ApiResponse removeImagesFromAlbum(String albumHash, String... imageIds) {
+        ApiRequest request = ApiRequest.to(REMOVE_IMAGES).path("albumHash", albumHash);
+        for (String imageId : imageIds) {
+            request.form("ids[]", imageId);
+        }
+        return send(request);
+    }
+
+    /**
+     * Uploads an image that Imgur fetches from {@code imageUrl}.
+     */
+    public ApiResponse uploadImage(String imageUrl, String name, String title) {
+        ApiRequest request = ApiRequest.to(UPLOAD)
+                .form("image", imageUrl)
+                .form("type", "url")
+                .form("name", name)
+                .form("title", title);
+        if (uploads != null) {
+            return uploads.upload(UploadCache.urlKey(imageUrl), this::exists, () -> send(request), ImgurClient::uploaded);
+        }
+        return created("imgur image", this::deleteImage, send(request));
+    }
+
+    /**
+     * Uploads the bytes of {@code file}, base64-encoded.
+     */
+    public ApiResponse uploadImage(Path file, String name, String title) {
+        Supplier<ApiResponse> upload = () -> {
+            try {
+                return send(ApiRequest.to(UPLOAD)
+                        .form("image", Base64.getEncoder().encodeToString(Files.readAllBytes(file)))
+                        .form("type", "base64")
+                        .form("name", name)
+                        .form("title", title));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read " + file, e);
+            }
+        };
+        if (uploads != null) {
+            return uploads.upload(uploads.contentKey(file), this::exists, upload, ImgurClient::uploaded);
+        }
+        return created("imgur image", this::deleteImage, upload.get());
+    }
+
+    /**
+     * @return true if the image came from the upload cache and is kept for later uploads
+     */
+    public boolean isCachedUpload(String imageId) {
+        return uploads != null && uploads.holds(imageId);
+    }
+
+    private boolean exists(UploadCache.Entry image) {
+        return getImage(image.id()).statusCode() == 200;
+    }
+
+    private static UploadCache.Entry uploaded(ApiResponse response) {
+        if (response.statusCode() != 200) {
+            return null;
+        }
+        JsonFields.Values data = response.fields(UPLOADED);
+        if (!data.has("data.id")) {
+            return null;
+        }
+        return new UploadCache.Entry(data.getString("data.id"),
+                data.has("data.deletehash") ? data.getString("data.deletehash") : null,
+                data.has("data.size") ? data.getLong("data.size") : 0);
+    }
+
+    public ApiResponse getImage(String imageId) {
+        return send(ApiRequest.to(IMAGE).path("imageId", imageId));
+    }
+
+    public CompletableFuture<ApiResponse> getImageAsync(String imageId) {
+        return sendAsync(ApiRequest.to(IMAGE).path("imageId", imageId));
+    }
+
+    public ApiResponse updateImage(String imageId, String title, String description) {
+        return send(ApiRequest.to(UPDATE_IMAGE)
+                .path("imageId", imageId)
+                .form("title", title)
+                .form("description", description));
+    }
+
+    /**
+     * @param imageIdOrDeleteHash the image id for the owner, the deletehash for anonymous images
+     */
+    public ApiResponse deleteImage(String imageIdOrDeleteHash) {
+        return deleted(imageIdOrDeleteHash, send(ApiRequest.to(DELETE_IMAGE).path("imageId", imageIdOrDeleteHash)));
+    }
+
+    public CompletableFuture<ApiResponse> deleteImageAsync(String imageIdOrDeleteHash) {
+        return sendAsync(ApiRequest.to(DELETE_IMAGE).path("imageId", imageIdOrDeleteHash))
+                .thenApply(response -> deleted(imageIdOrDeleteHash, response));
+    }
+
+    /**
+     * Toggles the favorite flag of the image.
+     */
+    public ApiResponse favoriteImage(String imageId) {
+        return send(ApiRequest.to(FAVORITE_IMAGE).path("imageId", imageId));
+    }
+
+    public ApiResponse getAccount(String userName) {
+        return send(ApiRequest.to(ACCOUNT).path("userName", userName));
+    }
+
+    public ApiResponse getAccountSettings() {
+        return send(ApiRequest.to(ACCOUNT_SETTINGS));
+    }
+
+    public ApiResponse getFavorites(String userName, int page, String sort) {
+        return send(ApiRequest.to(FAVORITES)
+                .path("userName", userName)
+                .path("page", page)
+                .path("favoritesSort", sort));
+    }
+
+    public ApiResponse getAccountAlbums(String userName, int page) {
+        return send(ApiRequest.to(ACCOUNT_ALBUMS).path("userName", userName).path("page", page));
+    }
+
+    public ApiResponse getAccountImages(String userName, int page) {
+        return send(ApiRequest.to(ACCOUNT_IMAGES).path("userName", userName).path("page", page));
+    }
+
+    /**
+     * All favorites of the account, page by page with {@code prefetch} pages fetched ahead;
+     * the listing ends at the first empty page. Each item holds the {@code itemPaths},
+     * relative to one favorite, e.g. {@code id} and {@code title}.
+     */
+    public Paginator<JsonFields.Values> favorites(String userName, String sort, int prefetch, String... itemPaths) {
+        return listing("Favorites", userName, page -> getFavorites(userName, page, sort), prefetch, itemPaths);
+    }
+
+    /**
+     * All albums of the account, like {@link #favorites}.
+     */
+    public Paginator<JsonFields.Values> albums(String userName, int prefetch, String... itemPaths) {
+        return listing("Albums", userName, page -> getAccountAlbums(userName, page), prefetch, itemPaths);
+    }
+
+    /**
+     * All images of the account, like {@link #favorites}.
+     */
+    public Paginator<JsonFields.Values> images(String userName, int prefetch, String... itemPaths) {
+        return listing("Images", userName, page -> getAccountImages(userName, page), prefetch, itemPaths);
+    }
+
+    private static Paginator<JsonFields.Values> listing(String what, String userName, IntFunction<ApiResponse> pages,
+                                                        int prefetch, String... itemPaths) {
+        JsonFields items = JsonFields.compileEach("data", itemPaths);
+        return new Paginator<>(page -> {
+            ApiResponse response = pages.apply(page);
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException(what + " page " + page + " of " + userName + " failed: " + response);
+            }
+            return Paginator.Page.of(items.extractEach(response.body()));
+        }, prefetch);
+    }
+
+    /**
+     * Registers a created album or image by id and deletehash; it is deleted by deletehash,
+     * which also works for anonymous ones.
+     */
+    private ApiResponse created(String kind, Function<String, ApiResponse> delete, ApiResponse response) {
+        if (reaper != null && response.statusCode() == 200) {
+            JsonFields.Values data = response.fields(CREATED);
+            if (data.has("data.id") && data.has("data.deletehash")) {
+                String deleteHash = data.getString("data.deletehash");
+                reaper.register(kind, () -> gone(delete.apply(deleteHash)), data.getString("data.id"), deleteHash);
+            }
+        }
+        return response;
+    }
+
+    private ApiResponse deleted(String key, ApiResponse response) {
+        if (response.statusCode() == 200 || response.statusCode() == 404) {
+            if (reaper != null) {
+                reaper.release(key);
+            }
+            if (uploads != null) {
+                uploads.forget(key);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Accepts a 404 as well: the resource is gone either way.
+     */
+    static void gone(ApiResponse response) {
+        if (response.statusCode() != 200 && response.statusCode() != 404) {
+            throw new IllegalStateException("HTTP " + response.statusCode() + ": " + response.asString());
+        }
+    }
+
+    protected ApiResponse send(ApiRequest request) {
+        return transport.execute(request);
+    }
+
+    protected CompletableFuture<ApiResponse> sendAsync(ApiRequest request) {
+        return transport.executeAsync(request);
+    }
+}
@@ -0,0 +1,153 @@
+package org.example;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The album lifecycle of {@code TestImgurAPI} as a load scenario: create and edit an album,
+ * upload, favorite and move two images, then delete everything again. The steps run as a
+ * {@link StepGraph}, so album, image and account calls that do not depend on each other
+ * overlap. Whatever a failed iteration did not delete is reaped at its end. With an upload
+ * cache the second image, which only goes into the album and out again, is uploaded once and
+ * kept for the following iterations and the other users; the first one is renamed and
+ * favorited, so every iteration uploads a copy of its own.
+ */
+public class ImgurScenario implements Scenario {
+    public static final ScenarioContext.Key<String> ALBUM_HASH = ScenarioContext.key("albumHash", String.class);
+    public static final ScenarioContext.Key<String> ALBUM_DELETE_HASH = ScenarioContext.key("albumDeleteHash", String.class);
+    public static final ScenarioContext.Key<String> IMAGE_ID = ScenarioContext.key("imageId", String.class);
+    public static final ScenarioContext.Key<String> IMAGE_DELETE_HASH = ScenarioContext.key("imageDeleteHash", String.class);
+    public static final ScenarioContext.Key<String> IMAGE_ID_2 = ScenarioContext.key("imageId2", String.class);
+    public static final ScenarioContext.Key<String> IMAGE_DELETE_HASH_2 = ScenarioContext.key("imageDeleteHash2", String.class);
+    public static final ScenarioContext.Key<String> USER_NAME = ScenarioContext.key("userName", String.class);
+
+    private static final JsonFields SUCCESS = JsonFields.compile("success");
+    private static final JsonFields CREATED = JsonFields.compile("success", "data.id", "data.deletehash");
+    private static final JsonFields SETTINGS = JsonFields.compile("success", "data.account_url");
+
+    private static final ExecutorService STEPS = VirtualThreads.newThreadPerTaskExecutor("imgur-step");
+
+    private final ImgurClient imgur;
+    private final ImgurClient uncached;
+    private final ResourceReaper resources;
+    private final Fixture fixture;
+    private final StepGraph lifecycle;
+
+    /**
+     * @param reaper deletes what an iteration leaves behind when it fails
+     */
+    public ImgurScenario(ImgurClient imgur, Fixture fixture, ResourceReaper reaper) {
+        this.resources = reaper.scope();
+        this.imgur = imgur.withReaper(resources);
+        this.uncached = this.imgur.withoutUploadCache();
+        this.fixture = fixture;
+        this.lifecycle = lifecycle();
+    }
+
+    @Override
+    public String name() {
+        return "imgur";
+    }
+
+    @Override
+    public void run(StepRecorder steps) throws Exception {
+        try {
+            steps.run(lifecycle, new ScenarioContext(name()), STEPS).rethrow();
+        } finally {
+            resources.reap();
+        }
+    }
+
+    private StepGraph lifecycle() {
+        return StepGraph.builder()
+                .step("createAlbum").produces(ALBUM_HASH, ALBUM_DELETE_HASH).run(c -> {
+                    JsonFields.Values album = ok(imgur.createAlbum(fixture.get("albumTitle"),
+                            fixture.get("description"), fixture.get("privacy")), CREATED);
+                    c.put(ALBUM_HASH, album.getString("data.id"));
+                    c.put(ALBUM_DELETE_HASH, album.getString("data.deletehash"));
+                })
+                .step("updateAlbum").consumes(ALBUM_HASH).run(c -> ok(imgur.updateAlbum(c.require(ALBUM_HASH),
+                        fixture.get("editAlbumTitle"), fixture.get("editAlbumDescription"))))
+                .step("getAlbumInfo").consumes(ALBUM_HASH).after("updateAlbum")
+                .run(c -> ok(imgur.getAlbum(c.require(ALBUM_HASH))))
+                .step("addAlbumInFavorite").consumes(ALBUM_HASH).run(c -> ok(imgur.favoriteAlbum(c.require(ALBUM_HASH))))
+
+                .step("uploadImage").produces(IMAGE_ID, IMAGE_DELETE_HASH).run(c -> {
+                    JsonFields.Values image = ok(uncached.uploadImage(fixture.get("imageUrl"),
+                            fixture.get("imageName"), fixture.get("imageTitle")), CREATED);
+                    c.put(IMAGE_ID, image.getString("data.id"));
+                    c.put(IMAGE_DELETE_HASH, image.getString("data.deletehash"));
+                })
+                .step("getImageInfo").consumes(IMAGE_ID).run(c -> ok(imgur.getImage(c.require(IMAGE_ID))))
+                .step("updateImageInfo").consumes(IMAGE_ID).after("getImageInfo").run(c -> ok(imgur.updateImage(
+                        c.require(IMAGE_ID), fixture.get("imageNewTitle"), fixture.get("imageNewDescription"))))
+                .step("checkTitleImageAfterUpdate").consumes(IMAGE_ID).after("updateImageInfo")
+                .run(c -> ok(imgur.getImage(c.require(IMAGE_ID))))
+
+                .step("getAccountName").produces(USER_NAME).run(c -> c.put(USER_NAME,
+                        ok(imgur.getAccountSettings(), SETTINGS).getString("data.account_url")))
+                .step("favoriteImage").consumes(IMAGE_ID).after("addAlbumInFavorite")
+                .run(c -> ok(imgur.favoriteImage(c.require(IMAGE_ID))))
+                .step("checkFavoriteImage").consumes(USER_NAME).after("favoriteImage")
+                .run(c -> ok(imgur.getFavorites(c.require(USER_NAME), 0, "newest")))
+                .step("unfavoriteImage").consumes(IMAGE_ID).after("checkFavoriteImage")
+                .run(c -> ok(imgur.favoriteImage(c.require(IMAGE_ID))))
+                .step("checkUnfavoriteImage").consumes(USER_NAME).after("unfavoriteImage")
+                .run(c -> ok(imgur.getFavorites(c.require(USER_NAME), 0, "newest")))
+
+                .step("addImageToAlbum").consumes(ALBUM_HASH, IMAGE_ID)
+                .run(c -> ok(imgur.addImagesToAlbum(c.require(ALBUM_HASH), c.require(IMAGE_ID))))
+                .step("getAlbumImage").consumes(ALBUM_HASH).after("addImageToAlbum")
+                .run(c -> ok(imgur.getAlbumImages(c.require(ALBUM_HASH))))
+                .step("uploadImage2").produces(IMAGE_ID_2, IMAGE_DELETE_HASH_2).run(c -> {
+                    JsonFields.Values image = ok(imgur.uploadImage(fixture.get("imageUrl2"),
+                            fixture.get("imageName2"), fixture.get("imageTitle2")), CREATED);
+                    c.put(IMAGE_ID_2, image.getString("data.id"));
+                    c.put(IMAGE_DELETE_HASH_2, image.getString("data.deletehash"));
+                })
+                .step("addImage2ToAlbum").consumes(ALBUM_HASH, IMAGE_ID_2).after("addImageToAlbum")
+                .run(c -> ok(imgur.addImagesToAlbum(c.require(ALBUM_HASH), c.require(IMAGE_ID_2))))
+                .step("checkCountImageInAlbum").consumes(ALBUM_HASH).after("addImage2ToAlbum")
+                .run(c -> ok(imgur.getAlbumImages(c.require(ALBUM_HASH))))
+                .step("removeImageFromAlbum").consumes(ALBUM_HASH, IMAGE_ID_2).after("checkCountImageInAlbum")
+                .run(c -> ok(imgur.removeImagesFromAlbum(c.require(ALBUM_HASH), c.require(IMAGE_ID_2))))
+                .step("checkCountImageInAlbumAfterRemove").consumes(ALBUM_HASH).after("removeImageFromAlbum")
+                .run(c -> ok(imgur.getAlbumImages(c.require(ALBUM_HASH))))
+
+                .step("deleteFirstImage").consumes(IMAGE_ID)
+                .after("checkTitleImageAfterUpdate", "checkUnfavoriteImage", "getAlbumImage", "checkCountImageInAlbumAfterRemove")
+                .run(c -> ok(imgur.deleteImage(c.require(IMAGE_ID))))
+                .step("deleteSecondImage").consumes(IMAGE_ID_2).after("removeImageFromAlbum")
+                .run(c -> deleteUnlessCached(c.require(IMAGE_ID_2)))
+                .step("deleteAlbum").consumes(ALBUM_DELETE_HASH)
+                .after("getAlbumInfo", "addAlbumInFavorite", "getAlbumImage", "checkCountImageInAlbumAfterRemove")
+                .run(c -> ok(imgur.deleteAlbum(c.require(ALBUM_DELETE_HASH))))
+                .build();
+    }
+
+    /**
+     * An image from the upload cache is shared with later iterations and stays.
+     */
+    private void deleteUnlessCached(String imageId) {
+        if (!imgur.isCachedUpload(imageId)) {
+            ok(imgur.deleteImage(imageId));
+        }
+    }
+
+    private static JsonFields.Values ok(ApiResponse response) {
+        return ok(response, SUCCESS);
+    }
+
+    /**
+     * @param fields compiled paths to extract, must include {@code success}
+     */
+    private static JsonFields.Values ok(ApiResponse response, JsonFields fields) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("HTTP " + response.statusCode() + ": " + response.asString());
+        }
+        JsonFields.Values json = response.fields(fields);
+        if (!json.getBoolean("success")) {
+            throw new IllegalStateException("Not success: " + response.asString());
+        }
+        return json;
+    }
+}
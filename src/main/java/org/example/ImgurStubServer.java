@@ -0,0 +1,688 @@
+package org.example;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * In-process stand-in for the Imgur API v3: albums, images, favorites, account listings
+ * and account settings under {@code /3/...}. Any bearer token is accepted; tokens that were not
+ * registered with {@link #registerAccount} act as the default account. With
+ * {@link #limitCalls} set, responses carry {@code X-RateLimit-User*} headers for the
+ * current second and calls over the limit get a 429. Successful GETs carry an ETag and
+ * honour {@code If-None-Match}. {@code POST /oauth2/token} trades a refresh token registered
+ * with {@link #registerRefreshToken} for a new access token; {@linkplain #revokeToken revoked}
+ * tokens get a 401.
+ */
+public class ImgurStubServer extends StubServer {
+    static final int FAVORITES_PAGE_SIZE = 50;
+    private static final String ID_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    private final String defaultAccount;
+    private final ConcurrentMap<String, String> accounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> refreshTokens = new ConcurrentHashMap<>();
+    private final Set<String> revoked = ConcurrentHashMap.newKeySet();
+    private volatile long tokenLifetimeSeconds = 3600;
+    private final ConcurrentMap<String, Album> albums = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Image> images = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> deleteHashes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Favorites> favorites = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ImgurStubServer(int port, String defaultAccount) throws IOException {
+        super(port);
+        this.defaultAccount = defaultAccount;
+    }
+
+    public static ImgurStubServer start(int port, String defaultAccount) throws IOException {
+        ImgurStubServer server = new ImgurStubServer(port, defaultAccount);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Base url to use instead of {@code https://api.imgur.com/3}.
+     */
+    public String baseUrl() {
+        return url("/3");
+    }
+
+    /**
+     * Adds {@code count} images owned by and favorited by {@code userName}, for walking
+     * large favorites listings.
+     *
+     * @return ids of the images, in favoriting order
+     */
+    public List<String> seedFavorites(String userName, int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int n = i;
+            Image image = insert(images, id -> {
+                Image seeded = new Image(id, newDeleteHash(id), userName, 1024 + n, "seed-" + n + ".png");
+                seeded.link = url("/i/" + id + ".jpg");
+                return seeded;
+            }, seeded -> seeded.deleteHash);
+            favoritesOf(userName).toggle(image.id, sequence.incrementAndGet());
+            ids.add(image.id);
+        }
+        return ids;
+    }
+
+    public void registerAccount(String token, String userName) {
+        accounts.put(token, userName);
+    }
+
+    /**
+     * Lets {@code POST /oauth2/token} issue access tokens of {@code userName} for the refresh token.
+     */
+    public void registerRefreshToken(String refreshToken, String userName) {
+        refreshTokens.put(refreshToken, userName);
+    }
+
+    /**
+     * Sets the {@code expires_in} of issued access tokens; they are not expired by the stand-in.
+     */
+    public void tokenLifetime(Duration lifetime) {
+        tokenLifetimeSeconds = lifetime.getSeconds();
+    }
+
+    /**
+     * Makes every later call with the access token fail with a 401, as if it expired.
+     */
+    public void revokeToken(String token) {
+        revoked.add(token);
+    }
+
+    @Override
+    protected void handle(Request request) throws IOException {
+        if ("oauth2".equals(request.segment(0)) && "token".equals(request.segment(1)) && "POST".equals(request.method)) {
+            issueToken(request);
+            return;
+        }
+        String token = request.bearerToken();
+        if (token == null || revoked.contains(token)) {
+            error(request, 401, token == null ? "Authentication required" : "The access token provided is invalid.");
+            return;
+        }
+        if (!"3".equals(request.segment(0))) {
+            error(request, 404, "Not found");
+            return;
+        }
+        int remaining = takeCall(token);
+        if (remaining != Integer.MAX_VALUE) {
+            Headers headers = request.exchange.getResponseHeaders();
+            headers.set("X-RateLimit-UserLimit", String.valueOf(callLimit()));
+            headers.set("X-RateLimit-UserRemaining", String.valueOf(Math.max(0, remaining)));
+            headers.set("X-RateLimit-UserReset", String.valueOf(System.currentTimeMillis() / 1000 + 1));
+            if (remaining < 0) {
+                headers.set("Retry-After", "1");
+                error(request, 429, "Too Many Requests");
+                return;
+            }
+        }
+        String account = accounts.getOrDefault(token, defaultAccount);
+        String resource = request.segment(1);
+        if ("album".equals(resource)) {
+            handleAlbum(request, account);
+        } else if ("image".equals(resource) || "upload".equals(resource)) {
+            handleImage(request, account);
+        } else if ("account".equals(resource)) {
+            handleAccount(request, account);
+        } else {
+            error(request, 404, "Not found");
+        }
+    }
+
+    private void handleAlbum(Request request, String account) throws IOException {
+        String id = request.segment(2);
+        String action = request.segment(3);
+        if (id == null) {
+            if ("POST".equals(request.method)) {
+                createAlbum(request, account);
+            } else {
+                error(request, 405, "Method not allowed");
+            }
+            return;
+        }
+        Album album = albums.get(id);
+        if (album == null && "DELETE".equals(request.method) && action == null) {
+            album = albums.get(deleteHashes.getOrDefault(id, ""));
+        }
+        if (album == null) {
+            error(request, 404, "Unable to find an album with the id, " + id);
+            return;
+        }
+        if (action == null) {
+            switch (request.method) {
+                case "GET":
+                    ok(request, album.toJson(images));
+                    return;
+                case "PUT":
+                case "POST":
+                    if (checkOwner(request, album.owner, account)) {
+                        album.update(request.param("title"), request.param("description"), request.param("privacy"));
+                        ok(request, true);
+                    }
+                    return;
+                case "DELETE":
+                    if (id.equals(album.deleteHash) || checkOwner(request, album.owner, account)) {
+                        deleteAlbum(album);
+                        ok(request, true);
+                    }
+                    return;
+                default:
+                    error(request, 405, "Method not allowed");
+                    return;
+            }
+        }
+        switch (action) {
+            case "images":
+                List<Object> data = new ArrayList<>();
+                for (String imageId : album.images) {
+                    Image image = images.get(imageId);
+                    if (image != null) {
+                        data.add(image.toJson());
+                    }
+                }
+                ok(request, data);
+                return;
+            case "favorite":
+                ok(request, favoritesOf(account).toggle(album.id, sequence.incrementAndGet()) ? "favorited" : "unfavorited");
+                return;
+            case "add":
+                if (checkOwner(request, album.owner, account)) {
+                    for (String imageId : idsParam(request)) {
+                        if (images.containsKey(imageId)) {
+                            album.images.addIfAbsent(imageId);
+                        }
+                    }
+                    ok(request, true);
+                }
+                return;
+            case "remove_images":
+                if (checkOwner(request, album.owner, account)) {
+                    album.images.removeAll(idsParam(request));
+                    ok(request, true);
+                }
+                return;
+            default:
+                error(request, 404, "Not found");
+        }
+    }
+
+    private void issueToken(Request request) throws IOException {
+        String userName = refreshTokens.get(String.valueOf(request.param("refresh_token")));
+        if (!"refresh_token".equals(request.param("grant_type")) || userName == null) {
+            error(request, 400, "Invalid refresh token");
+            return;
+        }
+        String token = randomId(40);
+        accounts.put(token, userName);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("access_token", token);
+        body.put("expires_in", tokenLifetimeSeconds);
+        body.put("token_type", "bearer");
+        body.put("refresh_token", request.param("refresh_token"));
+        body.put("account_username", userName);
+        sendJson(request.exchange, 200, body);
+    }
+
+    private void createAlbum(Request request, String account) throws IOException {
+        String title = request.param("title");
+        String description = request.param("description");
+        String privacy = request.param("privacy");
+        List<String> ids = idsParam(request);
+        Album album = insert(albums, id -> {
+            Album created = new Album(id, newDeleteHash(id), account);
+            created.update(title, description, privacy);
+            for (String imageId : ids) {
+                if (images.containsKey(imageId)) {
+                    created.images.addIfAbsent(imageId);
+                }
+            }
+            return created;
+        }, created -> created.deleteHash);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("id", album.id);
+        data.put("deletehash", album.deleteHash);
+        ok(request, data);
+    }
+
+    private void handleImage(Request request, String account) throws IOException {
+        String id = "upload".equals(request.segment(1)) ? null : request.segment(2);
+        String action = request.segment(3);
+        if (id == null) {
+            if ("POST".equals(request.method)) {
+                uploadImage(request, account);
+            } else {
+                error(request, 405, "Method not allowed");
+            }
+            return;
+        }
+        Image image = images.get(id);
+        if (image == null && "DELETE".equals(request.method) && action == null) {
+            image = images.get(deleteHashes.getOrDefault(id, ""));
+        }
+        if (image == null) {
+            error(request, 404, "Unable to find an image with the id, " + id);
+            return;
+        }
+        if ("favorite".equals(action) && "POST".equals(request.method)) {
+            ok(request, favoritesOf(account).toggle(image.id, sequence.incrementAndGet()) ? "favorited" : "unfavorited");
+            return;
+        }
+        if (action != null) {
+            error(request, 404, "Not found");
+            return;
+        }
+        switch (request.method) {
+            case "GET":
+                ok(request, image.toJson());
+                return;
+            case "POST":
+            case "PUT":
+                if (checkOwner(request, image.owner, account)) {
+                    image.update(request.param("title"), request.param("description"));
+                    ok(request, true);
+                }
+                return;
+            case "DELETE":
+                if (id.equals(image.deleteHash) || checkOwner(request, image.owner, account)) {
+                    deleteImage(image);
+                    ok(request, true);
+                }
+                return;
+            default:
+                error(request, 405, "Method not allowed");
+        }
+    }
+
+    private void uploadImage(Request request, String account) throws IOException {
+        String source = request.param("image");
+        if (source == null || source.isEmpty()) {
+            error(request, 400, "No image data was sent to the upload api");
+            return;
+        }
+        long size;
+        String link = null;
+        if ("url".equals(request.param("type"))) {
+            link = source;
+            // The stand-in never downloads the source, the size is derived from the url.
+            size = 1024 + (source.hashCode() & 0xFFFF);
+        } else {
+            try {
+                size = Base64.getMimeDecoder().decode(source).length;
+            } catch (IllegalArgumentException e) {
+                error(request, 400, "Invalid image data");
+                return;
+            }
+        }
+        String imageLink = link;
+        String name = request.param("name");
+        String title = request.param("title");
+        String description = request.param("description");
+        Image image = insert(images, id -> {
+            Image uploaded = new Image(id, newDeleteHash(id), account, size, name);
+            uploaded.link = imageLink != null ? imageLink : url("/i/" + id + ".jpg");
+            uploaded.update(title, description);
+            return uploaded;
+        }, uploaded -> uploaded.deleteHash);
+        String id = image.id;
+        String albumId = request.param("album");
+        if (albumId != null) {
+            Album album = albums.get(albumId);
+            if (album == null) {
+                album = albums.get(deleteHashes.getOrDefault(albumId, ""));
+            }
+            if (album != null) {
+                album.images.addIfAbsent(id);
+            }
+        }
+        Map<String, Object> data = image.toJson();
+        data.put("deletehash", image.deleteHash);
+        ok(request, data);
+    }
+
+    private void handleAccount(Request request, String account) throws IOException {
+        String user = request.segment(2);
+        String action = request.segment(3);
+        if (user == null || !"GET".equals(request.method)) {
+            error(request, 404, "Not found");
+            return;
+        }
+        if ("me".equals(user)) {
+            user = account;
+        }
+        if (action == null) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("url", user);
+            data.put("reputation", 0);
+            ok(request, data);
+        } else if ("settings".equals(action)) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("account_url", user);
+            data.put("public_images", false);
+            data.put("album_privacy", "public");
+            ok(request, data);
+        } else if ("favorites".equals(action)) {
+            int page = parsePage(request.segment(4));
+            boolean oldest = "oldest".equals(request.segment(5));
+            ok(request, favoritesPage(user, page, oldest));
+        } else if ("albums".equals(action)) {
+            List<Object> data = new ArrayList<>();
+            for (Album album : page(albums, user, parsePage(request.segment(4)), a -> a.owner, a -> a.datetime, a -> a.id)) {
+                data.add(album.toJson(images));
+            }
+            ok(request, data);
+        } else if ("images".equals(action)) {
+            List<Object> data = new ArrayList<>();
+            for (Image image : page(images, user, parsePage(request.segment(4)), i -> i.owner, i -> i.datetime, i -> i.id)) {
+                data.add(image.toJson());
+            }
+            ok(request, data);
+        } else {
+            error(request, 404, "Not found");
+        }
+    }
+
+    private List<Object> favoritesPage(String user, int page, boolean oldest) {
+        Favorites favs = favorites.get(user);
+        if (favs == null) {
+            return Collections.emptyList();
+        }
+        NavigableMap<Long, String> ordered = oldest ? favs.bySequence : favs.bySequence.descendingMap();
+        List<Object> data = new ArrayList<>(FAVORITES_PAGE_SIZE);
+        long skip = Math.min(ordered.size(), (long) page * FAVORITES_PAGE_SIZE);
+        for (String id : ordered.values()) {
+            if (skip-- > 0) {
+                continue;
+            }
+            Image image = images.get(id);
+            Album album = image == null ? albums.get(id) : null;
+            if (image != null) {
+                data.add(image.toJson());
+            } else if (album != null) {
+                Map<String, Object> item = album.toJson(images);
+                item.put("is_album", true);
+                data.add(item);
+            } else {
+                continue;
+            }
+            if (data.size() == FAVORITES_PAGE_SIZE) {
+                break;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * One page of what {@code user} owns, newest first.
+     */
+    private static <T> List<T> page(Map<String, T> all, String user, int page, Function<T, String> owner,
+                                    ToLongFunction<T> datetime, Function<T, String> id) {
+        List<T> owned = new ArrayList<>();
+        for (T item : all.values()) {
+            if (user.equals(owner.apply(item))) {
+                owned.add(item);
+            }
+        }
+        owned.sort(Comparator.comparingLong(datetime).reversed().thenComparing(id));
+        int from = (int) Math.min(owned.size(), (long) page * FAVORITES_PAGE_SIZE);
+        return owned.subList(from, Math.min(owned.size(), from + FAVORITES_PAGE_SIZE));
+    }
+
+    private void deleteAlbum(Album album) {
+        if (albums.remove(album.id, album)) {
+            deleteHashes.remove(album.deleteHash);
+            favorites.values().forEach(favs -> favs.remove(album.id));
+        }
+    }
+
+    private void deleteImage(Image image) {
+        if (images.remove(image.id, image)) {
+            deleteHashes.remove(image.deleteHash);
+            albums.values().forEach(album -> album.images.remove(image.id));
+            favorites.values().forEach(favs -> favs.remove(image.id));
+        }
+    }
+
+    private Favorites favoritesOf(String account) {
+        return favorites.computeIfAbsent(account, k -> new Favorites());
+    }
+
+    private boolean checkOwner(Request request, String owner, String account) throws IOException {
+        if (owner.equals(account)) {
+            return true;
+        }
+        error(request, 403, "Permission denied");
+        return false;
+    }
+
+    private static List<String> idsParam(Request request) throws IOException {
+        List<String> ids = new ArrayList<>(request.params("ids[]"));
+        ids.addAll(request.params("ids"));
+        return ids;
+    }
+
+    private static int parsePage(String page) {
+        if (page == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(page));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private String newId(ConcurrentMap<String, ?> existing, int length) {
+        String id;
+        do {
+            id = randomId(length);
+        } while (existing.containsKey(id) || deleteHashes.containsKey(id));
+        return id;
+    }
+
+    /**
+     * Stores what {@code create} makes for a fresh id under that id. Concurrent handlers can
+     * draw the same id, so whoever loses the race gives its delete hash back and draws again.
+     */
+    private <T> T insert(ConcurrentMap<String, T> existing, Function<String, T> create, Function<T, String> deleteHash) {
+        while (true) {
+            String id = newId(existing, 7);
+            T item = create.apply(id);
+            if (existing.putIfAbsent(id, item) == null) {
+                return item;
+            }
+            deleteHashes.remove(deleteHash.apply(item), id);
+        }
+    }
+
+    private String newDeleteHash(String id) {
+        while (true) {
+            String hash = randomId(15);
+            if (deleteHashes.putIfAbsent(hash, id) == null) {
+                return hash;
+            }
+        }
+    }
+
+    private static String randomId(int length) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = ID_ALPHABET.charAt(random.nextInt(ID_ALPHABET.length()));
+        }
+        return new String(chars);
+    }
+
+    private static void ok(Request request, Object data) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("data", data);
+        body.put("success", true);
+        body.put("status", 200);
+        if ("GET".equals(request.method)) {
+            sendJsonWithETag(request.exchange, 200, body);
+        } else {
+            sendJson(request.exchange, 200, body);
+        }
+    }
+
+    private static void error(Request request, int status, String message) throws IOException {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("error", message);
+        data.put("request", request.path);
+        data.put("method", request.method);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("data", data);
+        body.put("success", false);
+        body.put("status", status);
+        sendJson(request.exchange, status, body);
+    }
+
+    private static long epochSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static final class Album {
+        final String id;
+        final String deleteHash;
+        final String owner;
+        final long datetime = epochSeconds();
+        final CopyOnWriteArrayList<String> images = new CopyOnWriteArrayList<>();
+        volatile String title;
+        volatile String description;
+        volatile String privacy = "hidden";
+
+        Album(String id, String deleteHash, String owner) {
+            this.id = id;
+            this.deleteHash = deleteHash;
+            this.owner = owner;
+        }
+
+        synchronized void update(String title, String description, String privacy) {
+            if (title != null) {
+                this.title = title;
+            }
+            if (description != null) {
+                this.description = description;
+            }
+            if (privacy != null) {
+                this.privacy = privacy;
+            }
+        }
+
+        synchronized Map<String, Object> toJson(Map<String, Image> allImages) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("id", id);
+            data.put("title", title);
+            data.put("description", description);
+            data.put("datetime", datetime);
+            data.put("privacy", privacy);
+            data.put("account_url", owner);
+            data.put("images_count", images.size());
+            List<Object> list = new ArrayList<>(images.size());
+            for (String imageId : images) {
+                Image image = allImages.get(imageId);
+                if (image != null) {
+                    list.add(image.toJson());
+                }
+            }
+            data.put("images", list);
+            return data;
+        }
+    }
+
+    private static final class Image {
+        final String id;
+        final String deleteHash;
+        final String owner;
+        final long size;
+        final String name;
+        final long datetime = epochSeconds();
+        volatile String link;
+        volatile String title;
+        volatile String description;
+
+        Image(String id, String deleteHash, String owner, long size, String name) {
+            this.id = id;
+            this.deleteHash = deleteHash;
+            this.owner = owner;
+            this.size = size;
+            this.name = name;
+        }
+
+        synchronized void update(String title, String description) {
+            if (title != null) {
+                this.title = title;
+            }
+            if (description != null) {
+                this.description = description;
+            }
+        }
+
+        synchronized Map<String, Object> toJson() {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("id", id);
+            data.put("title", title);
+            data.put("description", description);
+            data.put("datetime", datetime);
+            data.put("type", "image/jpeg");
+            data.put("size", size);
+            data.put("name", name);
+            data.put("account_url", owner);
+            data.put("link", link);
+            return data;
+        }
+    }
+
+    /**
+     * Favorites of one account, ordered by the moment they were favorited.
+     */
+    private static final class Favorites {
+        final ConcurrentSkipListMap<Long, String> bySequence = new ConcurrentSkipListMap<>();
+        final ConcurrentMap<String, Long> byId = new ConcurrentHashMap<>();
+
+        /**
+         * @return true if the item is favorited after the call
+         */
+        boolean toggle(String id, long sequence) {
+            boolean[] added = new boolean[1];
+            byId.compute(id, (key, previous) -> {
+                if (previous == null) {
+                    bySequence.put(sequence, key);
+                    added[0] = true;
+                    return sequence;
+                }
+                bySequence.remove(previous);
+                return null;
+            });
+            return added[0];
+        }
+
+        void remove(String id) {
+            byId.computeIfPresent(id, (key, previous) -> {
+                bySequence.remove(previous);
+                return null;
+            });
+        }
+    }
+}
@@ -0,0 +1,589 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A fixed set of JSON paths compiled once and pulled out of a response body in a single
+ * pass, without building a document tree. Parsing stops as soon as every path is resolved;
+ * parts of the document no path points into are skipped without decoding.
+ * <p>
+ * Paths are dot separated field names with {@code [n]} array indexes, e.g. {@code success},
+ * {@code data.deletehash} or {@code response.items[0].id}. A trailing {@code length} on an
+ * array yields its element count ({@code data.length}); on an object it is an ordinary field.
+ * <p>
+ * Values are returned like {@code JsonPath.getString}: strings unescaped, numbers and booleans
+ * as written, objects and arrays as their JSON text, {@code null} for JSON null and for paths
+ * missing in the document. Instances are immutable and may be shared between threads.
+ * <p>
+ * {@link #compileEach} compiles paths relative to the elements of one array instead, such as
+ * the items of a listing page; {@link #extractEach} then yields one set of values per element.
+ */
+public final class JsonFields {
+    private final Map<String, Integer> slots;
+    private final Node root = new Node();
+    private final int size;
+    private final JsonFields array;
+
+    private JsonFields(JsonFields array, String... paths) {
+        this.array = array;
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        int next = 0;
+        for (String path : paths) {
+            Node node = root;
+            Node parent = null;
+            String last = null;
+            for (Object segment : parse(path)) {
+                parent = node;
+                last = segment instanceof String ? (String) segment : null;
+                node = segment instanceof String ? node.field((String) segment) : node.index((Integer) segment);
+            }
+            if (node.slot < 0) {
+                node.slot = next++;
+            }
+            if ("length".equals(last)) {
+                parent.lengthSlot = node.slot;
+            }
+            slots.put(path, node.slot);
+        }
+        this.slots = Collections.unmodifiableMap(slots);
+        this.size = next;
+    }
+
+    public static JsonFields compile(String... paths) {
+        return new JsonFields(null, paths);
+    }
+
+    /**
+     * Paths relative to each element of the array at {@code arrayPath}, e.g.
+     * {@code compileEach("response.items", "id", "sizes[0].url")}.
+     */
+    public static JsonFields compileEach(String arrayPath, String... paths) {
+        return new JsonFields(new JsonFields(null, arrayPath), paths);
+    }
+
+    public Values extract(ByteBuffer json) {
+        Parser parser = new Parser(json.duplicate(), size);
+        parser.document(root);
+        return new Values(slots, parser.values, parser.found);
+    }
+
+    public Values extract(String json) {
+        return extract(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Values of every element of the array the paths were {@linkplain #compileEach compiled}
+     * for, in document order; empty when the array is missing, null or not an array. The
+     * array is located without decoding it, then each element is delimited by skipping over
+     * it and parsed on its own.
+     */
+    public List<Values> extractEach(ByteBuffer json) {
+        List<ByteBuffer> elements = elements(json);
+        List<Values> values = new ArrayList<>(elements.size());
+        for (ByteBuffer element : elements) {
+            Parser parser = new Parser(element, size);
+            parser.document(root);
+            values.add(new Values(slots, parser.values, parser.found));
+        }
+        return values;
+    }
+
+    /**
+     * The raw bytes of every element of the array the paths were
+     * {@linkplain #compileEach compiled} for, as slices of {@code json}.
+     */
+    public List<ByteBuffer> elements(ByteBuffer json) {
+        if (array == null) {
+            throw new IllegalStateException("Paths were not compiled with compileEach");
+        }
+        Parser locator = new Parser(json.duplicate(), array.size);
+        locator.locate = 0;
+        locator.document(array.root);
+        List<ByteBuffer> elements = new ArrayList<>();
+        if (locator.locatedStart < 0 || json.get(locator.locatedStart) != '[') {
+            return elements;
+        }
+        ByteBuffer items = json.duplicate();
+        items.limit(locator.locatedEnd - 1);
+        items.position(locator.locatedStart + 1);
+        Parser scanner = new Parser(items, 0);
+        while (true) {
+            scanner.whitespace();
+            if (scanner.pos >= scanner.limit) {
+                return elements;
+            }
+            int start = scanner.pos;
+            scanner.skip();
+            ByteBuffer element = json.duplicate();
+            element.limit(scanner.pos);
+            element.position(start);
+            elements.add(element.slice());
+            scanner.whitespace();
+            if (scanner.pos < scanner.limit) {
+                scanner.expect(',');
+            }
+        }
+    }
+
+    private static Object[] parse(String path) {
+        List<Object> segments = new ArrayList<>();
+        int i = 0;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '.') {
+                i++;
+            } else if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed index in " + path);
+                }
+                segments.add(Integer.parseInt(path.substring(i + 1, end).trim()));
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                segments.add(path.substring(i, end));
+                i = end;
+            }
+        }
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("Empty path");
+        }
+        return segments.toArray();
+    }
+
+    /**
+     * Values extracted from one document, looked up by the paths given to {@link #compile}.
+     */
+    public static final class Values {
+        private final Map<String, Integer> slots;
+        private final String[] values;
+        private final boolean[] found;
+
+        private Values(Map<String, Integer> slots, String[] values, boolean[] found) {
+            this.slots = slots;
+            this.values = values;
+            this.found = found;
+        }
+
+        /**
+         * @return whether the path exists in the document, even with a null value
+         */
+        public boolean has(String path) {
+            return found[slot(path)];
+        }
+
+        public String getString(String path) {
+            return values[slot(path)];
+        }
+
+        public int getInt(String path) {
+            return Integer.parseInt(getString(path));
+        }
+
+        public long getLong(String path) {
+            return Long.parseLong(getString(path));
+        }
+
+        public boolean getBoolean(String path) {
+            return Boolean.parseBoolean(getString(path));
+        }
+
+        private int slot(String path) {
+            Integer slot = slots.get(path);
+            if (slot == null) {
+                throw new IllegalArgumentException("Path was not compiled: " + path);
+            }
+            return slot;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder("{");
+            for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+                if (out.length() > 1) {
+                    out.append(", ");
+                }
+                out.append(entry.getKey()).append('=').append(values[entry.getValue()]);
+            }
+            return out.append('}').toString();
+        }
+    }
+
+    private static final class Node {
+        private static final Node[] NONE = new Node[0];
+
+        String[] names = new String[0];
+        byte[][] nameBytes = new byte[0][];
+        Node[] fields = NONE;
+        Node[] indexes = NONE;
+        int slot = -1;
+        int lengthSlot = -1;
+
+        Node field(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return fields[i];
+                }
+            }
+            int n = names.length;
+            names = Arrays.copyOf(names, n + 1);
+            nameBytes = Arrays.copyOf(nameBytes, n + 1);
+            fields = Arrays.copyOf(fields, n + 1);
+            names[n] = name;
+            nameBytes[n] = name.getBytes(StandardCharsets.UTF_8);
+            fields[n] = new Node();
+            return fields[n];
+        }
+
+        Node index(int index) {
+            if (index >= indexes.length) {
+                indexes = Arrays.copyOf(indexes, index + 1);
+            }
+            if (indexes[index] == null) {
+                indexes[index] = new Node();
+            }
+            return indexes[index];
+        }
+
+        boolean leaf() {
+            return fields.length == 0 && indexes.length == 0 && lengthSlot < 0;
+        }
+    }
+
+    private static final class Parser {
+        private final ByteBuffer in;
+        private final int limit;
+        private int pos;
+        private int pending;
+        final String[] values;
+        final boolean[] found;
+        int locate = -1;
+        int locatedStart = -1;
+        int locatedEnd;
+
+        Parser(ByteBuffer in, int size) {
+            this.in = in;
+            this.pos = in.position();
+            this.limit = in.limit();
+            this.pending = size;
+            this.values = new String[size];
+            this.found = new boolean[size];
+        }
+
+        void document(Node root) {
+            whitespace();
+            if (pos >= limit) {
+                throw error("Empty document");
+            }
+            value(root);
+        }
+
+        private boolean done() {
+            return pending == 0;
+        }
+
+        private void value(Node node) {
+            whitespace();
+            if (node == null) {
+                skip();
+                return;
+            }
+            int start = pos;
+            if (node.slot >= 0 && node.slot == locate) {
+                skip();
+                locatedStart = start;
+                locatedEnd = pos;
+                record(node.slot, null);
+                return;
+            }
+            byte c = peek();
+            String text;
+            if (c == '{' || c == '[') {
+                if (node.leaf()) {
+                    skip();
+                } else if (c == '{') {
+                    object(node);
+                } else {
+                    array(node);
+                }
+                if (done() || node.slot < 0) {
+                    return;
+                }
+                text = decode(start, pos);
+            } else if (c == '"') {
+                text = string();
+            } else {
+                literal();
+                text = decode(start, pos);
+                if (text.equals("null")) {
+                    text = null;
+                }
+            }
+            if (node.slot >= 0) {
+                record(node.slot, text);
+            }
+        }
+
+        private void object(Node node) {
+            pos++;
+            whitespace();
+            if (peek() == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                whitespace();
+                Node child = field(node);
+                whitespace();
+                expect(':');
+                value(child);
+                if (done()) {
+                    return;
+                }
+                whitespace();
+                byte c = next();
+                if (c == '}') {
+                    return;
+                }
+                if (c != ',') {
+                    throw error("Expected , or }");
+                }
+            }
+        }
+
+        private void array(Node node) {
+            pos++;
+            whitespace();
+            int count = 0;
+            if (peek() == ']') {
+                pos++;
+            } else {
+                while (true) {
+                    value(count < node.indexes.length ? node.indexes[count] : null);
+                    count++;
+                    if (done()) {
+                        return;
+                    }
+                    whitespace();
+                    byte c = next();
+                    if (c == ']') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw error("Expected , or ]");
+                    }
+                }
+            }
+            if (node.lengthSlot >= 0) {
+                record(node.lengthSlot, String.valueOf(count));
+            }
+        }
+
+        /**
+         * Reads an object key and returns the matching child, comparing raw bytes unless
+         * the key contains escapes.
+         */
+        private Node field(Node node) {
+            if (peek() != '"') {
+                throw error("Expected field name");
+            }
+            int start = pos + 1;
+            boolean escaped = skipString();
+            int end = pos - 1;
+            if (escaped) {
+                String name = unescape(start, end);
+                for (int i = 0; i < node.names.length; i++) {
+                    if (node.names[i].equals(name)) {
+                        return node.fields[i];
+                    }
+                }
+                return null;
+            }
+            for (int i = 0; i < node.nameBytes.length; i++) {
+                byte[] name = node.nameBytes[i];
+                if (name.length == end - start && matches(name, start)) {
+                    return node.fields[i];
+                }
+            }
+            return null;
+        }
+
+        private boolean matches(byte[] name, int start) {
+            for (int i = 0; i < name.length; i++) {
+                if (in.get(start + i) != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void record(int slot, String value) {
+            if (!found[slot]) {
+                found[slot] = true;
+                values[slot] = value;
+                pending--;
+            }
+        }
+
+        private String string() {
+            int start = pos + 1;
+            boolean escaped = skipString();
+            return escaped ? unescape(start, pos - 1) : decode(start, pos - 1);
+        }
+
+        /**
+         * Moves past the string starting at the current position.
+         *
+         * @return whether the string contains escape sequences
+         */
+        private boolean skipString() {
+            pos++;
+            boolean escaped = false;
+            while (pos < limit) {
+                byte c = in.get(pos++);
+                if (c == '"') {
+                    return escaped;
+                }
+                if (c == '\\') {
+                    escaped = true;
+                    pos++;
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private void literal() {
+            int start = pos;
+            while (pos < limit) {
+                byte c = in.get(pos);
+                if (c == ',' || c == '}' || c == ']' || (c >= 0 && c <= ' ')) {
+                    break;
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Expected value");
+            }
+        }
+
+        /**
+         * Skips a whole value, counting brackets instead of descending into it.
+         */
+        private void skip() {
+            byte c = peek();
+            if (c == '"') {
+                skipString();
+                return;
+            }
+            if (c != '{' && c != '[') {
+                literal();
+                return;
+            }
+            int depth = 0;
+            while (pos < limit) {
+                c = in.get(pos);
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                pos++;
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return;
+                }
+            }
+            throw error("Unterminated " + (c == '{' ? "object" : "array"));
+        }
+
+        private String decode(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = in.get(start + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private String unescape(int start, int end) {
+            StringBuilder out = new StringBuilder(end - start);
+            int run = start;
+            int i = start;
+            while (i < end) {
+                if (in.get(i) != '\\') {
+                    i++;
+                    continue;
+                }
+                out.append(decode(run, i));
+                char c = (char) in.get(i + 1);
+                switch (c) {
+                    case 'b':
+                        out.append('\b');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'u':
+                        if (i + 6 > end) {
+                            throw error("Truncated unicode escape");
+                        }
+                        out.append((char) Integer.parseInt(decode(i + 2, i + 6), 16));
+                        i += 4;
+                        break;
+                    default:
+                        out.append(c);
+                }
+                i += 2;
+                run = i;
+            }
+            return out.append(decode(run, end)).toString();
+        }
+
+        private void whitespace() {
+            while (pos < limit && in.get(pos) >= 0 && in.get(pos) <= ' ') {
+                pos++;
+            }
+        }
+
+        private byte peek() {
+            if (pos >= limit) {
+                throw error("Unexpected end of document");
+            }
+            return in.get(pos);
+        }
+
+        private byte next() {
+            byte c = peek();
+            pos++;
+            return c;
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw error("Expected " + c);
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + pos);
+        }
+    }
+}
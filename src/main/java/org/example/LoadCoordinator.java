@@ -0,0 +1,296 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coordinator of a run spread over several processes on one box, for loads that one JVM
+ * cannot generate. It listens on a loopback port, starts {@code N} {@link LoadWorker}
+ * processes ({@link #spawn}) or waits for ones started by hand, and hands each the
+ * options of the run and its shard of the users: the n-th worker runs every n-th user, at
+ * the times of the ramp-up of the whole run. When all workers are set up it starts them
+ * at one moment, merges the {@link LoadSnapshot}s they push into one {@link LoadReport}
+ * as they arrive and prints a line per interval.
+ * <p>
+ * Messages are a type byte followed by the body, integers as in {@link LoadSnapshot}:
+ * {@code HELLO pid}, {@code ASSIGN shard shards intervalMillis options},
+ * {@code READY}, {@code START epochMillis} and {@code SNAPSHOT}.
+ */
+public final class LoadCoordinator implements AutoCloseable {
+    static final int HELLO = 1;
+    static final int ASSIGN = 2;
+    static final int READY = 3;
+    static final int START = 4;
+    static final int SNAPSHOT = 5;
+
+    private static final long CONNECT_TIMEOUT_MILLIS = 60_000;
+    private static final long SETUP_TIMEOUT_MILLIS = 300_000;
+    private static final long START_DELAY_MILLIS = 500;
+    private static final long SHUTDOWN_GRACE_SECONDS = 60;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final ServerSocket server;
+    private final int workers;
+    private final Duration interval;
+    private final List<Process> processes = new ArrayList<>();
+    private final List<Worker> connected = new ArrayList<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * @param port loopback port to listen on, 0 for any free one
+     * @param interval how often workers push a snapshot
+     */
+    public LoadCoordinator(int port, int workers, Duration interval) throws IOException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.server = new ServerSocket(port, workers, InetAddress.getLoopbackAddress());
+        this.workers = workers;
+        this.interval = interval;
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Starts the worker processes: this JVM's java and class path running
+     * {@code App --worker 127.0.0.1:<port>} with {@code jvmArgs}, each writing to
+     * {@code worker-<n>.log} in {@code logs}.
+     */
+    public void spawn(Path logs, List<String> jvmArgs) throws IOException {
+        Files.createDirectories(logs);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        for (int i = 1; i <= workers; i++) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(App.class.getName());
+            command.add("--worker");
+            command.add("127.0.0.1:" + port());
+            File log = logs.resolve("worker-" + i + ".log").toFile();
+            processes.add(new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start());
+        }
+    }
+
+    /**
+     * Runs {@code users} users of {@code scenario} on the workers: waits for all of them
+     * to connect and report ready, starts them and returns the merged report once every
+     * worker sent its last snapshot or was lost.
+     *
+     * @param options command line options the workers run with
+     * @param duration length of the run, to give up on workers that never finish
+     * @param progress where the line of every interval goes
+     */
+    public LoadReport run(String scenario, int users, Duration duration, Map<String, String> options, PrintStream progress)
+            throws IOException, InterruptedException {
+        if (users < workers) {
+            throw new IllegalArgumentException(workers + " workers need at least as many users, got " + users);
+        }
+        server.setSoTimeout((int) CONNECT_TIMEOUT_MILLIS);
+        for (int i = 0; i < workers; i++) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketTimeoutException e) {
+                throw new IOException(connected.size() + " of " + workers + " workers connected to port " + port()
+                        + " within " + CONNECT_TIMEOUT_MILLIS / 1000 + " s", e);
+            }
+            connected.add(new Worker(i, socket));
+        }
+        for (Worker worker : connected) {
+            worker.assign(options);
+        }
+        for (Worker worker : connected) {
+            worker.awaitReady();
+        }
+
+        LoadReport merged = new LoadReport(scenario, users);
+        long startAt = System.currentTimeMillis() + START_DELAY_MILLIS;
+        for (Worker worker : connected) {
+            worker.start(startAt);
+        }
+        Thread.sleep(Math.max(0, startAt - System.currentTimeMillis()));
+        merged.started();
+
+        AtomicReference<Histogram> current = new AtomicReference<>(new Histogram());
+        LongAdder errors = new LongAdder();
+        List<Thread> readers = new ArrayList<>();
+        running.set(workers);
+        for (Worker worker : connected) {
+            Thread reader = new Thread(() -> worker.read(merged, current, errors, progress), "load-coordinator-" + worker.shard);
+            reader.setDaemon(true);
+            reader.start();
+            readers.add(reader);
+        }
+        ScheduledExecutorService printer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("load-progress"));
+        long millis = interval.toMillis();
+        printer.scheduleAtFixedRate(() -> progress.println(line(merged, current.getAndSet(new Histogram()), errors.sumThenReset())),
+                millis, millis, TimeUnit.MILLISECONDS);
+        try {
+            long deadline = System.nanoTime() + duration.toNanos() + TimeUnit.SECONDS.toNanos(SHUTDOWN_GRACE_SECONDS);
+            for (Thread reader : readers) {
+                reader.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        } finally {
+            printer.shutdownNow();
+        }
+        merged.finished();
+        return merged;
+    }
+
+    private String line(LoadReport merged, Histogram interval, long errors) {
+        return String.format(Locale.ROOT, "%7.0fs %3d/%d workers %9d requests %9.1f/s  p50 %8.2f ms  p99 %8.2f ms %6d errors",
+                merged.elapsedSeconds(), running.get(), workers, interval.count(), interval.count() * 1000.0 / this.interval.toMillis(),
+                interval.percentile(50) / NANOS_PER_MILLI, interval.percentile(99) / NANOS_PER_MILLI, errors);
+    }
+
+    /**
+     * Closes the connections and waits for the worker processes this coordinator started,
+     * which still clean up after the run, before stopping them.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Worker worker : connected) {
+            worker.socket.close();
+        }
+        server.close();
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long count = snapshots.sum();
+        return String.format(Locale.ROOT, "coordinator: %d workers, %d snapshots, %.1f KB received (%.0f B per snapshot)",
+                connected.size(), count, bytes.sum() / 1024.0, count == 0 ? 0.0 : (double) bytes.sum() / count);
+    }
+
+    private final class Worker {
+        final int shard;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final long pid;
+
+        Worker(int shard, Socket socket) throws IOException {
+            this.shard = shard;
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout((int) CONNECT_TIMEOUT_MILLIS);
+            in = new DataInputStream(new BufferedInputStream(new Counting(socket.getInputStream())));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            expect(HELLO);
+            pid = LoadSnapshot.readVarLong(in);
+        }
+
+        void assign(Map<String, String> options) throws IOException {
+            out.writeByte(ASSIGN);
+            LoadSnapshot.writeVarLong(out, shard);
+            LoadSnapshot.writeVarLong(out, workers);
+            LoadSnapshot.writeVarLong(out, interval.toMillis());
+            LoadSnapshot.writeVarLong(out, options.size());
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                out.writeUTF(option.getKey());
+                out.writeUTF(option.getValue());
+            }
+            out.flush();
+        }
+
+        void awaitReady() throws IOException {
+            socket.setSoTimeout((int) SETUP_TIMEOUT_MILLIS);
+            expect(READY);
+            socket.setSoTimeout(0);
+        }
+
+        void start(long epochMillis) throws IOException {
+            out.writeByte(START);
+            out.writeLong(epochMillis);
+            out.flush();
+        }
+
+        void read(LoadReport merged, AtomicReference<Histogram> interval, LongAdder errors, PrintStream progress) {
+            LoadSnapshot.Reader reader = new LoadSnapshot.Reader(merged);
+            try {
+                boolean last = false;
+                while (!last) {
+                    expect(SNAPSHOT);
+                    last = reader.read(in, interval.get(), errors);
+                    snapshots.increment();
+                }
+            } catch (IOException e) {
+                progress.printf("worker %d (pid %d) lost: %s%n", shard + 1, pid, e);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+
+        private void expect(int message) throws IOException {
+            int read = in.readUnsignedByte();
+            if (read != message) {
+                throw new IOException("Expected message " + message + " from worker " + (shard + 1) + ", got " + read);
+            }
+        }
+    }
+
+    private final class Counting extends FilterInputStream {
+        Counting(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytes.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                bytes.add(n);
+            }
+            return n;
+        }
+    }
+}
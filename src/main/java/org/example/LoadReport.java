@@ -0,0 +1,150 @@
+package org.example;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-step latency histograms and error counts collected during a load run.
+ */
+public final class LoadReport {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final String scenario;
+    private final int users;
+    private final ConcurrentMap<String, StepStats> steps = new ConcurrentHashMap<>();
+    private final AtomicInteger order = new AtomicInteger();
+    final LongAdder iterations = new LongAdder();
+    final LongAdder failedIterations = new LongAdder();
+    private final ConcurrentMap<List<String>, LongAdder> criticalPaths = new ConcurrentHashMap<>();
+    private final Histogram lifecycles = new Histogram();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    LoadReport(String scenario, int users) {
+        this.scenario = scenario;
+        this.users = users;
+    }
+
+    StepStats step(String name) {
+        StepStats stats = steps.get(name);
+        return stats != null ? stats : steps.computeIfAbsent(name, k -> new StepStats(k, order.getAndIncrement()));
+    }
+
+    void criticalPath(List<String> path, long wallNanos) {
+        criticalPaths.computeIfAbsent(path, k -> new LongAdder()).increment();
+        lifecycles.record(wallNanos);
+    }
+
+    /**
+     * Adds {@code count} runs with the critical path, as counted by another process.
+     */
+    void addCriticalPath(List<String> path, long count) {
+        criticalPaths.computeIfAbsent(path, k -> new LongAdder()).add(count);
+    }
+
+    Map<List<String>, LongAdder> criticalPaths() {
+        return criticalPaths;
+    }
+
+    Histogram lifecycles() {
+        return lifecycles;
+    }
+
+    void started() {
+        startNanos = System.nanoTime();
+    }
+
+    void finished() {
+        endNanos = System.nanoTime();
+    }
+
+    public double elapsedSeconds() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return (end - startNanos) / 1e9;
+    }
+
+    public int users() {
+        return users;
+    }
+
+    public long iterations() {
+        return iterations.sum();
+    }
+
+    public long failedIterations() {
+        return failedIterations.sum();
+    }
+
+    public List<StepStats> steps() {
+        List<StepStats> list = new ArrayList<>(steps.values());
+        list.sort(Comparator.comparingInt(s -> s.order));
+        return list;
+    }
+
+    public long requests() {
+        long total = 0;
+        for (StepStats stats : steps.values()) {
+            total += stats.latency.count();
+        }
+        return total;
+    }
+
+    public void print(PrintStream out) {
+        double seconds = Math.max(elapsedSeconds(), 1e-9);
+        out.printf("scenario %s: %d users, %.1f s, %d iterations (%.1f/s), %d failed, %d requests (%.1f/s)%n",
+                scenario, users, seconds, iterations(), iterations() / seconds, failedIterations(),
+                requests(), requests() / seconds);
+        out.printf("%-32s %9s %7s %9s %9s %9s %9s%n", "step", "count", "errors", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (StepStats stats : steps()) {
+            Histogram h = stats.latency;
+            out.printf("%-32s %9d %7d %9.2f %9.2f %9.2f %9.2f%n", stats.name, h.count(), stats.errors.sum(),
+                    h.percentile(50) / NANOS_PER_MILLI, h.percentile(95) / NANOS_PER_MILLI,
+                    h.percentile(99) / NANOS_PER_MILLI, h.max() / NANOS_PER_MILLI);
+        }
+        if (lifecycles.count() > 0) {
+            Map.Entry<List<String>, LongAdder> top = Collections.max(criticalPaths.entrySet(),
+                    Comparator.comparingLong(e -> e.getValue().sum()));
+            out.printf("lifecycle wall time p50 %.2f ms, p95 %.2f ms; critical path in %.0f%% of runs: %s%n",
+                    lifecycles.percentile(50) / NANOS_PER_MILLI, lifecycles.percentile(95) / NANOS_PER_MILLI,
+                    100.0 * top.getValue().sum() / lifecycles.count(), String.join(" -> ", top.getKey()));
+        }
+        for (StepStats stats : steps()) {
+            if (stats.lastError != null) {
+                out.printf("last error in %s: %s%n", stats.name, stats.lastError);
+            }
+        }
+    }
+
+    public static final class StepStats {
+        final String name;
+        final int order;
+        final Histogram latency = new Histogram();
+        final LongAdder errors = new LongAdder();
+        volatile String lastError;
+
+        StepStats(String name, int order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Histogram latency() {
+            return latency;
+        }
+
+        public long errors() {
+            return errors.sum();
+        }
+    }
+}
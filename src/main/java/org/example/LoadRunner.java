@@ -0,0 +1,121 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs a scenario with N concurrent users, one virtual thread per user. Users start
+ * evenly spread over the ramp-up period and repeat the scenario until the run duration
+ * (which includes the ramp-up) is over; iterations in flight at the deadline are finished.
+ * A {@linkplain #shard shard} runs every n-th user of the run, at the times they would
+ * start in the whole run, so that the shards of several processes add up to it.
+ */
+public final class LoadRunner {
+    private static final long SHUTDOWN_GRACE_SECONDS = 60;
+
+    private final Supplier<? extends Scenario> scenarios;
+    private final int users;
+    private final Duration rampUp;
+    private final Duration duration;
+    private final int firstUser;
+    private final int userStep;
+
+    /**
+     * @param scenarios creates the scenario instance of each user
+     */
+    public LoadRunner(Supplier<? extends Scenario> scenarios, int users, Duration rampUp, Duration duration) {
+        this(scenarios, users, rampUp, duration, 0, 1);
+    }
+
+    private LoadRunner(Supplier<? extends Scenario> scenarios, int users, Duration rampUp, Duration duration,
+                       int firstUser, int userStep) {
+        if (users < 1) {
+            throw new IllegalArgumentException("users must be positive: " + users);
+        }
+        if (rampUp.compareTo(duration) > 0) {
+            throw new IllegalArgumentException("ramp-up " + rampUp + " is longer than the run " + duration);
+        }
+        this.scenarios = scenarios;
+        this.users = users;
+        this.rampUp = rampUp;
+        this.duration = duration;
+        this.firstUser = firstUser;
+        this.userStep = userStep;
+    }
+
+    /**
+     * Users {@code index}, {@code index + count}, {@code index + 2 * count}... of this run.
+     */
+    public LoadRunner shard(int index, int count) {
+        if (index < 0 || index >= count || index >= users) {
+            throw new IllegalArgumentException("No shard " + index + " of " + count + " in a run of " + users + " users");
+        }
+        return new LoadRunner(scenarios, users, rampUp, duration, index, count);
+    }
+
+    /**
+     * Number of users this runner starts.
+     */
+    public int users() {
+        return (users - firstUser + userStep - 1) / userStep;
+    }
+
+    public LoadReport run() throws InterruptedException {
+        return run(System.nanoTime(), report -> {
+        });
+    }
+
+    /**
+     * Runs from the {@link System#nanoTime} {@code start} on, waiting for it first;
+     * {@code started} gets the report before the first user starts, to read while it fills.
+     */
+    LoadReport run(long start, Consumer<LoadReport> started) throws InterruptedException {
+        Scenario first = scenarios.get();
+        LoadReport report = new LoadReport(first.name(), users());
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("load-user");
+        for (long delay; (delay = start - System.nanoTime()) > 0; ) {
+            Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+        }
+        started.accept(report);
+        report.started();
+        long deadline = start + duration.toNanos();
+        for (int i = firstUser; i < users; i += userStep) {
+            long startAt = start + rampUp.toNanos() * i / users;
+            Scenario scenario = i == firstUser ? first : null;
+            executor.execute(() -> runUser(scenario, startAt, deadline, report));
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(duration.getSeconds() + SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+        report.finished();
+        return report;
+    }
+
+    private void runUser(Scenario scenario, long startAt, long deadline, LoadReport report) {
+        long delay;
+        while ((delay = startAt - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+        Scenario user = scenario != null ? scenario : scenarios.get();
+        StepRecorder steps = new StepRecorder(report);
+        while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            try {
+                user.run(steps);
+                report.iterations.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception | AssertionError e) {
+                report.failedIterations.increment();
+            }
+        }
+    }
+}
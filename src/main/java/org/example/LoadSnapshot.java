@@ -0,0 +1,237 @@
+package org.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interval snapshots of a {@link LoadReport} as a {@link LoadWorker} sends them to its
+ * {@link LoadCoordinator}: what changed since the previous snapshot, never samples. Each
+ * step's latency goes as the {@link Histogram} buckets that grew, index gap and count as
+ * variable-length integers, so a snapshot of a busy interval is a few hundred bytes
+ * however many calls it covers. A step is named in the first snapshot it appears in and
+ * referred to by number after that.
+ * <p>
+ * {@link #write} runs on the worker; {@link Reader} adds the snapshots of one worker
+ * into the merged report of the coordinator.
+ */
+final class LoadSnapshot {
+    private final LoadReport report;
+    private final Map<LoadReport.StepStats, Step> steps = new IdentityHashMap<>();
+    private final Delta lifecycles = new Delta();
+    private long iterations;
+    private long failedIterations;
+
+    LoadSnapshot(LoadReport report) {
+        this.report = report;
+    }
+
+    /**
+     * Writes what changed since the previous call; with {@code last} the critical paths
+     * and the last error of every step follow.
+     */
+    void write(DataOutput out, boolean last) throws IOException {
+        long iterationsNow = report.iterations();
+        long failedNow = report.failedIterations();
+        writeVarLong(out, iterationsNow - iterations);
+        writeVarLong(out, failedNow - failedIterations);
+        iterations = iterationsNow;
+        failedIterations = failedNow;
+
+        List<LoadReport.StepStats> all = report.steps();
+        writeVarLong(out, all.size());
+        for (LoadReport.StepStats stats : all) {
+            Step step = steps.get(stats);
+            if (step == null) {
+                step = new Step(steps.size());
+                steps.put(stats, step);
+                writeVarLong(out, step.id);
+                out.writeUTF(stats.name());
+            } else {
+                writeVarLong(out, step.id);
+            }
+            long errors = stats.errors();
+            writeVarLong(out, errors - step.errors);
+            step.errors = errors;
+            step.latency.write(out, stats.latency());
+        }
+        lifecycles.write(out, report.lifecycles());
+
+        out.writeBoolean(last);
+        if (last) {
+            Map<List<String>, LongAdder> paths = report.criticalPaths();
+            writeVarLong(out, paths.size());
+            for (Map.Entry<List<String>, LongAdder> path : paths.entrySet()) {
+                writeVarLong(out, path.getKey().size());
+                for (String name : path.getKey()) {
+                    out.writeUTF(name);
+                }
+                writeVarLong(out, path.getValue().sum());
+            }
+            List<LoadReport.StepStats> failed = new ArrayList<>();
+            for (LoadReport.StepStats stats : all) {
+                if (stats.lastError != null) {
+                    failed.add(stats);
+                }
+            }
+            writeVarLong(out, failed.size());
+            for (LoadReport.StepStats stats : failed) {
+                String error = stats.lastError;
+                writeVarLong(out, steps.get(stats).id);
+                out.writeUTF(error.length() > 4096 ? error.substring(0, 4096) : error);
+            }
+        }
+    }
+
+    private static final class Step {
+        final int id;
+        final Delta latency = new Delta();
+        long errors;
+
+        Step(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Bucket counts of a histogram as of the previous snapshot.
+     */
+    private static final class Delta {
+        private final long[] counts = new long[Histogram.BUCKETS];
+        private long sum;
+
+        void write(DataOutput out, Histogram histogram) throws IOException {
+            int changed = 0;
+            for (int i = 0; i < Histogram.BUCKETS; i++) {
+                if (histogram.bucketCount(i) != counts[i]) {
+                    changed++;
+                }
+            }
+            // a bucket that grows after this count is sent with the next snapshot
+            writeVarLong(out, changed);
+            int previous = 0;
+            for (int i = 0; i < Histogram.BUCKETS && changed > 0; i++) {
+                long count = histogram.bucketCount(i);
+                if (count != counts[i]) {
+                    writeVarLong(out, i - previous);
+                    writeVarLong(out, count - counts[i]);
+                    counts[i] = count;
+                    previous = i;
+                    changed--;
+                }
+            }
+            long sumNow = histogram.sum();
+            writeVarLong(out, sumNow - sum);
+            writeVarLong(out, histogram.max());
+            sum = sumNow;
+        }
+    }
+
+    /**
+     * Adds the snapshots of one worker into a report, and the latencies of every step also
+     * into the histogram of the current interval.
+     */
+    static final class Reader {
+        private final LoadReport merged;
+        private final List<LoadReport.StepStats> steps = new ArrayList<>();
+
+        Reader(LoadReport merged) {
+            this.merged = merged;
+        }
+
+        /**
+         * @return whether this was the last snapshot of the worker
+         */
+        boolean read(DataInput in, Histogram interval, LongAdder intervalErrors) throws IOException {
+            merged.iterations.add(readVarLong(in));
+            merged.failedIterations.add(readVarLong(in));
+            long count = readVarLong(in);
+            for (long i = 0; i < count; i++) {
+                int id = (int) readVarLong(in);
+                if (id == steps.size()) {
+                    String name = in.readUTF();
+                    steps.add(merged.step(name));
+                } else if (id > steps.size()) {
+                    throw new IOException("Step " + id + " was never named");
+                }
+                LoadReport.StepStats stats = steps.get(id);
+                long errors = readVarLong(in);
+                stats.errors.add(errors);
+                intervalErrors.add(errors);
+                readHistogram(in, stats.latency, interval);
+            }
+            readHistogram(in, merged.lifecycles(), null);
+
+            boolean last = in.readBoolean();
+            if (last) {
+                long paths = readVarLong(in);
+                for (long p = 0; p < paths; p++) {
+                    int length = (int) readVarLong(in);
+                    List<String> path = new ArrayList<>(length);
+                    for (int i = 0; i < length; i++) {
+                        path.add(in.readUTF());
+                    }
+                    merged.addCriticalPath(path, readVarLong(in));
+                }
+                for (long failed = readVarLong(in); failed > 0; failed--) {
+                    int id = (int) readVarLong(in);
+                    if (id >= steps.size()) {
+                        throw new IOException("Step " + id + " was never named");
+                    }
+                    steps.get(id).lastError = in.readUTF();
+                }
+            }
+            return last;
+        }
+
+        private static void readHistogram(DataInput in, Histogram into, Histogram interval) throws IOException {
+            int index = 0;
+            long buckets = readVarLong(in);
+            for (long i = 0; i < buckets; i++) {
+                index += (int) readVarLong(in);
+                if (index >= Histogram.BUCKETS) {
+                    throw new IOException("Bucket " + index + " out of range");
+                }
+                long count = readVarLong(in);
+                into.addBucket(index, count);
+                if (interval != null) {
+                    interval.addBucket(index, count);
+                }
+            }
+            long sum = readVarLong(in);
+            long max = readVarLong(in);
+            into.addTotals(sum, max);
+            if (interval != null) {
+                interval.addTotals(sum, max);
+            }
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value " + value);
+        }
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Variable-length integer longer than 64 bits");
+    }
+}
@@ -0,0 +1,142 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One process of a distributed run: connects to the {@link LoadCoordinator}, takes the
+ * options of the run and its shard of the users, and once set up runs the shard from the
+ * start time the coordinator gives all workers, pushing a {@link LoadSnapshot} every
+ * interval and a last one when its users are done.
+ */
+public final class LoadWorker implements AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final int shard;
+    private final int shards;
+    private final Duration interval;
+    private final Map<String, String> options;
+    private volatile IOException lost;
+
+    private LoadWorker(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeByte(LoadCoordinator.HELLO);
+        LoadSnapshot.writeVarLong(out, ProcessHandle.current().pid());
+        out.flush();
+        expect(LoadCoordinator.ASSIGN);
+        shard = (int) LoadSnapshot.readVarLong(in);
+        shards = (int) LoadSnapshot.readVarLong(in);
+        interval = Duration.ofMillis(LoadSnapshot.readVarLong(in));
+        options = new HashMap<>();
+        for (long n = LoadSnapshot.readVarLong(in); n > 0; n--) {
+            options.put(in.readUTF(), in.readUTF());
+        }
+    }
+
+    /**
+     * Connects to the coordinator at {@code host:port} and waits for the assignment.
+     */
+    public static LoadWorker connect(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Expected host:port, got " + address);
+        }
+        Socket socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        try {
+            return new LoadWorker(socket);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The command line options of the run, as the coordinator passes them on.
+     */
+    public Map<String, String> options() {
+        return options;
+    }
+
+    /**
+     * Runs this worker's shard of {@code runner}: tells the coordinator it is ready, waits
+     * for the start time and reports to the coordinator until the shard is done.
+     */
+    public LoadReport run(LoadRunner runner) throws IOException, InterruptedException {
+        LoadRunner part = runner.shard(shard, shards);
+        synchronized (out) {
+            out.writeByte(LoadCoordinator.READY);
+            out.flush();
+        }
+        expect(LoadCoordinator.START);
+        // the coordinator runs on the same box, so the wall clocks agree
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(in.readLong() - System.currentTimeMillis());
+        System.out.printf("shard %d of %d: %d users%n", shard + 1, shards, part.users());
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("load-worker"));
+        AtomicReference<LoadSnapshot> snapshots = new AtomicReference<>();
+        LoadReport report;
+        try {
+            report = part.run(start, started -> {
+                LoadSnapshot snapshot = new LoadSnapshot(started);
+                snapshots.set(snapshot);
+                long millis = interval.toMillis();
+                reporter.scheduleAtFixedRate(() -> send(snapshot, false), millis, millis, TimeUnit.MILLISECONDS);
+            });
+        } finally {
+            reporter.shutdown();
+            reporter.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        send(snapshots.get(), true);
+        if (lost != null) {
+            System.err.println("coordinator lost: " + lost);
+        }
+        return report;
+    }
+
+    private void send(LoadSnapshot snapshot, boolean last) {
+        if (lost != null) {
+            return;
+        }
+        synchronized (out) {
+            try {
+                out.writeByte(LoadCoordinator.SNAPSHOT);
+                snapshot.write(out, last);
+                out.flush();
+            } catch (IOException e) {
+                lost = e;
+            }
+        }
+    }
+
+    private void expect(int message) throws IOException {
+        int read = in.readUnsignedByte();
+        if (read != message) {
+            throw new IOException("Expected message " + message + " from the coordinator, got " + read);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("worker %d of %d, coordinator %s", shard + 1, shards, socket.getRemoteSocketAddress());
+    }
+}
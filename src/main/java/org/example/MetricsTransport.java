@@ -0,0 +1,66 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link Transport} decorator that records each call in {@link ApiMetrics}. It belongs
+ * directly around the transport that does the I/O, below retries, rate limiting and hedging,
+ * so that every send is measured on its own and a request sent again counts as repeated.
+ * Connection reuse and request bytes come from the {@link ConnectionPool} of a
+ * {@link RestAssuredTransport}; response bytes are the body length. Asynchronous calls are
+ * timed from send to completion, without connection facts.
+ */
+public final class MetricsTransport implements Transport {
+    private final Transport delegate;
+    private final ApiMetrics metrics;
+
+    public MetricsTransport(Transport delegate, ApiMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        ApiMetrics.Stats stats = metrics.of(request.endpoint());
+        if (request.sends.getAndIncrement() > 0) {
+            stats.repeated();
+        }
+        ConnectionPool.Exchange exchange = ConnectionPool.exchange();
+        exchange.reset();
+        long start = System.nanoTime();
+        ApiResponse response;
+        try {
+            response = delegate.execute(request);
+        } catch (RuntimeException e) {
+            stats.error();
+            throw e;
+        } finally {
+            if (exchange.connected()) {
+                stats.connection(exchange.reused());
+            }
+        }
+        stats.response(response.statusCode(), System.nanoTime() - start, exchange.sentBytes(), response.bodyLength());
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        ApiMetrics.Stats stats = metrics.of(request.endpoint());
+        if (request.sends.getAndIncrement() > 0) {
+            stats.repeated();
+        }
+        long start = System.nanoTime();
+        return delegate.executeAsync(request).whenComplete((response, error) -> {
+            if (error != null) {
+                stats.error();
+            } else {
+                stats.response(response.statusCode(), System.nanoTime() - start, 0, response.bodyLength());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,164 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy iterator over the items of a paginated listing. While the caller consumes page n,
+ * pages n+1 to n+{@code prefetch} are already being fetched in the background; with a
+ * prefetch of 0 every page is fetched on the caller's thread when it is reached.
+ * <p>
+ * The listing ends at a page marked last or at the first empty page, and pages requested
+ * beyond that are cancelled. {@link #close()} ends it early the same way; streams from
+ * {@link #stream()} close the paginator when they are closed, so short-circuiting streams
+ * should be used in try-with-resources. A failed fetch is thrown from {@link #hasNext()}
+ * when its page is reached. Not thread-safe, like any iterator.
+ */
+public final class Paginator<T> implements Iterator<T>, AutoCloseable {
+    private static final ExecutorService PAGES = VirtualThreads.newThreadPerTaskExecutor("page-prefetch");
+
+    private final Fetcher<T> fetcher;
+    private final int prefetch;
+    private final ArrayDeque<Future<Page<T>>> ahead = new ArrayDeque<>();
+    private Iterator<T> current = Collections.emptyIterator();
+    private int nextPage;
+    private int pagesFetched;
+    private boolean finished;
+
+    /**
+     * @param prefetch pages to fetch ahead of the one being consumed
+     */
+    public Paginator(Fetcher<T> fetcher, int prefetch) {
+        if (prefetch < 0) {
+            throw new IllegalArgumentException("Negative prefetch " + prefetch);
+        }
+        this.fetcher = fetcher;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            Page<T> page = next(ahead.isEmpty() ? request() : ahead.poll());
+            pagesFetched++;
+            if (page.last || page.items.isEmpty()) {
+                finished = true;
+                cancelAhead();
+            } else {
+                fill();
+            }
+            current = page.items.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * @return pages consumed so far
+     */
+    public int pagesFetched() {
+        return pagesFetched;
+    }
+
+    /**
+     * Stops the listing and cancels the pages fetched ahead.
+     */
+    @Override
+    public void close() {
+        finished = true;
+        current = Collections.emptyIterator();
+        cancelAhead();
+    }
+
+    private void cancelAhead() {
+        for (Future<Page<T>> page; (page = ahead.poll()) != null; ) {
+            page.cancel(true);
+        }
+    }
+
+    private void fill() {
+        while (ahead.size() < prefetch) {
+            ahead.add(request());
+        }
+    }
+
+    private Future<Page<T>> request() {
+        int page = nextPage++;
+        if (prefetch == 0) {
+            return CompletableFuture.completedFuture(fetcher.fetch(page));
+        }
+        return PAGES.submit(() -> fetcher.fetch(page));
+    }
+
+    private Page<T> next(Future<Page<T>> page) {
+        try {
+            return page.get();
+        } catch (ExecutionException e) {
+            close();
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for page " + pagesFetched, e);
+        }
+    }
+
+    /**
+     * Fetches one page of a listing, numbered from 0.
+     */
+    @FunctionalInterface
+    public interface Fetcher<T> {
+        Page<T> fetch(int page);
+    }
+
+    public static final class Page<T> {
+        final List<T> items;
+        final boolean last;
+
+        private Page(List<T> items, boolean last) {
+            this.items = items;
+            this.last = last;
+        }
+
+        /**
+         * A page that may be followed by more; an empty one still ends the listing.
+         */
+        public static <T> Page<T> of(List<T> items) {
+            return new Page<>(items, false);
+        }
+
+        /**
+         * The final page of a listing that knows its total size.
+         */
+        public static <T> Page<T> last(List<T> items) {
+            return new Page<>(items, true);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Uploads photos to a VK upload server without holding them in memory. Files are packed
+ * up to five per multipart request ({@code file1}..{@code file5}) and several requests run
+ * in parallel. Part sizes are known up front, so each request is sent with a fixed-length
+ * streaming body and file contents go from a {@link FileChannel} to the connection through
+ * the channel's small transfer buffer; heap use does not grow with file size or count.
+ */
+public final class PhotoUploader implements AutoCloseable {
+    public static final int MAX_FILES_PER_REQUEST = 5;
+
+    private static final JsonFields ERROR = JsonFields.compile("error");
+
+    private final ExecutorService executor;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    /**
+     * @param parallelism number of upload requests in flight at the same time
+     */
+    public PhotoUploader(int parallelism, Duration connectTimeout, Duration readTimeout) {
+        this.executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("vk-upload"));
+        this.connectTimeoutMillis = (int) connectTimeout.toMillis();
+        this.readTimeoutMillis = (int) readTimeout.toMillis();
+    }
+
+    /**
+     * Sends one multipart request with up to five files. The future fails with an
+     * {@link UncheckedIOException} when the upload server answers with an error status or
+     * a VK {@code {"error": ...}} body.
+     */
+    public CompletableFuture<Batch> upload(String uploadUrl, List<Path> files) {
+        if (files.isEmpty() || files.size() > MAX_FILES_PER_REQUEST) {
+            throw new IllegalArgumentException("VK accepts 1 to " + MAX_FILES_PER_REQUEST + " files per upload: " + files.size());
+        }
+        List<Path> batch = Collections.unmodifiableList(new ArrayList<>(files));
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(uploadUrl, batch);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Upload of " + batch + " failed", e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Uploads all files in batches of five, running batches in parallel, and waits for them.
+     * Only accepted batches make up the summary and its throughput.
+     *
+     * @throws UncheckedIOException with the first failed batch
+     */
+    public Summary uploadAll(String uploadUrl, List<Path> files) {
+        long start = System.nanoTime();
+        List<CompletableFuture<Batch>> futures = new ArrayList<>();
+        for (int i = 0; i < files.size(); i += MAX_FILES_PER_REQUEST) {
+            futures.add(upload(uploadUrl, files.subList(i, Math.min(files.size(), i + MAX_FILES_PER_REQUEST))));
+        }
+        List<Batch> batches = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<Batch> future : futures) {
+                batches.add(future.join());
+            }
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(false));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return new Summary(batches, System.nanoTime() - start);
+    }
+
+    private Batch send(String uploadUrl, List<Path> files) throws IOException {
+        long start = System.nanoTime();
+        String boundary = "----upload" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        byte[][] heads = new byte[files.size()][];
+        long[] sizes = new long[files.size()];
+        long length = 0;
+        for (int i = 0; i < files.size(); i++) {
+            String name = files.get(i).getFileName().toString();
+            String contentType = URLConnection.guessContentTypeFromName(name);
+            heads[i] = ((i == 0 ? "" : "\r\n") + "--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file" + (i + 1) + "\"; filename=\"" + name.replace("\"", "") + "\"\r\n"
+                    + "Content-Type: " + (contentType != null ? contentType : "application/octet-stream") + "\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            try (FileChannel file = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+                sizes[i] = file.size();
+            }
+            length += heads[i].length + sizes[i];
+        }
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        length += tail.length;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(uploadUrl).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+        connection.setFixedLengthStreamingMode(length);
+        try (OutputStream out = connection.getOutputStream()) {
+            WritableByteChannel target = Channels.newChannel(out);
+            for (int i = 0; i < files.size(); i++) {
+                out.write(heads[i]);
+                try (FileChannel file = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < sizes[i]) {
+                        long sent = file.transferTo(position, sizes[i] - position, target);
+                        if (sent <= 0) {
+                            throw new IOException(files.get(i) + " shrank during upload");
+                        }
+                        position += sent;
+                    }
+                }
+            }
+            out.write(tail);
+        }
+        ApiResponse response = read(connection);
+        if (response.statusCode() >= 400 || response.fields(ERROR).has("error")) {
+            throw new IOException("Upload server answered " + response.statusCode() + ": " + response.asString());
+        }
+        return new Batch(files, response, length, System.nanoTime() - start);
+    }
+
+    private static ApiResponse read(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        Map<String, List<String>> headers = new HashMap<>();
+        connection.getHeaderFields().forEach((name, values) -> {
+            if (name != null) {
+                headers.put(name, values);
+            }
+        });
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+            if (in != null) {
+                in.transferTo(body);
+            }
+        }
+        return new ApiResponse(status, headers, ByteBuffer.wrap(body.toByteArray()));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * One multipart request: its files, the upload server response and the bytes sent.
+     */
+    public static final class Batch {
+        private final List<Path> files;
+        private final ApiResponse response;
+        private final long bytes;
+        private final long nanos;
+
+        Batch(List<Path> files, ApiResponse response, long bytes, long nanos) {
+            this.files = files;
+            this.response = response;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public List<Path> files() {
+            return files;
+        }
+
+        public ApiResponse response() {
+            return response;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+    }
+
+    public static final class Summary {
+        private final List<Batch> batches;
+        private final long nanos;
+
+        Summary(List<Batch> batches, long nanos) {
+            this.batches = Collections.unmodifiableList(batches);
+            this.nanos = nanos;
+        }
+
+        public List<Batch> batches() {
+            return batches;
+        }
+
+        public long bytes() {
+            long total = 0;
+            for (Batch batch : batches) {
+                total += batch.bytes;
+            }
+            return total;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        public double megabytesPerSecond() {
+            return bytes() / 1e6 / Math.max(nanos, 1) * 1e9;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %.1f MB in %.2f s, %.1f MB/s",
+                    batches.size(), bytes() / 1e6, nanos / 1e9, megabytesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link Transport} decorator that takes a permit from a shared {@link RateLimiter} before
+ * each call and reports the response back to it. Calls the server throttled were not
+ * executed, so they are sent again once the limiter lets them through, for any method.
+ */
+public final class RateLimitedTransport implements Transport {
+    static final int MAX_THROTTLED_ATTEMPTS = 5;
+
+    private final Transport delegate;
+    private final RateLimiter limiter;
+    private final String account;
+
+    /**
+     * @param account identifies the token in the limiter and its report; not the token itself
+     */
+    public RateLimitedTransport(Transport delegate, RateLimiter limiter, String account) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.account = account;
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        String family = request.endpoint().family();
+        ApiResponse response;
+        int attempts = 0;
+        do {
+            limiter.acquire(account, family);
+            response = delegate.execute(request);
+        } while (limiter.update(account, family, response) && ++attempts < MAX_THROTTLED_ATTEMPTS);
+        return response;
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        return executeAsync(request, request.endpoint().family(), 1);
+    }
+
+    private CompletableFuture<ApiResponse> executeAsync(ApiRequest request, String family, int attempt) {
+        return limiter.acquireAsync(account, family)
+                .thenCompose(permit -> delegate.executeAsync(request))
+                .thenCompose(response -> limiter.update(account, family, response) && attempt < MAX_THROTTLED_ATTEMPTS
+                        ? executeAsync(request, family, attempt + 1)
+                        : CompletableFuture.completedFuture(response));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,361 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client-side token buckets shared by every thread that calls an API with the same token.
+ * A call takes a permit from the token's bucket, which follows the limits the server
+ * announces, and then from the bucket of its endpoint family, which only slows down when
+ * that family gets throttled.
+ * <p>
+ * Rates adapt to responses. {@code X-RateLimit-UserRemaining} / {@code ClientRemaining}
+ * spread the token's remaining budget evenly up to {@code X-RateLimit-UserReset}, Imgur's
+ * {@code X-Post-Rate-Limit-*} headers do the same for the family. A 429 or VK error 6
+ * cuts the token's rate by 30% (the family's when the POST limit ran out) and pauses it for
+ * {@code Retry-After}, or one interval at the new rate for VK; calls that get through raise
+ * the rate again by a tenth of the ceiling per second, up to the ceiling.
+ */
+public final class RateLimiter {
+    private static final byte[] ERROR_ENVELOPE = "{\"error\"".getBytes(StandardCharsets.US_ASCII);
+    private static final JsonFields ERROR_CODE = JsonFields.compile("error.error_code");
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int VK_TOO_MANY_REQUESTS = 6;
+    private static final double DECREASE = 0.7;
+    private static final double INCREASE_SECONDS = 10;
+
+    private final double ceiling;
+    private final double floor;
+    private final int burst;
+    private final ConcurrentMap<String, Bucket> accounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Bucket> families = new ConcurrentHashMap<>();
+
+    /**
+     * @param perSecond starting and highest rate of each bucket
+     * @param floor     lowest rate a throttled bucket slows down to
+     * @param burst     calls a bucket lets through at once after being idle
+     */
+    public RateLimiter(double perSecond, double floor, int burst) {
+        if (perSecond <= 0 || floor <= 0 || floor > perSecond || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate limit " + perSecond + "/s, floor " + floor + ", burst " + burst);
+        }
+        this.ceiling = perSecond;
+        this.floor = floor;
+        this.burst = burst;
+    }
+
+    /**
+     * Settings from {@code rateLimit.perSecond}, {@code rateLimit.floorPerSecond} and
+     * {@code rateLimit.burst}; {@code null} when {@code rateLimit.perSecond} is not set.
+     */
+    public static RateLimiter fromProperties(Properties properties) {
+        String perSecond = properties.getProperty("rateLimit.perSecond");
+        if (perSecond == null) {
+            return null;
+        }
+        double rate = Double.parseDouble(perSecond);
+        return new RateLimiter(rate,
+                Double.parseDouble(properties.getProperty("rateLimit.floorPerSecond", String.valueOf(Math.min(rate, 0.5)))),
+                Integer.parseInt(properties.getProperty("rateLimit.burst", "1")));
+    }
+
+    /**
+     * Blocks until both the account's and the family's bucket allow a call.
+     */
+    public void acquire(String account, String family) {
+        account(account).acquire();
+        family(account, family).acquire();
+    }
+
+    /**
+     * Completes once both buckets allowed a call, without holding a thread while it waits.
+     */
+    public CompletableFuture<Void> acquireAsync(String account, String family) {
+        Bucket familyBucket = family(account, family);
+        return account(account).acquireAsync().thenCompose(permit -> familyBucket.acquireAsync());
+    }
+
+    /**
+     * Feeds a response back into the buckets the call was admitted by.
+     *
+     * @return whether the server throttled the call; it was not executed and can be sent again
+     */
+    public boolean update(String account, String family, ApiResponse response) {
+        Bucket bucket = account(account);
+        Bucket familyBucket = family(account, family);
+        String remaining = minRemaining(response.header("X-RateLimit-UserRemaining"), response.header("X-RateLimit-ClientRemaining"));
+        String reset = response.header("X-RateLimit-UserReset");
+        if (remaining != null && reset != null) {
+            bucket.budget(Long.parseLong(remaining.trim()), Long.parseLong(reset.trim()) * 1000);
+        }
+        String postRemaining = response.header("X-Post-Rate-Limit-Remaining");
+        String postReset = response.header("X-Post-Rate-Limit-Reset");
+        if (postRemaining != null && postReset != null) {
+            familyBucket.budget(Long.parseLong(postRemaining.trim()),
+                    System.currentTimeMillis() + Long.parseLong(postReset.trim()) * 1000);
+        }
+        if (!throttled(response)) {
+            bucket.passed();
+            familyBucket.passed();
+            return false;
+        }
+        Duration retryAfter = retryAfter(response);
+        long pauseNanos = retryAfter != null ? retryAfter.toNanos() : 0;
+        // Imgur's separate POST limit is tracked per family, everything else is per token
+        ("0".equals(postRemaining) ? familyBucket : bucket).throttled(pauseNanos);
+        return true;
+    }
+
+    /**
+     * The pause a response asks for in {@code Retry-After}, given in seconds or as an HTTP
+     * date; {@code null} when there is none or it does not parse.
+     */
+    static Duration retryAfter(ApiResponse response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return null;
+        }
+        value = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // an HTTP date then
+        }
+        try {
+            Duration left = Duration.between(Instant.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+            return left.isNegative() ? Duration.ZERO : left;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String minRemaining(String user, String client) {
+        if (user == null || client == null) {
+            return user != null ? user : client;
+        }
+        return Long.parseLong(user) <= Long.parseLong(client) ? user : client;
+    }
+
+    static boolean throttled(ApiResponse response) {
+        if (response.statusCode() == TOO_MANY_REQUESTS) {
+            return true;
+        }
+        ByteBuffer body = response.body();
+        if (body.remaining() < ERROR_ENVELOPE.length) {
+            return false;
+        }
+        for (int i = 0; i < ERROR_ENVELOPE.length; i++) {
+            if (body.get(body.position() + i) != ERROR_ENVELOPE[i]) {
+                return false;
+            }
+        }
+        JsonFields.Values error = response.fields(ERROR_CODE);
+        return error.has("error.error_code") && error.getInt("error.error_code") == VK_TOO_MANY_REQUESTS;
+    }
+
+    Bucket account(String account) {
+        return accounts.computeIfAbsent(account, name -> new Bucket(name));
+    }
+
+    Bucket family(String account, String family) {
+        return families.computeIfAbsent(account + "/" + family, name -> new Bucket(name));
+    }
+
+    /**
+     * @return calls waiting for a permit (or just taking one) across all buckets right now
+     */
+    public int queueDepth() {
+        int waiting = 0;
+        for (Bucket bucket : accounts.values()) {
+            waiting += bucket.waiting.get();
+        }
+        for (Bucket bucket : families.values()) {
+            waiting += bucket.waiting.get();
+        }
+        return waiting;
+    }
+
+    public Map<String, Bucket> accounts() {
+        return accounts;
+    }
+
+    public Map<String, Bucket> families() {
+        return families;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("rate limiter, ceiling ").append(ceiling).append("/s");
+        accounts.values().forEach(bucket -> out.append("\n  ").append(bucket));
+        families.values().forEach(bucket -> out.append("\n  ").append(bucket));
+        return out.toString();
+    }
+
+    /**
+     * One token bucket, kept as a theoretical arrival time: a call may start once
+     * {@code tat - (burst - 1) * interval} has passed, and each call moves {@code tat} on by
+     * one interval. Waiting calls line up on a fair lock and only the head of the line
+     * sleeps, recomputing its wait after every wake-up, so a rate change or pause applies
+     * to every queued call instead of to slots handed out before it.
+     */
+    public final class Bucket {
+        private final String name;
+        private final ReentrantLock line = new ReentrantLock(true);
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicInteger maxWaiting = new AtomicInteger();
+        private final Histogram waits = new Histogram();
+        private final LongAdder throttles = new LongAdder();
+        private double rate = ceiling;
+        private double limit = ceiling;
+        private long tat = System.nanoTime();
+        private long pausedUntil = tat;
+
+        private Bucket(String name) {
+            this.name = name;
+        }
+
+        void acquire() {
+            long start = System.nanoTime();
+            maxWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+            line.lock();
+            try {
+                long wait;
+                while ((wait = take(System.nanoTime())) > 0) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new IllegalStateException("Interrupted while waiting for " + name);
+                    }
+                    LockSupport.parkNanos(wait);
+                }
+            } finally {
+                line.unlock();
+                waiting.decrementAndGet();
+            }
+            waits.record(System.nanoTime() - start);
+        }
+
+        /**
+         * Asynchronous callers do not queue on the line: each asks again on the timer thread
+         * when its wait is over, so a synchronous caller at the head of the line may get the
+         * slot first. The permit completes on the timer thread, so what follows must not block.
+         */
+        CompletableFuture<Void> acquireAsync() {
+            CompletableFuture<Void> permit = new CompletableFuture<>();
+            maxWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+            poll(permit, System.nanoTime());
+            return permit;
+        }
+
+        private void poll(CompletableFuture<Void> permit, long start) {
+            long wait = take(System.nanoTime());
+            if (wait > 0) {
+                CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, Runnable::run)
+                        .execute(() -> poll(permit, start));
+                return;
+            }
+            waiting.decrementAndGet();
+            waits.record(System.nanoTime() - start);
+            permit.complete(null);
+        }
+
+        /**
+         * @return 0 when the call may start, otherwise how long to wait before asking again
+         */
+        private synchronized long take(long now) {
+            long interval = interval();
+            long allowedAt = Math.max(tat - (burst - 1) * interval, pausedUntil);
+            if (allowedAt > now) {
+                return allowedAt - now;
+            }
+            tat = Math.max(tat, now) + interval;
+            return 0;
+        }
+
+        private long interval() {
+            return (long) (1e9 / rate);
+        }
+
+        /**
+         * Additive increase: a tenth of the ceiling more per second of calls, so a throttled
+         * bucket is back at full rate a few seconds after the last throttle.
+         */
+        synchronized void passed() {
+            rate = Math.min(limit, rate + ceiling / INCREASE_SECONDS / rate);
+        }
+
+        /**
+         * Multiplicative decrease plus a pause before the next call. Calls that were already
+         * in flight come back throttled during the pause; they do not slow it down again.
+         */
+        synchronized void throttled(long pauseNanos) {
+            throttles.increment();
+            long now = System.nanoTime();
+            if (now < pausedUntil) {
+                return;
+            }
+            rate = Math.max(floor, rate * DECREASE);
+            pausedUntil = now + Math.max(pauseNanos, interval());
+        }
+
+        /**
+         * Spreads the calls the server still allows evenly until its window resets.
+         */
+        synchronized void budget(long remaining, long resetEpochMillis) {
+            long untilReset = Math.max(1, resetEpochMillis - System.currentTimeMillis());
+            if (remaining <= 0) {
+                pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(untilReset));
+                return;
+            }
+            limit = Math.max(floor, Math.min(ceiling, remaining * 1000.0 / untilReset));
+            rate = Math.min(rate, limit);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public synchronized double rate() {
+            return rate;
+        }
+
+        public int waiting() {
+            return waiting.get();
+        }
+
+        public int maxWaiting() {
+            return maxWaiting.get();
+        }
+
+        /**
+         * @return time calls spent waiting for a permit, in nanoseconds
+         */
+        public Histogram waits() {
+            return waits;
+        }
+
+        public long throttles() {
+            return throttles.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1f/s, %d calls, wait p50 %.1f ms, p99 %.1f ms, max queue %d, throttled %d",
+                    name, rate(), waits.count(), waits.percentile(50) / 1e6, waits.percentile(99) / 1e6,
+                    maxWaiting(), throttles());
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link Endpoint} path template parsed once, e.g. {@code /album/{albumHash}/add}: the
+ * fixed segments percent-encoded ahead of time into bytes, the placeholders kept as slots.
+ * {@link #write} fills it in from an {@link ApiRequest} straight into a reusable
+ * {@link Buffer}; path, query and form values are percent-encoded as UTF-8 per RFC 3986
+ * (everything but {@code A-Z a-z 0-9 - . _ ~}, a space as {@code %20}) while being copied,
+ * so building a request makes no strings but the final url.
+ */
+final class RequestTemplate {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final boolean[] UNRESERVED = new boolean[128];
+    private static final boolean[] PATH = new boolean[128];
+
+    static {
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            UNRESERVED[c] = true;
+            UNRESERVED[c + 'a' - 'A'] = true;
+        }
+        for (char c : "-._~".toCharArray()) {
+            UNRESERVED[c] = true;
+        }
+        System.arraycopy(UNRESERVED, 0, PATH, 0, PATH.length);
+        for (char c : "!$&'()*+,;=:@/".toCharArray()) {
+            PATH[c] = true;
+        }
+    }
+
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private final String template;
+    private final byte[][] literals;
+    private final String[] names;
+
+    private RequestTemplate(String template, byte[][] literals, String[] names) {
+        this.template = template;
+        this.literals = literals;
+        this.names = names;
+    }
+
+    static RequestTemplate compile(String template) {
+        List<byte[]> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Buffer literal = new Buffer();
+        int from = 0;
+        for (int open; (open = template.indexOf('{', from)) >= 0; ) {
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in " + template);
+            }
+            literal.reset().encode(template, from, open, PATH);
+            literals.add(literal.toByteArray());
+            names.add(template.substring(open + 1, close));
+            from = close + 1;
+        }
+        literal.reset().encode(template, from, template.length(), PATH);
+        literals.add(literal.toByteArray());
+        return new RequestTemplate(template, literals.toArray(new byte[0][]), names.toArray(new String[0]));
+    }
+
+    /**
+     * The empty buffer of the calling thread. Valid until the next call on the thread, so
+     * whatever is built in it is to be copied out before the request is sent.
+     */
+    static Buffer buffer() {
+        return BUFFERS.get().reset();
+    }
+
+    /**
+     * The url of {@code request} in the buffer of the calling thread: {@code base} (an
+     * already encoded base url, empty for a relative url) and the filled in template, or
+     * the absolute url of the request, followed by the query string.
+     */
+    static Buffer target(byte[] base, ApiRequest request) {
+        Buffer out = buffer();
+        if (request.absoluteUrl != null) {
+            out.url(request.absoluteUrl);
+            query(out, request.queryParams, request.absoluteUrl.indexOf('?') >= 0);
+        } else {
+            request.endpoint().compiled().write(out.append(base), request);
+        }
+        return out;
+    }
+
+    /**
+     * Appends the path of {@code request} with its path parameters filled in, then its
+     * query parameters.
+     */
+    void write(Buffer out, ApiRequest request) {
+        Map<String, String> values = request.pathParams;
+        out.append(literals[0]);
+        for (int i = 0; i < names.length; i++) {
+            String value = values.get(names[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for {" + names[i] + "} in " + template);
+            }
+            out.encode(value, 0, value.length(), UNRESERVED).append(literals[i + 1]);
+        }
+        query(out, request.queryParams, false);
+    }
+
+    /**
+     * Appends {@code params} as a query string, after a {@code ?} or, when the url in
+     * {@code out} already has a query, a {@code &}.
+     */
+    static void query(Buffer out, List<ApiRequest.Param> params, boolean hasQuery) {
+        if (!params.isEmpty()) {
+            out.append(hasQuery ? '&' : '?');
+            form(out, params);
+        }
+    }
+
+    /**
+     * Appends {@code params} as {@code application/x-www-form-urlencoded} pairs.
+     */
+    static void form(Buffer out, List<ApiRequest.Param> params) {
+        for (int i = 0; i < params.size(); i++) {
+            ApiRequest.Param param = params.get(i);
+            if (i > 0) {
+                out.append('&');
+            }
+            out.encode(param.name, 0, param.name.length(), UNRESERVED).append('=');
+            out.encode(param.value, 0, param.value.length(), UNRESERVED);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    /**
+     * Growable byte buffer of an url or form body under construction; all its content is
+     * ASCII.
+     */
+    static final class Buffer {
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        Buffer reset() {
+            length = 0;
+            return this;
+        }
+
+        int length() {
+            return length;
+        }
+
+        Buffer append(byte[] ascii) {
+            ensure(ascii.length);
+            System.arraycopy(ascii, 0, bytes, length, ascii.length);
+            length += ascii.length;
+            return this;
+        }
+
+        Buffer append(char ascii) {
+            ensure(1);
+            bytes[length++] = (byte) ascii;
+            return this;
+        }
+
+        /**
+         * Appends an url that is already encoded, e.g. an upload url handed out by the
+         * server; only characters that cannot appear in an url are encoded.
+         */
+        Buffer url(String url) {
+            ensure(url.length());
+            for (int i = 0; i < url.length(); i++) {
+                char c = url.charAt(i);
+                if (c > ' ' && c < 0x7f) {
+                    bytes[length++] = (byte) c;
+                } else {
+                    int end = i + 1;
+                    while (end < url.length() && (url.charAt(end) <= ' ' || url.charAt(end) >= 0x7f)) {
+                        end++;
+                    }
+                    encode(url, i, end, UNRESERVED);
+                    ensure(url.length() - end);
+                    i = end - 1;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Appends {@code s[from, to)} with everything outside {@code safe} percent-encoded
+         * as UTF-8; an unpaired surrogate becomes {@code ?}, as with {@link java.net.URLEncoder}.
+         */
+        Buffer encode(CharSequence s, int from, int to, boolean[] safe) {
+            ensure(to - from);
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    if (safe[c]) {
+                        if (length == bytes.length) {
+                            ensure(to - i);
+                        }
+                        bytes[length++] = (byte) c;
+                    } else {
+                        escape(c);
+                    }
+                } else if (c < 0x800) {
+                    escape(0xc0 | c >> 6);
+                    escape(0x80 | c & 0x3f);
+                } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    escape(0xf0 | cp >> 18);
+                    escape(0x80 | cp >> 12 & 0x3f);
+                    escape(0x80 | cp >> 6 & 0x3f);
+                    escape(0x80 | cp & 0x3f);
+                } else if (Character.isSurrogate(c)) {
+                    escape('?');
+                } else {
+                    escape(0xe0 | c >> 12);
+                    escape(0x80 | c >> 6 & 0x3f);
+                    escape(0x80 | c & 0x3f);
+                }
+            }
+            return this;
+        }
+
+        private void escape(int b) {
+            ensure(3);
+            bytes[length++] = '%';
+            bytes[length++] = HEX[b >> 4 & 0xf];
+            bytes[length++] = HEX[b & 0xf];
+        }
+
+        private void ensure(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, length);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Registry of remote resources created by a run, each with the call that deletes it. The
+ * clients register albums and images the moment they are created (see
+ * {@link ImgurClient#withReaper}) and release them when the owner deletes them itself, so
+ * whatever is left is what a failed or interrupted run would leak.
+ * <p>
+ * {@link #reap()} deletes everything still registered in parallel, at most
+ * {@code parallelism} calls at a time on top of whatever rate limiter the clients' transport
+ * has. A {@link #scope()} collects the resources of one scenario iteration and reaps only
+ * those, while they stay visible to the root, which reaps the rest when it is closed or,
+ * after {@link #onShutdown()}, when the JVM exits. {@link #sweep} purges orphans that earlier
+ * runs left on the account.
+ */
+public final class ResourceReaper implements AutoCloseable {
+    private static final ExecutorService DELETES = VirtualThreads.newThreadPerTaskExecutor("reaper");
+
+    private final String name;
+    private final ResourceReaper parent;
+    private final Semaphore permits;
+    private final Map<String, Resource> byKey = new ConcurrentHashMap<>();
+    private final Set<Resource> pending = ConcurrentHashMap.newKeySet();
+    private Thread shutdownHook;
+
+    /**
+     * @param parallelism deletions in flight at a time, shared with all scopes
+     */
+    public ResourceReaper(String name, int parallelism) {
+        this(name, null, new Semaphore(parallelism));
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+    }
+
+    private ResourceReaper(String name, ResourceReaper parent, Semaphore permits) {
+        this.name = name;
+        this.parent = parent;
+        this.permits = permits;
+    }
+
+    /**
+     * A reaper for the resources of one iteration; they are also reaped by this one.
+     */
+    public ResourceReaper scope() {
+        return new ResourceReaper(name, this, permits);
+    }
+
+    /**
+     * Reaps whatever is still registered when the JVM shuts down, e.g. on Ctrl-C.
+     */
+    public synchronized ResourceReaper onShutdown() {
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(() -> System.err.println(name + " at shutdown: " + reap()), name + "-reaper");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        return this;
+    }
+
+    /**
+     * @param kind what the resource is, for reports, e.g. {@code imgur album}
+     * @param keys ids the owner may later {@linkplain #release release} it by
+     */
+    public void register(String kind, Deletion deletion, String... keys) {
+        Resource resource = new Resource(kind, keys, deletion);
+        for (ResourceReaper reaper = this; reaper != null; reaper = reaper.parent) {
+            resource.owners.add(reaper);
+            reaper.pending.add(resource);
+            for (String key : keys) {
+                reaper.byKey.put(key, resource);
+            }
+        }
+    }
+
+    /**
+     * Forgets the resource known by {@code key}, because it was deleted by its owner.
+     *
+     * @return false if no resource is registered under the key
+     */
+    public boolean release(String key) {
+        Resource resource = byKey.get(key);
+        if (resource == null || !resource.claimed.compareAndSet(false, true)) {
+            return false;
+        }
+        resource.forget();
+        return true;
+    }
+
+    /**
+     * @return resources registered and neither released nor reaped yet
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Deletes every registered resource and waits for the deletions. Resources whose
+     * deletion fails are reported and forgotten; a later {@link #sweep} finds them.
+     */
+    public Summary reap() {
+        long start = System.nanoTime();
+        List<Resource> claimed = new ArrayList<>();
+        for (Resource resource : pending) {
+            if (resource.claimed.compareAndSet(false, true)) {
+                claimed.add(resource);
+            }
+        }
+        List<Future<?>> deletions = new ArrayList<>(claimed.size());
+        for (Resource resource : claimed) {
+            deletions.add(DELETES.submit(() -> delete(resource)));
+        }
+        List<String> failures = new ArrayList<>();
+        boolean interrupted = false;
+        for (int i = 0; i < deletions.size(); i++) {
+            try {
+                deletions.get(i).get();
+            } catch (ExecutionException e) {
+                failures.add(claimed.get(i) + ": " + e.getCause());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                i--;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return new Summary(claimed.size() - failures.size(), failures, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private Void delete(Resource resource) throws Exception {
+        permits.acquire();
+        try {
+            resource.deletion.delete();
+            return null;
+        } finally {
+            permits.release();
+            resource.forget();
+        }
+    }
+
+    /**
+     * Registers every item of the listing that {@code orphan} accepts, then reaps them. The
+     * listing is walked to the end first, so deletions cannot shift offset-based pages.
+     */
+    public <T> Summary sweep(String kind, Iterator<T> listing, Predicate<? super T> orphan,
+                             Function<? super T, Deletion> deletion) {
+        ResourceReaper sweep = scope();
+        while (listing.hasNext()) {
+            T item = listing.next();
+            if (orphan.test(item)) {
+                sweep.register(kind, deletion.apply(item));
+            }
+        }
+        return sweep.reap();
+    }
+
+    /**
+     * Reaps what is left and removes the shutdown hook.
+     */
+    @Override
+    public void close() {
+        Summary left = reap();
+        if (left.failed() > 0) {
+            System.err.println(name + ": " + left);
+        }
+        synchronized (this) {
+            if (shutdownHook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException e) {
+                    // already shutting down, the hook does the same
+                }
+                shutdownHook = null;
+            }
+        }
+    }
+
+    /**
+     * Deletes one resource; throws if the API refused.
+     */
+    @FunctionalInterface
+    public interface Deletion {
+        void delete() throws Exception;
+    }
+
+    private static final class Resource {
+        final String kind;
+        final String[] keys;
+        final Deletion deletion;
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final List<ResourceReaper> owners = Collections.synchronizedList(new ArrayList<>(2));
+
+        Resource(String kind, String[] keys, Deletion deletion) {
+            this.kind = kind;
+            this.keys = keys;
+            this.deletion = deletion;
+        }
+
+        void forget() {
+            synchronized (owners) {
+                for (ResourceReaper owner : owners) {
+                    owner.pending.remove(this);
+                    for (String key : keys) {
+                        owner.byKey.remove(key, this);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return keys.length == 0 ? kind : kind + " " + keys[0];
+        }
+    }
+
+    public static final class Summary {
+        private final int deleted;
+        private final List<String> failures;
+        private final Duration elapsed;
+
+        Summary(int deleted, List<String> failures, Duration elapsed) {
+            this.deleted = deleted;
+            this.failures = failures;
+            this.elapsed = elapsed;
+        }
+
+        public int deleted() {
+            return deleted;
+        }
+
+        public int failed() {
+            return failures.size();
+        }
+
+        public List<String> failures() {
+            return failures;
+        }
+
+        public Duration elapsed() {
+            return elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("deleted %d resources in %d ms, %d failed%s", deleted, elapsed.toMillis(),
+                    failures.size(), failures.isEmpty() ? "" : ": " + String.join("; ", failures));
+        }
+    }
+}
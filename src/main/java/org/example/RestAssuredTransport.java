@@ -0,0 +1,66 @@
+package org.example;
+
+import io.restassured.builder.RequestSpecBuilder;
+import io.restassured.http.Header;
+import io.restassured.response.Response;
+import io.restassured.specification.RequestSpecification;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+
+/**
+ * {@link Transport} on top of RestAssured. The base specification (base url, default
+ * headers, pooled client) is built once and merged into every request. Urls and form
+ * bodies come encoded from the endpoint's {@link RequestTemplate}, so RestAssured neither
+ * resolves templates nor encodes anything itself; its own form encoding would send text
+ * in ISO-8859-1.
+ */
+public final class RestAssuredTransport implements Transport {
+    private static final byte[] RELATIVE = new byte[0];
+
+    private final RequestSpecification base;
+
+    public RestAssuredTransport(ConnectionPool pool, String baseUrl, Map<String, String> headers) {
+        base = new RequestSpecBuilder()
+                .setBaseUri(baseUrl)
+                .addHeaders(headers)
+                .setConfig(pool.restAssuredConfig())
+                .setUrlEncodingEnabled(false)
+                .build();
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        RequestSpecification spec = given().spec(base);
+        request.headers.forEach(spec::header);
+        if (!request.files.isEmpty()) {
+            spec.contentType("multipart/form-data");
+            for (ApiRequest.Param param : request.formParams) {
+                spec.formParam(param.name, param.value);
+            }
+            for (ApiRequest.FilePart part : request.files) {
+                spec.multiPart(part.name, part.file);
+            }
+        } else if (!request.formParams.isEmpty()) {
+            RequestTemplate.Buffer form = RequestTemplate.buffer();
+            RequestTemplate.form(form, request.formParams);
+            spec.contentType("application/x-www-form-urlencoded; charset=UTF-8").body(form.toString());
+        }
+        String target = RequestTemplate.target(RELATIVE, request).toString();
+        Response response = spec.request(request.endpoint.method(), target);
+        return new ApiResponse(response.statusCode(), headers(response), ByteBuffer.wrap(response.asByteArray()));
+    }
+
+    private static Map<String, List<String>> headers(Response response) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (Header header : response.headers()) {
+            headers.computeIfAbsent(header.getName(), k -> new ArrayList<>(1)).add(header.getValue());
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,12 @@
+package org.example;
+
+/**
+ * One user session replayed by the {@link LoadRunner}. Every remote call is wrapped in a
+ * named step so that its latency is reported separately.
+ */
+public interface Scenario {
+
+    String name();
+
+    void run(StepRecorder steps) throws Exception;
+}
@@ -0,0 +1,176 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * State handed from one step of a lifecycle to the next (album hash, image ids, upload url).
+ * Each running lifecycle owns its own instance, so any number of them can run side by side
+ * in one JVM.
+ * <p>
+ * Values are stored under typed {@link Key keys}. Every key gets a slot index when it is
+ * created and values live in lazily allocated chunks of atomic slots, so reads and writes
+ * are single atomic operations without locks. Keys are meant to be constants.
+ */
+public final class ScenarioContext {
+    private static final int CHUNK = 32;
+    private static final int CHUNKS = 64;
+    private static final AtomicInteger KEY_COUNT = new AtomicInteger();
+    private static final AtomicReferenceArray<Key<?>> KEYS = new AtomicReferenceArray<>(CHUNK * CHUNKS);
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(new DaemonThreadFactory("context-writer"));
+
+    private final String name;
+    private final AtomicReferenceArray<AtomicReferenceArray<Object>> chunks = new AtomicReferenceArray<>(CHUNKS);
+    private final AtomicBoolean writeQueued = new AtomicBoolean();
+    private volatile CompletableFuture<Path> lastWrite = CompletableFuture.completedFuture(null);
+
+    public ScenarioContext(String name) {
+        this.name = name;
+    }
+
+    public static <T> Key<T> key(String name, Class<T> type) {
+        int id = KEY_COUNT.getAndIncrement();
+        if (id >= CHUNK * CHUNKS) {
+            throw new IllegalStateException("Too many context keys, keys must be constants: " + name);
+        }
+        Key<T> key = new Key<>(name, type, id);
+        KEYS.set(id, key);
+        return key;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public <T> void put(Key<T> key, T value) {
+        chunk(key.id).set(key.id % CHUNK, key.type.cast(value));
+    }
+
+    /**
+     * @return whether the value was stored, false if the key already had one
+     */
+    public <T> boolean putIfAbsent(Key<T> key, T value) {
+        return chunk(key.id).compareAndSet(key.id % CHUNK, null, key.type.cast(value));
+    }
+
+    /**
+     * @return the value, {@code null} if the key was not set
+     */
+    public <T> T get(Key<T> key) {
+        AtomicReferenceArray<Object> chunk = chunks.get(key.id / CHUNK);
+        return chunk == null ? null : key.type.cast(chunk.get(key.id % CHUNK));
+    }
+
+    public <T> T require(Key<T> key) {
+        T value = get(key);
+        if (value == null) {
+            throw new IllegalStateException(key + " is not set in " + name);
+        }
+        return value;
+    }
+
+    /**
+     * @return the values set so far by key name, in key creation order
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int c = 0; c < CHUNKS; c++) {
+            AtomicReferenceArray<Object> chunk = chunks.get(c);
+            if (chunk == null) {
+                continue;
+            }
+            for (int i = 0; i < CHUNK; i++) {
+                Object value = chunk.get(i);
+                if (value != null) {
+                    values.put(KEYS.get(c * CHUNK + i).name, value);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes the current values to {@code <dir>/<name>.properties} on a background thread
+     * for debugging. Calls made while a write is still queued share that write, which takes
+     * its snapshot when it starts.
+     */
+    public CompletableFuture<Path> persistAsync(Path dir) {
+        if (!writeQueued.compareAndSet(false, true)) {
+            return lastWrite;
+        }
+        CompletableFuture<Path> write = CompletableFuture.supplyAsync(() -> {
+            writeQueued.set(false);
+            return write(dir);
+        }, WRITER);
+        lastWrite = write;
+        return write;
+    }
+
+    private Path write(Path dir) {
+        Properties properties = new Properties();
+        snapshot().forEach((key, value) -> properties.setProperty(key, String.valueOf(value)));
+        try {
+            Files.createDirectories(dir);
+            Path target = dir.resolve(name.replaceAll("[^A-Za-z0-9._-]", "_") + ".properties");
+            Path temp = Files.createTempFile(dir, ".context", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, name);
+            }
+            return Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot persist context " + name, e);
+        }
+    }
+
+    private AtomicReferenceArray<Object> chunk(int id) {
+        int index = id / CHUNK;
+        AtomicReferenceArray<Object> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    @Override
+    public String toString() {
+        return name + snapshot();
+    }
+
+    /**
+     * Name and value type of one context entry.
+     */
+    public static final class Key<T> {
+        private final String name;
+        private final Class<T> type;
+        private final int id;
+
+        private Key(String name, Class<T> type, int id) {
+            this.name = name;
+            this.type = type;
+            this.id = id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
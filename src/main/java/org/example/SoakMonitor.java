@@ -0,0 +1,430 @@
+package org.example;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Watches a long run window by window to tell a slow leak from noise. Each window records
+ * the calls the {@link SoakTransport SoakTransports} made with their latency and errors, the
+ * heap left after garbage collection (the lowest after any collection in the window), the
+ * allocation rate (heap growth plus what the collections freed), collection time, the
+ * thread count and any {@linkplain #gauge gauges} of the run's own state such as queue or
+ * cache sizes.
+ * <p>
+ * At the end every series after the warm-up windows is checked for a trend with Kendall's
+ * tau: a series that rises in most pairs of windows ({@value #TREND} or more) and whose last
+ * quarter is at least {@value #GROWTH_PERCENT}% above its first is reported as a suspected
+ * leak, rising latency or falling throughput as degradation. Noise that goes up and down
+ * keeps tau near 0 however large it is.
+ * <p>
+ * Optionally a Flight Recorder recording with the default settings plus every
+ * {@link ApiCallEvent} is written to a file for the whole run.
+ */
+public final class SoakMonitor implements AutoCloseable {
+    static final double TREND = 0.6;
+    static final int GROWTH_PERCENT = 10;
+    private static final int MIN_WINDOWS = 5;
+    private static final double MB = 1e6;
+    private static final String LEAK = "SUSPECTED LEAK";
+    private static final String DEGRADING = "DEGRADING";
+
+    private final long windowNanos;
+    private final int warmupWindows;
+    private final Path recordingFile;
+    private final PrintStream progress;
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    private final List<Window> windows = Collections.synchronizedList(new ArrayList<>());
+    private final Set<String> heapPools = new HashSet<>();
+    private final List<NotificationEmitter> collectors = new ArrayList<>();
+    private final NotificationListener gcListener = this::collected;
+    private final AtomicLong freedBytes = new AtomicLong();
+    private final AtomicLong gcMillis = new AtomicLong();
+    private final AtomicLong floorAfterGc = new AtomicLong(Long.MAX_VALUE);
+    private volatile Calls calls = new Calls();
+    private ScheduledExecutorService sampler;
+    private Recording recording;
+    private long lastSample;
+    private long lastUsed;
+    private long lastFreed;
+    private long lastGcMillis;
+
+    /**
+     * @param warmupWindows windows left out of the trends, while caches and pools fill up
+     * @param recordingFile Flight Recorder file to write, {@code null} for none
+     * @param progress      prints a line per window, {@code null} for quiet
+     */
+    public SoakMonitor(Duration window, int warmupWindows, Path recordingFile, PrintStream progress) {
+        this.windowNanos = window.toNanos();
+        this.warmupWindows = warmupWindows;
+        this.recordingFile = recordingFile;
+        this.progress = progress;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+    }
+
+    /**
+     * Samples {@code value} at the end of every window; register before {@link #start()}.
+     * A window where {@code value} throws records -1 for it and is left out of its trend.
+     */
+    public SoakMonitor gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+        return this;
+    }
+
+    public SoakMonitor start() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(gcListener, null, null);
+                collectors.add((NotificationEmitter) collector);
+            }
+        }
+        if (recordingFile != null) {
+            try {
+                recording = new Recording(Configuration.getConfiguration("default"));
+                recording.enable(ApiCallEvent.class).withoutThreshold();
+                recording.setName("soak");
+                recording.setToDisk(true);
+                recording.setDestination(recordingFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ParseException e) {
+                throw new IllegalStateException("Broken default Flight Recorder settings", e);
+            }
+            recording.start();
+        }
+        lastSample = System.nanoTime();
+        lastUsed = heapUsed();
+        if (progress != null) {
+            progress.println(Window.header(gauges.keySet()));
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("soak-monitor"));
+        sampler.scheduleAtFixedRate(this::sample, windowNanos, windowNanos, TimeUnit.NANOSECONDS);
+        return this;
+    }
+
+    void call(long nanos, int status) {
+        Calls current = calls;
+        current.latency.record(nanos);
+        if (status == 0 || status >= 400) {
+            current.errors.increment();
+        }
+    }
+
+    public List<Window> windows() {
+        synchronized (windows) {
+            return new ArrayList<>(windows);
+        }
+    }
+
+    private void collected(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GcInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData()).getGcInfo();
+        long before = heap(info.getMemoryUsageBeforeGc());
+        long after = heap(info.getMemoryUsageAfterGc());
+        freedBytes.addAndGet(Math.max(0, before - after));
+        gcMillis.addAndGet(info.getDuration());
+        floorAfterGc.accumulateAndGet(after, Math::min);
+    }
+
+    private long heap(Map<String, MemoryUsage> usage) {
+        long used = 0;
+        for (Map.Entry<String, MemoryUsage> pool : usage.entrySet()) {
+            if (heapPools.contains(pool.getKey())) {
+                used += pool.getValue().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        Calls finished = calls;
+        calls = new Calls();
+        long used = heapUsed();
+        long freed = freedBytes.get();
+        long gc = gcMillis.get();
+        long floor = floorAfterGc.getAndSet(Long.MAX_VALUE);
+        double seconds = (now - lastSample) / 1e9;
+        long[] values = new long[gauges.size()];
+        int i = 0;
+        for (LongSupplier gauge : gauges.values()) {
+            // a failure escaping here would cancel every later window of the schedule
+            try {
+                values[i] = gauge.getAsLong();
+            } catch (RuntimeException e) {
+                values[i] = -1;
+            }
+            i++;
+        }
+        Window window = new Window(windows.size() + 1, seconds, finished.latency, finished.errors.sum(),
+                (used - lastUsed + freed - lastFreed) / seconds, floor == Long.MAX_VALUE ? -1 : floor,
+                gc - lastGcMillis, ManagementFactory.getThreadMXBean().getThreadCount(), values);
+        lastSample = now;
+        lastUsed = used;
+        lastFreed = freed;
+        lastGcMillis = gc;
+        windows.add(window);
+        if (progress != null) {
+            progress.println(window);
+        }
+    }
+
+    /**
+     * Kendall's tau of the series against time: 1 when every later value is above every
+     * earlier one, -1 when below, near 0 without a trend.
+     */
+    static double trend(double[] values) {
+        int n = values.length;
+        if (n < 2) {
+            return 0;
+        }
+        long s = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                s += Double.compare(values[j], values[i]);
+            }
+        }
+        return s / (n * (n - 1) / 2.0);
+    }
+
+    /**
+     * @return the means of the first and the last quarter of the series
+     */
+    static double[] quarters(double[] values) {
+        int quarter = Math.max(1, values.length / 4);
+        double[] means = new double[2];
+        for (int i = 0; i < quarter; i++) {
+            means[0] += values[i] / quarter;
+            means[1] += values[values.length - 1 - i] / quarter;
+        }
+        return means;
+    }
+
+    /**
+     * @return how much the last quarter of the series is above the first, relative to the
+     * first (or to 1 when the first is smaller)
+     */
+    static double growth(double[] values) {
+        double[] means = quarters(values);
+        return (means[1] - means[0]) / Math.max(Math.abs(means[0]), 1);
+    }
+
+    /**
+     * One line per series with its first and last quarter, tau and verdict.
+     */
+    public String summary() {
+        List<Window> measured = windows();
+        measured = measured.subList(Math.min(warmupWindows, measured.size()), measured.size());
+        StringBuilder out = new StringBuilder(String.format(Locale.ROOT, "soak: %d windows of %.0f s after %d warm-up",
+                measured.size(), windowNanos / 1e9, warmupWindows));
+        if (measured.size() < MIN_WINDOWS) {
+            return out.append(", too few for trends (").append(MIN_WINDOWS).append(" needed)").toString();
+        }
+        List<Double> heap = new ArrayList<>();
+        for (Window window : measured) {
+            if (window.heapAfterGc >= 0) {
+                heap.add(window.heapAfterGc / MB);
+            }
+        }
+        line(out, "heap after GC MB", toArray(heap), 1, LEAK);
+        line(out, "threads", series(measured, w -> w.threads), 1, LEAK);
+        int i = 0;
+        for (String gauge : gauges.keySet()) {
+            int index = i++;
+            List<Double> values = new ArrayList<>();
+            for (Window window : measured) {
+                if (window.gauges[index] != -1) {
+                    values.add((double) window.gauges[index]);
+                }
+            }
+            line(out, gauge, toArray(values), 1, LEAK);
+        }
+        line(out, "allocation MB/s", series(measured, w -> w.allocationRate / MB), 1, DEGRADING);
+        line(out, "p99 latency ms", series(measured, w -> w.latency.percentile(99) / 1e6), 1, DEGRADING);
+        line(out, "calls/s", series(measured, w -> w.latency.count() / w.seconds), -1, DEGRADING);
+        return out.toString();
+    }
+
+    /**
+     * @param bad 1 when a rising series is the problem, -1 when a falling one is
+     */
+    private static void line(StringBuilder out, String name, double[] values, int bad, String verdict) {
+        out.append(String.format(Locale.ROOT, "%n  %-20s", name));
+        if (values.length < MIN_WINDOWS) {
+            out.append("too few samples");
+            return;
+        }
+        double tau = trend(values);
+        double[] means = quarters(values);
+        boolean trending = bad * tau >= TREND && bad * growth(values) >= GROWTH_PERCENT / 100.0;
+        out.append(String.format(Locale.ROOT, "%10.1f -> %10.1f  tau %5.2f  %s",
+                means[0], means[1], tau, trending ? verdict : "stable"));
+    }
+
+    private interface Field {
+        double of(Window window);
+    }
+
+    private static double[] series(List<Window> windows, Field field) {
+        double[] values = new double[windows.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = field.of(windows.get(i));
+        }
+        return values;
+    }
+
+    private static double[] toArray(List<Double> list) {
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.get(i);
+        }
+        return values;
+    }
+
+    /**
+     * Stops sampling and writes the recording; a window cut short by the end of the run
+     * is left out.
+     */
+    @Override
+    public void close() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            try {
+                sampler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (NotificationEmitter collector : collectors) {
+            try {
+                collector.removeNotificationListener(gcListener);
+            } catch (ListenerNotFoundException ignored) {
+                // removed already
+            }
+        }
+        collectors.clear();
+        if (recording != null) {
+            recording.stop();
+            recording.close();
+            recording = null;
+        }
+    }
+
+    private static final class Calls {
+        final Histogram latency = new Histogram();
+        final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * What one window saw.
+     */
+    public static final class Window {
+        final int index;
+        final double seconds;
+        final Histogram latency;
+        final long errors;
+        final double allocationRate;
+        final long heapAfterGc;
+        final long gcMillis;
+        final int threads;
+        final long[] gauges;
+
+        Window(int index, double seconds, Histogram latency, long errors, double allocationRate, long heapAfterGc,
+               long gcMillis, int threads, long[] gauges) {
+            this.index = index;
+            this.seconds = seconds;
+            this.latency = latency;
+            this.errors = errors;
+            this.allocationRate = allocationRate;
+            this.heapAfterGc = heapAfterGc;
+            this.gcMillis = gcMillis;
+            this.threads = threads;
+            this.gauges = gauges;
+        }
+
+        public long calls() {
+            return latency.count();
+        }
+
+        public long errors() {
+            return errors;
+        }
+
+        /**
+         * @return bytes left on the heap after the emptiest collection of the window, -1 if none ran
+         */
+        public long heapAfterGc() {
+            return heapAfterGc;
+        }
+
+        /**
+         * @return value of the {@code index}-th gauge at the end of the window, -1 if it failed
+         */
+        public long gauge(int index) {
+            return gauges[index];
+        }
+
+        static String header(Set<String> gauges) {
+            StringBuilder out = new StringBuilder(String.format(Locale.ROOT, "%6s %8s %8s %7s %8s %8s %11s %9s %7s %7s",
+                    "window", "calls", "calls/s", "errors", "p50 ms", "p99 ms", "alloc MB/s", "heap MB", "gc ms", "threads"));
+            for (String gauge : gauges) {
+                out.append(String.format(" %8s", gauge));
+            }
+            return out.toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder(String.format(Locale.ROOT, "%6d %8d %8.1f %7d %8.2f %8.2f %11.1f %9s %7d %7d",
+                    index, calls(), calls() / seconds, errors, latency.percentile(50) / 1e6, latency.percentile(99) / 1e6,
+                    allocationRate / MB, heapAfterGc < 0 ? "-" : String.format(Locale.ROOT, "%.1f", heapAfterGc / MB),
+                    gcMillis, threads));
+            for (long gauge : gauges) {
+                out.append(String.format(Locale.ROOT, " %8d", gauge));
+            }
+            return out.toString();
+        }
+    }
+}
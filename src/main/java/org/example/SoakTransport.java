@@ -0,0 +1,71 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link Transport} decorator of soak runs: every call becomes an {@link ApiCallEvent} in
+ * the running Flight Recorder recordings and counts in the current window of a
+ * {@link SoakMonitor}. Like {@link MetricsTransport} it belongs close to the transport
+ * that does the I/O, where the {@link ConnectionPool} knows the bytes sent; a call refused
+ * with a 401 and sent again with a fresh token is one call here when it sits above the
+ * {@link TokenTransport}.
+ */
+public final class SoakTransport implements Transport {
+    private final Transport delegate;
+    private final SoakMonitor monitor;
+
+    public SoakTransport(Transport delegate, SoakMonitor monitor) {
+        this.delegate = delegate;
+        this.monitor = monitor;
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        ApiCallEvent event = new ApiCallEvent();
+        ConnectionPool.Exchange exchange = ConnectionPool.exchange();
+        exchange.reset();
+        long start = System.nanoTime();
+        event.begin();
+        ApiResponse response = null;
+        try {
+            response = delegate.execute(request);
+            return response;
+        } finally {
+            event.end();
+            int status = response != null ? response.statusCode() : 0;
+            long received = response != null ? response.bodyLength() : 0;
+            monitor.call(System.nanoTime() - start, status);
+            if (event.shouldCommit()) {
+                event.endpoint = request.endpoint().toString();
+                event.status = status;
+                event.bytesSent = exchange.sentBytes();
+                event.bytesReceived = received;
+                event.reused = exchange.reused();
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        ApiCallEvent event = new ApiCallEvent();
+        long start = System.nanoTime();
+        event.begin();
+        return delegate.executeAsync(request).whenComplete((response, error) -> {
+            event.end();
+            int status = response != null ? response.statusCode() : 0;
+            monitor.call(System.nanoTime() - start, status);
+            if (event.shouldCommit()) {
+                event.endpoint = request.endpoint().toString();
+                event.status = status;
+                event.bytesReceived = response != null ? response.bodyLength() : 0;
+                event.commit();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
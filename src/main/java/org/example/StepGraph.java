@@ -0,0 +1,463 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The steps of one lifecycle arranged by the state they exchange. Each step declares the
+ * {@link ScenarioContext} keys it consumes and produces; ordering that is not visible in
+ * the data (an image has to be favorited before the favorites page is checked) is declared
+ * with {@code after}. A step starts on the executor as soon as the steps it depends on are
+ * done, so independent steps overlap and a run takes about as long as its critical path.
+ * A failed step skips everything that depends on it.
+ */
+public final class StepGraph {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    public interface Action {
+        void run(ScenarioContext context) throws Exception;
+    }
+
+    public enum Status {
+        SUCCEEDED, FAILED, SKIPPED
+    }
+
+    private final Step[] steps;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private StepGraph(Step[] steps) {
+        this.steps = steps;
+        for (int i = 0; i < steps.length; i++) {
+            indexes.put(steps[i].name, i);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return step names in a valid sequential order
+     */
+    public List<String> stepNames() {
+        List<String> names = new ArrayList<>(steps.length);
+        for (Step step : steps) {
+            names.add(step.name);
+        }
+        return names;
+    }
+
+    public Result run(ScenarioContext context, Executor executor) throws InterruptedException {
+        return run(context, executor, null);
+    }
+
+    /**
+     * Runs every step once and waits until all of them succeeded, failed or were skipped.
+     *
+     * @param recorder times each step into a load report, may be null
+     * @throws IllegalStateException if a consumed key has no producer and is not in the context
+     */
+    public Result run(ScenarioContext context, Executor executor, StepRecorder recorder) throws InterruptedException {
+        for (Step step : steps) {
+            for (ScenarioContext.Key<?> key : step.external) {
+                context.require(key);
+            }
+        }
+        Execution execution = new Execution(context, executor, recorder);
+        execution.start();
+        execution.done.await();
+        return new Result(execution);
+    }
+
+    private static final class Step {
+        final String name;
+        final List<ScenarioContext.Key<?>> produces;
+        final List<ScenarioContext.Key<?>> external = new ArrayList<>();
+        final Action action;
+        int[] dependencies;
+        int[] dependents;
+
+        Step(String name, List<ScenarioContext.Key<?>> produces, Action action) {
+            this.name = name;
+            this.produces = produces;
+            this.action = action;
+        }
+    }
+
+    private final class Execution {
+        final ScenarioContext context;
+        final Executor executor;
+        final StepRecorder recorder;
+        final AtomicIntegerArray pending = new AtomicIntegerArray(steps.length);
+        final Status[] status = new Status[steps.length];
+        final Throwable[] errors = new Throwable[steps.length];
+        final long[] started = new long[steps.length];
+        final long[] finished = new long[steps.length];
+        final CountDownLatch done = new CountDownLatch(steps.length);
+        long start;
+
+        Execution(ScenarioContext context, Executor executor, StepRecorder recorder) {
+            this.context = context;
+            this.executor = executor;
+            this.recorder = recorder;
+            for (int i = 0; i < steps.length; i++) {
+                pending.set(i, steps[i].dependencies.length);
+            }
+        }
+
+        void start() {
+            start = System.nanoTime();
+            for (int i = 0; i < steps.length; i++) {
+                if (steps[i].dependencies.length == 0) {
+                    schedule(i);
+                }
+            }
+        }
+
+        /**
+         * Called once all dependencies are done; their results are visible here because
+         * each of them finished before decrementing the pending count.
+         */
+        private void schedule(int i) {
+            for (int dependency : steps[i].dependencies) {
+                if (status[dependency] != Status.SUCCEEDED) {
+                    started[i] = finished[i] = System.nanoTime();
+                    finish(i, Status.SKIPPED);
+                    return;
+                }
+            }
+            try {
+                executor.execute(() -> execute(i));
+            } catch (RejectedExecutionException e) {
+                errors[i] = e;
+                started[i] = finished[i] = System.nanoTime();
+                finish(i, Status.FAILED);
+            }
+        }
+
+        private void execute(int i) {
+            Step step = steps[i];
+            started[i] = System.nanoTime();
+            Status result = Status.SUCCEEDED;
+            try {
+                if (recorder != null) {
+                    recorder.step(step.name, () -> {
+                        step.action.run(context);
+                        return null;
+                    });
+                } else {
+                    step.action.run(context);
+                }
+                for (ScenarioContext.Key<?> key : step.produces) {
+                    if (context.get(key) == null) {
+                        throw new IllegalStateException(step.name + " did not produce " + key);
+                    }
+                }
+            } catch (Throwable e) {
+                errors[i] = e;
+                result = Status.FAILED;
+            }
+            finished[i] = System.nanoTime();
+            finish(i, result);
+        }
+
+        private void finish(int i, Status result) {
+            status[i] = result;
+            for (int dependent : steps[i].dependents) {
+                if (pending.decrementAndGet(dependent) == 0) {
+                    schedule(dependent);
+                }
+            }
+            done.countDown();
+        }
+    }
+
+    /**
+     * Outcome and timing of one run.
+     */
+    public final class Result {
+        private final Status[] status;
+        private final Throwable[] errors;
+        private final long[] started;
+        private final long[] finished;
+        private final long start;
+        private final long end;
+
+        private Result(Execution execution) {
+            this.status = execution.status;
+            this.errors = execution.errors;
+            this.started = execution.started;
+            this.finished = execution.finished;
+            this.start = execution.start;
+            long last = start;
+            for (long time : finished) {
+                last = Math.max(last, time);
+            }
+            this.end = last;
+        }
+
+        public Status status(String step) {
+            return status[index(step)];
+        }
+
+        /**
+         * @return the exception thrown by the step, null unless it failed
+         */
+        public Throwable error(String step) {
+            return errors[index(step)];
+        }
+
+        public boolean succeeded() {
+            for (Status s : status) {
+                if (s != Status.SUCCEEDED) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Throws the error of the first failed step in sequential order, if any.
+         */
+        public void rethrow() throws Exception {
+            for (int i = 0; i < steps.length; i++) {
+                if (errors[i] instanceof Exception) {
+                    throw (Exception) errors[i];
+                }
+                if (errors[i] instanceof Error) {
+                    throw (Error) errors[i];
+                }
+            }
+        }
+
+        public long stepNanos(String step) {
+            int i = index(step);
+            return finished[i] - started[i];
+        }
+
+        public long wallNanos() {
+            return end - start;
+        }
+
+        /**
+         * @return the time the steps would have taken one after another
+         */
+        public long serialNanos() {
+            long total = 0;
+            for (int i = 0; i < steps.length; i++) {
+                total += finished[i] - started[i];
+            }
+            return total;
+        }
+
+        /**
+         * The chain of steps that determined the wall-clock time: starting from the step that
+         * finished last, each step is preceded by the dependency that finished last.
+         */
+        public List<String> criticalPath() {
+            int current = -1;
+            for (int i = 0; i < steps.length; i++) {
+                if (current < 0 || finished[i] > finished[current]) {
+                    current = i;
+                }
+            }
+            Deque<String> path = new ArrayDeque<>();
+            while (current >= 0) {
+                path.addFirst(steps[current].name);
+                int previous = -1;
+                for (int dependency : steps[current].dependencies) {
+                    if (previous < 0 || finished[dependency] > finished[previous]) {
+                        previous = dependency;
+                    }
+                }
+                current = previous;
+            }
+            return new ArrayList<>(path);
+        }
+
+        private int index(String step) {
+            Integer i = indexes.get(step);
+            if (i == null) {
+                throw new IllegalArgumentException("Unknown step " + step);
+            }
+            return i;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder(String.format("wall %.1f ms, serial %.1f ms, critical path:",
+                    wallNanos() / NANOS_PER_MILLI, serialNanos() / NANOS_PER_MILLI));
+            for (String step : criticalPath()) {
+                out.append(String.format(" %s %.1f ms", step, stepNanos(step) / NANOS_PER_MILLI)).append(" ->");
+            }
+            out.setLength(out.length() - 3);
+            for (int i = 0; i < steps.length; i++) {
+                if (status[i] != Status.SUCCEEDED) {
+                    out.append(String.format("%n  %s %s", steps[i].name, status[i]));
+                    if (errors[i] != null) {
+                        out.append(": ").append(errors[i]);
+                    }
+                }
+            }
+            return out.toString();
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, StepBuilder> steps = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        public StepBuilder step(String name) {
+            if (steps.containsKey(name)) {
+                throw new IllegalArgumentException("Duplicate step " + name);
+            }
+            StepBuilder step = new StepBuilder(this, name);
+            steps.put(name, step);
+            return step;
+        }
+
+        /**
+         * @throws IllegalArgumentException for unknown {@code after} steps, keys produced by
+         *                                  more than one step, or dependency cycles
+         */
+        public StepGraph build() {
+            Map<ScenarioContext.Key<?>, String> producers = new HashMap<>();
+            for (StepBuilder step : steps.values()) {
+                if (step.action == null) {
+                    throw new IllegalArgumentException("Step " + step.name + " has no action");
+                }
+                for (ScenarioContext.Key<?> key : step.produces) {
+                    String other = producers.put(key, step.name);
+                    if (other != null) {
+                        throw new IllegalArgumentException(key + " is produced by both " + other + " and " + step.name);
+                    }
+                }
+            }
+
+            Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+            Map<String, List<ScenarioContext.Key<?>>> external = new HashMap<>();
+            for (StepBuilder step : steps.values()) {
+                Set<String> names = new LinkedHashSet<>();
+                List<ScenarioContext.Key<?>> missing = new ArrayList<>();
+                for (ScenarioContext.Key<?> key : step.consumes) {
+                    String producer = producers.get(key);
+                    if (producer == null) {
+                        missing.add(key);
+                    } else if (!producer.equals(step.name)) {
+                        names.add(producer);
+                    }
+                }
+                for (String name : step.after) {
+                    if (!steps.containsKey(name)) {
+                        throw new IllegalArgumentException("Step " + step.name + " runs after unknown step " + name);
+                    }
+                    names.add(name);
+                }
+                dependencies.put(step.name, names);
+                external.put(step.name, missing);
+            }
+
+            // Kahn's algorithm, keeping declaration order among ready steps
+            List<String> order = new ArrayList<>();
+            Map<String, Integer> remaining = new HashMap<>();
+            dependencies.forEach((name, deps) -> remaining.put(name, deps.size()));
+            Deque<String> ready = new ArrayDeque<>();
+            for (String name : dependencies.keySet()) {
+                if (remaining.get(name) == 0) {
+                    ready.add(name);
+                }
+            }
+            while (!ready.isEmpty()) {
+                String name = ready.poll();
+                order.add(name);
+                for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+                    if (entry.getValue().contains(name) && remaining.merge(entry.getKey(), -1, Integer::sum) == 0) {
+                        ready.add(entry.getKey());
+                    }
+                }
+            }
+            if (order.size() < steps.size()) {
+                Set<String> cycle = new LinkedHashSet<>(steps.keySet());
+                cycle.removeAll(order);
+                throw new IllegalArgumentException("Dependency cycle between " + cycle);
+            }
+
+            Map<String, Integer> index = new HashMap<>();
+            for (int i = 0; i < order.size(); i++) {
+                index.put(order.get(i), i);
+            }
+            Step[] built = new Step[order.size()];
+            List<List<Integer>> dependents = new ArrayList<>();
+            for (int i = 0; i < order.size(); i++) {
+                StepBuilder spec = steps.get(order.get(i));
+                built[i] = new Step(spec.name, Collections.unmodifiableList(new ArrayList<>(spec.produces)), spec.action);
+                built[i].external.addAll(external.get(spec.name));
+                built[i].dependencies = dependencies.get(spec.name).stream().mapToInt(index::get).toArray();
+                dependents.add(new ArrayList<>());
+            }
+            for (int i = 0; i < built.length; i++) {
+                for (int dependency : built[i].dependencies) {
+                    dependents.get(dependency).add(i);
+                }
+            }
+            for (int i = 0; i < built.length; i++) {
+                built[i].dependents = dependents.get(i).stream().mapToInt(Integer::intValue).toArray();
+                Arrays.sort(built[i].dependencies);
+            }
+            return new StepGraph(built);
+        }
+    }
+
+    public static final class StepBuilder {
+        private final Builder builder;
+        private final String name;
+        private final List<ScenarioContext.Key<?>> consumes = new ArrayList<>();
+        private final List<ScenarioContext.Key<?>> produces = new ArrayList<>();
+        private final List<String> after = new ArrayList<>();
+        private Action action;
+
+        private StepBuilder(Builder builder, String name) {
+            this.builder = builder;
+            this.name = name;
+        }
+
+        public StepBuilder consumes(ScenarioContext.Key<?>... keys) {
+            consumes.addAll(Arrays.asList(keys));
+            return this;
+        }
+
+        public StepBuilder produces(ScenarioContext.Key<?>... keys) {
+            produces.addAll(Arrays.asList(keys));
+            return this;
+        }
+
+        /**
+         * Orders this step after others it shares no state with, e.g. when both touch the
+         * same remote resource.
+         */
+        public StepBuilder after(String... steps) {
+            after.addAll(Arrays.asList(steps));
+            return this;
+        }
+
+        public Builder run(Action action) {
+            this.action = action;
+            return builder;
+        }
+    }
+}
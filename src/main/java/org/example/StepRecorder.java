@@ -0,0 +1,39 @@
+package org.example;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Times the steps of one scenario iteration and records them into a {@link LoadReport}.
+ */
+public final class StepRecorder {
+    private final LoadReport report;
+
+    StepRecorder(LoadReport report) {
+        this.report = report;
+    }
+
+    public <T> T step(String name, Callable<T> action) throws Exception {
+        LoadReport.StepStats stats = report.step(name);
+        long start = System.nanoTime();
+        try {
+            T result = action.call();
+            stats.latency.record(System.nanoTime() - start);
+            return result;
+        } catch (Exception | AssertionError e) {
+            stats.latency.record(System.nanoTime() - start);
+            stats.errors.increment();
+            stats.lastError = String.valueOf(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a step graph with every step timed and adds its critical path to the report.
+     */
+    public StepGraph.Result run(StepGraph graph, ScenarioContext context, Executor executor) throws InterruptedException {
+        StepGraph.Result result = graph.run(context, executor, this);
+        report.criticalPath(result.criticalPath(), result.wallNanos());
+        return result;
+    }
+}
@@ -0,0 +1,254 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Base class for the in-process API stand-ins: an embedded loopback HTTP server
+ * with request parsing and JSON replies. Subclasses keep their state in concurrent
+ * structures, handlers run on a shared pool and may be invoked concurrently.
+ */
+public abstract class StubServer implements AutoCloseable {
+    private static final int BACKLOG = 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, CallWindow> windows = new ConcurrentHashMap<>();
+    private volatile int callsPerSecond;
+    private volatile String advertisedUrl;
+
+    protected StubServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        executor = Executors.newCachedThreadPool(new DaemonThreadFactory(getClass().getSimpleName()));
+        server.setExecutor(executor);
+        server.createContext("/", this::dispatch);
+    }
+
+    protected void start() {
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public String url(String path) {
+        String advertised = advertisedUrl;
+        return (advertised != null ? advertised : "http://127.0.0.1:" + port()) + path;
+    }
+
+    /**
+     * Makes the urls the stand-in hands out, such as upload urls, point at {@code url}
+     * (scheme, host and port) instead of itself, for a proxy in front of it.
+     */
+    public void advertise(String url) {
+        advertisedUrl = url;
+    }
+
+    /**
+     * Limits every token to {@code perSecond} calls per wall-clock second, 0 switches the
+     * limit off. Subclasses answer calls over the limit the way their API does.
+     */
+    public void limitCalls(int perSecond) {
+        callsPerSecond = perSecond;
+    }
+
+    protected int callLimit() {
+        return callsPerSecond;
+    }
+
+    /**
+     * Counts a call against the token's limit.
+     *
+     * @return calls left in the current second, negative when this call is over the limit,
+     * {@link Integer#MAX_VALUE} without a limit
+     */
+    protected int takeCall(String token) {
+        int limit = callsPerSecond;
+        if (limit <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return windows.computeIfAbsent(token, k -> new CallWindow()).take(System.currentTimeMillis() / 1000, limit);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    protected abstract void handle(Request request) throws IOException;
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        try {
+            handle(new Request(exchange));
+        } catch (RuntimeException e) {
+            // once the headers are out the client can only learn of the failure from the closed exchange
+            if (exchange.getResponseCode() == -1) {
+                sendJson(exchange, 500, Collections.singletonMap("error", String.valueOf(e)));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    protected static void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Like {@link #sendJson} but with a strong ETag of the body; a request whose
+     * {@code If-None-Match} matches it gets an empty 304 instead.
+     */
+    protected static void sendJsonWithETag(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        String etag = "\"" + Long.toHexString(crc.getValue()) + Integer.toHexString(bytes.length) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            // the JDK server drops the connection after a 304, tell the client not to reuse it
+            exchange.getResponseHeaders().set("Connection", "close");
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static Map<String, List<String>> parseParams(String encoded, Map<String, List<String>> into) {
+        if (encoded == null || encoded.isEmpty()) {
+            return into;
+        }
+        for (String pair : encoded.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            into.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+        }
+        return into;
+    }
+
+    private static final class CallWindow {
+        private long second;
+        private int calls;
+
+        synchronized int take(long now, int limit) {
+            if (now != second) {
+                second = now;
+                calls = 0;
+            }
+            return limit - ++calls;
+        }
+    }
+
+    /**
+     * Parsed view of an exchange: method, path segments, query and (lazily) form parameters.
+     */
+    protected static final class Request {
+        final HttpExchange exchange;
+        final String method;
+        final String path;
+        final String[] segments;
+        final Map<String, List<String>> query;
+        private Map<String, List<String>> params;
+
+        Request(HttpExchange exchange) {
+            this(exchange, exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                    parseParams(exchange.getRequestURI().getRawQuery(), new LinkedHashMap<>()));
+        }
+
+        private Request(HttpExchange exchange, String method, String path, Map<String, List<String>> query) {
+            this.exchange = exchange;
+            this.method = method;
+            this.path = path;
+            String trimmed = path.startsWith("/") ? path.substring(1) : path;
+            this.segments = trimmed.isEmpty() ? new String[0] : trimmed.split("/");
+            this.query = query;
+        }
+
+        /**
+         * A call nested in this exchange, such as one call of a VK {@code execute}, with its
+         * own path and parameters and no body.
+         */
+        Request nested(String path, Map<String, List<String>> params) {
+            Request nested = new Request(exchange, method, path, params);
+            nested.params = params;
+            return nested;
+        }
+
+        String segment(int index) {
+            return index < segments.length ? segments[index] : null;
+        }
+
+        String header(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        String bearerToken() {
+            String authorization = header("Authorization");
+            if (authorization == null || !authorization.startsWith("Bearer ")) {
+                return null;
+            }
+            String token = authorization.substring("Bearer ".length()).trim();
+            return token.isEmpty() ? null : token;
+        }
+
+        /**
+         * Query parameters merged with url-encoded form parameters from the body.
+         */
+        Map<String, List<String>> params() throws IOException {
+            if (params == null) {
+                Map<String, List<String>> merged = new LinkedHashMap<>();
+                query.forEach((name, values) -> merged.put(name, new ArrayList<>(values)));
+                String contentType = header("Content-Type");
+                if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+                    try (InputStream in = exchange.getRequestBody()) {
+                        parseParams(new String(in.readAllBytes(), StandardCharsets.UTF_8), merged);
+                    }
+                }
+                params = merged;
+            }
+            return params;
+        }
+
+        String param(String name) throws IOException {
+            List<String> values = params().get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        List<String> params(String name) throws IOException {
+            List<String> values = params().get(name);
+            return values == null ? Collections.emptyList() : values;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Accounts to spread the calls of a run over, loaded from a credentials file that is kept
+ * out of the repository. Each user session {@linkplain #lease leases} one account, picked
+ * round-robin or as the account with the fewest sessions, and calls with its token (see
+ * {@link TokenTransport}). An account the server throttled is out of rotation until its
+ * cooldown ends; sessions on it move to another account at their next iteration.
+ * <p>
+ * Access tokens are refreshed through the {@link Refresher} shortly before they expire, or
+ * when the server rejects them, and the refreshed token is used until it expires in turn.
+ */
+public final class TokenPool {
+    private static final long REFRESH_AHEAD_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final List<Account> accounts;
+    private final boolean leastLoaded;
+    private final long cooldownNanos;
+    private final Refresher refresher;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private int next;
+
+    /**
+     * @param leastLoaded lease the account with the fewest sessions instead of the next one in turn
+     * @param cooldown    how long a throttled account is skipped when the server does not say
+     * @param refresher   trades a refresh token for a new access token; {@code null} if tokens never expire
+     */
+    public TokenPool(List<Account> accounts, boolean leastLoaded, Duration cooldown, Refresher refresher) {
+        if (accounts.isEmpty()) {
+            throw new IllegalArgumentException("No accounts in the token pool");
+        }
+        this.accounts = Collections.unmodifiableList(new ArrayList<>(accounts));
+        this.leastLoaded = leastLoaded;
+        this.cooldownNanos = cooldown.toNanos();
+        this.refresher = refresher;
+        for (Account account : accounts) {
+            account.pool = this;
+        }
+    }
+
+    /**
+     * The accounts of {@code tokens.file}, selected by {@code tokens.selection}
+     * ({@code round-robin}, the default, or {@code least-loaded}) and cooled down for
+     * {@code tokens.cooldownMillis} (5000); {@code null} when no file is set.
+     */
+    public static TokenPool fromProperties(Properties properties, Refresher refresher) {
+        String file = properties.getProperty("tokens.file");
+        if (file == null) {
+            return null;
+        }
+        return new TokenPool(load(Paths.get(file)),
+                "least-loaded".equals(properties.getProperty("tokens.selection", "round-robin")),
+                Duration.ofMillis(Long.parseLong(properties.getProperty("tokens.cooldownMillis", "5000"))),
+                refresher);
+    }
+
+    /**
+     * Reads accounts from a properties file with one prefix per account:
+     * <pre>
+     * alice.accessToken=...
+     * alice.refreshToken=...        (optional)
+     * alice.expiresAt=1767225600    (optional, epoch seconds)
+     * alice.userName=alice          (optional, defaults to the prefix)
+     * </pre>
+     */
+    public static List<Account> load(Path file) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read token file " + file, e);
+        }
+        TreeSet<String> names = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.indexOf('.');
+            if (dot > 0) {
+                names.add(key.substring(0, dot));
+            }
+        }
+        List<Account> accounts = new ArrayList<>(names.size());
+        for (String name : names) {
+            String token = properties.getProperty(name + ".accessToken");
+            String refreshToken = properties.getProperty(name + ".refreshToken");
+            if (token == null && refreshToken == null) {
+                throw new IllegalArgumentException(file + ": account " + name + " has neither accessToken nor refreshToken");
+            }
+            String expiresAt = properties.getProperty(name + ".expiresAt");
+            accounts.add(new Account(name, properties.getProperty(name + ".userName", name), token, refreshToken,
+                    expiresAt == null ? null : Instant.ofEpochSecond(Long.parseLong(expiresAt.trim()))));
+        }
+        return accounts;
+    }
+
+    public List<Account> accounts() {
+        return accounts;
+    }
+
+    /**
+     * Leases an account that is not cooling down, waiting for the first cooldown to end if
+     * all of them are.
+     */
+    public Lease lease() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                Account chosen = null;
+                long wait = Long.MAX_VALUE;
+                for (int i = 0; i < accounts.size(); i++) {
+                    Account account = accounts.get((next + i) % accounts.size());
+                    long left = account.coolingUntil - now;
+                    if (left > 0) {
+                        wait = Math.min(wait, left);
+                    } else if (chosen == null || leastLoaded && account.sessions.get() < chosen.sessions.get()) {
+                        chosen = account;
+                        if (!leastLoaded) {
+                            break;
+                        }
+                    }
+                }
+                if (chosen != null) {
+                    next = (accounts.indexOf(chosen) + 1) % accounts.size();
+                    chosen.sessions.incrementAndGet();
+                    chosen.leases.increment();
+                    return new Lease(chosen);
+                }
+                available.awaitNanos(wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A scenario that runs the scenario {@code factory} makes for a leased account, and moves
+     * to another account before an iteration when its own is cooling down.
+     */
+    public Scenario session(Function<Account, ? extends Scenario> factory) {
+        return new Session(factory);
+    }
+
+    private void release(Account account) {
+        lock.lock();
+        try {
+            account.sessions.decrementAndGet();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("token pool (").append(leastLoaded ? "least-loaded" : "round-robin").append("):");
+        for (Account account : accounts) {
+            out.append("\n  ").append(account);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Trades the account's refresh token for a new access token.
+     */
+    @FunctionalInterface
+    public interface Refresher {
+        Token refresh(Account account) throws Exception;
+    }
+
+    /**
+     * An access token with its expiry; {@code refreshToken} is the one to use next time, or
+     * {@code null} to keep the current one.
+     */
+    public static final class Token {
+        final String accessToken;
+        final Instant expiresAt;
+        final String refreshToken;
+
+        public Token(String accessToken, Instant expiresAt, String refreshToken) {
+            this.accessToken = accessToken;
+            this.expiresAt = expiresAt;
+            this.refreshToken = refreshToken;
+        }
+    }
+
+    public static final class Account {
+        private final String name;
+        private final String userName;
+        private String token;
+        private String refreshToken;
+        private long expiresAtNanos;
+        private volatile long coolingUntil = System.nanoTime();
+        private final AtomicInteger sessions = new AtomicInteger();
+        private final LongAdder leases = new LongAdder();
+        private final LongAdder throttles = new LongAdder();
+        private final LongAdder refreshes = new LongAdder();
+        private TokenPool pool;
+
+        public Account(String name, String userName, String token, String refreshToken, Instant expiresAt) {
+            this.name = name;
+            this.userName = userName;
+            this.token = token;
+            this.refreshToken = refreshToken;
+            this.expiresAtNanos = nanosAt(expiresAt);
+        }
+
+        private static long nanosAt(Instant expiresAt) {
+            if (expiresAt == null) {
+                return Long.MAX_VALUE;
+            }
+            long left = Duration.between(Instant.now(), expiresAt).toNanos();
+            return System.nanoTime() + left;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String userName() {
+            return userName;
+        }
+
+        public String refreshToken() {
+            return refreshToken;
+        }
+
+        /**
+         * The cached access token, refreshed first when it expires within a minute.
+         */
+        public synchronized String token() {
+            if (token == null || expiresAtNanos - System.nanoTime() < REFRESH_AHEAD_NANOS) {
+                refresh(token);
+            }
+            return token;
+        }
+
+        /**
+         * Refreshes the token unless another call already replaced {@code rejected}.
+         *
+         * @return whether there is a token other than {@code rejected} to try
+         */
+        public synchronized boolean refresh(String rejected) {
+            if (token != null && !token.equals(rejected)) {
+                return true;
+            }
+            if (pool == null || pool.refresher == null || refreshToken == null) {
+                return false;
+            }
+            Token fresh;
+            try {
+                fresh = pool.refresher.refresh(this);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot refresh the token of " + name, e);
+            }
+            token = fresh.accessToken;
+            expiresAtNanos = nanosAt(fresh.expiresAt);
+            if (fresh.refreshToken != null) {
+                refreshToken = fresh.refreshToken;
+            }
+            refreshes.increment();
+            return true;
+        }
+
+        /**
+         * Takes the account out of rotation for {@code retryAfter}, or the pool's cooldown
+         * when the server did not say.
+         */
+        public void throttled(Duration retryAfter) {
+            throttles.increment();
+            long until = System.nanoTime() + (retryAfter != null ? retryAfter.toNanos() : pool != null ? pool.cooldownNanos : 0);
+            if (until > coolingUntil) {
+                coolingUntil = until;
+            }
+        }
+
+        public boolean coolingDown() {
+            return coolingUntil - System.nanoTime() > 0;
+        }
+
+        public int sessions() {
+            return sessions.get();
+        }
+
+        public long throttles() {
+            return throttles.sum();
+        }
+
+        public long refreshes() {
+            return refreshes.sum();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s: %d leases, %d sessions now, %d throttles, %d refreshes%s",
+                    name, leases.sum(), sessions(), throttles(), refreshes(), coolingDown() ? ", cooling down" : "");
+        }
+    }
+
+    /**
+     * One session's hold on an account; closing it returns the account to the pool.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Account account;
+        private boolean closed;
+
+        private Lease(Account account) {
+            this.account = account;
+        }
+
+        public Account account() {
+            return account;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(account);
+            }
+        }
+    }
+
+    private final class Session implements Scenario {
+        private final Function<Account, ? extends Scenario> factory;
+        private Lease lease;
+        private Scenario scenario;
+
+        Session(Function<Account, ? extends Scenario> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public String name() {
+            return current().name();
+        }
+
+        @Override
+        public void run(StepRecorder steps) throws Exception {
+            if (lease != null && lease.account().coolingDown()) {
+                lease.close();
+                lease = null;
+            }
+            current().run(steps);
+        }
+
+        private Scenario current() {
+            if (lease == null) {
+                try {
+                    lease = lease();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for an account", e);
+                }
+                scenario = factory.apply(lease.account());
+            }
+            return scenario;
+        }
+    }
+}
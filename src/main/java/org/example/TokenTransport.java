@@ -0,0 +1,67 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link Transport} decorator that sends each call with the current token of one
+ * {@link TokenPool.Account}. A call rejected with a 401 is sent once more after the token was
+ * refreshed; a throttled call takes the account out of rotation for {@code Retry-After}. It
+ * belongs directly around the transport that does the I/O, which must not add an
+ * {@code Authorization} header of its own.
+ */
+public final class TokenTransport implements Transport {
+    private static final int UNAUTHORIZED = 401;
+
+    private final Transport delegate;
+    private final TokenPool.Account account;
+
+    public TokenTransport(Transport delegate, TokenPool.Account account) {
+        this.delegate = delegate;
+        this.account = account;
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        String token = token();
+        ApiResponse response = delegate.execute(request.header("Authorization", "Bearer " + token));
+        if (response.statusCode() == UNAUTHORIZED && account.refresh(token)) {
+            response = delegate.execute(request.header("Authorization", "Bearer " + token()));
+        }
+        return checked(response);
+    }
+
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        String token;
+        try {
+            token = token();
+        } catch (IllegalStateException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return delegate.executeAsync(request.header("Authorization", "Bearer " + token))
+                .thenCompose(response -> response.statusCode() == UNAUTHORIZED && account.refresh(token)
+                        ? delegate.executeAsync(request.header("Authorization", "Bearer " + token()))
+                        : CompletableFuture.completedFuture(response))
+                .thenApply(this::checked);
+    }
+
+    private String token() {
+        String token = account.token();
+        if (token == null) {
+            throw new IllegalStateException("Account " + account.name() + " has no token and cannot refresh one");
+        }
+        return token;
+    }
+
+    private ApiResponse checked(ApiResponse response) {
+        if (RateLimiter.throttled(response)) {
+            account.throttled(RateLimiter.retryAfter(response));
+        }
+        return response;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
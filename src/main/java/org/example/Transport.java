@@ -0,0 +1,24 @@
+package org.example;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends {@link ApiRequest}s to one API with its base url and default headers.
+ * Implementations are thread-safe; I/O failures surface as unchecked exceptions.
+ */
+public interface Transport extends AutoCloseable {
+
+    ApiResponse execute(ApiRequest request);
+
+    /**
+     * Sends the request without waiting for the response. Transports without non-blocking
+     * I/O run {@link #execute} on a thread of their own.
+     */
+    default CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        return CompletableFuture.supplyAsync(() -> execute(request), VirtualThreads.shared());
+    }
+
+    @Override
+    default void close() {
+    }
+}
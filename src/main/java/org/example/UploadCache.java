@@ -0,0 +1,359 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Content-addressed cache of uploaded images: the SHA-256 of the bytes, or the normalized
+ * source url, maps to the id the server gave the image. An upload of the same content is
+ * answered with that id as long as the remote image still exists, which is checked at most
+ * once per {@code revalidateAfter}; a gone image is uploaded again.
+ * <p>
+ * Concurrent uploads of the same content share one request. The index is a small properties
+ * file that is read when the cache is opened and rewritten atomically by {@link #save()} and
+ * {@link #close()}, so later runs reuse the uploads of earlier ones. Cached images outlive the
+ * run on purpose; deleting one through the client drops it from the cache.
+ */
+public final class UploadCache implements AutoCloseable {
+    private static final String HIT_HEADER = "X-Upload-Cache";
+    private static final long UNVERIFIED = Long.MIN_VALUE;
+
+    private final Path index;
+    private final long revalidateNanos;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<ApiResponse>> uploading = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Path, FileKey> fileKeys = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final LongAdder bytesUploaded = new LongAdder();
+
+    /**
+     * @param index the file to keep the cache in, read now if it exists
+     */
+    public UploadCache(Path index, Duration revalidateAfter) {
+        this.index = index;
+        this.revalidateNanos = revalidateAfter.toNanos();
+        if (Files.exists(index)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(index)) {
+                properties.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read upload cache " + index, e);
+            }
+            for (String key : properties.stringPropertyNames()) {
+                String[] fields = properties.getProperty(key).split(" ");
+                if (fields.length == 3) {
+                    entries.put(key, new Entry(fields[0], "-".equals(fields[1]) ? null : fields[1], Long.parseLong(fields[2])));
+                }
+            }
+        }
+    }
+
+    /**
+     * A cache kept in {@code upload.cacheFile}, revalidating entries after
+     * {@code upload.revalidateSeconds} (60); {@code null} when no file is set.
+     */
+    public static UploadCache fromProperties(Properties properties) {
+        String file = properties.getProperty("upload.cacheFile");
+        if (file == null) {
+            return null;
+        }
+        return new UploadCache(Paths.get(file),
+                Duration.ofSeconds(Long.parseLong(properties.getProperty("upload.revalidateSeconds", "60"))));
+    }
+
+    /**
+     * Key of an image the server fetches itself: the url with scheme and host lower-cased,
+     * without default port and fragment.
+     */
+    public static String urlKey(String url) {
+        URI uri = URI.create(url.trim()).normalize();
+        String scheme = uri.getScheme() == null ? null : uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort();
+        if ("http".equals(scheme) && port == 80 || "https".equals(scheme) && port == 443) {
+            port = -1;
+        }
+        String host = uri.getHost() == null ? null : uri.getHost().toLowerCase(Locale.ROOT);
+        StringBuilder key = new StringBuilder("url:");
+        if (scheme != null) {
+            key.append(scheme).append("://");
+        }
+        if (host != null) {
+            key.append(host);
+        }
+        if (port != -1) {
+            key.append(':').append(port);
+        }
+        key.append(uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+        if (uri.getRawQuery() != null) {
+            key.append('?').append(uri.getRawQuery());
+        }
+        return key.toString();
+    }
+
+    public static String contentKey(ByteBuffer bytes) {
+        MessageDigest sha256 = sha256();
+        sha256.update(bytes.duplicate());
+        return "sha256:" + hex(sha256.digest());
+    }
+
+    /**
+     * Key of the file's bytes. The digest is remembered while the file keeps its size and
+     * modification time, so a large image is hashed once per run.
+     */
+    public String contentKey(Path file) {
+        try {
+            Path path = file.toAbsolutePath();
+            long size = Files.size(path);
+            FileTime modified = Files.getLastModifiedTime(path);
+            FileKey known = fileKeys.get(path);
+            if (known != null && known.size == size && known.modified.equals(modified)) {
+                return known.key;
+            }
+            MessageDigest sha256 = sha256();
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = Files.newInputStream(path)) {
+                for (int n; (n = in.read(buffer)) > 0; ) {
+                    sha256.update(buffer, 0, n);
+                }
+            }
+            String key = "sha256:" + hex(sha256.digest());
+            fileKeys.put(path, new FileKey(size, modified, key));
+            return key;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot hash " + file, e);
+        }
+    }
+
+    /**
+     * Answers from the cache when {@code key} was uploaded before and the image still
+     * {@code exists}; the answer is a 200 carrying {@code data.id}, {@code data.deletehash}
+     * and {@code data.size}. Otherwise runs {@code upload} and caches the image that
+     * {@code created} finds in its response, if any.
+     */
+    public ApiResponse upload(String key, Predicate<Entry> exists, Supplier<ApiResponse> upload,
+                              Function<ApiResponse, Entry> created) {
+        Entry cached = entries.get(key);
+        if (cached != null) {
+            long verifiedAt = cached.verifiedAt;
+            boolean fresh = verifiedAt != UNVERIFIED && System.nanoTime() - verifiedAt < revalidateNanos;
+            if (fresh || exists.test(cached)) {
+                if (!fresh) {
+                    cached.verifiedAt = System.nanoTime();
+                }
+                hit(cached);
+                return cached.response();
+            }
+            if (entries.remove(key, cached)) {
+                stale.increment();
+            }
+        }
+        CompletableFuture<ApiResponse> mine = new CompletableFuture<>();
+        CompletableFuture<ApiResponse> running = uploading.putIfAbsent(key, mine);
+        if (running != null) {
+            try {
+                ApiResponse response = running.join();
+                Entry shared = entries.get(key);
+                if (shared != null) {
+                    hit(shared);
+                }
+                return response;
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        try {
+            ApiResponse response = upload.get();
+            misses.increment();
+            Entry entry = created.apply(response);
+            if (entry != null) {
+                entry.verifiedAt = System.nanoTime();
+                entries.put(key, entry);
+                bytesUploaded.add(entry.size);
+            }
+            mine.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            uploading.remove(key, mine);
+        }
+    }
+
+    private void hit(Entry entry) {
+        hits.increment();
+        bytesSaved.add(entry.size);
+    }
+
+    /**
+     * Drops the image known by its id or deletehash, after it was deleted.
+     */
+    public void forget(String idOrDeleteHash) {
+        entries.values().removeIf(entry -> entry.id.equals(idOrDeleteHash) || idOrDeleteHash.equals(entry.deleteHash));
+    }
+
+    /**
+     * @return true if the image with this id is one the cache hands out
+     */
+    public boolean holds(String id) {
+        for (Entry entry : entries.values()) {
+            if (entry.id.equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long stale() {
+        return stale.sum();
+    }
+
+    /**
+     * @return bytes of images that were not uploaded again
+     */
+    public long bytesSaved() {
+        return bytesSaved.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Rewrites the index file atomically.
+     */
+    public void save() {
+        Properties properties = new Properties();
+        entries.forEach((key, entry) -> properties.setProperty(key,
+                entry.id + " " + (entry.deleteHash == null ? "-" : entry.deleteHash) + " " + entry.size));
+        try {
+            Path parent = index.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, index.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "upload cache");
+            }
+            Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write upload cache " + index, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        save();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("upload cache: %d hits, %d uploads, %d stale, %d entries, %.1f MB saved, %.1f MB uploaded",
+                hits(), misses(), stale(), size(), bytesSaved() / 1e6, bytesUploaded.sum() / 1e6);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * An uploaded image: its id, the deletehash if the server gave one, and its size.
+     */
+    public static final class Entry {
+        final String id;
+        final String deleteHash;
+        final long size;
+        volatile long verifiedAt = UNVERIFIED;
+
+        public Entry(String id, String deleteHash, long size) {
+            this.id = id;
+            this.deleteHash = deleteHash;
+            this.size = size;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        ApiResponse response() {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("id", id);
+            data.put("deletehash", deleteHash);
+            data.put("size", size);
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("data", data);
+            body.put("success", true);
+            body.put("status", 200);
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            headers.put("Content-Type", Collections.singletonList("application/json"));
+            headers.put(HIT_HEADER, Collections.singletonList("hit"));
+            return new ApiResponse(200, headers, ByteBuffer.wrap(Json.write(body).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public String toString() {
+            return id + " (" + size + " bytes)";
+        }
+    }
+
+    private static final class FileKey {
+        final long size;
+        final FileTime modified;
+        final String key;
+
+        FileKey(long size, FileTime modified, String key) {
+            this.size = size;
+            this.modified = modified;
+            this.key = key;
+        }
+    }
+}
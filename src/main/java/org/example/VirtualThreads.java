@@ -0,0 +1,54 @@
+package org.example;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread-per-task executors backed by virtual threads when the runtime has them (JDK 21+).
+ * The project still compiles for 17, so the factory is looked up reflectively and falls
+ * back to a cached pool of daemon platform threads on older runtimes.
+ */
+final class VirtualThreads {
+    private static final MethodHandle FACTORY = lookup();
+
+    private VirtualThreads() {
+    }
+
+    static boolean available() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Thread-per-task executor for work that has no executor of its own.
+     */
+    static ExecutorService shared() {
+        return Shared.EXECUTOR;
+    }
+
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        if (FACTORY != null) {
+            try {
+                return (ExecutorService) FACTORY.invoke();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot create a virtual thread executor", e);
+            }
+        }
+        return Executors.newCachedThreadPool(new DaemonThreadFactory(name));
+    }
+
+    private static MethodHandle lookup() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static final class Shared {
+        static final ExecutorService EXECUTOR = newThreadPerTaskExecutor("async");
+    }
+}
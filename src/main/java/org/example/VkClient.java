@@ -0,0 +1,247 @@
+package org.example;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * Typed client for the VK {@code method/*} calls and the photo upload server. The API
+ * version is added to every method call.
+ */
+public class VkClient {
+    static final Endpoint APPS_GET = Endpoint.get("/apps.get", "apps");
+    static final Endpoint PHOTOS_CREATE_ALBUM = Endpoint.get("/photos.createAlbum", "photos").mutating();
+    static final Endpoint PHOTOS_GET_ALBUMS = Endpoint.get("/photos.getAlbums", "photos");
+    static final Endpoint PHOTOS_EDIT_ALBUM = Endpoint.post("/photos.editAlbum", "photos");
+    static final Endpoint PHOTOS_DELETE_ALBUM = Endpoint.post("/photos.deleteAlbum", "photos");
+    static final Endpoint PHOTOS_GET_UPLOAD_SERVER = Endpoint.get("/photos.getUploadServer", "photos");
+    static final Endpoint PHOTOS_SAVE = Endpoint.post("/photos.save", "photos");
+    static final Endpoint PHOTOS_GET = Endpoint.get("/photos.get", "photos");
+    static final Endpoint UPLOAD = Endpoint.post("{upload_url}", "upload");
+    static final Endpoint EXECUTE = Endpoint.post("/execute", "execute");
+    private static final ExecutorService BATCHES = VirtualThreads.newThreadPerTaskExecutor("vk-batch");
+    private static final JsonFields PAGE = JsonFields.compile("response.count");
+    private static final JsonFields RESULT = JsonFields.compile("error", "response.id");
+
+    private final Transport transport;
+    private final String version;
+    private final ResourceReaper reaper;
+
+    public VkClient(Transport transport, String version) {
+        this(transport, version, null);
+    }
+
+    private VkClient(Transport transport, String version, ResourceReaper reaper) {
+        this.transport = transport;
+        this.version = version;
+        this.reaper = reaper;
+    }
+
+    /**
+     * The same client, registering the albums it creates with {@code reaper}; deleting an
+     * album also deletes its photos.
+     */
+    public VkClient withReaper(ResourceReaper reaper) {
+        return new VkClient(transport, version, reaper);
+    }
+
+    /**
+     * Starts a batch: the calls {@linkplain Batch#submit submitted} to it go out together as
+     * {@code execute} requests of up to 25 calls once all of them are waiting, see
+     * {@link VkExecuteTransport}.
+     */
+    public Batch batch() {
+        return new Batch(VkExecuteTransport.scope(transport));
+    }
+
+    public static VkClient create(String baseUrl, String token, String version, ConnectionPool pool) {
+        return new VkClient(new RestAssuredTransport(pool, baseUrl,
+                Collections.singletonMap("Authorization", "Bearer " + token)), version);
+    }
+
+    /**
+     * Registers which cached reads each VK mutation makes stale.
+     */
+    static CachingTransport invalidations(CachingTransport cache) {
+        return cache.invalidates(PHOTOS_CREATE_ALBUM, PHOTOS_GET_ALBUMS)
+                .invalidates(PHOTOS_EDIT_ALBUM, PHOTOS_GET_ALBUMS)
+                .invalidates(PHOTOS_DELETE_ALBUM, PHOTOS_GET_ALBUMS, PHOTOS_GET)
+                .invalidates(PHOTOS_SAVE, PHOTOS_GET, PHOTOS_GET_ALBUMS);
+    }
+
+    public ApiResponse appsGet() {
+        return send(method(APPS_GET));
+    }
+
+    public ApiResponse photosCreateAlbum(String title) {
+        ApiResponse response = send(method(PHOTOS_CREATE_ALBUM).query("title", title));
+        if (reaper != null && succeeded(response)) {
+            String albumId = response.fields(RESULT).getString("response.id");
+            reaper.register("vk album", () -> deleted(photosDeleteAlbum(albumId)), albumId);
+        }
+        return response;
+    }
+
+    public ApiResponse photosGetAlbums() {
+        return photosGetAlbums(null, null);
+    }
+
+    public ApiResponse photosGetAlbums(Integer offset, Integer count) {
+        return send(method(PHOTOS_GET_ALBUMS)
+                .query("offset", offset)
+                .query("count", count));
+    }
+
+    /**
+     * All albums of the user, {@code pageSize} per {@code photos.getAlbums} call with
+     * {@code prefetch} pages fetched ahead. Each item holds the {@code itemPaths}, relative
+     * to one album.
+     */
+    public Paginator<JsonFields.Values> albums(int pageSize, int prefetch, String... itemPaths) {
+        JsonFields items = JsonFields.compileEach("response.items", itemPaths);
+        return new Paginator<>(page -> page(photosGetAlbums(page * pageSize, pageSize), items, page, pageSize), prefetch);
+    }
+
+    public ApiResponse photosEditAlbum(String ownerId, String albumId, String title, String description) {
+        return send(method(PHOTOS_EDIT_ALBUM)
+                .query("owner_id", ownerId)
+                .query("album_id", albumId)
+                .form("title", title)
+                .form("description", description));
+    }
+
+    public ApiResponse photosDeleteAlbum(String albumId) {
+        ApiResponse response = send(method(PHOTOS_DELETE_ALBUM).query("album_id", albumId));
+        if (reaper != null && succeeded(response)) {
+            reaper.release(albumId);
+        }
+        return response;
+    }
+
+    public ApiResponse photosGetUploadServer(String albumId) {
+        return send(method(PHOTOS_GET_UPLOAD_SERVER).query("album_id", albumId));
+    }
+
+    /**
+     * Posts up to five files as {@code file1..file5} to the url from {@code photos.getUploadServer}.
+     */
+    public ApiResponse upload(String uploadUrl, File... files) {
+        if (files.length == 0 || files.length > 5) {
+            throw new IllegalArgumentException("VK accepts 1 to 5 files per upload, got " + files.length);
+        }
+        ApiRequest request = ApiRequest.to(UPLOAD).url(uploadUrl);
+        for (int i = 0; i < files.length; i++) {
+            request.file("file" + (i + 1), files[i]);
+        }
+        return send(request);
+    }
+
+    public ApiResponse photosSave(String albumId, String server, String photosList, String hash) {
+        return send(method(PHOTOS_SAVE)
+                .query("album_id", albumId)
+                .query("server", server)
+                .query("hash", hash)
+                .form("photos_list", photosList));
+    }
+
+    public ApiResponse photosGet(String ownerId, String albumId, boolean extended) {
+        return photosGet(ownerId, albumId, extended, null, null);
+    }
+
+    public ApiResponse photosGet(String ownerId, String albumId, boolean extended, Integer offset, Integer count) {
+        return send(method(PHOTOS_GET)
+                .query("owner_id", ownerId)
+                .query("album_id", albumId)
+                .query("extended", extended ? 1 : 0)
+                .query("offset", offset)
+                .query("count", count));
+    }
+
+    /**
+     * All photos of the album, {@code pageSize} per {@code photos.get} call with
+     * {@code prefetch} pages fetched ahead. Each item holds the {@code itemPaths}, relative
+     * to one photo.
+     */
+    public Paginator<JsonFields.Values> photos(String ownerId, String albumId, int pageSize, int prefetch, String... itemPaths) {
+        JsonFields items = JsonFields.compileEach("response.items", itemPaths);
+        return new Paginator<>(page -> page(photosGet(ownerId, albumId, false, page * pageSize, pageSize), items, page, pageSize),
+                prefetch);
+    }
+
+    /**
+     * Items of an {@code offset}/{@code count} page; the page is the last one when it reaches
+     * the total {@code count} of the response.
+     */
+    private static Paginator.Page<JsonFields.Values> page(ApiResponse response, JsonFields items, int page, int pageSize) {
+        JsonFields.Values total = response.fields(PAGE);
+        if (response.statusCode() != 200 || !total.has("response.count")) {
+            throw new IllegalStateException("Page " + page + " failed: " + response);
+        }
+        return (page + 1L) * pageSize >= total.getLong("response.count")
+                ? Paginator.Page.last(items.extractEach(response.body()))
+                : Paginator.Page.of(items.extractEach(response.body()));
+    }
+
+    private static boolean succeeded(ApiResponse response) {
+        return response.statusCode() == 200 && !response.fields(RESULT).has("error");
+    }
+
+    static void deleted(ApiResponse response) {
+        if (!succeeded(response)) {
+            throw new IllegalStateException("photos.deleteAlbum failed: " + response.asString());
+        }
+    }
+
+    private ApiRequest method(Endpoint endpoint) {
+        return ApiRequest.to(endpoint).query("v", version);
+    }
+
+    protected ApiResponse send(ApiRequest request) {
+        return transport.execute(request);
+    }
+
+    /**
+     * Calls of one batch, each on a thread of its own; {@link #close()} sends what is still
+     * waiting and returns when every call finished.
+     */
+    public final class Batch implements AutoCloseable {
+        private final VkExecuteTransport execute;
+        private final VkClient client;
+        private final List<CompletableFuture<?>> calls = new ArrayList<>();
+
+        private Batch(VkExecuteTransport execute) {
+            this.execute = execute;
+            this.client = new VkClient(execute, version, reaper);
+        }
+
+        public <T> CompletableFuture<T> submit(Function<VkClient, T> call) {
+            execute.started();
+            CompletableFuture<T> result = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call.apply(client);
+                } finally {
+                    execute.finished();
+                }
+            }, BATCHES);
+            calls.add(result);
+            return result;
+        }
+
+        /**
+         * @return round-trips the batch took so far
+         */
+        public long requests() {
+            return execute.requests();
+        }
+
+        @Override
+        public void close() {
+            execute.closeScope();
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Transport} decorator that coalesces VK method calls into {@code execute} requests,
+ * up to 25 calls per VKScript {@code return [API.a({...}), API.b({...}), ...];}. Each caller
+ * still gets a response of its own, {@code {"response": ...}} or, for a call that failed
+ * inside the script, the usual {@code {"error": ...}} envelope. Uploads and calls with files
+ * or headers of their own are passed through.
+ * <p>
+ * With a window, the first call of a batch waits that long for company before the batch is
+ * sent; a full batch goes at once. In a {@linkplain VkClient#batch() batch scope} there is no
+ * window: the calls are sent once every call of the scope is waiting, or its 25th arrives.
+ * A batch of one is sent as a plain call.
+ */
+public final class VkExecuteTransport implements Transport {
+    static final int MAX_CALLS = 25;
+    private static final JsonFields RESULTS = JsonFields.compileEach("response");
+    private static final JsonFields ERRORS = JsonFields.compileEach("execute_errors", "error_code", "error_msg");
+    private static final JsonFields FAILED = JsonFields.compile("error.error_code");
+    private static final ByteBuffer FALSE = ByteBuffer.wrap("false".getBytes(StandardCharsets.US_ASCII));
+
+    private final Transport delegate;
+    private final long windowNanos;
+    private final boolean scoped;
+    private final List<Call> pending = new ArrayList<>();
+    private int live;
+    private boolean closed;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * @param window how long the first call of a batch waits for more calls
+     */
+    public VkExecuteTransport(Transport delegate, Duration window) {
+        this(delegate, window.toNanos(), false);
+    }
+
+    private VkExecuteTransport(Transport delegate, long windowNanos, boolean scoped) {
+        this.delegate = delegate;
+        this.windowNanos = windowNanos;
+        this.scoped = scoped;
+    }
+
+    /**
+     * Wraps {@code delegate} with the window of {@code execute.windowMillis}; returns it
+     * unchanged when no window is set.
+     */
+    public static Transport fromProperties(Transport delegate, Properties properties) {
+        long window = Long.parseLong(properties.getProperty("execute.windowMillis", "0"));
+        return window > 0 ? new VkExecuteTransport(delegate, Duration.ofMillis(window)) : delegate;
+    }
+
+    /**
+     * A transport for one batch scope, see {@link #started()}, {@link #finished()} and
+     * {@link #closeScope()}.
+     */
+    static VkExecuteTransport scope(Transport delegate) {
+        return new VkExecuteTransport(delegate, 0, true);
+    }
+
+    @Override
+    public ApiResponse execute(ApiRequest request) {
+        if (request.absoluteUrl != null || !request.files.isEmpty() || !request.headers.isEmpty()
+                || request.endpoint() == VkClient.EXECUTE) {
+            return delegate.execute(request);
+        }
+        Call call = new Call(request);
+        boolean leader;
+        List<Call> due;
+        synchronized (this) {
+            leader = pending.isEmpty();
+            pending.add(call);
+            due = pending.size() >= MAX_CALLS ? drain() : scoped ? drainIfAllWaiting() : null;
+        }
+        if (due != null) {
+            send(due);
+        } else if (leader && !scoped) {
+            try {
+                call.response.get(windowNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                synchronized (this) {
+                    due = pending.contains(call) ? drain() : null;
+                }
+                if (due != null) {
+                    send(due);
+                }
+            } catch (InterruptedException e) {
+                // the followers wait for this leader, send them on without it
+                synchronized (this) {
+                    due = pending.remove(call) && !pending.isEmpty() ? drain() : null;
+                }
+                if (due != null) {
+                    sendAsync(due);
+                }
+                Thread.currentThread().interrupt();
+                IllegalStateException interrupted = new IllegalStateException(
+                        "Interrupted while waiting for " + request.endpoint(), e);
+                call.response.completeExceptionally(interrupted);
+                throw interrupted;
+            } catch (ExecutionException e) {
+                // reported by the wait below
+            }
+        }
+        return await(call);
+    }
+
+    /**
+     * Like {@link #execute}, with the window kept by a timer instead of the leading caller.
+     */
+    @Override
+    public CompletableFuture<ApiResponse> executeAsync(ApiRequest request) {
+        if (request.absoluteUrl != null || !request.files.isEmpty() || !request.headers.isEmpty()
+                || request.endpoint() == VkClient.EXECUTE) {
+            return delegate.executeAsync(request);
+        }
+        Call call = new Call(request);
+        boolean leader;
+        List<Call> due;
+        synchronized (this) {
+            leader = pending.isEmpty();
+            pending.add(call);
+            due = pending.size() >= MAX_CALLS ? drain() : scoped ? drainIfAllWaiting() : null;
+        }
+        if (due != null) {
+            sendAsync(due);
+        } else if (leader && !scoped) {
+            CompletableFuture.delayedExecutor(windowNanos, TimeUnit.NANOSECONDS, Runnable::run).execute(() -> {
+                List<Call> late;
+                synchronized (this) {
+                    late = pending.contains(call) ? drain() : null;
+                }
+                if (late != null) {
+                    sendAsync(late);
+                }
+            });
+        }
+        return call.response;
+    }
+
+    /**
+     * A call of the scope started.
+     */
+    synchronized void started() {
+        live++;
+    }
+
+    /**
+     * A call of the scope finished; the others may all be waiting now.
+     */
+    void finished() {
+        List<Call> due;
+        synchronized (this) {
+            live--;
+            due = drainIfAllWaiting();
+        }
+        if (due != null) {
+            send(due);
+        }
+    }
+
+    /**
+     * No more calls join the scope; the waiting ones are sent once the rest arrive.
+     */
+    void closeScope() {
+        List<Call> due;
+        synchronized (this) {
+            closed = true;
+            due = drainIfAllWaiting();
+        }
+        if (due != null) {
+            send(due);
+        }
+    }
+
+    public long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * @return round-trips made for the coalesced calls
+     */
+    public long requests() {
+        return requests.sum();
+    }
+
+    private List<Call> drainIfAllWaiting() {
+        return closed && !pending.isEmpty() && pending.size() >= live ? drain() : null;
+    }
+
+    private List<Call> drain() {
+        List<Call> batch = new ArrayList<>(pending.subList(0, Math.min(pending.size(), MAX_CALLS)));
+        pending.subList(0, batch.size()).clear();
+        return batch;
+    }
+
+    private void send(List<Call> batch) {
+        ApiRequest request = request(batch);
+        ApiResponse response;
+        try {
+            response = delegate.execute(request);
+        } catch (RuntimeException e) {
+            batch.forEach(call -> call.response.completeExceptionally(e));
+            return;
+        }
+        complete(batch, response);
+    }
+
+    private void sendAsync(List<Call> batch) {
+        delegate.executeAsync(request(batch)).whenComplete((response, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                batch.forEach(call -> call.response.completeExceptionally(cause));
+            } else {
+                complete(batch, response);
+            }
+        });
+    }
+
+    /**
+     * The call itself for a batch of one, otherwise the {@code execute} request of the batch.
+     */
+    private ApiRequest request(List<Call> batch) {
+        calls.add(batch.size());
+        requests.increment();
+        if (batch.size() == 1) {
+            return batch.get(0).request;
+        }
+        String version = null;
+        StringBuilder code = new StringBuilder(64 * batch.size()).append("return [");
+        for (int i = 0; i < batch.size(); i++) {
+            ApiRequest request = batch.get(i).request;
+            code.append(i == 0 ? "" : ",").append("API.").append(request.endpoint().template().substring(1)).append("({");
+            boolean first = true;
+            List<ApiRequest.Param> params = new ArrayList<>(request.queryParams);
+            params.addAll(request.formParams);
+            for (ApiRequest.Param param : params) {
+                if ("v".equals(param.name)) {
+                    version = version == null ? param.value : version;
+                    continue;
+                }
+                code.append(first ? "" : ",");
+                Json.quote(code, param.name);
+                code.append(':');
+                Json.quote(code, param.value);
+                first = false;
+            }
+            code.append("})");
+        }
+        code.append("];");
+        return ApiRequest.to(VkClient.EXECUTE).query("v", version).form("code", code);
+    }
+
+    private void complete(List<Call> batch, ApiResponse response) {
+        if (batch.size() == 1) {
+            batch.get(0).response.complete(response);
+            return;
+        }
+        if (response.statusCode() != 200 || response.fields(FAILED).has("error.error_code")) {
+            batch.forEach(call -> call.response.complete(response));
+            return;
+        }
+        List<ByteBuffer> results = RESULTS.elements(response.body());
+        if (results.size() != batch.size()) {
+            IllegalStateException mismatch = new IllegalStateException(
+                    "execute returned " + results.size() + " results for " + batch.size() + " calls: " + response);
+            batch.forEach(call -> call.response.completeExceptionally(mismatch));
+            return;
+        }
+        List<JsonFields.Values> errors = ERRORS.extractEach(response.body());
+        int failed = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Call call = batch.get(i);
+            StringBuilder body = new StringBuilder();
+            if (results.get(i).equals(FALSE)) {
+                Map<String, Object> error = new LinkedHashMap<>();
+                JsonFields.Values cause = failed < errors.size() ? errors.get(failed++) : null;
+                error.put("error_code", cause != null && cause.has("error_code") ? cause.getInt("error_code") : 13);
+                error.put("error_msg", cause != null && cause.has("error_msg") ? cause.getString("error_msg") : "Unknown error");
+                Map<String, Object> param = new LinkedHashMap<>();
+                param.put("key", "method");
+                param.put("value", call.request.endpoint().template().substring(1));
+                error.put("request_params", Collections.singletonList(param));
+                Json.write(body, Collections.singletonMap("error", error));
+            } else {
+                body.append("{\"response\":").append(StandardCharsets.UTF_8.decode(results.get(i))).append('}');
+            }
+            call.response.complete(new ApiResponse(200,
+                    Collections.singletonMap("Content-Type", Collections.singletonList("application/json; charset=utf-8")),
+                    ByteBuffer.wrap(body.toString().getBytes(StandardCharsets.UTF_8))));
+        }
+    }
+
+    private static ApiResponse await(Call call) {
+        try {
+            return call.response.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + call.request.endpoint(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("vk execute: %d calls in %d requests", calls(), requests());
+    }
+
+    private static final class Call {
+        final ApiRequest request;
+        final CompletableFuture<ApiResponse> response = new CompletableFuture<>();
+
+        Call(ApiRequest request) {
+            this.request = request;
+        }
+    }
+}
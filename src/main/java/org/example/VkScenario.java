@@ -0,0 +1,108 @@
+package org.example;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The album and photo upload flow of {@code TestVkAPI} as a load scenario. Each iteration
+ * deletes the album it created so the account does not grow during long runs, failed
+ * iterations included. The steps run as a {@link StepGraph}, e.g. {@code apps.get} overlaps
+ * with the album and upload calls.
+ */
+public class VkScenario implements Scenario {
+    public static final ScenarioContext.Key<String> OWNER_ID = ScenarioContext.key("authorOwnerIdVk", String.class);
+    public static final ScenarioContext.Key<String> ALBUM_ID = ScenarioContext.key("albumId", String.class);
+    public static final ScenarioContext.Key<String> UPLOAD_URL = ScenarioContext.key("uploadUrl", String.class);
+    public static final ScenarioContext.Key<String> SERVER = ScenarioContext.key("server", String.class);
+    public static final ScenarioContext.Key<String> PHOTOS_LIST = ScenarioContext.key("photosList", String.class);
+    public static final ScenarioContext.Key<String> HASH = ScenarioContext.key("hash", String.class);
+    public static final ScenarioContext.Key<String> PHOTO_ID = ScenarioContext.key("vkImageId", String.class);
+
+    private static final JsonFields RESPONSE = JsonFields.compile("error");
+    private static final JsonFields OWNER = JsonFields.compile("error", "response.items[0].author_owner_id");
+    private static final JsonFields ALBUM = JsonFields.compile("error", "response.id");
+    private static final JsonFields UPLOAD_SERVER = JsonFields.compile("error", "response.upload_url");
+    private static final JsonFields UPLOADED = JsonFields.compile("error", "server", "photos_list", "hash");
+    private static final JsonFields SAVED = JsonFields.compile("error", "response[0].id");
+
+    private static final ExecutorService STEPS = VirtualThreads.newThreadPerTaskExecutor("vk-step");
+
+    private final VkClient vk;
+    private final ResourceReaper resources;
+    private final Fixture fixture;
+    private final File image;
+    private final StepGraph lifecycle;
+
+    /**
+     * @param reaper deletes the album of an iteration that failed before deleting it
+     */
+    public VkScenario(VkClient vk, Fixture fixture, File image, ResourceReaper reaper) {
+        this.resources = reaper.scope();
+        this.vk = vk.withReaper(resources);
+        this.fixture = fixture;
+        this.image = image;
+        this.lifecycle = lifecycle();
+    }
+
+    @Override
+    public String name() {
+        return "vk";
+    }
+
+    @Override
+    public void run(StepRecorder steps) throws Exception {
+        try {
+            steps.run(lifecycle, new ScenarioContext(name()), STEPS).rethrow();
+        } finally {
+            resources.reap();
+        }
+    }
+
+    private StepGraph lifecycle() {
+        return StepGraph.builder()
+                .step("apps.get").produces(OWNER_ID).run(c -> c.put(OWNER_ID,
+                        ok(vk.appsGet(), OWNER).getString("response.items[0].author_owner_id")))
+                .step("photos.createAlbum").produces(ALBUM_ID).run(c -> c.put(ALBUM_ID,
+                        ok(vk.photosCreateAlbum(fixture.get("albumTitle")), ALBUM).getString("response.id")))
+                .step("photos.getAlbums").consumes(ALBUM_ID).run(c -> ok(vk.photosGetAlbums()))
+                .step("photos.getUploadServer").consumes(ALBUM_ID).produces(UPLOAD_URL).run(c -> c.put(UPLOAD_URL,
+                        ok(vk.photosGetUploadServer(c.require(ALBUM_ID)), UPLOAD_SERVER).getString("response.upload_url")))
+                .step("upload").consumes(UPLOAD_URL).produces(SERVER, PHOTOS_LIST, HASH).run(c -> {
+                    JsonFields.Values upload = ok(vk.upload(c.require(UPLOAD_URL), image), UPLOADED);
+                    c.put(SERVER, upload.getString("server"));
+                    c.put(PHOTOS_LIST, upload.getString("photos_list"));
+                    c.put(HASH, upload.getString("hash"));
+                })
+                .step("photos.save").consumes(ALBUM_ID, SERVER, PHOTOS_LIST, HASH).produces(PHOTO_ID)
+                .run(c -> c.put(PHOTO_ID, ok(vk.photosSave(c.require(ALBUM_ID), c.require(SERVER),
+                        c.require(PHOTOS_LIST), c.require(HASH)), SAVED).getString("response[0].id")))
+                .step("photos.get").consumes(OWNER_ID, ALBUM_ID, PHOTO_ID)
+                .run(c -> ok(vk.photosGet(c.require(OWNER_ID), c.require(ALBUM_ID), true)))
+                .step("photos.editAlbum").consumes(OWNER_ID, ALBUM_ID).after("photos.getAlbums")
+                .run(c -> ok(vk.photosEditAlbum(c.require(OWNER_ID), c.require(ALBUM_ID),
+                        fixture.get("newTitle"), fixture.get("description"))))
+                .step("photos.getAlbums.afterEdit").consumes(ALBUM_ID).after("photos.editAlbum")
+                .run(c -> ok(vk.photosGetAlbums()))
+                .step("photos.deleteAlbum").consumes(ALBUM_ID).after("photos.get", "photos.getAlbums.afterEdit")
+                .run(c -> ok(vk.photosDeleteAlbum(c.require(ALBUM_ID))))
+                .build();
+    }
+
+    private static JsonFields.Values ok(ApiResponse response) {
+        return ok(response, RESPONSE);
+    }
+
+    /**
+     * @param fields compiled paths to extract, must include {@code error}
+     */
+    private static JsonFields.Values ok(ApiResponse response, JsonFields fields) {
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("HTTP " + response.statusCode() + ": " + response.asString());
+        }
+        JsonFields.Values json = response.fields(fields);
+        if (json.has("error")) {
+            throw new IllegalStateException("VK error: " + response.asString());
+        }
+        return json;
+    }
+}
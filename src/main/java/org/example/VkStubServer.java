@@ -0,0 +1,751 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the VK API: the {@code method/apps.*} and {@code method/photos.*}
+ * calls used by the suites plus an upload server handed out by {@code photos.getUploadServer}.
+ * Uploaded files are streamed into temporary files, only their size and digest stay in memory.
+ * {@code execute} runs up to 25 of these calls from a list-of-calls VKScript and counts as
+ * one call. With {@link #limitCalls} set, method calls over the per-token limit get error 6.
+ */
+public class VkStubServer extends StubServer {
+    static final long DEFAULT_USER_ID = 703378160L;
+    static final int UPLOAD_SERVER = 843530;
+    private static final int APP_ID = 8079040;
+    private static final int MAX_FILES_PER_UPLOAD = 5;
+    private static final int MAX_EXECUTE_CALLS = 25;
+
+    private final long defaultUserId;
+    private final Path uploadDir;
+    private final byte[] secret = Long.toHexString(System.nanoTime()).getBytes(StandardCharsets.UTF_8);
+    private final ConcurrentMap<String, Long> users = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Album> albums = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final AtomicLong albumIds = new AtomicLong(282631600);
+    private final AtomicLong photoIds = new AtomicLong(457239000);
+    private final AtomicLong uploadIds = new AtomicLong();
+    private volatile boolean keepUploads = true;
+
+    private VkStubServer(int port, long defaultUserId) throws IOException {
+        super(port);
+        this.defaultUserId = defaultUserId;
+        this.uploadDir = Files.createTempDirectory("vk-stub-uploads");
+    }
+
+    public static VkStubServer start(int port) throws IOException {
+        return start(port, DEFAULT_USER_ID);
+    }
+
+    public static VkStubServer start(int port, long defaultUserId) throws IOException {
+        VkStubServer server = new VkStubServer(port, defaultUserId);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Base url to use instead of {@code https://api.vk.com/method}.
+     */
+    public String baseUrl() {
+        return url("/method");
+    }
+
+    /**
+     * Creates an album of the default user holding {@code photos} photos, for walking large
+     * {@code photos.get} listings.
+     *
+     * @return the album id
+     */
+    public long seedAlbum(String title, int photos) {
+        Album album = new Album(albumIds.incrementAndGet(), defaultUserId, title, null);
+        for (int i = 0; i < photos; i++) {
+            String key = "seed" + uploadIds.incrementAndGet();
+            Upload upload = new Upload(key, null, 0, Integer.toHexString(key.hashCode()));
+            Photo photo = new Photo(photoIds.incrementAndGet(), album.id, defaultUserId, upload, null);
+            album.photos.put(photo.id, photo);
+        }
+        albums.put(album.id, album);
+        return album.id;
+    }
+
+    public void registerUser(String token, long userId) {
+        users.put(token, userId);
+    }
+
+    /**
+     * With {@code false} uploaded files are only measured and digested, not written to disk,
+     * for throughput runs that send many gigabytes.
+     */
+    public void keepUploads(boolean keep) {
+        keepUploads = keep;
+    }
+
+    /**
+     * Total number of bytes received by the upload server.
+     */
+    public long uploadedBytes() {
+        long total = 0;
+        for (Upload upload : uploads.values()) {
+            total += upload.size;
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Upload upload : uploads.values()) {
+            upload.delete();
+        }
+        try {
+            Files.deleteIfExists(uploadDir);
+        } catch (IOException ignored) {
+            // leftovers in the temp dir are harmless
+        }
+    }
+
+    @Override
+    protected void handle(Request request) throws IOException {
+        if ("upload".equals(request.segment(0))) {
+            handleUpload(request);
+            return;
+        }
+        if (!"method".equals(request.segment(0)) || request.segment(1) == null) {
+            sendJson(request.exchange, 404, Collections.singletonMap("error", "Not found"));
+            return;
+        }
+        String token = request.bearerToken();
+        if (token == null) {
+            token = request.param("access_token");
+        }
+        if (token == null) {
+            error(request, 5, "User authorization failed: no access_token passed.");
+            return;
+        }
+        if (request.param("v") == null) {
+            error(request, 8, "Invalid request: v (version) is required");
+            return;
+        }
+        if (takeCall(token) < 0) {
+            error(request, 6, "Too many requests per second");
+            return;
+        }
+        long userId = users.getOrDefault(token, defaultUserId);
+        try {
+            if ("execute".equals(request.segment(1))) {
+                sendJson(request.exchange, 200, execute(request, userId));
+            } else {
+                ok(request, call(request.segment(1), request, userId));
+            }
+        } catch (VkError e) {
+            error(request, e.code, e.getMessage());
+        }
+    }
+
+    private Object call(String method, Request request, long userId) throws IOException {
+        switch (method) {
+            case "apps.get":
+                return appsGet(userId);
+            case "photos.createAlbum":
+                return createAlbum(request, userId);
+            case "photos.getAlbums":
+                return getAlbums(request, userId);
+            case "photos.editAlbum":
+                return editAlbum(request, userId);
+            case "photos.deleteAlbum":
+                return deleteAlbum(request, userId);
+            case "photos.getUploadServer":
+                return getUploadServer(request, userId);
+            case "photos.save":
+                return save(request, userId);
+            case "photos.get":
+                return getPhotos(request, userId);
+            default:
+                throw new VkError(3, "Unknown method passed");
+        }
+    }
+
+    /**
+     * Runs the calls of a VKScript {@code return [API.a.b({...}), ...];} or
+     * {@code return API.a.b({...});}, the subset {@link VkExecuteTransport} sends. Failed calls
+     * yield {@code false} and an entry in {@code execute_errors}, as in the real API.
+     */
+    private Map<String, Object> execute(Request request, long userId) throws IOException {
+        String code = request.param("code");
+        if (code == null) {
+            throw new VkError(100, "One of the parameters specified was missing or invalid: code is undefined");
+        }
+        VkScript script = new VkScript(code);
+        List<Object> results = new ArrayList<>();
+        List<Object> errors = new ArrayList<>();
+        for (Map.Entry<String, Map<String, List<String>>> call : script.calls) {
+            if (results.size() == MAX_EXECUTE_CALLS) {
+                throw new VkError(13, "Runtime error occurred during code invocation: too many API calls");
+            }
+            try {
+                if ("execute".equals(call.getKey())) {
+                    throw new VkError(3, "Unknown method passed");
+                }
+                results.add(call(call.getKey(), request.nested("/method/" + call.getKey(), call.getValue()), userId));
+            } catch (VkError e) {
+                results.add(false);
+                Map<String, Object> error = new LinkedHashMap<>();
+                error.put("method", call.getKey());
+                error.put("error_code", e.code);
+                error.put("error_msg", e.getMessage());
+                errors.add(error);
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("response", script.list ? results : results.get(0));
+        if (!errors.isEmpty()) {
+            body.put("execute_errors", errors);
+        }
+        return body;
+    }
+
+    private Object appsGet(long userId) {
+        Map<String, Object> app = new LinkedHashMap<>();
+        app.put("id", APP_ID);
+        app.put("title", "API stand-in");
+        app.put("type", "standalone");
+        app.put("author_owner_id", userId);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("count", 1);
+        response.put("items", Collections.singletonList(app));
+        return response;
+    }
+
+    private Object createAlbum(Request request, long userId) throws IOException {
+        String title = request.param("title");
+        if (title == null || title.length() < 2) {
+            throw new VkError(100, "One of the parameters specified was missing or invalid: title is too short");
+        }
+        Album album = new Album(albumIds.incrementAndGet(), userId, title, request.param("description"));
+        albums.put(album.id, album);
+        return album.toJson();
+    }
+
+    private Object getAlbums(Request request, long userId) throws IOException {
+        long ownerId = longParam(request, "owner_id", userId);
+        List<Object> items = new ArrayList<>();
+        List<Album> owned = new ArrayList<>();
+        for (Album album : albums.values()) {
+            if (album.ownerId == ownerId) {
+                owned.add(album);
+            }
+        }
+        // Newest albums come first, as in the real API.
+        owned.sort((a, b) -> Long.compare(b.id, a.id));
+        int offset = (int) longParam(request, "offset", 0);
+        int count = (int) longParam(request, "count", Integer.MAX_VALUE);
+        for (int i = offset; i < owned.size() && items.size() < count; i++) {
+            items.add(owned.get(i).toJson());
+        }
+        return list(owned.size(), items);
+    }
+
+    private Object editAlbum(Request request, long userId) throws IOException {
+        Album album = ownedAlbum(request, userId);
+        album.update(request.param("title"), request.param("description"));
+        return 1;
+    }
+
+    private Object deleteAlbum(Request request, long userId) throws IOException {
+        Album album = ownedAlbum(request, userId);
+        if (albums.remove(album.id, album)) {
+            for (Photo photo : album.photos.values()) {
+                uploads.remove(photo.upload.key);
+                photo.upload.delete();
+            }
+        }
+        return 1;
+    }
+
+    private Object getUploadServer(Request request, long userId) throws IOException {
+        Album album = ownedAlbum(request, userId);
+        String uploadHash = sign(userId + ":" + album.id);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("album_id", album.id);
+        response.put("upload_url", url("/upload?act=do_add&mid=" + userId + "&aid=" + album.id + "&gid=0&hash=" + uploadHash));
+        response.put("user_id", userId);
+        return response;
+    }
+
+    private void handleUpload(Request request) throws IOException {
+        String mid = request.query.containsKey("mid") ? request.query.get("mid").get(0) : "";
+        String aid = request.query.containsKey("aid") ? request.query.get("aid").get(0) : "";
+        String hash = request.query.containsKey("hash") ? request.query.get("hash").get(0) : "";
+        if (!"POST".equals(request.method) || !sign(mid + ":" + aid).equals(hash)) {
+            sendJson(request.exchange, 200, Collections.singletonMap("error", "ERR_UPLOAD_BAD_HASH"));
+            return;
+        }
+        String boundary = MultipartReader.boundary(request.header("Content-Type"));
+        if (boundary == null) {
+            sendJson(request.exchange, 200, Collections.singletonMap("error", "ERR_UPLOAD_FILE_NOT_UPLOADED"));
+            return;
+        }
+        List<Upload> received = new ArrayList<>();
+        try (InputStream body = request.exchange.getRequestBody()) {
+            MultipartReader reader = new MultipartReader(body, boundary);
+            MultipartReader.Part part;
+            while ((part = reader.next()) != null) {
+                String name = part.name();
+                if (part.fileName() == null || name == null || !name.matches("file[1-" + MAX_FILES_PER_UPLOAD + "]")) {
+                    continue;
+                }
+                received.add(store(part.body));
+            }
+        } catch (IOException e) {
+            received.forEach(Upload::delete);
+            sendJson(request.exchange, 200, Collections.singletonMap("error", "ERR_UPLOAD_FILE_NOT_UPLOADED"));
+            return;
+        }
+        if (received.isEmpty()) {
+            sendJson(request.exchange, 200, Collections.singletonMap("error", "ERR_UPLOAD_FILE_NOT_UPLOADED"));
+            return;
+        }
+        List<Object> photos = new ArrayList<>();
+        for (Upload upload : received) {
+            uploads.put(upload.key, upload);
+            Map<String, Object> photo = new LinkedHashMap<>();
+            photo.put("photo", upload.key + ":z");
+            photo.put("sizes", Collections.emptyList());
+            photo.put("kid", upload.digest);
+            photos.add(photo);
+        }
+        String photosList = Json.write(photos);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("server", UPLOAD_SERVER);
+        response.put("photos_list", photosList);
+        response.put("aid", Long.parseLong(aid));
+        response.put("hash", sign(UPLOAD_SERVER + ":" + aid + ":" + photosList));
+        sendJson(request.exchange, 200, response);
+    }
+
+    private Upload store(InputStream content) throws IOException {
+        String key = Long.toHexString(uploadIds.incrementAndGet()) + Long.toHexString(System.nanoTime() & 0xFFFFFF);
+        Path file = keepUploads ? uploadDir.resolve(key) : null;
+        MessageDigest md5 = md5();
+        long size;
+        OutputStream target = file != null ? Files.newOutputStream(file) : OutputStream.nullOutputStream();
+        try (OutputStream out = new DigestOutputStream(target, md5)) {
+            size = content.transferTo(out);
+        } catch (IOException e) {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+            throw e;
+        }
+        return new Upload(key, file, size, HexFormat.of().formatHex(md5.digest()));
+    }
+
+    private Object save(Request request, long userId) throws IOException {
+        Album album = ownedAlbum(request, userId);
+        String server = request.param("server");
+        String photosList = request.param("photos_list");
+        String hash = request.param("hash");
+        if (server == null || photosList == null || hash == null
+                || !sign(server + ":" + album.id + ":" + photosList).equals(hash)) {
+            throw new VkError(100, "One of the parameters specified was missing or invalid: hash is invalid");
+        }
+        List<Object> saved = new ArrayList<>();
+        int from = 0;
+        while ((from = photosList.indexOf("\"photo\":\"", from)) >= 0) {
+            from += "\"photo\":\"".length();
+            String key = photosList.substring(from, photosList.indexOf(':', from));
+            Upload upload = uploads.get(key);
+            if (upload == null || !upload.claim()) {
+                continue;
+            }
+            Photo photo = new Photo(photoIds.incrementAndGet(), album.id, userId, upload, request.param("caption"));
+            album.photos.put(photo.id, photo);
+            saved.add(photo.toJson());
+        }
+        if (saved.isEmpty()) {
+            throw new VkError(100, "One of the parameters specified was missing or invalid: photos_list is invalid");
+        }
+        return saved;
+    }
+
+    private Object getPhotos(Request request, long userId) throws IOException {
+        long ownerId = longParam(request, "owner_id", userId);
+        Album album = albums.get(longParam(request, "album_id", -1));
+        if (album == null || album.ownerId != ownerId) {
+            throw new VkError(200, "Access denied");
+        }
+        boolean reverse = "1".equals(request.param("rev"));
+        int offset = (int) longParam(request, "offset", 0);
+        int count = (int) longParam(request, "count", 50);
+        List<Object> items = new ArrayList<>();
+        int index = 0;
+        for (Photo photo : reverse ? album.photos.descendingMap().values() : album.photos.values()) {
+            if (index++ < offset) {
+                continue;
+            }
+            if (items.size() == count) {
+                break;
+            }
+            items.add(photo.toJson());
+        }
+        return list(album.photos.size(), items);
+    }
+
+    private Album ownedAlbum(Request request, long userId) throws IOException {
+        Album album = albums.get(longParam(request, "album_id", -1));
+        if (album == null || album.ownerId != userId) {
+            throw new VkError(200, "Access denied");
+        }
+        return album;
+    }
+
+    private String sign(String value) {
+        MessageDigest md5 = md5();
+        md5.update(secret);
+        return HexFormat.of().formatHex(md5.digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long longParam(Request request, String name, long defaultValue) throws IOException {
+        String value = request.param(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static Map<String, Object> list(int count, List<Object> items) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("count", count);
+        response.put("items", items);
+        return response;
+    }
+
+    private static void ok(Request request, Object response) throws IOException {
+        sendJson(request.exchange, 200, Collections.singletonMap("response", response));
+    }
+
+    private static void error(Request request, int code, String message) throws IOException {
+        List<Object> params = new ArrayList<>();
+        params.add(param("method", request.segment(1)));
+        for (Map.Entry<String, List<String>> entry : request.query.entrySet()) {
+            if (!"access_token".equals(entry.getKey())) {
+                params.add(param(entry.getKey(), entry.getValue().get(0)));
+            }
+        }
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error_code", code);
+        error.put("error_msg", message);
+        error.put("request_params", params);
+        sendJson(request.exchange, 200, Collections.singletonMap("error", error));
+    }
+
+    private static Map<String, Object> param(String key, String value) {
+        Map<String, Object> param = new LinkedHashMap<>();
+        param.put("key", key);
+        param.put("value", value);
+        return param;
+    }
+
+    private static long epochSeconds() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static final class Album {
+        final long id;
+        final long ownerId;
+        final long created = epochSeconds();
+        final ConcurrentSkipListMap<Long, Photo> photos = new ConcurrentSkipListMap<>();
+        volatile String title;
+        volatile String description;
+        volatile long updated = created;
+
+        Album(long id, long ownerId, String title, String description) {
+            this.id = id;
+            this.ownerId = ownerId;
+            this.title = title;
+            this.description = description == null ? "" : description;
+        }
+
+        synchronized void update(String title, String description) {
+            if (title != null) {
+                this.title = title;
+            }
+            if (description != null) {
+                this.description = description;
+            }
+            updated = epochSeconds();
+        }
+
+        synchronized Map<String, Object> toJson() {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("id", id);
+            data.put("thumb_id", photos.isEmpty() ? 0 : photos.firstKey());
+            data.put("owner_id", ownerId);
+            data.put("title", title);
+            data.put("description", description);
+            data.put("created", created);
+            data.put("updated", updated);
+            data.put("size", photos.size());
+            return data;
+        }
+    }
+
+    private static final class Photo {
+        final long id;
+        final long albumId;
+        final long ownerId;
+        final Upload upload;
+        final String text;
+        final long date = epochSeconds();
+
+        Photo(long id, long albumId, long ownerId, Upload upload, String text) {
+            this.id = id;
+            this.albumId = albumId;
+            this.ownerId = ownerId;
+            this.upload = upload;
+            this.text = text == null ? "" : text;
+        }
+
+        Map<String, Object> toJson() {
+            Map<String, Object> size = new LinkedHashMap<>();
+            size.put("type", "z");
+            size.put("url", "https://sun9-1.userapi.com/" + upload.digest + ".jpg");
+            size.put("width", 0);
+            size.put("height", 0);
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("album_id", albumId);
+            data.put("date", date);
+            data.put("id", id);
+            data.put("owner_id", ownerId);
+            data.put("sizes", Collections.singletonList(size));
+            data.put("text", text);
+            data.put("has_tags", false);
+            return data;
+        }
+    }
+
+    private static final class Upload {
+        final String key;
+        final Path file;
+        final long size;
+        final String digest;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Upload(String key, Path file, long size, String digest) {
+            this.key = key;
+            this.file = file;
+            this.size = size;
+            this.digest = digest;
+        }
+
+        /**
+         * An uploaded file can be saved only once.
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void delete() {
+            if (file == null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                // the temp dir is cleaned by the OS eventually
+            }
+        }
+    }
+
+    private static final class VkError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        VkError(int code, String message) {
+            super(message, null, false, false);
+            this.code = code;
+        }
+    }
+
+    /**
+     * Parser for the subset of VKScript that {@code execute} accepts: a return of one
+     * {@code API.<method>(<flat JSON object>)} call or a list of them.
+     */
+    private static final class VkScript {
+        final List<Map.Entry<String, Map<String, List<String>>>> calls = new ArrayList<>();
+        final boolean list;
+        private final String code;
+        private int pos;
+
+        VkScript(String code) {
+            this.code = code;
+            expect("return");
+            list = peek() == '[';
+            if (list) {
+                pos++;
+                if (peek() != ']') {
+                    do {
+                        call();
+                    } while (skip(','));
+                }
+                expect("]");
+            } else {
+                call();
+            }
+            skip(';');
+            if (peek() != 0) {
+                throw unexpected();
+            }
+        }
+
+        private void call() {
+            expect("API.");
+            int start = pos;
+            while (pos < code.length() && (Character.isLetterOrDigit(code.charAt(pos)) || code.charAt(pos) == '.'
+                    || code.charAt(pos) == '_')) {
+                pos++;
+            }
+            String method = code.substring(start, pos);
+            expect("(");
+            Map<String, List<String>> params = new LinkedHashMap<>();
+            if (peek() == '{') {
+                pos++;
+                if (peek() != '}') {
+                    do {
+                        String name = string();
+                        expect(":");
+                        params.put(name, new ArrayList<>(Collections.singletonList(value())));
+                    } while (skip(','));
+                }
+                expect("}");
+            }
+            expect(")");
+            calls.add(Map.entry(method, params));
+        }
+
+        private String value() {
+            if (peek() == '"') {
+                return string();
+            }
+            int start = pos;
+            while (pos < code.length() && ",}".indexOf(code.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = code.substring(start, pos).trim();
+            if (literal.equals("true")) {
+                return "1";
+            }
+            if (literal.equals("false")) {
+                return "0";
+            }
+            if (!literal.matches("-?\\d+(\\.\\d+)?")) {
+                throw unexpected();
+            }
+            return literal;
+        }
+
+        private String string() {
+            expect("\"");
+            StringBuilder value = new StringBuilder();
+            while (pos < code.length()) {
+                char c = code.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c == '\\' && pos < code.length()) {
+                    char escaped = code.charAt(pos++);
+                    switch (escaped) {
+                        case 'n':
+                            value.append('\n');
+                            break;
+                        case 't':
+                            value.append('\t');
+                            break;
+                        case 'u':
+                            value.append(hex());
+                            break;
+                        default:
+                            value.append(escaped);
+                    }
+                } else {
+                    value.append(c);
+                }
+            }
+            throw unexpected();
+        }
+
+        private char hex() {
+            if (pos + 4 > code.length()) {
+                throw unexpected();
+            }
+            int value = 0;
+            for (int end = pos + 4; pos < end; pos++) {
+                int digit = Character.digit(code.charAt(pos), 16);
+                if (digit < 0) {
+                    throw unexpected();
+                }
+                value = value << 4 | digit;
+            }
+            return (char) value;
+        }
+
+        private char peek() {
+            while (pos < code.length() && Character.isWhitespace(code.charAt(pos))) {
+                pos++;
+            }
+            return pos < code.length() ? code.charAt(pos) : 0;
+        }
+
+        private boolean skip(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            peek();
+            if (!code.startsWith(token, pos)) {
+                throw unexpected();
+            }
+            pos += token.length();
+        }
+
+        private VkError unexpected() {
+            return new VkError(12, "Unable to compile code: unexpected input at " + pos);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.example;
+
+import io.qameta.allure.AllureLifecycle;
+import io.qameta.allure.AllureResultsWriter;
+import io.qameta.allure.model.TestResult;
+import io.qameta.allure.model.TestResultContainer;
+import io.restassured.specification.RequestSpecification;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static io.restassured.RestAssured.given;
+
+public class AllureAttachmentFilterTest {
+    static ImgurStubServer server;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        server = TestFixtures.imgur();
+    }
+
+    @AfterAll
+    static void setDown() {
+        server.close();
+    }
+
+    @Test
+    void fullQueueDropsSuccessesButKeepsFailures() {
+        // писатель стоит, пока не отпустим: очередь из двух мест заполняется
+        CountDownLatch release = new CountDownLatch(1);
+        MemoryWriter results = new MemoryWriter(release);
+        AllureLifecycle lifecycle = new AllureLifecycle(results);
+        String testCase = startTestCase(lifecycle);
+
+        try (AllureAttachmentFilter filter = new AllureAttachmentFilter(lifecycle, 2, 16, 1)) {
+            for (int i = 0; i < 4; i++) {
+                request(filter).get("/account/stub-user/favorites/0/newest").then().statusCode(200);
+            }
+            request(filter).get("/image/missing").then().statusCode(404);
+            Assertions.assertEquals(2, filter.dropped(), filter.toString());
+            Assertions.assertEquals(2, filter.queued());
+
+            release.countDown();
+            Assertions.assertTrue(filter.flush(Duration.ofSeconds(5)));
+            Assertions.assertEquals(3, filter.written(), filter.toString());
+            Assertions.assertEquals(0, filter.failed());
+            Assertions.assertTrue(filter.truncated() > 0);
+        }
+        lifecycle.stopTestCase(testCase);
+        lifecycle.writeTestCase(testCase);
+
+        Assertions.assertEquals(6, results.attachments.size());
+        Assertions.assertEquals(6, results.test.getAttachments().size());
+        Assertions.assertTrue(results.attachments.values().stream().anyMatch(body -> body.contains("truncated")));
+        Assertions.assertTrue(results.attachments.values().stream().noneMatch(body -> body.contains("Bearer test")));
+    }
+
+    @Test
+    void samplingSkipsOnlySuccesses() {
+        MemoryWriter results = new MemoryWriter(new CountDownLatch(0));
+        AllureLifecycle lifecycle = new AllureLifecycle(results);
+
+        try (AllureAttachmentFilter filter = new AllureAttachmentFilter(lifecycle, 16, 4096, 0)) {
+            request(filter).get("/account/stub-user/favorites/0/newest");
+            Assertions.assertEquals(1, filter.sampledOut(), filter.toString());
+
+            request(filter).get("/image/missing");
+            Assertions.assertEquals(1, filter.noTest());
+
+            String testCase = startTestCase(lifecycle);
+            request(filter).get("/account/stub-user/favorites/0/newest");
+            request(filter).get("/image/missing");
+            Assertions.assertTrue(filter.flush(Duration.ofSeconds(5)));
+            lifecycle.stopTestCase(testCase);
+            Assertions.assertEquals(2, filter.sampledOut());
+            Assertions.assertEquals(1, filter.written());
+        }
+        Assertions.assertEquals(2, results.attachments.size());
+    }
+
+    @Test
+    void bodiesAreCutBetweenCharacters() {
+        MemoryWriter results = new MemoryWriter(new CountDownLatch(0));
+        AllureLifecycle lifecycle = new AllureLifecycle(results);
+        // названия со сдвигом на байт: граница режет кириллицу то по букве, то посередине
+        String[] albums = new String[2];
+        for (int i = 0; i < albums.length; i++) {
+            albums[i] = given().baseUri(server.baseUrl()).header("Authorization", "Bearer test")
+                    .contentType("application/x-www-form-urlencoded; charset=UTF-8").formParam("title", "x".repeat(i) + "альбом ".repeat(20)).post("/album").jsonPath().getString("data.id");
+        }
+
+        try (AllureAttachmentFilter filter = new AllureAttachmentFilter(lifecycle, 16, 64, 1)) {
+            // буква кириллицы — два байта, граница в 3 байта приходится на середину второй
+            byte[] letters = "аб".getBytes(StandardCharsets.UTF_8);
+            Assertions.assertEquals("а", new String(filter.head(letters, 3), StandardCharsets.UTF_8));
+            Assertions.assertSame(letters, filter.head(letters, 4));
+
+            long truncated = filter.truncated();
+            String testCase = startTestCase(lifecycle);
+            for (String album : albums) {
+                request(filter).get("/album/" + album).then().statusCode(200);
+            }
+            Assertions.assertTrue(filter.flush(Duration.ofSeconds(5)));
+            lifecycle.stopTestCase(testCase);
+            Assertions.assertEquals(truncated + 2, filter.truncated(), filter.toString());
+        }
+        Assertions.assertTrue(results.attachments.values().stream().anyMatch(body -> body.contains("truncated")));
+        Assertions.assertTrue(results.attachments.values().stream().noneMatch(body -> body.contains("\uFFFD")));
+    }
+
+    static String startTestCase(AllureLifecycle lifecycle) {
+        String uuid = UUID.randomUUID().toString();
+        lifecycle.scheduleTestCase(new TestResult().setUuid(uuid).setName("filter"));
+        lifecycle.startTestCase(uuid);
+        return uuid;
+    }
+
+    static RequestSpecification request(AllureAttachmentFilter filter) {
+        return given().filter(filter).baseUri(server.baseUrl()).header("Authorization", "Bearer test");
+    }
+
+    static final class MemoryWriter implements AllureResultsWriter {
+        final Map<String, String> attachments = new ConcurrentHashMap<>();
+        final CountDownLatch release;
+        volatile TestResult test;
+
+        MemoryWriter(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void write(TestResult result) {
+            test = result;
+        }
+
+        @Override
+        public void write(TestResultContainer container) {
+        }
+
+        @Override
+        public void write(String source, InputStream attachment) {
+            try {
+                if (Thread.currentThread().getName().startsWith("allure-writer")) {
+                    Assertions.assertTrue(release.await(5, TimeUnit.SECONDS));
+                }
+                attachments.put(source, new String(attachment.readAllBytes(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ApiMetricsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void callsAreMeasuredPerEndpointAndExported() throws Exception {
+        Path file = dir.resolve("metrics.prom");
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool();
+             ApiMetrics metrics = new ApiMetrics("imgur-test", "/3", true, file, Duration.ofHours(1))) {
+            ImgurClient imgur = new ImgurClient(new MetricsTransport(new RestAssuredTransport(pool, server.baseUrl(),
+                    Collections.singletonMap("Authorization", "Bearer test")), metrics));
+            String album = imgur.createAlbum("metrics", null, null).jsonPath().getString("data.id");
+            for (int i = 0; i < 5; i++) {
+                imgur.getAlbum(album);
+            }
+            imgur.getAlbum("missing");
+
+            ApiMetrics.Stats get = metrics.endpoints().get("GET /3/album/{albumHash}");
+            Assertions.assertEquals(6, get.getCalls());
+            Assertions.assertEquals(Map.of(200, 5L, 404, 1L), get.getStatusCounts());
+            // первый запрос открыл соединение, остальные пошли по нему же
+            Assertions.assertEquals(6, get.getReusedConnections());
+            Assertions.assertEquals(1, metrics.endpoints().get("POST /3/album").getNewConnections());
+            Assertions.assertTrue(get.getBytesSent() > 6 * "GET /3/album/".length());
+            Assertions.assertTrue(get.getBytesReceived() > 0);
+
+            ObjectName name = new ObjectName("org.example:type=ApiMetrics,name=\"imgur-test\",endpoint=\"GET /3/album/{albumHash}\"");
+            Assertions.assertEquals(6L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Calls"));
+
+            metrics.writePrometheus();
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            Assertions.assertTrue(text.contains("api_responses_total{client=\"imgur-test\",endpoint=\"GET /3/album/{albumHash}\",status=\"404\"} 1"), text);
+            Assertions.assertTrue(text.contains("api_request_duration_seconds_count{client=\"imgur-test\",endpoint=\"POST /3/album\"} 1"), text);
+        }
+        Assertions.assertTrue(ManagementFactory.getPlatformMBeanServer()
+                .queryNames(new ObjectName("org.example:type=ApiMetrics,name=\"imgur-test\",*"), null).isEmpty());
+    }
+
+    @Test
+    void repeatedSendsAndErrorsAreCounted() {
+        ApiMetrics metrics = new ApiMetrics("retries", "", false, null, Duration.ofHours(1));
+        AtomicInteger calls = new AtomicInteger();
+        Transport failing = request -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("Connection reset");
+            }
+            return new ApiResponse(200, Collections.emptyMap(), ByteBuffer.wrap(new byte[10]));
+        };
+        HedgingTransport retrying = new HedgingTransport(new MetricsTransport(failing, metrics), 0, 1, 3, Duration.ZERO, Duration.ZERO);
+        retrying.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "a"));
+
+        ApiMetrics.Stats stats = metrics.of(ImgurClient.IMAGE);
+        Assertions.assertEquals(2, stats.getCalls());
+        Assertions.assertEquals(1, stats.getErrors());
+        Assertions.assertEquals(1, stats.getRepeatedSends());
+        Assertions.assertEquals(10, stats.getBytesReceived());
+        Assertions.assertEquals(0, stats.getReusedConnections() + stats.getNewConnections());
+    }
+
+    @Test
+    void recordingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        ApiMetrics metrics = new ApiMetrics("allocation", "", false, null, Duration.ofHours(1));
+        ApiResponse response = new ApiResponse(200, Collections.emptyMap(), ByteBuffer.wrap(new byte[100]));
+        MetricsTransport transport = new MetricsTransport(request -> response, metrics);
+        ApiRequest request = ApiRequest.to(ImgurClient.IMAGE).path("imageId", "a");
+        for (int i = 0; i < 20_000; i++) {
+            transport.execute(request);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i++) {
+            transport.execute(request);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        Assertions.assertTrue(allocated < 10_000, allocated + " bytes for 100000 calls");
+    }
+}
@@ -0,0 +1,112 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachingTransportTest {
+    static ImgurStubServer server;
+    static ConnectionPool pool;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        server = TestFixtures.imgur();
+        pool = TestFixtures.pool();
+    }
+
+    @AfterAll
+    static void setDown() {
+        pool.close();
+        server.close();
+    }
+
+    @Test
+    void albumReadsAreCachedUntilTheAlbumChanges() {
+        CachingTransport cache = ImgurClient.invalidations(
+                new CachingTransport(transport(), 100, 1 << 20, Duration.ofMinutes(1)));
+        ImgurClient imgur = new ImgurClient(cache);
+        String album = imgur.createAlbum("cached", null, null).jsonPath().getString("data.id");
+        String other = imgur.createAlbum("other", null, null).jsonPath().getString("data.id");
+        String first = imgur.uploadImage("http://example.org/1.png", null, null).jsonPath().getString("data.id");
+        String second = imgur.uploadImage("http://example.org/2.png", null, null).jsonPath().getString("data.id");
+
+        imgur.addImagesToAlbum(album, first);
+        Assertions.assertEquals(1, imgur.getAlbumImages(album).jsonPath().getList("data").size());
+        Assertions.assertEquals(1, imgur.getAlbumImages(album).jsonPath().getList("data").size());
+        Assertions.assertEquals(0, imgur.getAlbumImages(other).jsonPath().getList("data").size());
+        Assertions.assertEquals(1, cache.hits());
+        Assertions.assertEquals(2, cache.misses());
+
+        // добавление в один альбом сбрасывает только его список
+        imgur.addImagesToAlbum(album, second);
+        Assertions.assertEquals(1, cache.invalidated());
+        Assertions.assertEquals(2, imgur.getAlbumImages(album).jsonPath().getList("data").size());
+        imgur.getAlbumImages(other);
+        Assertions.assertEquals(2, cache.hits());
+
+        imgur.removeImagesFromAlbum(album, first);
+        Assertions.assertEquals(1, imgur.getAlbumImages(album).jsonPath().getList("data").size());
+
+        imgur.getImage(second);
+        imgur.deleteImage(second);
+        Assertions.assertEquals(404, imgur.getImage(second).statusCode());
+        Assertions.assertEquals(0, imgur.getAlbumImages(album).jsonPath().getList("data").size());
+    }
+
+    @Test
+    void staleEntriesAreRevalidatedWithTheirETag() {
+        CachingTransport cache = new CachingTransport(transport(), 100, 1 << 20, Duration.ZERO);
+        ImgurClient imgur = new ImgurClient(cache);
+        String album = imgur.createAlbum("etag", null, null).jsonPath().getString("data.id");
+
+        ApiResponse fresh = imgur.getAlbum(album);
+        Assertions.assertNotNull(fresh.header("ETag"));
+        ApiResponse revalidated = imgur.getAlbum(album);
+        Assertions.assertSame(fresh, revalidated);
+        Assertions.assertEquals(1, cache.revalidated());
+
+        imgur.updateAlbum(album, "renamed", null);
+        Assertions.assertEquals("renamed", imgur.getAlbum(album).jsonPath().getString("data.title"));
+        Assertions.assertEquals(2, cache.misses());
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvicted() {
+        AtomicInteger calls = new AtomicInteger();
+        Transport transport = request -> {
+            calls.incrementAndGet();
+            return new ApiResponse(200, Collections.emptyMap(),
+                    ByteBuffer.wrap(request.pathParams.toString().getBytes(StandardCharsets.UTF_8)));
+        };
+        CachingTransport cache = new CachingTransport(transport, 2, 1 << 20, Duration.ofMinutes(1));
+        cache.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "a"));
+        cache.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "b"));
+        cache.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "a"));
+        cache.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "c"));
+
+        Assertions.assertEquals(1, cache.evictions());
+        Assertions.assertEquals(2, cache.size());
+        cache.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "a"));
+        Assertions.assertEquals(3, calls.get());
+        cache.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "b"));
+        Assertions.assertEquals(4, calls.get());
+
+        CachingTransport small = new CachingTransport(transport, 100, 20, Duration.ofMinutes(1));
+        small.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "a"));
+        small.execute(ApiRequest.to(ImgurClient.IMAGE).path("imageId", "b"));
+        Assertions.assertEquals(1, small.size());
+        Assertions.assertTrue(small.bytes() <= 20);
+    }
+
+    static Transport transport() {
+        return new RestAssuredTransport(pool, server.baseUrl(), Collections.singletonMap("Authorization", "Bearer test"));
+    }
+}
@@ -0,0 +1,97 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class CassetteTransportTest {
+    static final String TOKEN = "Bearer 37219c516065ca29ba59c7c822eda481c9065c35";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordedCallsReplayWithoutTheServer() throws Exception {
+        Path file = dir.resolve("imgur.bin");
+        Map<String, String> headers = Collections.singletonMap("Authorization", TOKEN);
+        String album;
+        String image;
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool();
+             CassetteTransport recorder = CassetteTransport.record(
+                     new RestAssuredTransport(pool, server.baseUrl(), headers), headers, file)) {
+            ImgurClient imgur = new ImgurClient(recorder);
+            album = imgur.createAlbum("cassette", null, null).jsonPath().getString("data.id");
+            image = imgur.uploadImage("http://example.org/1.png", null, null).jsonPath().getString("data.id");
+            imgur.getAlbumImages(album);
+            imgur.addImagesToAlbum(album, image);
+            imgur.getAlbumImages(album);
+            Assertions.assertEquals(5, recorder.size());
+        }
+
+        byte[] bytes = Files.readAllBytes(file);
+        Assertions.assertFalse(new String(bytes, StandardCharsets.ISO_8859_1).contains(TOKEN.substring(7)));
+
+        Cassette cassette = Cassette.open(file);
+        Assertions.assertEquals(5, cassette.size());
+        List<Integer> counts = RateLimiterTest.runConcurrently(4, 1, () -> {
+            // у каждого проигрывателя своя позиция в кассете
+            ImgurClient imgur = new ImgurClient(CassetteTransport.replay(cassette));
+            Assertions.assertEquals(album, imgur.createAlbum("cassette", null, null).jsonPath().getString("data.id"));
+            Assertions.assertEquals(image, imgur.uploadImage("http://example.org/1.png", null, null).jsonPath().getString("data.id"));
+            Assertions.assertEquals(0, imgur.getAlbumImages(album).jsonPath().getList("data").size());
+            imgur.addImagesToAlbum(album, image);
+            ApiResponse images = imgur.getAlbumImages(album);
+            Assertions.assertTrue(images.body().isDirect());
+            // после конца записи повторяется последний ответ
+            Assertions.assertEquals(images.asString(), imgur.getAlbumImages(album).asString());
+            return images.jsonPath().getList("data").size();
+        });
+        Assertions.assertEquals(List.of(1, 1, 1, 1), counts);
+
+        IllegalStateException missing = Assertions.assertThrows(IllegalStateException.class,
+                () -> new ImgurClient(CassetteTransport.replay(cassette)).getImage("unknown"));
+        Assertions.assertTrue(missing.getMessage().contains("GET /image/unknown"), missing.getMessage());
+    }
+
+    @Test
+    void cookiesOfAnyCaseAreNotRecorded() throws Exception {
+        Path file = dir.resolve("cookies.bin");
+        Transport server = request -> new ApiResponse(200,
+                Collections.singletonMap("set-cookie", List.of("session=5f3a9c1e7b; HttpOnly")),
+                ByteBuffer.wrap("{}".getBytes(StandardCharsets.UTF_8)));
+        try (CassetteTransport recorder = CassetteTransport.record(server, Collections.emptyMap(), file)) {
+            Assertions.assertNotNull(new ImgurClient(recorder).getAccount("me").header("Set-Cookie"));
+        }
+
+        // HTTP/2 и HttpClient присылают имена заголовков строчными буквами
+        Assertions.assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("5f3a9c1e7b"));
+        ApiResponse replayed = new ImgurClient(CassetteTransport.replay(Cassette.open(file))).getAccount("me");
+        Assertions.assertEquals(200, replayed.statusCode());
+        Assertions.assertNull(replayed.header("Set-Cookie"));
+    }
+
+    @Test
+    void hashIgnoresParameterOrderAndTokens() {
+        Endpoint method = Endpoint.get("/photos.get", "photos");
+        long hash = CassetteTransport.hash(ApiRequest.to(method).query("owner_id", 1).query("album_id", 2).query("access_token", "a"));
+        Assertions.assertEquals(hash, CassetteTransport.hash(ApiRequest.to(method).query("album_id", 2).query("owner_id", 1)));
+        Assertions.assertNotEquals(hash, CassetteTransport.hash(ApiRequest.to(method).query("album_id", 3).query("owner_id", 1)));
+        Endpoint token = Endpoint.post("/oauth2/token", "oauth");
+        Assertions.assertEquals(CassetteTransport.hash(ApiRequest.to(token).form("grant_type", "refresh_token").form("refresh_token", "r1")),
+                CassetteTransport.hash(ApiRequest.to(token).form("grant_type", "refresh_token").form("refresh_token", "r2")));
+
+        Endpoint upload = Endpoint.post("{upload_url}", "upload");
+        Assertions.assertEquals(
+                CassetteTransport.hash(ApiRequest.to(upload).url("http://127.0.0.1:1000/upload?aid=5")),
+                CassetteTransport.hash(ApiRequest.to(upload).url("http://127.0.0.1:2000/upload?aid=5")));
+    }
+}
@@ -0,0 +1,123 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SplittableRandom;
+
+public class FaultProxyTest {
+    static final JsonFields CREATED = JsonFields.compile("data.id");
+    static final JsonFields ALBUM = JsonFields.compile("data.title");
+    static final JsonFields VK_ERROR = JsonFields.compile("error.error_code");
+    static final JsonFields VK_ID = JsonFields.compile("response.id");
+    static final JsonFields UPLOAD_SERVER = JsonFields.compile("response.upload_url");
+    static final JsonFields UPLOADED = JsonFields.compile("server", "photos_list", "hash");
+
+    @Test
+    void imgurCallsAreForwardedDelayedFailedAndReset() throws Exception {
+        try (ImgurStubServer server = TestFixtures.imgur();
+             FaultProxy proxy = FaultProxy.start(0, server.baseUrl(), Arrays.asList(
+                     FaultProxy.Rule.matching("GET", "/3/account/.*").latency(FaultProxy.Latency.fixed(Duration.ofMillis(300))),
+                     FaultProxy.Rule.parse("DELETE /3/album/.* status=503@1"),
+                     FaultProxy.Rule.parse("GET /3/image/.* reset=1")), 1, 42);
+             ConnectionPool pool = TestFixtures.pool()) {
+            ImgurClient imgur = new ImgurClient(new RestAssuredTransport(pool, proxy.baseUrl(),
+                    Collections.singletonMap("Authorization", "Bearer test")));
+
+            String id = imgur.createAlbum("via proxy & more", "description", null).fields(CREATED).getString("data.id");
+            for (int i = 0; i < 20; i++) {
+                Assertions.assertEquals("via proxy & more", imgur.getAlbum(id).fields(ALBUM).getString("data.title"));
+            }
+            long start = System.nanoTime();
+            Assertions.assertEquals(200, imgur.getAccount("me").statusCode());
+            Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(290).toNanos());
+
+            // ответ даёт сам прокси, до стенда запрос не доходит
+            ApiResponse deleted = imgur.deleteAlbum(id);
+            Assertions.assertEquals(503, deleted.statusCode());
+            Assertions.assertEquals(200, imgur.getAlbum(id).statusCode());
+            Assertions.assertEquals(1, proxy.openConnections());
+
+            // HttpClient повторяет сброшенный GET сам, поэтому сбросов несколько
+            Assertions.assertThrows(Exception.class, () -> imgur.getImage("any"));
+            Assertions.assertEquals(200, imgur.getAlbum(id).statusCode());
+            Assertions.assertTrue(proxy.requests() >= 26, proxy.toString());
+            Assertions.assertFalse(proxy.toString().contains(" 0 resets"), proxy.toString());
+        }
+    }
+
+    @Test
+    void vkErrorsAreInjectedAndUploadsThrottled() throws Exception {
+        try (VkStubServer server = VkStubServer.start(0, 42);
+             FaultProxy proxy = FaultProxy.start(0, server.baseUrl(), Arrays.asList(
+                     FaultProxy.Rule.parse("* /method/photos\\.getAlbums vk-error=6@1"),
+                     FaultProxy.Rule.parse("POST /upload bandwidth=256k"),
+                     FaultProxy.Rule.parse("* .* latency=lognormal:2ms:0.5")), 2, 42);
+             ConnectionPool pool = TestFixtures.pool()) {
+            server.advertise(proxy.url(""));
+            VkClient vk = new VkClient(new RestAssuredTransport(pool, proxy.baseUrl(),
+                    Collections.singletonMap("Authorization", "Bearer test")), "5.131");
+
+            Assertions.assertEquals(6, vk.photosGetAlbums().fields(VK_ERROR).getInt("error.error_code"));
+
+            String albumId = vk.photosCreateAlbum("throttled").fields(VK_ID).getString("response.id");
+            String uploadUrl = vk.photosGetUploadServer(albumId).fields(UPLOAD_SERVER).getString("response.upload_url");
+            Assertions.assertTrue(uploadUrl.startsWith(proxy.url("/upload")), uploadUrl);
+            File image = new File("src/test/resources/image.jpg");
+            long start = System.nanoTime();
+            JsonFields.Values upload = vk.upload(uploadUrl, image, image).fields(UPLOADED);
+            // 2 x 87 KB at 256 KB/s
+            Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(500).toNanos());
+            Assertions.assertEquals(2 * image.length(), server.uploadedBytes());
+            Assertions.assertEquals(200, vk.photosSave(albumId, upload.getString("server"),
+                    upload.getString("photos_list"), upload.getString("hash")).statusCode());
+        }
+    }
+
+    @Test
+    void largeResponsesAreThrottledToTheEnd() throws Exception {
+        try (VkStubServer server = VkStubServer.start(0, 42);
+             FaultProxy proxy = FaultProxy.start(0, server.baseUrl(), Collections.singletonList(
+                     FaultProxy.Rule.parse("GET /method/photos\\.get bandwidth=128k")), 1, 42);
+             ConnectionPool pool = TestFixtures.pool()) {
+            long albumId = server.seedAlbum("large", 1000);
+            VkClient vk = new VkClient(new RestAssuredTransport(pool, proxy.baseUrl(),
+                    Collections.singletonMap("Authorization", "Bearer test")), "5.131");
+
+            long start = System.nanoTime();
+            ApiResponse photos = vk.photosGet("42", String.valueOf(albumId), false, 0, 1000);
+            long elapsed = System.nanoTime() - start;
+            Assertions.assertEquals(200, photos.statusCode());
+            Assertions.assertEquals(1000, photos.jsonPath().getList("response.items").size());
+            // ответ намного больше буфера прокси (16 KB) и первой порции полосы (13 KB)
+            Assertions.assertTrue(photos.bodyLength() > 100 * 1024, String.valueOf(photos.bodyLength()));
+            long throttledNanos = (photos.bodyLength() - 32 * 1024) * 1_000_000_000L / (128 * 1024);
+            Assertions.assertTrue(elapsed >= throttledNanos, elapsed + " < " + throttledNanos);
+        }
+    }
+
+    @Test
+    void latenciesFollowTheirDistributions() {
+        SplittableRandom random = new SplittableRandom(7);
+        long[] lognormal = new long[10_001];
+        long[] longTail = new long[10_001];
+        FaultProxy.Latency median40 = FaultProxy.Latency.parse("lognormal:40ms:0.5");
+        FaultProxy.Latency pareto = FaultProxy.Latency.parse("longtail:10ms:1.5:1s");
+        for (int i = 0; i < lognormal.length; i++) {
+            lognormal[i] = median40.sampleNanos(random);
+            longTail[i] = pareto.sampleNanos(random);
+        }
+        Arrays.sort(lognormal);
+        Arrays.sort(longTail);
+        Assertions.assertEquals(40, lognormal[5_000] / 1e6, 4);
+        Assertions.assertTrue(longTail[0] >= Duration.ofMillis(10).toNanos());
+        // p99 у Парето с alpha 1.5 — около 215 мс
+        Assertions.assertTrue(longTail[9_900] > Duration.ofMillis(150).toNanos());
+        Assertions.assertTrue(longTail[10_000] <= Duration.ofSeconds(1).toNanos());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> FaultProxy.Rule.parse("GET /x jitter=5ms"));
+    }
+}
@@ -0,0 +1,113 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgingTransportTest {
+    static final Endpoint IMAGE = Endpoint.get("/image/{imageId}", "image");
+    static final Endpoint FAVORITE = Endpoint.post("/image/{imageId}/favorite", "image");
+    static final Endpoint CREATE_ALBUM = Endpoint.get("/photos.createAlbum", "photos").mutating();
+
+    @Test
+    void slowCallIsHedgedAndTheCopyWins() throws Exception {
+        AtomicBoolean stall = new AtomicBoolean();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        Set<ApiRequest> sent = ConcurrentHashMap.newKeySet();
+        CountDownLatch loserCancelled = new CountDownLatch(1);
+        Transport transport = request -> {
+            // заголовок добавляет каждая копия, как TokenTransport
+            request.header("Authorization", "Bearer " + Thread.currentThread().getName());
+            // в режиме stall первая копия каждого вызова зависает, вторая отвечает как обычно
+            long millis = stall.get() && seen.add(request.pathParams.get("imageId")) ? 5_000 : 2;
+            if (stall.get()) {
+                sent.add(request);
+            }
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                loserCancelled.countDown();
+                throw new IllegalStateException(e);
+            }
+            return response(200);
+        };
+        HedgingTransport hedging = new HedgingTransport(transport, 95, 16, 1, Duration.ofMillis(1), Duration.ofMillis(1));
+        for (int i = 0; i < 32; i++) {
+            hedging.execute(ApiRequest.to(IMAGE).path("imageId", i));
+        }
+        Assertions.assertTrue(hedging.hedgeDelays().get(IMAGE) > 0);
+
+        // около 5% прогревочных вызовов уже ушли с копией
+        long hedges = hedging.hedges();
+        long wins = hedging.hedgeWins();
+        stall.set(true);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(200, hedging.execute(ApiRequest.to(IMAGE).path("imageId", i)).statusCode());
+        }
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        Assertions.assertEquals(hedges + 3, hedging.hedges());
+        Assertions.assertEquals(wins + 3, hedging.hedgeWins());
+        Assertions.assertEquals(6, sent.size());
+        Assertions.assertTrue(loserCancelled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failedGetsAreRetriedWithBackoff() {
+        AtomicInteger calls = new AtomicInteger();
+        Transport transport = request -> {
+            int call = calls.incrementAndGet();
+            if (call == 1) {
+                throw new IllegalStateException("Connection reset");
+            }
+            return response(call == 2 ? 503 : 200);
+        };
+        HedgingTransport retrying = new HedgingTransport(transport, 0, 1, 3, Duration.ofMillis(5), Duration.ofMillis(20));
+
+        Assertions.assertEquals(200, retrying.execute(ApiRequest.to(IMAGE).path("imageId", "a")).statusCode());
+        Assertions.assertEquals(3, calls.get());
+        Assertions.assertEquals(2, retrying.retries());
+
+        calls.set(0);
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> new HedgingTransport(transport, 0, 1, 1, Duration.ZERO, Duration.ZERO)
+                        .execute(ApiRequest.to(IMAGE).path("imageId", "b")));
+        Assertions.assertEquals(1, calls.get());
+    }
+
+    @Test
+    void mutatingCallsAreNeverDuplicated() {
+        AtomicInteger calls = new AtomicInteger();
+        Transport transport = request -> {
+            calls.incrementAndGet();
+            if (request.endpoint() != IMAGE) {
+                throw new IllegalStateException("Connection reset");
+            }
+            return response(200);
+        };
+        HedgingTransport hedging = new HedgingTransport(transport, 50, 1, 5, Duration.ZERO, Duration.ZERO);
+        for (int i = 0; i < 16; i++) {
+            hedging.execute(ApiRequest.to(IMAGE));
+        }
+        calls.set(0);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> hedging.execute(ApiRequest.to(FAVORITE)));
+        Assertions.assertThrows(IllegalStateException.class, () -> hedging.execute(ApiRequest.to(CREATE_ALBUM)));
+        Assertions.assertEquals(2, calls.get());
+        Assertions.assertEquals(0, hedging.retries());
+        Assertions.assertFalse(CREATE_ALBUM.idempotent());
+    }
+
+    static ApiResponse response(int status) {
+        return new ApiResponse(status, Collections.emptyMap(), ByteBuffer.wrap(new byte[0]));
+    }
+}
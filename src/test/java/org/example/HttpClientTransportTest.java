@@ -0,0 +1,96 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+public class HttpClientTransportTest {
+    static final JsonFields CREATED = JsonFields.compile("data.id", "data.deletehash");
+    static final JsonFields ALBUM = JsonFields.compile("data.title", "data.description");
+    static final JsonFields VK_ID = JsonFields.compile("response.id");
+    static final JsonFields UPLOADED = JsonFields.compile("server", "photos_list", "hash");
+    static final JsonFields PHOTOS = JsonFields.compile("response.count");
+
+    @Test
+    void imgurCallsArePipelinedWithoutAThreadEach() throws Exception {
+        Properties settings = new Properties();
+        settings.setProperty("http.client", "jdk");
+        settings.setProperty("hedge.percentile", "95");
+        settings.setProperty("retry.maxAttempts", "3");
+        settings.setProperty("cache.maxEntries", "100");
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool();
+             ResourceReaper reaper = new ResourceReaper("test", 4)) {
+            // тот же стек декораторов, что собирает App
+            Transport transport = App.transport(server.baseUrl(), new TokenPool.Account("test", "stub-user", "test", null, null),
+                    pool, HttpClientTransport.client(settings), new ApiMetrics("imgur", "/3", false, null, Duration.ofSeconds(10)), null,
+                    new RateLimiter(500, 1, 20), settings);
+            ImgurClient imgur = new ImgurClient(ImgurClient.invalidations(CachingTransport.fromProperties(transport, settings)))
+                    .withReaper(reaper);
+
+            long before = asyncThreads();
+            List<CompletableFuture<ApiResponse>> created = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                created.add(imgur.createAlbumAsync("album " + i, "описание & ещё", null));
+            }
+            List<String> ids = new ArrayList<>();
+            for (CompletableFuture<ApiResponse> album : created) {
+                ids.add(album.get().fields(CREATED).getString("data.id"));
+            }
+            Assertions.assertEquals(200, reaper.pending());
+            // простаивающие потоки пулов живут минуту, так что это и пик за время вызовов
+            long started = asyncThreads() - before;
+            Assertions.assertTrue(started < 20, "200 calls started " + started + " threads");
+
+            Assertions.assertEquals(200, imgur.updateAlbum(ids.get(0), "renamed/1 ?", null).statusCode());
+            JsonFields.Values album = imgur.getAlbumAsync(ids.get(0)).get().fields(ALBUM);
+            Assertions.assertEquals("renamed/1 ?", album.getString("data.title"));
+            Assertions.assertEquals("описание & ещё", album.getString("data.description"));
+
+            List<CompletableFuture<ApiResponse>> deleted = new ArrayList<>();
+            for (String id : ids) {
+                deleted.add(imgur.deleteAlbumAsync(id));
+            }
+            CompletableFuture.allOf(deleted.toArray(new CompletableFuture<?>[0])).get();
+            Assertions.assertEquals(0, reaper.pending());
+            Assertions.assertEquals(404, imgur.getAlbumAsync(ids.get(1)).get().statusCode());
+        }
+    }
+
+    @Test
+    void vkPhotosAreUploadedAsMultipart() throws Exception {
+        try (VkStubServer server = VkStubServer.start(0, 42)) {
+            Properties settings = new Properties();
+            settings.setProperty("http.version", "1.1");
+            HttpClientTransport http = new HttpClientTransport(HttpClientTransport.client(settings), server.baseUrl(),
+                    Collections.singletonMap("Authorization", "Bearer test"), Duration.ofSeconds(10));
+            VkClient vk = new VkClient(http, "5.131");
+            String albumId = vk.photosCreateAlbum("multipart").fields(VK_ID).getString("response.id");
+            String uploadUrl = vk.photosGetUploadServer(albumId).fields(JsonFields.compile("response.upload_url"))
+                    .getString("response.upload_url");
+            File image = new File("src/test/resources/image.jpg");
+            JsonFields.Values upload = vk.upload(uploadUrl, image, image).fields(UPLOADED);
+            Assertions.assertEquals(200, vk.photosSave(albumId, upload.getString("server"),
+                    upload.getString("photos_list"), upload.getString("hash")).statusCode());
+            Assertions.assertEquals(2, vk.photosGet("42", albumId, false).fields(PHOTOS).getInt("response.count"));
+            Assertions.assertEquals(2 * image.length(), server.uploadedBytes());
+            Assertions.assertTrue(http.toString().contains("HTTP/1.1"), http.toString());
+        }
+    }
+
+    /**
+     * Threads of the pools decorators fall back to when they block on a call.
+     */
+    private static long asyncThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("async-") || thread.getName().startsWith("hedged-call-"))
+                .count();
+    }
+}
@@ -0,0 +1,121 @@
+package org.example;
+
+import io.restassured.path.json.JsonPath;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ImgurStubServerTest {
+    static final int CLIENTS = 200;
+
+    static ImgurStubServer server;
+    static HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        server = TestFixtures.imgur();
+    }
+
+    @AfterAll
+    static void setDown() {
+        server.close();
+    }
+
+    @Test
+    void concurrentClientsKeepConsistentState() throws Exception {
+        String albumHash = post("/album", "title=shared").getString("data.id");
+
+        ExecutorService pool = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Callable<String>> uploads = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                int n = i;
+                uploads.add(() -> {
+                    String imageId = post("/upload", "type=url&image=http://example.org/" + n + ".png").getString("data.id");
+                    post("/album/" + albumHash + "/add", "ids[]=" + imageId);
+                    Assertions.assertEquals("favorited", post("/image/" + imageId + "/favorite", "").getString("data"));
+                    return imageId;
+                });
+            }
+            for (Future<String> future : pool.invokeAll(uploads)) {
+                Assertions.assertNotNull(future.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Assertions.assertEquals(CLIENTS, get("/album/" + albumHash + "/images").getList("data").size());
+        Assertions.assertEquals(ImgurStubServer.FAVORITES_PAGE_SIZE,
+                get("/account/stub-user/favorites/0/newest").getList("data").size());
+        Assertions.assertEquals(0, get("/account/stub-user/favorites/4/newest").getList("data").size());
+    }
+
+    @Test
+    void pagesPastTheEndAreEmpty() throws Exception {
+        server.seedFavorites("paged", 3);
+        Assertions.assertEquals(3, get("/account/paged/favorites/0/newest").getList("data").size());
+        // номер страницы, умноженный на её размер, не помещается в int
+        for (String page : new String[]{"1", "42949673", String.valueOf(Integer.MAX_VALUE)}) {
+            Assertions.assertEquals(0, get("/account/paged/favorites/" + page + "/newest").getList("data").size());
+            Assertions.assertEquals(0, get("/account/paged/albums/" + page).getList("data").size());
+            Assertions.assertEquals(0, get("/account/paged/images/" + page).getList("data").size());
+        }
+    }
+
+    @Test
+    void handlerFailingMidResponseCutsTheBodyShort() throws Exception {
+        try (StubServer failing = new StubServer(0) {
+            @Override
+            protected void handle(Request request) throws IOException {
+                if (request.path.equals("/ok")) {
+                    sendJson(request.exchange, 200, "ok");
+                    return;
+                }
+                request.exchange.sendResponseHeaders(200, 100);
+                request.exchange.getResponseBody().write("{\"da".getBytes(StandardCharsets.UTF_8));
+                throw new IllegalStateException("failed mid-response");
+            }
+        }) {
+            failing.start();
+            String url = "http://127.0.0.1:" + failing.port();
+            // заголовки уже ушли, поэтому вместо 500 клиент получает оборванное тело
+            Assertions.assertThrows(IOException.class, () -> client.send(HttpRequest.newBuilder(URI.create(url + "/broken")).build(),
+                    HttpResponse.BodyHandlers.ofString()));
+            HttpResponse<String> ok = client.send(HttpRequest.newBuilder(URI.create(url + "/ok")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            Assertions.assertEquals(200, ok.statusCode());
+            Assertions.assertEquals("\"ok\"", ok.body());
+        }
+    }
+
+    static JsonPath post(String path, String form) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(server.baseUrl() + path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form)));
+    }
+
+    static JsonPath get(String path) throws IOException, InterruptedException {
+        return send(HttpRequest.newBuilder(URI.create(server.baseUrl() + path)).GET());
+    }
+
+    static JsonPath send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request.header("Authorization", "Bearer test").build(),
+                HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode(), response.body());
+        return new JsonPath(response.body());
+    }
+}
@@ -0,0 +1,83 @@
+package org.example;
+
+import io.restassured.path.json.JsonPath;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class JsonFieldsTest {
+    static final String ALBUM_IMAGES = "{\"data\":[{\"id\":\"a1\",\"title\":\"first \\\"one\\\"\",\"size\":12,\"tags\":[{\"x\":\"]}\"}]},"
+            + "{\"id\":\"b2\",\"title\":\"\\u0432\\u0442\\u043e\\u0440\\u043e\\u0439\",\"size\":7,\"tags\":[]}],"
+            + "\"success\":true,\"status\":200}";
+
+    @Test
+    void extractsTheSameValuesAsJsonPath() {
+        JsonFields fields = JsonFields.compile("success", "status", "data[0].id", "data[1].title", "data[0].title",
+                "data.length", "data[1].size", "data[0].tags[0].x", "data[1].tags");
+        JsonFields.Values values = fields.extract(ALBUM_IMAGES);
+        JsonPath json = new JsonPath(ALBUM_IMAGES);
+
+        for (String path : new String[] {"success", "status", "data[0].id", "data[1].title", "data[0].title",
+                "data[1].size", "data[0].tags[0].x"}) {
+            Assertions.assertEquals(json.getString(path), values.getString(path), path);
+        }
+        Assertions.assertEquals(json.getList("data").size(), values.getInt("data.length"));
+        Assertions.assertTrue(values.getBoolean("success"));
+        Assertions.assertEquals("[]", values.getString("data[1].tags"));
+    }
+
+    @Test
+    void objectsAndMissingPaths() {
+        JsonFields fields = JsonFields.compile("data", "data.id", "data.length", "data.deletehash", "error", "response[3]");
+        JsonFields.Values values = fields.extract("{ \"data\" : {\"id\":\"x\",\"length\":3,\"deletehash\":null},\n \"success\":true }");
+
+        Assertions.assertEquals("{\"id\":\"x\",\"length\":3,\"deletehash\":null}", values.getString("data"));
+        Assertions.assertEquals("x", values.getString("data.id"));
+        Assertions.assertEquals(3, values.getInt("data.length"));
+        Assertions.assertNull(values.getString("data.deletehash"));
+        Assertions.assertTrue(values.has("data.deletehash"));
+        Assertions.assertFalse(values.has("error"));
+        Assertions.assertNull(values.getString("response[3]"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> values.getString("success"));
+    }
+
+    @Test
+    void stopsOnceAllPathsAreFound() {
+        JsonFields fields = JsonFields.compile("success", "data[0].id");
+        // the rest of the document is never read, so the truncation goes unnoticed
+        JsonFields.Values values = fields.extract("{\"success\":true,\"data\":[{\"id\":\"abc\"},{\"id\":");
+
+        Assertions.assertEquals("abc", values.getString("data[0].id"));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> JsonFields.compile("success", "status").extract("{\"success\":true,\"data\":[{\"id\":"));
+    }
+
+    @Test
+    void matchesEscapedKeys() {
+        JsonFields.Values values = JsonFields.compile("photos_list", "hash").extract(
+                "{\"server\":843530,\"photos_list\":\"[{\\\"photo\\\":\\\"ab:1\\\"}]\",\"h\\u0061sh\":\"f00\"}");
+
+        Assertions.assertEquals("[{\"photo\":\"ab:1\"}]", values.getString("photos_list"));
+        Assertions.assertEquals("f00", values.getString("hash"));
+    }
+
+    @Test
+    void extractsEachElementOfAnArray() {
+        JsonFields items = JsonFields.compileEach("response.items", "id", "sizes[0].url");
+        List<JsonFields.Values> values = items.extractEach(ByteBuffer.wrap((
+                "{\"response\":{\"count\":3,\"items\":[{\"id\":1,\"sizes\":[{\"url\":\"a,]\"}]},"
+                        + " {\"id\":2,\"sizes\":[]} , {\"sizes\":[{\"url\":\"c\"}],\"id\":3}]}}")
+                .getBytes(StandardCharsets.UTF_8)));
+
+        Assertions.assertEquals(3, values.size());
+        Assertions.assertEquals("a,]", values.get(0).getString("sizes[0].url"));
+        Assertions.assertFalse(values.get(1).has("sizes[0].url"));
+        Assertions.assertEquals(3, values.get(2).getInt("id"));
+        Assertions.assertTrue(items.extractEach(ByteBuffer.wrap("{\"response\":{\"items\":[]}}".getBytes(StandardCharsets.UTF_8))).isEmpty());
+        Assertions.assertTrue(items.extractEach(ByteBuffer.wrap("{\"error\":{}}".getBytes(StandardCharsets.UTF_8))).isEmpty());
+        Assertions.assertThrows(IllegalStateException.class, () -> JsonFields.compile("id").extractEach(ByteBuffer.allocate(0)));
+    }
+}
@@ -0,0 +1,143 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LoadCoordinatorTest {
+
+    static final class Steps implements Scenario {
+        private int runs;
+
+        @Override
+        public String name() {
+            return "steps";
+        }
+
+        @Override
+        public void run(StepRecorder steps) throws Exception {
+            steps.step("first", () -> {
+                Thread.sleep(2);
+                return null;
+            });
+            if (++runs % 3 == 0) {
+                steps.step("second", () -> {
+                    throw new IllegalStateException("every third run " + runs);
+                });
+            }
+        }
+    }
+
+    @Test
+    void shardsOfTheWorkersAddUpToTheMergedReport() throws Exception {
+        ExecutorService processes = Executors.newFixedThreadPool(2);
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+        try (LoadCoordinator coordinator = new LoadCoordinator(0, 2, Duration.ofMillis(100))) {
+            List<Future<LoadReport>> shards = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                shards.add(processes.submit(() -> {
+                    try (LoadWorker worker = LoadWorker.connect("127.0.0.1:" + coordinator.port())) {
+                        Assertions.assertEquals("steps", worker.options().get("scenario"));
+                        return worker.run(new LoadRunner(Steps::new, 5, Duration.ofMillis(200), Duration.ofMillis(800)));
+                    }
+                }));
+            }
+            LoadReport merged = coordinator.run("steps", 5, Duration.ofMillis(800),
+                    Collections.singletonMap("scenario", "steps"), new PrintStream(progress, true, StandardCharsets.UTF_8));
+
+            List<Integer> users = new ArrayList<>();
+            long iterations = 0;
+            Histogram first = new Histogram();
+            long errors = 0;
+            for (Future<LoadReport> shard : shards) {
+                LoadReport report = shard.get();
+                users.add(report.users());
+                iterations += report.iterations();
+                for (LoadReport.StepStats step : report.steps()) {
+                    if ("first".equals(step.name())) {
+                        first.add(step.latency());
+                    } else {
+                        errors += step.errors();
+                    }
+                }
+            }
+            Collections.sort(users);
+            // пользователи 0, 2, 4 у первого воркера и 1, 3 у второго
+            Assertions.assertEquals(List.of(2, 3), users);
+            Assertions.assertTrue(iterations > 20, String.valueOf(iterations));
+            Assertions.assertEquals(iterations, merged.iterations());
+            Assertions.assertEquals(errors, merged.failedIterations());
+
+            LoadReport.StepStats mergedFirst = merged.steps().get(0);
+            Assertions.assertEquals("first", mergedFirst.name());
+            Assertions.assertEquals(first.count(), mergedFirst.latency().count());
+            Assertions.assertEquals(first.max(), mergedFirst.latency().max());
+            Assertions.assertEquals(first.mean(), mergedFirst.latency().mean(), 1e-6);
+            for (double percentile : new double[]{50, 90, 99, 100}) {
+                Assertions.assertEquals(first.percentile(percentile), mergedFirst.latency().percentile(percentile));
+            }
+            LoadReport.StepStats second = merged.steps().get(1);
+            Assertions.assertEquals(errors, second.errors());
+            Assertions.assertTrue(second.lastError.startsWith("java.lang.IllegalStateException: every third run"), second.lastError);
+
+            Assertions.assertTrue(progress.toString(StandardCharsets.UTF_8).contains("2/2 workers"), progress.toString(StandardCharsets.UTF_8));
+            Assertions.assertTrue(coordinator.toString().startsWith("coordinator: 2 workers"), coordinator.toString());
+        } finally {
+            processes.shutdownNow();
+        }
+    }
+
+    @Test
+    void snapshotsCarryOnlyWhatChanged() throws Exception {
+        LoadReport worker = new LoadReport("steps", 1);
+        LoadReport merged = new LoadReport("steps", 1);
+        LoadSnapshot snapshot = new LoadSnapshot(worker);
+        LoadSnapshot.Reader reader = new LoadSnapshot.Reader(merged);
+        Histogram interval = new Histogram();
+        LongAdder errors = new LongAdder();
+
+        for (long i = 1; i <= 100_000; i++) {
+            worker.step("get").latency.record(i * 1000);
+        }
+        worker.iterations.add(100_000);
+        byte[] busy = write(snapshot, false);
+        Assertions.assertTrue(busy.length < 2500, "100000 latencies took " + busy.length + " bytes");
+        Assertions.assertFalse(reader.read(new DataInputStream(new ByteArrayInputStream(busy)), interval, errors));
+
+        Assertions.assertTrue(write(snapshot, false).length < 16);
+        worker.step("get").latency.record(7);
+        worker.step("get").errors.increment();
+        worker.step("get").lastError = "boom";
+        Assertions.assertTrue(reader.read(new DataInputStream(new ByteArrayInputStream(write(snapshot, true))), interval, errors));
+
+        Histogram expected = worker.steps().get(0).latency();
+        Histogram actual = merged.steps().get(0).latency();
+        Assertions.assertEquals(expected.count(), actual.count());
+        Assertions.assertEquals(expected.mean(), actual.mean(), 1e-6);
+        Assertions.assertEquals(expected.percentile(99.9), actual.percentile(99.9));
+        Assertions.assertEquals(100_001, interval.count());
+        Assertions.assertEquals(1, errors.sum());
+        Assertions.assertEquals(100_000, merged.iterations());
+        Assertions.assertEquals("boom", merged.steps().get(0).lastError);
+    }
+
+    private static byte[] write(LoadSnapshot snapshot, boolean last) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        snapshot.write(new DataOutputStream(bytes), last);
+        return bytes.toByteArray();
+    }
+}
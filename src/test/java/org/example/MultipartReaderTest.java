@@ -0,0 +1,79 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class MultipartReaderTest {
+
+    @Test
+    void streamsPartsLargerThanTheBuffer() throws IOException {
+        byte[] first = new byte[300_000];
+        Arrays.fill(first, (byte) '-');
+        byte[] second = "second\r\n--not-the-boundary".getBytes(StandardCharsets.ISO_8859_1);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("preamble\r\n--xyz\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        body.write("Content-Disposition: form-data; name=\"file1\"; filename=\"a.jpg\"\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        body.write(first);
+        body.write("\r\n--xyz\r\nContent-Disposition: form-data; name=\"file2\"; filename=\"b.jpg\"\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        body.write("Content-Type: image/jpeg\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        body.write(second);
+        body.write("\r\n--xyz--\r\n".getBytes(StandardCharsets.ISO_8859_1));
+
+        MultipartReader reader = new MultipartReader(new TrickleInputStream(body.toByteArray()), "xyz");
+
+        MultipartReader.Part part = reader.next();
+        Assertions.assertEquals("file1", part.name());
+        Assertions.assertEquals("a.jpg", part.fileName());
+        Assertions.assertArrayEquals(first, part.body.readAllBytes());
+
+        part = reader.next();
+        Assertions.assertEquals("file2", part.name());
+        Assertions.assertEquals("image/jpeg", part.contentType());
+        Assertions.assertArrayEquals(second, part.body.readAllBytes());
+
+        Assertions.assertNull(reader.next());
+    }
+
+    @Test
+    void failsOnTruncatedBody() throws IOException {
+        byte[] body = "--xyz\r\nContent-Disposition: form-data; name=\"file1\"\r\n\r\nunterminated".getBytes(StandardCharsets.ISO_8859_1);
+        MultipartReader.Part part = new MultipartReader(new ByteArrayInputStream(body), "xyz").next();
+        Assertions.assertThrows(IOException.class, () -> part.body.readAllBytes());
+    }
+
+    @Test
+    void parsesBoundaryFromContentType() {
+        Assertions.assertEquals("abc", MultipartReader.boundary("multipart/form-data; boundary=abc"));
+        Assertions.assertEquals("a b", MultipartReader.boundary("multipart/form-data; boundary=\"a b\""));
+        Assertions.assertNull(MultipartReader.boundary("application/json"));
+    }
+
+    /**
+     * Hands out at most 1000 bytes per read to exercise boundaries split across reads.
+     */
+    static final class TrickleInputStream extends InputStream {
+        private final ByteArrayInputStream in;
+
+        TrickleInputStream(byte[] bytes) {
+            in = new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return in.read(b, off, Math.min(len, 1000));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+public class PaginatorTest {
+
+    @Test
+    void pagesAreFetchedAheadAndStopAtTheEnd() {
+        Map<Integer, Boolean> requested = new ConcurrentHashMap<>();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Paginator.Fetcher<Integer> fetcher = page -> {
+            requested.put(page, true);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            List<Integer> items = page < 10 ? IntStream.range(page * 3, page * 3 + 3).boxed().collect(Collectors.toList())
+                    : Collections.emptyList();
+            return Paginator.Page.of(items);
+        };
+
+        Paginator<Integer> paginator = new Paginator<>(fetcher, 3);
+        List<Integer> all = new ArrayList<>();
+        paginator.forEachRemaining(all::add);
+        Assertions.assertEquals(IntStream.range(0, 30).boxed().collect(Collectors.toList()), all);
+        Assertions.assertEquals(11, paginator.pagesFetched());
+        // не больше трёх страниц впереди текущей
+        Assertions.assertTrue(maxRunning.get() <= 3, maxRunning.toString());
+        Assertions.assertTrue(requested.keySet().stream().allMatch(page -> page <= 13), requested.toString());
+    }
+
+    @Test
+    void closingAStreamStopsPrefetching() throws Exception {
+        AtomicInteger fetched = new AtomicInteger();
+        Paginator<Integer> paginator = new Paginator<>(page -> {
+            fetched.incrementAndGet();
+            return Paginator.Page.of(Collections.nCopies(10, page));
+        }, 2);
+        try (Stream<Integer> items = paginator.stream()) {
+            Assertions.assertEquals(15, items.limit(15).count());
+        }
+        Thread.sleep(50);
+        Assertions.assertTrue(fetched.get() <= 4, fetched.toString());
+        Assertions.assertFalse(paginator.hasNext());
+
+        Paginator<Integer> failing = new Paginator<>(page -> {
+            if (page == 1) {
+                throw new IllegalStateException("page 1 failed");
+            }
+            return Paginator.Page.of(Collections.singletonList(page));
+        }, 1);
+        Assertions.assertEquals(0, failing.next());
+        Assertions.assertThrows(IllegalStateException.class, failing::hasNext);
+    }
+
+    @Test
+    void largeListingsOfTheStandInsAreWalkedCompletely() throws Exception {
+        try (ImgurStubServer imgurStub = TestFixtures.imgur();
+             VkStubServer vkStub = VkStubServer.start(0, 1L);
+             ConnectionPool pool = TestFixtures.pool(8)) {
+            List<String> seeded = imgurStub.seedFavorites("stub-user", 1234);
+            Collections.reverse(seeded);
+            ImgurClient imgur = ImgurClient.create(imgurStub.baseUrl(), "test", pool);
+            try (Stream<JsonFields.Values> favorites = imgur.favorites("stub-user", "newest", 2, "id").stream()) {
+                Assertions.assertEquals(seeded, favorites.map(item -> item.getString("id")).collect(Collectors.toList()));
+            }
+
+            long albumId = vkStub.seedAlbum("seeded", 1000);
+            VkClient vk = VkClient.create(vkStub.baseUrl(), "test", "5.131", pool);
+            Paginator<JsonFields.Values> photos = vk.photos("1", String.valueOf(albumId), 100, 3, "id", "album_id");
+            Assertions.assertEquals(1000, photos.stream()
+                    .peek(photo -> Assertions.assertEquals(String.valueOf(albumId), photo.getString("album_id")))
+                    .map(photo -> photo.getString("id")).distinct().count());
+            Assertions.assertEquals(10, photos.pagesFetched());
+            Assertions.assertEquals(1, vk.albums(10, 1, "id").stream().count());
+        }
+    }
+}
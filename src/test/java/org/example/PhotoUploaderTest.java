@@ -0,0 +1,95 @@
+package org.example;
+
+import io.restassured.path.json.JsonPath;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+public class PhotoUploaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void uploadsFilesInParallelBatchesOfFive() throws Exception {
+        List<Path> files = new ArrayList<>();
+        List<String> digests = new ArrayList<>();
+        long size = 0;
+        Random random = new Random(7);
+        for (int i = 0; i < 7; i++) {
+            byte[] content = new byte[(1 + i) << 19];
+            random.nextBytes(content);
+            Path file = Files.write(dir.resolve("photo" + i + ".jpg"), content);
+            files.add(file);
+            digests.add(HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content)));
+            size += content.length;
+        }
+
+        try (VkStubServer server = VkStubServer.start(0);
+             ConnectionPool pool = TestFixtures.pool();
+             PhotoUploader uploader = new PhotoUploader(2, Duration.ofSeconds(5), Duration.ofSeconds(30))) {
+            VkClient vk = VkClient.create(server.baseUrl(), "test", "5.131", pool);
+            String albumId = new JsonPath(vk.photosCreateAlbum("uploads").asString()).getString("response.id");
+            String uploadUrl = new JsonPath(vk.photosGetUploadServer(albumId).asString()).getString("response.upload_url");
+
+            PhotoUploader.Summary summary = uploader.uploadAll(uploadUrl, files);
+
+            Assertions.assertEquals(2, summary.batches().size());
+            Assertions.assertEquals(size, server.uploadedBytes());
+            Assertions.assertTrue(summary.bytes() > size);
+            List<String> kids = new ArrayList<>();
+            for (PhotoUploader.Batch batch : summary.batches()) {
+                JsonPath uploaded = new JsonPath(batch.response().asString());
+                List<String> photos = new JsonPath(uploaded.getString("photos_list")).getList("kid");
+                Assertions.assertEquals(batch.files().size(), photos.size());
+                kids.addAll(photos);
+                JsonPath saved = new JsonPath(vk.photosSave(albumId, uploaded.getString("server"),
+                        uploaded.getString("photos_list"), uploaded.getString("hash")).asString());
+                Assertions.assertEquals(batch.files().size(), saved.getList("response").size(), saved.prettify());
+            }
+            Assertions.assertEquals(digests, kids);
+            Assertions.assertThrows(IllegalArgumentException.class, () -> uploader.upload(uploadUrl, files));
+        }
+    }
+
+    @Test
+    void rejectedBatchesFailTheUpload() throws Exception {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            files.add(Files.write(dir.resolve("small" + i + ".jpg"), new byte[1024]));
+        }
+        try (VkStubServer server = VkStubServer.start(0);
+             FaultProxy proxy = FaultProxy.start(0, server.baseUrl(),
+                     Collections.singletonList(FaultProxy.Rule.parse("POST /upload status=500@1")), 1, 42);
+             ConnectionPool pool = TestFixtures.pool();
+             PhotoUploader uploader = new PhotoUploader(2, Duration.ofSeconds(5), Duration.ofSeconds(30))) {
+            VkClient vk = VkClient.create(server.baseUrl(), "test", "5.131", pool);
+            String albumId = new JsonPath(vk.photosCreateAlbum("rejected").asString()).getString("response.id");
+            String uploadUrl = new JsonPath(vk.photosGetUploadServer(albumId).asString()).getString("response.upload_url");
+
+            // сервер загрузки отвечает 200 с {"error": ...} на чужую подпись
+            UncheckedIOException forged = Assertions.assertThrows(UncheckedIOException.class,
+                    () -> uploader.uploadAll(uploadUrl.replaceAll("hash=[^&]*", "hash=forged"), files));
+            Assertions.assertTrue(forged.getCause().getMessage().contains("ERR_UPLOAD_BAD_HASH"), forged.getCause().getMessage());
+
+            server.advertise(proxy.url(""));
+            String proxied = new JsonPath(vk.photosGetUploadServer(albumId).asString()).getString("response.upload_url");
+            UncheckedIOException failed = Assertions.assertThrows(UncheckedIOException.class,
+                    () -> uploader.uploadAll(proxied, files));
+            Assertions.assertTrue(failed.getCause().getMessage().startsWith("Upload server answered 500"), failed.getCause().getMessage());
+            Assertions.assertEquals(0, server.uploadedBytes());
+        }
+    }
+}
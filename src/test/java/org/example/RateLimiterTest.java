@@ -0,0 +1,129 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RateLimiterTest {
+
+    @Test
+    void sharedBucketKeepsCallsUnderTheRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(200, 1, 1);
+        long start = System.nanoTime();
+        runConcurrently(8, 13, () -> {
+            limiter.acquire("token", "album");
+            return null;
+        });
+        long elapsed = System.nanoTime() - start;
+
+        RateLimiter.Bucket bucket = limiter.accounts().get("token");
+        Assertions.assertEquals(104, bucket.waits().count());
+        // 104 calls at 200/s take at least 103 intervals of 5 ms
+        Assertions.assertTrue(elapsed >= 103 * 5_000_000L * 0.95, elapsed / 1e6 + " ms");
+        Assertions.assertTrue(bucket.maxWaiting() > 1);
+        Assertions.assertEquals(0, limiter.queueDepth());
+    }
+
+    @Test
+    void imgurLimitIsNeverExceededForCallers() throws Exception {
+        RateLimiter limiter = new RateLimiter(80, 1, 1);
+        AtomicInteger rejected = new AtomicInteger();
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool(8)) {
+            server.limitCalls(25);
+            Transport http = new RestAssuredTransport(pool, server.baseUrl(), Collections.singletonMap("Authorization", "Bearer test"));
+            // отказы стенда до повторов в RateLimitedTransport
+            Transport counted = request -> {
+                ApiResponse response = http.execute(request);
+                if (response.statusCode() == 429) {
+                    rejected.incrementAndGet();
+                }
+                return response;
+            };
+            ImgurClient imgur = new ImgurClient(new RateLimitedTransport(counted, limiter, "test"));
+
+            for (ApiResponse response : runConcurrently(6, 6, imgur::getAccountSettings)) {
+                Assertions.assertEquals(200, response.statusCode(), response.asString());
+            }
+        }
+        // каждый вызов прошёл через бакет токена, отказы 429 повторены внутри транспорта
+        RateLimiter.Bucket bucket = limiter.accounts().get("test");
+        Assertions.assertEquals(36 + bucket.throttles(), bucket.waits().count(), bucket.toString());
+        // лимитер подстроился под заголовки X-RateLimit-User* раньше, чем стенд начал отказывать
+        Assertions.assertEquals(0, rejected.get(), bucket.toString());
+    }
+
+    @Test
+    void vkErrorSixIsRetriedAtALowerRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(40, 1, 1);
+        try (VkStubServer server = VkStubServer.start(0);
+             ConnectionPool pool = TestFixtures.pool(8)) {
+            server.limitCalls(10);
+            VkClient vk = new VkClient(new RateLimitedTransport(new RestAssuredTransport(pool, server.baseUrl(),
+                    Collections.singletonMap("Authorization", "Bearer test")), limiter, "test"), "5.131");
+
+            for (ApiResponse response : runConcurrently(6, 5, vk::appsGet)) {
+                Assertions.assertFalse(response.asString().contains("error_code"), response.asString());
+            }
+        }
+        RateLimiter.Bucket bucket = limiter.accounts().get("test");
+        Assertions.assertTrue(bucket.throttles() > 0, bucket.toString());
+        Assertions.assertTrue(bucket.rate() < 40, bucket.toString());
+    }
+
+    @Test
+    void retryAfterIsReadAsSecondsOrAsADate() {
+        Assertions.assertEquals(Duration.ofSeconds(7), RateLimiter.retryAfter(throttled(" 7 ")));
+        String inAMinute = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1));
+        Duration pause = RateLimiter.retryAfter(throttled(inAMinute));
+        Assertions.assertTrue(pause.getSeconds() > 50 && pause.getSeconds() <= 60, String.valueOf(pause));
+        Assertions.assertEquals(Duration.ZERO, RateLimiter.retryAfter(throttled("Wed, 21 Oct 2015 07:28:00 GMT")));
+        Assertions.assertNull(RateLimiter.retryAfter(throttled("soon")));
+
+        // непонятный заголовок не ломает обработку ответа
+        RateLimiter limiter = new RateLimiter(40, 1, 1);
+        Assertions.assertTrue(limiter.update("test", "album", throttled("soon")));
+        Assertions.assertEquals(1, limiter.accounts().get("test").throttles());
+    }
+
+    private static ApiResponse throttled(String retryAfter) {
+        return new ApiResponse(429, Collections.singletonMap("Retry-After", Collections.singletonList(retryAfter)),
+                ByteBuffer.allocate(0));
+    }
+
+    static <T> List<T> runConcurrently(int threads, int callsPerThread, Callable<T> call) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<List<T>>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                tasks.add(() -> {
+                    List<T> results = new ArrayList<>();
+                    for (int n = 0; n < callsPerThread; n++) {
+                        results.add(call.call());
+                    }
+                    return results;
+                });
+            }
+            List<T> results = new ArrayList<>();
+            for (Future<List<T>> future : pool.invokeAll(tasks)) {
+                results.addAll(future.get());
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+
+public class RequestTemplateTest {
+    static final JsonFields CREATED = JsonFields.compile("data.id");
+    static final JsonFields ALBUM = JsonFields.compile("data.title", "data.description");
+    static final byte[] RELATIVE = new byte[0];
+
+    @Test
+    void valuesAreEncodedAsUtf8WithoutTouchingTheFixedParts() {
+        ApiRequest request = ApiRequest.to(ImgurClient.FAVORITES)
+                .path("userName", "a b/ц")
+                .path("page", 2)
+                .path("favoritesSort", "new?")
+                .query("q", "x&y=z+1 😀");
+        Assertions.assertEquals("/account/a%20b%2F%D1%86/favorites/2/new%3F?q=x%26y%3Dz%2B1%20%F0%9F%98%80",
+                RequestTemplate.target(RELATIVE, request).toString());
+        Assertions.assertEquals("http://127.0.0.1/3/album/abc",
+                RequestTemplate.target("http://127.0.0.1/3".getBytes(StandardCharsets.US_ASCII),
+                        ApiRequest.to(ImgurClient.ALBUM).path("albumHash", "abc")).toString());
+
+        // адрес от сервера уже закодирован, дописываются только параметры
+        Assertions.assertEquals("http://127.0.0.1/upload?act=do%20it&aid=1&v=5.131",
+                RequestTemplate.target(RELATIVE, ApiRequest.to(VkClient.UPLOAD).url("http://127.0.0.1/upload?act=do it&aid=1")
+                        .query("v", "5.131")).toString());
+
+        IllegalArgumentException missing = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> RequestTemplate.target(RELATIVE, ApiRequest.to(ImgurClient.FAVORITES).path("userName", "me")));
+        Assertions.assertTrue(missing.getMessage().contains("{page}"), missing.getMessage());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Endpoint.get("/album/{albumHash", "album"));
+
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder value = new StringBuilder();
+            for (int n = random.nextInt(12); n > 0; n--) {
+                value.append((char) (random.nextBoolean() ? random.nextInt(0x80) : random.nextInt(0x10000)));
+            }
+            RequestTemplate.Buffer form = RequestTemplate.buffer();
+            RequestTemplate.form(form, ApiRequest.to(ImgurClient.CREATE_ALBUM).form("title", value.toString()).formParams);
+            String expected = URLEncoder.encode(value.toString(), StandardCharsets.UTF_8)
+                    .replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+            Assertions.assertEquals("title=" + expected, form.toString());
+        }
+    }
+
+    @Test
+    void formsArriveAsUtf8OverBothTransports() throws Exception {
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool()) {
+            Transport[] transports = {
+                    new RestAssuredTransport(pool, server.baseUrl(), Collections.singletonMap("Authorization", "Bearer test")),
+                    new HttpClientTransport(HttpClientTransport.client(new Properties()), server.baseUrl(),
+                            Collections.singletonMap("Authorization", "Bearer test"), Duration.ofSeconds(10))
+            };
+            for (Transport transport : transports) {
+                ImgurClient imgur = new ImgurClient(transport);
+                String id = imgur.createAlbum("Альбом №1 + 50% & ещё", "a=b c", null).fields(CREATED).getString("data.id");
+                JsonFields.Values album = imgur.getAlbum(id).fields(ALBUM);
+                Assertions.assertEquals("Альбом №1 + 50% & ещё", album.getString("data.title"), transport.toString());
+                Assertions.assertEquals("a=b c", album.getString("data.description"));
+            }
+        }
+    }
+}
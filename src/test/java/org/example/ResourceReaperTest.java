@@ -0,0 +1,88 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResourceReaperTest {
+    static final JsonFields CREATED = JsonFields.compile("data.id", "data.deletehash");
+    static final JsonFields VK_ALBUM = JsonFields.compile("response.id");
+    static final JsonFields VK_COUNT = JsonFields.compile("response.count");
+
+    @Test
+    void deletesInParallelUpToTheLimit() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger deleted = new AtomicInteger();
+        ResourceReaper.Deletion slow = () -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                deleted.incrementAndGet();
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+        try (ResourceReaper reaper = new ResourceReaper("test", 8)) {
+            ResourceReaper iteration = reaper.scope();
+            for (int i = 0; i < 40; i++) {
+                (i % 2 == 0 ? reaper : iteration).register("thing", slow, "thing-" + i);
+            }
+            iteration.register("broken", () -> {
+                throw new IllegalStateException("HTTP 500");
+            }, "broken");
+            Assertions.assertTrue(reaper.release("thing-0"));
+            Assertions.assertFalse(reaper.release("thing-0"));
+            Assertions.assertEquals(40, reaper.pending());
+
+            // итерация удаляет только своё, корень видит всё
+            ResourceReaper.Summary own = iteration.reap();
+            Assertions.assertEquals(20, own.deleted());
+            Assertions.assertEquals(1, own.failed(), own.toString());
+            Assertions.assertEquals(19, reaper.pending());
+
+            ResourceReaper.Summary rest = reaper.reap();
+            Assertions.assertEquals(19, rest.deleted());
+            Assertions.assertEquals(39, deleted.get());
+            Assertions.assertTrue(maxRunning.get() <= 8, maxRunning.toString());
+            // 20 и 19 удалений по 20 мс подряд заняли бы 400 мс и больше
+            Assertions.assertTrue(own.elapsed().plus(rest.elapsed()).toMillis() < 400, own + " " + rest);
+            Assertions.assertEquals(0, reaper.pending());
+        }
+    }
+
+    @Test
+    void leftoversOfTheStandInsAreDeletedAndOrphansSwept() throws Exception {
+        try (ImgurStubServer imgurStub = TestFixtures.imgur();
+             VkStubServer vkStub = VkStubServer.start(0);
+             ConnectionPool pool = TestFixtures.pool(8);
+             ResourceReaper reaper = new ResourceReaper("test", 4)) {
+            ImgurClient plain = ImgurClient.create(imgurStub.baseUrl(), "test", pool);
+            ImgurClient imgur = plain.withReaper(reaper);
+            String album = imgur.createAlbum("leak", null, null).fields(CREATED).getString("data.id");
+            String image = imgur.uploadImage("https://example.com/a.png", "a.png", "leak").fields(CREATED).getString("data.id");
+            String deleted = imgur.uploadImage("https://example.com/b.png", "b.png", "kept").fields(CREATED).getString("data.id");
+            imgur.deleteImage(deleted);
+            VkClient vk = VkClient.create(vkStub.baseUrl(), "test", "5.131", pool).withReaper(reaper);
+            vk.photosCreateAlbum("leak").fields(VK_ALBUM).getString("response.id");
+            Assertions.assertEquals(3, reaper.pending());
+
+            ResourceReaper.Summary summary = reaper.reap();
+            Assertions.assertEquals(3, summary.deleted(), summary.toString());
+            Assertions.assertEquals(404, plain.getAlbum(album).statusCode());
+            Assertions.assertEquals(404, plain.getImage(image).statusCode());
+            Assertions.assertEquals(0, vk.photosGetAlbums().fields(VK_COUNT).getInt("response.count"));
+
+            for (int i = 0; i < 60; i++) {
+                plain.createAlbum(i % 3 == 0 ? "keep" : "orphan", null, null);
+            }
+            ResourceReaper.Summary swept = reaper.sweep("imgur album", plain.albums("me", 2, "id", "title"),
+                    item -> "orphan".equals(item.getString("title")),
+                    item -> () -> ImgurClient.gone(plain.deleteAlbum(item.getString("id"))));
+            Assertions.assertEquals(40, swept.deleted(), swept.toString());
+            Assertions.assertEquals(20, plain.albums("me", 0, "title").stream()
+                    .filter(item -> "keep".equals(item.getString("title"))).count());
+        }
+    }
+}
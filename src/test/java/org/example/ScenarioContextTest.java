@@ -0,0 +1,79 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ScenarioContextTest {
+    static final ScenarioContext.Key<String> ALBUM = ScenarioContext.key("album", String.class);
+    static final ScenarioContext.Key<Integer> COUNT = ScenarioContext.key("count", Integer.class);
+
+    @Test
+    void typedValues() {
+        ScenarioContext context = new ScenarioContext("typed");
+        Assertions.assertNull(context.get(ALBUM));
+        IllegalStateException missing = Assertions.assertThrows(IllegalStateException.class, () -> context.require(ALBUM));
+        Assertions.assertEquals("album is not set in typed", missing.getMessage());
+
+        context.put(ALBUM, "abc");
+        context.put(COUNT, 2);
+        Assertions.assertFalse(context.putIfAbsent(COUNT, 3));
+        Assertions.assertEquals("abc", context.require(ALBUM));
+        Assertions.assertEquals(2, context.require(COUNT));
+    }
+
+    @Test
+    void lifecyclesRunSideBySide() throws Exception {
+        int lifecycles = 64;
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<ScenarioContext>> results = new ArrayList<>();
+            for (int i = 0; i < lifecycles; i++) {
+                String id = "album-" + i;
+                results.add(pool.submit(() -> {
+                    ScenarioContext context = new ScenarioContext(id);
+                    context.put(ALBUM, id);
+                    for (int n = 1; n <= 1000; n++) {
+                        context.put(COUNT, n);
+                        Assertions.assertEquals(id, context.require(ALBUM));
+                    }
+                    return context;
+                }));
+            }
+            for (int i = 0; i < lifecycles; i++) {
+                ScenarioContext context = results.get(i).get();
+                Assertions.assertEquals("album-" + i, context.require(ALBUM));
+                Assertions.assertEquals(1000, context.require(COUNT));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void persistsSnapshotInBackground(@TempDir Path dir) throws IOException {
+        ScenarioContext context = new ScenarioContext("Test Imgur/1");
+        context.put(ALBUM, "abc");
+        context.put(COUNT, 5);
+
+        Path file = context.persistAsync(dir).join();
+        Properties written = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            written.load(in);
+        }
+        Assertions.assertEquals("Test_Imgur_1.properties", file.getFileName().toString());
+        Assertions.assertEquals("abc", written.getProperty("album"));
+        Assertions.assertEquals("5", written.getProperty("count"));
+    }
+}
@@ -0,0 +1,112 @@
+package org.example;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+public class SoakMonitorTest {
+    static final JsonFields CREATED = JsonFields.compile("data.id");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void steadyGrowthIsTrendNoiseIsNot() {
+        Random random = new Random(1);
+        double[] leaking = new double[60];
+        double[] noisy = new double[60];
+        for (int i = 0; i < leaking.length; i++) {
+            // рост на 0.5 МБ за окно тонет в шуме ±5 МБ, но тренд всё равно виден
+            leaking[i] = 100 + i * 0.5 + random.nextGaussian() * 5;
+            noisy[i] = 100 + random.nextGaussian() * 20;
+        }
+        Assertions.assertTrue(SoakMonitor.trend(leaking) >= SoakMonitor.TREND, String.valueOf(SoakMonitor.trend(leaking)));
+        Assertions.assertTrue(SoakMonitor.growth(leaking) >= 0.1);
+        Assertions.assertTrue(Math.abs(SoakMonitor.trend(noisy)) < SoakMonitor.TREND);
+        Assertions.assertEquals(1, SoakMonitor.trend(new double[]{1, 2, 3, 4}));
+        Assertions.assertEquals(0, SoakMonitor.trend(new double[]{5, 5, 5, 5}));
+    }
+
+    @Test
+    void failingGaugeDoesNotStopTheWindows() throws Exception {
+        AtomicLong samples = new AtomicLong();
+        SoakMonitor soak = new SoakMonitor(Duration.ofMillis(50), 0, null, null)
+                .gauge("flaky", () -> {
+                    if (samples.incrementAndGet() == 2) {
+                        throw new IllegalStateException("gauge failed");
+                    }
+                    return samples.get();
+                })
+                .start();
+        Thread.sleep(400);
+        soak.close();
+
+        List<SoakMonitor.Window> windows = soak.windows();
+        // после сбоя во втором окне замеры идут дальше
+        Assertions.assertTrue(windows.size() >= 5, windows.toString());
+        Assertions.assertEquals(1, windows.get(0).gauge(0));
+        Assertions.assertEquals(-1, windows.get(1).gauge(0));
+        Assertions.assertEquals(3, windows.get(2).gauge(0));
+    }
+
+    @Test
+    void callsAreRecordedPerWindowAndAsFlightRecorderEvents() throws Exception {
+        Path recording = dir.resolve("soak.jfr");
+        AtomicLong growing = new AtomicLong();
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool()) {
+            SoakMonitor soak = new SoakMonitor(Duration.ofMillis(150), 1, recording, null)
+                    .gauge("growing", growing::incrementAndGet)
+                    .gauge("flat", () -> 7)
+                    .start();
+            ImgurClient imgur = new ImgurClient(new SoakTransport(new RestAssuredTransport(pool, server.baseUrl(),
+                    Collections.singletonMap("Authorization", "Bearer test")), soak));
+            String id = imgur.createAlbum("soak", "monitored", null).fields(CREATED).getString("data.id");
+            int calls = 1;
+            long end = System.nanoTime() + Duration.ofMillis(1300).toNanos();
+            while (System.nanoTime() < end) {
+                imgur.getAlbum(id);
+                calls++;
+            }
+            Assertions.assertEquals(404, imgur.getAlbum("missing").statusCode());
+            calls++;
+            Thread.sleep(200);
+            soak.close();
+
+            List<SoakMonitor.Window> windows = soak.windows();
+            Assertions.assertTrue(windows.size() >= 7, windows.toString());
+            long counted = 0;
+            long errors = 0;
+            for (SoakMonitor.Window window : windows) {
+                counted += window.calls();
+                errors += window.errors();
+            }
+            Assertions.assertEquals(calls, counted);
+            Assertions.assertEquals(1, errors);
+            String summary = soak.summary();
+            Assertions.assertTrue(Pattern.compile("(?m)^ *growing .*SUSPECTED LEAK$").matcher(summary).find(), summary);
+            Assertions.assertTrue(Pattern.compile("(?m)^ *flat .* stable$").matcher(summary).find(), summary);
+
+            int events = 0;
+            for (RecordedEvent event : RecordingFile.readAllEvents(recording)) {
+                if ("org.example.ApiCall".equals(event.getEventType().getName())) {
+                    events++;
+                    Assertions.assertTrue(event.getString("endpoint").contains("/album"), event.toString());
+                    Assertions.assertTrue(event.getLong("bytesSent") > 0, event.toString());
+                    Assertions.assertFalse(event.getDuration().isNegative());
+                }
+            }
+            Assertions.assertEquals(calls, events);
+        }
+    }
+}
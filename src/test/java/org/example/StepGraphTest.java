@@ -0,0 +1,87 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class StepGraphTest {
+    static final ScenarioContext.Key<String> ALBUM = ScenarioContext.key("album", String.class);
+    static final ScenarioContext.Key<String> IMAGE = ScenarioContext.key("image", String.class);
+    static final ScenarioContext.Key<String> UNUSED = ScenarioContext.key("unused", String.class);
+    static final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterAll
+    static void shutDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void independentStepsOverlap() throws Exception {
+        // both uploads wait for each other, so they only finish if they run at the same time
+        CountDownLatch uploads = new CountDownLatch(2);
+        StepGraph graph = StepGraph.builder()
+                .step("addImage").consumes(ALBUM, IMAGE).run(c -> Assertions.assertEquals("a", c.require(ALBUM)))
+                .step("createAlbum").produces(ALBUM).run(c -> {
+                    uploads.countDown();
+                    Assertions.assertTrue(uploads.await(5, TimeUnit.SECONDS));
+                    Thread.sleep(50);
+                    c.put(ALBUM, "a");
+                })
+                .step("uploadImage").produces(IMAGE).run(c -> {
+                    uploads.countDown();
+                    Assertions.assertTrue(uploads.await(5, TimeUnit.SECONDS));
+                    Thread.sleep(100);
+                    c.put(IMAGE, "i");
+                })
+                .build();
+
+        StepGraph.Result result = graph.run(new ScenarioContext("overlap"), executor);
+
+        result.rethrow();
+        Assertions.assertTrue(result.succeeded());
+        Assertions.assertEquals(Arrays.asList("createAlbum", "uploadImage", "addImage"), graph.stepNames());
+        Assertions.assertEquals(Arrays.asList("uploadImage", "addImage"), result.criticalPath());
+        Assertions.assertTrue(result.wallNanos() < result.serialNanos(), result.toString());
+    }
+
+    @Test
+    void failureSkipsDependents() throws Exception {
+        StepGraph graph = StepGraph.builder()
+                .step("createAlbum").produces(ALBUM).run(c -> {
+                    throw new IllegalStateException("HTTP 500");
+                })
+                .step("deleteAlbum").consumes(ALBUM).run(c -> Assertions.fail("must not run"))
+                .step("uploadImage").produces(IMAGE).run(c -> c.put(IMAGE, "i"))
+                .step("forgetsImage").after("uploadImage").produces(UNUSED).run(c -> { })
+                .build();
+
+        StepGraph.Result result = graph.run(new ScenarioContext("failure"), executor);
+
+        Assertions.assertEquals(StepGraph.Status.FAILED, result.status("createAlbum"));
+        Assertions.assertEquals(StepGraph.Status.SKIPPED, result.status("deleteAlbum"));
+        Assertions.assertEquals(StepGraph.Status.SUCCEEDED, result.status("uploadImage"));
+        Assertions.assertEquals(StepGraph.Status.FAILED, result.status("forgetsImage"));
+        Assertions.assertEquals("forgetsImage did not produce unused", result.error("forgetsImage").getMessage());
+        Assertions.assertThrows(IllegalStateException.class, result::rethrow);
+    }
+
+    @Test
+    void rejectsInvalidGraphs() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> StepGraph.builder()
+                .step("a").consumes(ALBUM).produces(IMAGE).run(c -> { })
+                .step("b").consumes(IMAGE).produces(ALBUM).run(c -> { })
+                .build());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> StepGraph.builder()
+                .step("a").after("missing").run(c -> { })
+                .build());
+
+        StepGraph external = StepGraph.builder().step("a").consumes(ALBUM).run(c -> { }).build();
+        Assertions.assertThrows(IllegalStateException.class, () -> external.run(new ScenarioContext("empty"), executor));
+    }
+}
@@ -0,0 +1,29 @@
+package org.example;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Общие заготовки тестов со стендами: пул соединений и стенд Imgur с аккаунтом по умолчанию.
+ */
+final class TestFixtures {
+    static final String STUB_USER = "stub-user";
+
+    private TestFixtures() {
+    }
+
+    static ConnectionPool pool() {
+        return pool(4);
+    }
+
+    /**
+     * Пул на {@code connections} соединений к одному хосту с таймаутами, которых хватает любому тесту.
+     */
+    static ConnectionPool pool(int connections) {
+        return new ConnectionPool(connections, connections, Duration.ofSeconds(30), Duration.ofSeconds(5), Duration.ofSeconds(30));
+    }
+
+    static ImgurStubServer imgur() throws IOException {
+        return ImgurStubServer.start(0, STUB_USER);
+    }
+}
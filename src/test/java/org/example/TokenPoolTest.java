@@ -0,0 +1,99 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenPoolTest {
+    static final JsonFields ACCOUNT = JsonFields.compile("data.url");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void leasesRotateAndSkipThrottledAccounts() throws Exception {
+        Path file = dir.resolve("tokens.properties");
+        Files.write(file, Arrays.asList("a.accessToken=ta", "b.accessToken=tb", "b.userName=bob", "c.refreshToken=rc"));
+        List<TokenPool.Account> accounts = TokenPool.load(file);
+        Assertions.assertEquals("bob", accounts.get(1).userName());
+
+        TokenPool roundRobin = new TokenPool(accounts, false, Duration.ofMillis(200), null);
+        Assertions.assertEquals("a", roundRobin.lease().account().name());
+        Assertions.assertEquals("b", roundRobin.lease().account().name());
+        Assertions.assertEquals("c", roundRobin.lease().account().name());
+        TokenPool.Lease fourth = roundRobin.lease();
+        Assertions.assertEquals("a", fourth.account().name());
+
+        // после close у a одна сессия, у b и c по одной — выбирается a, пока её не притормозили
+        TokenPool leastLoaded = new TokenPool(TokenPool.load(file), true, Duration.ofMillis(200), null);
+        TokenPool.Lease a = leastLoaded.lease();
+        leastLoaded.lease();
+        leastLoaded.lease();
+        a.close();
+        Assertions.assertEquals("a", leastLoaded.lease().account().name());
+        leastLoaded.accounts().get(0).throttled(null);
+        leastLoaded.accounts().get(1).throttled(null);
+        Assertions.assertEquals("c", leastLoaded.lease().account().name());
+
+        for (TokenPool.Account account : leastLoaded.accounts()) {
+            account.throttled(null);
+        }
+        long start = System.nanoTime();
+        leastLoaded.lease();
+        Assertions.assertTrue(System.nanoTime() - start >= Duration.ofMillis(150).toNanos());
+    }
+
+    @Test
+    void tokensAreRefreshedAndThrottlingCoolsTheAccountDown() throws Exception {
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool()) {
+            server.registerRefreshToken("refresh-alice", "alice");
+            Transport http = new RestAssuredTransport(pool, server.baseUrl(), Collections.emptyMap());
+            TokenPool tokens = new TokenPool(Collections.singletonList(
+                    new TokenPool.Account("alice", "alice", null, "refresh-alice", null)), false, Duration.ofSeconds(1),
+                    ImgurClient.refresher(http, server.baseUrl(), "client", "secret"));
+            TokenPool.Account alice = tokens.lease().account();
+            ImgurClient imgur = new ImgurClient(new TokenTransport(http, alice));
+
+            Assertions.assertEquals("alice", imgur.getAccount("me").fields(ACCOUNT).getString("data.url"));
+            Assertions.assertEquals(1, alice.refreshes());
+            String first = alice.token();
+            server.revokeToken(first);
+            Assertions.assertEquals(200, imgur.getAccount("me").statusCode());
+            Assertions.assertEquals(2, alice.refreshes());
+            Assertions.assertNotEquals(first, alice.token());
+
+            server.limitCalls(3);
+            int throttled = 0;
+            for (int i = 0; i < 10; i++) {
+                throttled += imgur.getAccount("me").statusCode() == 429 ? 1 : 0;
+            }
+            Assertions.assertTrue(throttled > 0);
+            Assertions.assertEquals(throttled, alice.throttles());
+            Assertions.assertTrue(alice.coolingDown(), tokens.toString());
+        }
+    }
+
+    @Test
+    void accountWithoutATokenFailsBeforeSending() {
+        AtomicInteger sent = new AtomicInteger();
+        TokenTransport transport = new TokenTransport(request -> {
+            sent.incrementAndGet();
+            throw new AssertionError("sent " + request.headers);
+        }, new TokenPool.Account("bob", "bob", null, null, null));
+        IllegalStateException error = Assertions.assertThrows(IllegalStateException.class,
+                () -> transport.execute(ApiRequest.to(ImgurClient.ALBUM).path("albumHash", "x")));
+        Assertions.assertTrue(error.getMessage().contains("bob"), error.getMessage());
+        Assertions.assertTrue(transport.executeAsync(ApiRequest.to(ImgurClient.ALBUM).path("albumHash", "x"))
+                .isCompletedExceptionally());
+        Assertions.assertEquals(0, sent.get());
+    }
+}
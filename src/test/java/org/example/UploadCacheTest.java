@@ -0,0 +1,102 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class UploadCacheTest {
+    static final JsonFields UPLOADED = JsonFields.compile("data.id", "data.deletehash");
+    static final String URL = "https://gbcdn.mrgcdn.ru/uploads/asset/3557307/attachment/8deb781065b68df6f3ce74364c90894f.png";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void repeatedUploadsReuseTheRemoteImageAcrossRuns() throws Exception {
+        Path index = dir.resolve("uploads.properties");
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool()) {
+            ImgurClient plain = ImgurClient.create(server.baseUrl(), "test", pool);
+            String first;
+            try (UploadCache uploads = new UploadCache(index, Duration.ZERO)) {
+                ImgurClient imgur = plain.withUploadCache(uploads);
+                first = imgur.uploadImage(URL, "a.png", "GB").fields(UPLOADED).getString("data.id");
+                ApiResponse again = imgur.uploadImage(URL.replace("https://gbcdn.mrgcdn.ru", "HTTPS://GBCDN.mrgcdn.ru:443") + "#top",
+                        "b.png", "GB");
+                Assertions.assertEquals("hit", again.header("X-Upload-Cache"));
+                Assertions.assertEquals(first, again.fields(UPLOADED).getString("data.id"));
+                Assertions.assertTrue(imgur.isCachedUpload(first));
+                Assertions.assertEquals(1, uploads.hits());
+                Assertions.assertEquals(1, uploads.misses());
+                Assertions.assertTrue(uploads.bytesSaved() > 0, uploads.toString());
+
+                // картинку, которую будут менять, клиент без кэша загружает заново
+                String own = imgur.withoutUploadCache().uploadImage(URL, "c.png", "GB").fields(UPLOADED).getString("data.id");
+                Assertions.assertNotEquals(first, own);
+                Assertions.assertFalse(imgur.isCachedUpload(own));
+                Assertions.assertEquals(1, uploads.misses());
+            }
+
+            // новый запуск берёт картинку из индекса, пока она есть на сервере
+            try (UploadCache uploads = new UploadCache(index, Duration.ZERO)) {
+                ImgurClient imgur = plain.withUploadCache(uploads);
+                Assertions.assertEquals(first, imgur.uploadImage(URL, "a.png", "GB").fields(UPLOADED).getString("data.id"));
+                Assertions.assertEquals(200, plain.deleteImage(first).statusCode());
+                String second = imgur.uploadImage(URL, "a.png", "GB").fields(UPLOADED).getString("data.id");
+                Assertions.assertNotEquals(first, second);
+                Assertions.assertEquals(1, uploads.stale());
+
+                imgur.deleteImage(second);
+                Assertions.assertFalse(imgur.isCachedUpload(second));
+                Assertions.assertEquals(0, uploads.size());
+            }
+        }
+    }
+
+    @Test
+    void concurrentUploadsOfTheSameBytesShareOneRequest() throws Exception {
+        Path image = dir.resolve("image.jpg");
+        byte[] bytes = new byte[200_000];
+        new Random(1).nextBytes(bytes);
+        Files.write(image, bytes);
+
+        try (ImgurStubServer server = TestFixtures.imgur();
+             ConnectionPool pool = TestFixtures.pool(16);
+             UploadCache uploads = new UploadCache(dir.resolve("uploads.properties"), Duration.ofMinutes(1))) {
+            Transport http = new RestAssuredTransport(pool, server.baseUrl(), Collections.singletonMap("Authorization", "Bearer test"));
+            AtomicInteger sent = new AtomicInteger();
+            ImgurClient imgur = new ImgurClient(request -> {
+                if (request.endpoint() == ImgurClient.UPLOAD) {
+                    sent.incrementAndGet();
+                }
+                return http.execute(request);
+            }).withUploadCache(uploads);
+            Assertions.assertEquals(UploadCache.contentKey(ByteBuffer.wrap(bytes)), uploads.contentKey(image));
+
+            ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("upload-test");
+            List<Future<String>> ids = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                ids.add(executor.submit(() -> imgur.uploadImage(image, "image.jpg", "GB").fields(UPLOADED).getString("data.id")));
+            }
+            for (Future<String> id : ids) {
+                Assertions.assertEquals(ids.get(0).get(), id.get());
+            }
+            executor.shutdown();
+            Assertions.assertEquals(1, sent.get());
+            Assertions.assertEquals(15, uploads.hits());
+            Assertions.assertEquals(15L * bytes.length, uploads.bytesSaved());
+        }
+    }
+}
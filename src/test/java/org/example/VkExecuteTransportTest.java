@@ -0,0 +1,162 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class VkExecuteTransportTest {
+    static final JsonFields PHOTOS = JsonFields.compile("response.count", "error.error_code", "error.request_params[0].value");
+    static final JsonFields ALBUMS = JsonFields.compile("response.count");
+
+    @Test
+    void batchSendsUpTo25CallsPerRequestAndKeepsErrorsApart() throws Exception {
+        try (VkStubServer server = VkStubServer.start(0, 42);
+             ConnectionPool pool = TestFixtures.pool()) {
+            long album = server.seedAlbum("seeded", 7);
+            AtomicInteger sent = new AtomicInteger();
+            VkClient vk = counting(server, pool, sent);
+
+            List<CompletableFuture<ApiResponse>> photos = new ArrayList<>();
+            try (VkClient.Batch batch = vk.batch()) {
+                for (int i = 0; i < 30; i++) {
+                    // каждый пятый запрос — в чужой альбом
+                    String albumId = String.valueOf(i % 5 == 0 ? -1 : album);
+                    photos.add(batch.submit(client -> client.photosGet("42", albumId, false)));
+                }
+            }
+            Assertions.assertEquals(2, sent.get());
+            for (int i = 0; i < photos.size(); i++) {
+                JsonFields.Values values = photos.get(i).get().fields(PHOTOS);
+                if (i % 5 == 0) {
+                    Assertions.assertEquals(200, values.getInt("error.error_code"), values.toString());
+                    Assertions.assertEquals("photos.get", values.getString("error.request_params[0].value"));
+                } else {
+                    Assertions.assertEquals(7, values.getInt("response.count"), values.toString());
+                }
+            }
+
+            // вызовы, зависящие друг от друга, уходят волнами
+            sent.set(0);
+            try (VkClient.Batch batch = vk.batch()) {
+                for (int i = 0; i < 3; i++) {
+                    batch.submit(client -> client.photosGetAlbums(0, 10).fields(ALBUMS).getInt("response.count")
+                            + client.photosGetAlbums(0, 10).fields(ALBUMS).getInt("response.count"));
+                }
+            }
+            Assertions.assertEquals(2, sent.get());
+        }
+    }
+
+    @Test
+    void windowCoalescesConcurrentCallers() throws Exception {
+        try (VkStubServer server = VkStubServer.start(0, 42);
+             ConnectionPool pool = TestFixtures.pool()) {
+            server.seedAlbum("seeded", 3);
+            AtomicInteger sent = new AtomicInteger();
+            VkExecuteTransport execute = new VkExecuteTransport(request -> {
+                sent.incrementAndGet();
+                return http(server, pool).execute(request);
+            }, Duration.ofMillis(300));
+            VkClient vk = new VkClient(execute, "5.131");
+
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("execute-test");
+            List<Future<Integer>> counts = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                counts.add(executor.submit(() -> {
+                    start.await();
+                    return vk.photosGetAlbums().fields(ALBUMS).getInt("response.count");
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> count : counts) {
+                Assertions.assertEquals(1, count.get());
+            }
+            executor.shutdown();
+            Assertions.assertEquals(10, execute.calls());
+            Assertions.assertTrue(sent.get() <= 2, execute.toString());
+        }
+    }
+
+    @Test
+    void interruptedLeaderSendsItsFollowersOn() throws Exception {
+        List<ApiRequest> sent = Collections.synchronizedList(new ArrayList<>());
+        VkExecuteTransport execute = new VkExecuteTransport(request -> {
+            sent.add(request);
+            return new ApiResponse(200, Collections.emptyMap(), ByteBuffer.wrap("{\"response\":{\"count\":1}}".getBytes(StandardCharsets.UTF_8)));
+        }, Duration.ofSeconds(30));
+        VkClient vk = new VkClient(execute, "5.131");
+
+        CompletableFuture<Throwable> leaderFailure = new CompletableFuture<>();
+        Thread leader = new Thread(() -> {
+            try {
+                vk.photosGetAlbums();
+                leaderFailure.complete(null);
+            } catch (RuntimeException e) {
+                leaderFailure.complete(Thread.currentThread().isInterrupted() ? e : new AssertionError("interrupt lost", e));
+            }
+        });
+        leader.setDaemon(true);
+        leader.start();
+        while (leader.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(5);
+        }
+        CompletableFuture<ApiResponse> follower = CompletableFuture.supplyAsync(vk::photosGetAlbums, VirtualThreads.shared());
+        // последователь встаёт в очередь к лидеру и ждёт окна
+        Thread.sleep(200);
+        Assertions.assertFalse(follower.isDone());
+        leader.interrupt();
+
+        // без лидера последователь не ждёт окно в 30 с
+        Throwable failure = leaderFailure.get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(failure instanceof IllegalStateException, String.valueOf(failure));
+        Assertions.assertEquals(1, follower.get(5, TimeUnit.SECONDS).fields(ALBUMS).getInt("response.count"));
+        Assertions.assertEquals(1, sent.size());
+        Assertions.assertEquals("/photos.getAlbums", sent.get(0).endpoint().template());
+    }
+
+    @Test
+    void stubRejectsScriptsItCannotRun() throws Exception {
+        try (VkStubServer server = VkStubServer.start(0, 42);
+             ConnectionPool pool = TestFixtures.pool()) {
+            Transport http = http(server, pool);
+            JsonFields error = JsonFields.compile("error.error_code");
+            Assertions.assertEquals(12, http.execute(ApiRequest.to(VkClient.EXECUTE).query("v", "5.131")
+                    .form("code", "var a = API.photos.getAlbums({});")).fields(error).getInt("error.error_code"));
+            ApiResponse badEscape = http.execute(ApiRequest.to(VkClient.EXECUTE).query("v", "5.131")
+                    .form("code", "return [API.photos.createAlbum({\"title\":\"\\uZZ12\"})];"));
+            Assertions.assertEquals(200, badEscape.statusCode());
+            Assertions.assertEquals(12, badEscape.fields(error).getInt("error.error_code"));
+            StringBuilder tooMany = new StringBuilder("return [");
+            for (int i = 0; i <= VkExecuteTransport.MAX_CALLS; i++) {
+                tooMany.append(i == 0 ? "" : ",").append("API.photos.getAlbums({})");
+            }
+            Assertions.assertEquals(13, http.execute(ApiRequest.to(VkClient.EXECUTE).query("v", "5.131")
+                    .form("code", tooMany.append("];"))).fields(error).getInt("error.error_code"));
+        }
+    }
+
+    private static VkClient counting(VkStubServer server, ConnectionPool pool, AtomicInteger sent) {
+        Transport http = http(server, pool);
+        return new VkClient(request -> {
+            sent.incrementAndGet();
+            return http.execute(request);
+        }, "5.131");
+    }
+
+    private static Transport http(VkStubServer server, ConnectionPool pool) {
+        return new RestAssuredTransport(pool, server.baseUrl(), Collections.singletonMap("Authorization", "Bearer test"));
+    }
+}